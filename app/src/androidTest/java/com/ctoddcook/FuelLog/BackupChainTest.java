@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.FuelLogBackup.BackupChain;
+import com.ctoddcook.FuelLogBackup.BackupXmlPipeline;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Takes a full backup and incremental backups of a database held in memory, as Handler_Backup
+ * does, and restores them into another: the restored data must match, including rows updated,
+ * added and deleted between the backups, and the incremental backups must hold only those rows.
+ * The rows the restore deletes are not recorded as deleted.
+ */
+public class BackupChainTest extends AndroidTestCase {
+    private static final int FILLS = 2000;
+    private static final String PREFIX = "chain";
+
+    private DatabaseHelper mHelper;
+    private SQLiteDatabase mDatabase;
+    private File mFolder;
+    private BackupChain mChain;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFolder = new File(getContext().getCacheDir(), "BackupChainTest");
+        assertTrue(mFolder.isDirectory() || mFolder.mkdirs());
+        for (File f : mFolder.listFiles())
+            assertTrue(f.delete());
+        mChain = new BackupChain(mFolder, PREFIX);
+
+        mHelper = new DatabaseHelper(getContext(), null);
+        mDatabase = mHelper.getWritableDatabase();
+
+        long then = System.currentTimeMillis() - 86400000L;
+        mDatabase.execSQL("INSERT INTO properties VALUES (1, 'user_allows_gps', 3, 'true', " +
+                then + ")");
+        mDatabase.execSQL("INSERT INTO vehicle VALUES (1, 'Civic', 2009, 'Blue', 'Honda', '', " +
+                "'', 'A', " + then + ")");
+        mDatabase.execSQL("INSERT INTO vehicle VALUES (2, 'Van', 2015, 'White', 'Ford', '', " +
+                "'', 'A', " + then + ")");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 1; i <= FILLS; i++)
+                mDatabase.execSQL("INSERT INTO fueling VALUES (" + i + ", " + (i % 2 + 1) + ", " +
+                        (then - i * 60000L) + ", 300.25, 11.5, 30.0, " + i + ", 'Omaha & Lincoln'," +
+                        " NULL, NULL, " + then + ", 'C')");
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        for (File f : mFolder.listFiles())
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        super.tearDown();
+    }
+
+    /**
+     * A full backup then two incremental ones, with changes between each, restore to the same
+     * data; each incremental backup holds only the changed and deleted rows.
+     * @throws Exception
+     */
+    public void testRestoreChain() throws Exception {
+        assertEquals(-1, mChain.getWatermark());
+        long full = backup(false);
+        assertEquals(full, mChain.getWatermark());
+
+        // Change some rows, add one, and delete some, including a vehicle and its fuelings
+        long now = System.currentTimeMillis();
+        mDatabase.execSQL("UPDATE fueling SET odometer = 99999, last_updated = " + now +
+                " WHERE _id IN (10, 20)");
+        mDatabase.execSQL("DELETE FROM fueling WHERE _id = 30");
+        mDatabase.execSQL("INSERT INTO fueling VALUES (" + (FILLS + 1) + ", 1, " + now +
+                ", 1, 1, 1, 1, NULL, NULL, NULL, " + now + ", 'C')");
+        BackupXmlPipeline.Metrics metrics = backupDelta(false);
+        assertEquals(2 + 1 + 1, metrics.rows);     // two changed, one added, one deleted
+
+        now = System.currentTimeMillis();
+        mDatabase.execSQL("UPDATE vehicle SET vehicle_color = 'Red', last_updated = " + now +
+                " WHERE _id = 1");
+        mDatabase.execSQL("DELETE FROM fueling WHERE vehicle_id = 2");
+        mDatabase.execSQL("DELETE FROM vehicle WHERE _id = 2");
+        metrics = backupDelta(true);
+        assertEquals(1 + FILLS / 2 + 1, metrics.rows);
+        assertEquals(2, mChain.getDeltas().length);
+
+        DatabaseHelper restored = new DatabaseHelper(getContext(), null);
+        try {
+            restored.restoreBackup(mChain, true);
+
+            // The rows the restore deleted are not recorded, but deletions are from now on
+            assertEquals(0, count(restored, "SELECT COUNT(*) FROM deleted_rows"));
+            assertTrue(DatabaseMap_Deletion.triggerExists(restored.getReadableDatabase(),
+                    DatabaseMap_Fueling.TABLE_NAME));
+            assertTrue(DatabaseMap_Deletion.triggerExists(restored.getReadableDatabase(),
+                    PropertyDataMap.TABLE_NAME));
+            assertEquals(1, count(restored, "SELECT COUNT(*) FROM vehicle"));
+            assertEquals(1, count(restored, "SELECT COUNT(*) FROM vehicle WHERE _id = 1 AND " +
+                    "vehicle_color = 'Red'"));
+            assertEquals(FILLS / 2, count(restored, "SELECT COUNT(*) FROM fueling"));
+            assertEquals(2, count(restored, "SELECT COUNT(*) FROM fueling WHERE " +
+                    "odometer = 99999"));
+            assertEquals(1, count(restored, "SELECT COUNT(*) FROM fueling WHERE _id = " +
+                    (FILLS + 1)));
+            assertEquals(0, count(restored, "SELECT COUNT(*) FROM fueling WHERE _id = 30"));
+            assertEquals(count(mHelper, "SELECT TOTAL(odometer) FROM fueling"),
+                    count(restored, "SELECT TOTAL(odometer) FROM fueling"));
+            assertEquals(1, count(restored, "SELECT COUNT(*) FROM properties"));
+        } finally {
+            restored.close();
+        }
+    }
+
+    /**
+     * A fueling edited before a backup, but saved after it, is in the next incremental backup:
+     * its row holds the time it was saved, not the time it was edited.
+     * @throws Exception
+     */
+    public void testEditSavedAfterBackup() throws Exception {
+        Model_Fueling fd = mHelper.fetchFueling(10);
+        fd.setOdometer(99999f);
+        backup(false);
+
+        assertTrue(mHelper.updateFueling(fd));
+        assertTrue(fd.getLastUpdated().getTime() >= mChain.getWatermark());
+        assertEquals(1, backupDelta(false).rows);
+
+        DatabaseHelper restored = new DatabaseHelper(getContext(), null);
+        try {
+            restored.restoreBackup(mChain, true);
+            assertEquals(99999f, restored.fetchFueling(10).getOdometer(), 0f);
+        } finally {
+            restored.close();
+        }
+    }
+
+    /**
+     * A new full backup removes the incremental backups, and a chain with one of its incremental
+     * backups missing is refused.
+     * @throws Exception
+     */
+    public void testBrokenChain() throws Exception {
+        backup(false);
+        backupDelta(false);
+        backupDelta(false);
+        assertEquals(2, mChain.getDeltas().length);
+
+        File first = mChain.getDeltas()[0];
+        assertTrue(first.delete());
+        DatabaseHelper restored = new DatabaseHelper(getContext(), null);
+        try {
+            mChain.restore(restored);
+            fail("Expected an IOException for a missing incremental backup");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            restored.close();
+        }
+
+        backup(true);
+        assertEquals(0, mChain.getDeltas().length);
+        assertTrue(mChain.getBase().getName().endsWith(".gz"));
+    }
+
+    /*
+     * Takes a full backup, starting a new chain as Handler_Backup does, and returns its
+     * watermark. Waits first, so
+     * that rows changed just before have times before the watermark.
+     */
+    private long backup(boolean compressed) throws Exception {
+        Thread.sleep(2);
+        long until = System.currentTimeMillis();
+        BackupXmlPipeline pipeline = BackupXmlPipeline.getInstance(mHelper,
+                mChain.newBaseFile(compressed));
+        pipeline.setCompressed(compressed);
+        pipeline.setWatermark(until);
+        addTables(pipeline);
+        pipeline.encodeDatabase();
+        assertTrue(mChain.deleteDeltas());
+        mHelper.purgeDeletionsBefore(until);
+        return until;
+    }
+
+    /* Takes an incremental backup from the last backup's watermark */
+    private BackupXmlPipeline.Metrics backupDelta(boolean compressed) throws Exception {
+        Thread.sleep(2);
+        long since = mChain.getWatermark();
+        assertTrue(since >= 0);
+
+        BackupXmlPipeline pipeline = BackupXmlPipeline.getInstance(mHelper,
+                mChain.newDeltaFile(compressed));
+        pipeline.setCompressed(compressed);
+        pipeline.setWatermark(System.currentTimeMillis());
+        pipeline.setChangedSince(since);
+        pipeline.addTable(DatabaseMap_Deletion.TABLE_NAME, DatabaseMap_Deletion._ID);
+        addTables(pipeline);
+        return pipeline.encodeDatabase();
+    }
+
+    private static void addTables(BackupXmlPipeline pipeline) {
+        pipeline.addTable(PropertyDataMap.TABLE_NAME, PropertyDataMap._ID);
+        pipeline.addTable(DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Vehicle._ID);
+        pipeline.addTable(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID);
+    }
+
+    private static long count(DatabaseHelper helper, String sql) {
+        Cursor c = helper.getReadableDatabase().rawQuery(sql, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+}
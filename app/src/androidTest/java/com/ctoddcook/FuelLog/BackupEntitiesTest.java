@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.FuelLogBackup.BackupEntities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Backs up a database held in memory as FuelLogBackupAgent does, through a fake of the backup
+ * transport which keeps the entities in a map, and restores them into another. Only changed
+ * tables are written again, and chunks no longer needed are deleted.
+ */
+public class BackupEntitiesTest extends AndroidTestCase {
+    private static final int FILLS = 1234;
+    private static final long NOW = 1478300000000L;
+
+    private DatabaseHelper mHelper;
+    private SQLiteDatabase mDatabase;
+    private FakeTransport mTransport;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTransport = new FakeTransport();
+        mHelper = new DatabaseHelper(getContext(), null);
+        mDatabase = mHelper.getWritableDatabase();
+
+        mDatabase.execSQL("INSERT INTO properties VALUES (1, 'user_allows_gps', 3, 'true', " +
+                NOW + ")");
+        mDatabase.execSQL("INSERT INTO vehicle VALUES (1, 'Civic', 2009, 'Blue', 'Honda', '', " +
+                "'', 'A', " + NOW + ")");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 1; i <= FILLS; i++)
+                mDatabase.execSQL("INSERT INTO fueling VALUES (" + i + ", 1, " +
+                        (NOW - i * 86400000L) + ", 300.25, 11.5, 30.0, " + (i * 301.5) + ", " +
+                        (i % 3 == 0 ? "NULL" : "'Omaha & Lincoln " + i + "'") +
+                        ", 41.2565, -95.934, " + NOW + ", 'C')");
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        super.tearDown();
+    }
+
+    /**
+     * Every table is written in chunks of no more than 500 rows, and restores to the same data,
+     * replacing what was there.
+     * @throws Exception
+     */
+    public void testRoundTrip() throws Exception {
+        BackupEntities.State state = getEntities(mHelper).backup(null, NOW, mTransport);
+
+        int chunks = (FILLS + 499) / 500;
+        assertEquals(chunks, state.getChunks(DatabaseMap_Fueling.TABLE_NAME));
+        assertEquals(1, state.getChunks(DatabaseMap_Vehicle.TABLE_NAME));
+        assertEquals(chunks + 2, mTransport.entities.size());
+        assertTrue(mTransport.entities.containsKey(
+                BackupEntities.getKey(DatabaseMap_Fueling.TABLE_NAME, chunks - 1)));
+        for (byte[] entity : mTransport.entities.values())
+            assertTrue("Entity of " + entity.length, entity.length < 64 * 1024);
+
+        DatabaseHelper restored = new DatabaseHelper(getContext(), null);
+        try {
+            SQLiteDatabase db = restored.getWritableDatabase();
+            db.execSQL("INSERT INTO fueling VALUES (99999, 1, 0, 1, 1, 1, 1, NULL, NULL, NULL, 0, " +
+                    "'C')");
+
+            BackupEntities.State after =
+                    getEntities(restored).restore(mTransport.reader(), NOW + 1);
+
+            for (String sql : new String[]{
+                    "SELECT COUNT(*) FROM fueling",
+                    "SELECT TOTAL(odometer) FROM fueling",
+                    "SELECT COUNT(*) FROM fueling WHERE location IS NULL",
+                    "SELECT COUNT(*) FROM fueling WHERE location = 'Omaha & Lincoln 7'",
+                    "SELECT MAX(last_updated) FROM fueling",
+                    "SELECT COUNT(*) FROM vehicle WHERE vehicle_name = 'Civic'",
+                    "SELECT COUNT(*) FROM properties"})
+                assertEquals(sql, count(mHelper, sql), count(restored, sql));
+            assertEquals(0, count(restored, "SELECT COUNT(*) FROM fueling WHERE _id = 99999"));
+
+            // Nothing has changed since the restore, so the next backup writes nothing
+            FakeTransport next = new FakeTransport();
+            getEntities(restored).backup(roundTrip(after), NOW + 1, next);
+            assertEquals(0, next.entities.size());
+            assertEquals(0, next.deleted.size());
+        } finally {
+            restored.close();
+        }
+    }
+
+    /**
+     * An unchanged table is not written again; a changed one is; every table is when the
+     * last modified time moves.
+     * @throws Exception
+     */
+    public void testOnlyChangedTables() throws Exception {
+        BackupEntities.State state = getEntities(mHelper).backup(null, NOW, mTransport);
+
+        FakeTransport next = new FakeTransport();
+        state = getEntities(mHelper).backup(roundTrip(state), NOW, next);
+        assertEquals(0, next.entities.size());
+
+        mDatabase.execSQL("UPDATE vehicle SET vehicle_color = 'Red', last_updated = " +
+                (NOW + 1000) + " WHERE _id = 1");
+        next = new FakeTransport();
+        state = getEntities(mHelper).backup(roundTrip(state), NOW, next);
+        assertEquals(1, next.entities.size());
+        assertTrue(next.entities.containsKey(
+                BackupEntities.getKey(DatabaseMap_Vehicle.TABLE_NAME, 0)));
+
+        next = new FakeTransport();
+        getEntities(mHelper).backup(roundTrip(state), NOW + 1, next);
+        assertEquals(mTransport.entities.size(), next.entities.size());
+    }
+
+    /**
+     * When a table shrinks, the chunks it no longer needs are deleted.
+     * @throws Exception
+     */
+    public void testDeletedChunks() throws Exception {
+        BackupEntities.State state = getEntities(mHelper).backup(null, NOW, mTransport);
+
+        mDatabase.execSQL("DELETE FROM fueling WHERE _id > 100");
+        FakeTransport next = new FakeTransport();
+        state = getEntities(mHelper).backup(roundTrip(state), NOW, next);
+
+        int chunks = (FILLS + 499) / 500;
+        assertEquals(1, state.getChunks(DatabaseMap_Fueling.TABLE_NAME));
+        assertEquals(1, next.entities.size());
+        assertEquals(chunks - 1, next.deleted.size());
+        assertTrue(next.deleted.contains(
+                BackupEntities.getKey(DatabaseMap_Fueling.TABLE_NAME, chunks - 1)));
+
+        // An emptied table still has a chunk, so restoring it empties the table
+        mDatabase.execSQL("DELETE FROM fueling");
+        next = new FakeTransport();
+        state = getEntities(mHelper).backup(roundTrip(state), NOW, next);
+        assertEquals(1, state.getChunks(DatabaseMap_Fueling.TABLE_NAME));
+        assertEquals(1, next.entities.size());
+    }
+
+    /**
+     * An unreadable state, such as the empty file of a first backup, means a full backup.
+     * @throws Exception
+     */
+    public void testEmptyState() throws Exception {
+        DataInputStream empty = new DataInputStream(new ByteArrayInputStream(new byte[0]));
+        assertNull(BackupEntities.State.read(empty));
+    }
+
+    private static BackupEntities getEntities(DatabaseHelper helper) {
+        BackupEntities entities = new BackupEntities(helper);
+        entities.addTable(PropertyDataMap.TABLE_NAME, PropertyDataMap._ID,
+                PropertyDataMap.COLUMN_NAMES, PropertyDataMap.COLUMN_KINDS);
+        entities.addTable(DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Vehicle._ID,
+                DatabaseMap_Vehicle.COLUMN_NAMES, DatabaseMap_Vehicle.COLUMN_KINDS);
+        entities.addTable(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID,
+                DatabaseMap_Fueling.COLUMN_NAMES, DatabaseMap_Fueling.COLUMN_KINDS);
+        return entities;
+    }
+
+    /* The state as the agent keeps it: written to a file, then read back */
+    private static BackupEntities.State roundTrip(BackupEntities.State state) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        state.write(new DataOutputStream(bytes));
+        return BackupEntities.State.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static long count(DatabaseHelper helper, String sql) {
+        Cursor c = helper.getReadableDatabase().rawQuery(sql, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    /* Stands in for the backup transport, holding entities by key in key order */
+    private static class FakeTransport implements BackupEntities.EntityOutput {
+        final TreeMap<String, byte[]> entities = new TreeMap<>();
+        final ArrayList<String> deleted = new ArrayList<>();
+
+        @Override
+        public void writeEntity(String key, byte[] data, int size) {
+            entities.put(key, Arrays.copyOf(data, size));
+        }
+
+        @Override
+        public void deleteEntity(String key) {
+            entities.remove(key);
+            deleted.add(key);
+        }
+
+        /* Reads the entities back, in small pieces, plus one which is not a chunk */
+        BackupEntities.EntityInput reader() {
+            final TreeMap<String, byte[]> all = new TreeMap<>(entities);
+            all.put("unknown_key", new byte[]{1, 2, 3});
+            final Iterator<Map.Entry<String, byte[]>> it = all.entrySet().iterator();
+
+            return new BackupEntities.EntityInput() {
+                Map.Entry<String, byte[]> mEntry;
+                int mRead;
+
+                @Override
+                public boolean readNextHeader() {
+                    mEntry = it.hasNext() ? it.next() : null;
+                    mRead = 0;
+                    return mEntry != null;
+                }
+
+                @Override
+                public String getKey() {
+                    return mEntry.getKey();
+                }
+
+                @Override
+                public int getDataSize() {
+                    return mEntry.getValue().length;
+                }
+
+                @Override
+                public int readEntityData(byte[] data, int offset, int size) {
+                    int n = Math.min(size, Math.min(4096, mEntry.getValue().length - mRead));
+                    System.arraycopy(mEntry.getValue(), mRead, data, offset, n);
+                    mRead += n;
+                    return n;
+                }
+
+                @Override
+                public void skipEntityData() {
+                    mRead = mEntry.getValue().length;
+                }
+            };
+        }
+    }
+}
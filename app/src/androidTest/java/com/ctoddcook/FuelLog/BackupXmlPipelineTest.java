@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.FuelLogBackup.BackupXmlPipeline;
+import com.ctoddcook.FuelLogBackup.XmlToDatabaseImporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Backs up a database held in memory with BackupXmlPipeline, and restores the file into another
+ * database, which must then hold exactly the same rows. There are enough fuelings for the reader
+ * to fill and reuse its chunks several times over, and for the file to take many blocks.
+ * Compressed, the file inflates to the same bytes.
+ */
+public class BackupXmlPipelineTest extends AndroidTestCase {
+    private static final int FILLS = 5321;
+    private static final long NOW = 1478300000000L;
+
+    private DatabaseHelper mHelper;
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHelper = new DatabaseHelper(getContext(), null);
+        mFile = File.createTempFile("pipeline", ".xml", getContext().getCacheDir());
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.execSQL("INSERT INTO properties VALUES (1, 'user_allows_gps', 3, 'true', " + NOW + ")");
+        db.execSQL("INSERT INTO vehicle VALUES (1, 'Civic & \"Van\"', 2009, 'Blue', 'Honda', " +
+                "'', '', 'A', " + NOW + ")");
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < FILLS; i++) {
+                db.execSQL("INSERT INTO fueling VALUES (" + (i * 3 + 1) + ", 1, " +
+                        (NOW - i * 86400000L) + ", 300.25, 11.5, 30.0, " + (i * 301.5) + ", " +
+                        (i % 4 == 0 ? "NULL" : "'Ben & Jerry''s <Omaha> " + i + "'") +
+                        ", 41.2565, -95.934, " + NOW + ", 'C')");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * The file the pipeline writes restores to the same rows, values and types included,
+     * progress is reported as the rows are encoded, and the metrics count every row and byte.
+     * @throws Exception
+     */
+    public void testRestoresSameRows() throws Exception {
+        BackupXmlPipeline pipeline = newPipeline();
+
+        final long[] progress = new long[2];
+        pipeline.setProgressListener(new BackupXmlPipeline.ProgressListener() {
+            @Override
+            public void onProgress(String tableName, long rowsEncoded, long bytesWritten) {
+                assertTrue(rowsEncoded >= progress[1]);
+                progress[0]++;
+                progress[1] = rowsEncoded;
+            }
+        });
+
+        BackupXmlPipeline.Metrics metrics = pipeline.encodeDatabase();
+
+        assertEquals(2 + FILLS, metrics.rows);
+        assertEquals(mFile.length(), metrics.bytes);
+        assertEquals(2 + FILLS, progress[1]);
+        assertTrue("Progress reports: " + progress[0], progress[0] > FILLS / 500);
+        assertRestoresSameRows();
+    }
+
+    /**
+     * Compressed, the file inflates to what is written uncompressed, is a small fraction of its
+     * size, and restores to the same rows.
+     * @throws Exception
+     */
+    public void testCompressed() throws Exception {
+        newPipeline().encodeDatabase();
+        byte[] expected = read(new FileInputStream(mFile));
+
+        BackupXmlPipeline pipeline = newPipeline();
+        pipeline.setCompressed(true);
+        BackupXmlPipeline.Metrics metrics = pipeline.encodeDatabase();
+
+        assertEquals(mFile.length(), metrics.bytes);
+        assertTrue("Compressed to " + mFile.length() + " of " + expected.length,
+                mFile.length() * 10 < expected.length);
+        byte[] inflated = read(new GZIPInputStream(new FileInputStream(mFile)));
+        assertTrue(Arrays.equals(expected, inflated));
+        assertRestoresSameRows();
+    }
+
+    /**
+     * A table which does not exist fails the backup, rather than leaving the pipeline waiting.
+     * @throws Exception
+     */
+    public void testMissingTable() throws Exception {
+        BackupXmlPipeline pipeline = BackupXmlPipeline.getInstance(mHelper, mFile);
+        pipeline.addTable(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID);
+        pipeline.addTable("no_such_table", "_id");
+
+        try {
+            pipeline.encodeDatabase();
+            fail("Expected an IOException for a missing table");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private BackupXmlPipeline newPipeline() {
+        BackupXmlPipeline pipeline = BackupXmlPipeline.getInstance(mHelper, mFile);
+        pipeline.addTable(PropertyDataMap.TABLE_NAME, PropertyDataMap._ID);
+        pipeline.addTable(DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Vehicle._ID);
+        pipeline.addTable(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID);
+        return pipeline;
+    }
+
+    /* Restores the file into a new database, and compares every table's rows with this one's */
+    private void assertRestoresSameRows() throws IOException {
+        DatabaseHelper restored = new DatabaseHelper(getContext(), null);
+        try {
+            assertEquals(2 + FILLS, XmlToDatabaseImporter.importData(restored, mFile, true));
+
+            for (String table : new String[]{PropertyDataMap.TABLE_NAME,
+                    DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Fueling.TABLE_NAME})
+                assertEquals(table, rows(mHelper, table), rows(restored, table));
+        } finally {
+            restored.close();
+        }
+    }
+
+    /* Every value of a table, with its type, in prime key order */
+    private static ArrayList<String> rows(DatabaseHelper helper, String table) {
+        ArrayList<String> rows = new ArrayList<>();
+        Cursor c = helper.getReadableDatabase().rawQuery("SELECT * FROM " + table +
+                " ORDER BY _id", null);
+        try {
+            while (c.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int col = 0; col < c.getColumnCount(); col++)
+                    row.append(c.getType(col)).append(':').append(c.getString(col)).append('|');
+                rows.add(row.toString());
+            }
+        } finally {
+            c.close();
+        }
+        return rows;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.test.AndroidTestCase;
+
+import com.ctoddcook.CamGenTools.DatabaseTuning;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs writers and readers against a database file at the same time: two threads insert
+ * fuelings one at a time, each in its own transaction, while three threads read totals and
+ * pages as the averages and list screens do. Checks that every read sees a whole, committed
+ * state, both with write-ahead logging and with the rollback journal.
+ */
+public class DatabaseConcurrencyTest extends AndroidTestCase {
+    private static final String DATABASE_NAME = "concurrency_test.db";
+    private static final int WRITERS = 2;
+    private static final int READERS = 3;
+    private static final int WRITES_PER_WRITER = 500;
+    private static final int EXISTING = 5000;
+    private static final int PAGE_SIZE = 50;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final DatabaseTuning ROLLBACK_JOURNAL = new DatabaseTuning(false,
+            DatabaseTuning.SYNCHRONOUS_FULL, 2048, 0);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * With write-ahead logging, readers running beside the writers never fail, never see a
+     * count go backwards or outside what has been written, and always get whole pages.
+     * @throws Exception
+     */
+    public void testWriteAheadLog() throws Exception {
+        run(DatabaseHelper.DEFAULT_TUNING);
+    }
+
+    /**
+     * The same holds with the rollback journal.
+     * @throws Exception
+     */
+    public void testRollbackJournal() throws Exception {
+        run(ROLLBACK_JOURNAL);
+    }
+
+    private void run(DatabaseTuning tuning) throws Exception {
+        final DatabaseHelper helper = new DatabaseHelper(getContext(), DATABASE_NAME, tuning);
+        try {
+            helper.insertFuelings(buildFills(EXISTING, 0));
+
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final AtomicLong reads = new AtomicLong();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+            ArrayList<Thread> threads = new ArrayList<>();
+
+            for (int w = 0; w < WRITERS; w++) {
+                final ArrayList<Model_Fueling> fills = buildFills(WRITES_PER_WRITER,
+                        EXISTING + w * WRITES_PER_WRITER);
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (Model_Fueling each : fills)
+                                helper.insertFueling(each);
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            writersDone.countDown();
+                        }
+                    }
+                });
+            }
+
+            for (int r = 0; r < READERS; r++) {
+                final boolean totals = r % 2 == 0;
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            int lastCount = EXISTING;
+                            do {
+                                if (totals) {
+                                    int count = helper.fetchSpanAggregates(1,
+                                            Model_Fueling.SPAN_ALL_TIME)[0].getCount();
+                                    assertTrue(count + " after " + lastCount, count >= lastCount);
+                                    assertTrue(count <= EXISTING + WRITERS * WRITES_PER_WRITER);
+                                    lastCount = count;
+                                } else {
+                                    ArrayList<Model_Fueling> page = helper.fetchFuelingPage(1,
+                                            Long.MAX_VALUE, Integer.MAX_VALUE, PAGE_SIZE);
+                                    assertEquals(PAGE_SIZE, page.size());
+                                    for (int i = 1; i < page.size(); i++)
+                                        assertFalse(page.get(i).getDateOfFill()
+                                                .after(page.get(i - 1).getDateOfFill()));
+                                }
+                                reads.incrementAndGet();
+                            } while (writing.get());
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    }
+                });
+            }
+
+            for (Thread each : threads)
+                each.start();
+            start.countDown();
+            writersDone.await();
+            writing.set(false);
+            for (Thread each : threads)
+                each.join();
+
+            if (failure.get() != null)
+                throw new AssertionError(failure.get());
+            assertTrue(reads.get() >= READERS);
+            assertEquals(EXISTING + WRITERS * WRITES_PER_WRITER, helper.fetchSpanAggregates(1,
+                    Model_Fueling.SPAN_ALL_TIME)[0].getCount());
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static ArrayList<Model_Fueling> buildFills(int count, int first) {
+        ArrayList<Model_Fueling> fills = new ArrayList<>(count);
+        long then = System.currentTimeMillis() - 10000 * DAY_MILLIS;
+
+        for (int i = first; i < first + count; i++) {
+            Model_Fueling fd = new Model_Fueling();
+            fd.setVehicleID(1);
+            fd.setDateOfFill(new Date(then + i * DAY_MILLIS / 4));
+            fd.setDistance(300f);
+            fd.setVolume(12f);
+            fd.setPricePaid(30f);
+            fd.setOdometer(i * 300f);
+            fd.setLocation("Omaha, NE");
+            fills.add(fd);
+        }
+
+        return fills;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.CamGenTools.SchemaMigration;
+import com.ctoddcook.CamGenTools.SchemaMigrator;
+
+/**
+ * Upgrades databases held in memory: a version 2 FuelLog database through every step to the
+ * current schema, and test tables through steps which fail or have rows to backfill.
+ */
+public class SchemaMigratorTest extends AndroidTestCase {
+    private static final long THEN = 1478300000000L;
+    private static final int ROWS = 1234;
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    /**
+     * A version 2 database ends up with the current schema, its data intact and given the
+     * default statuses, and every step logged. Upgrading again skips every step.
+     * @throws Exception
+     */
+    public void testUpgradeFromVersion2() throws Exception {
+        mDatabase.execSQL("CREATE TABLE vehicle (_id INTEGER PRIMARY KEY, vehicle_name TEXT " +
+                "NOT NULL, vehicle_year INTEGER NOT NULL, vehicle_color TEXT NOT NULL, model " +
+                "TEXT NOT NULL, vin TEXT NOT NULL, license_plate TEXT NOT NULL, last_updated " +
+                "INTEGER )");
+        mDatabase.execSQL("CREATE TABLE fueling (_id INTEGER PRIMARY KEY, vehicle_id INTEGER " +
+                "NOT NULL, date_of_fill INTEGER NOT NULL, distance REAL NOT NULL, volume REAL " +
+                "NOT NULL, price_paid REAL NOT NULL, odometer REAL NOT NULL, location TEXT, " +
+                "latitude REAL, longitude REAL, last_updated INTEGER )");
+        mDatabase.execSQL("INSERT INTO vehicle VALUES (1, 'Civic', 2009, 'Blue', 'Honda', '', " +
+                "'', " + THEN + ")");
+        mDatabase.execSQL("INSERT INTO fueling VALUES (1, 1, " + THEN + ", 300.25, 11.5, 30.0, " +
+                "1000, NULL, NULL, NULL, " + THEN + ")");
+
+        DatabaseMigrations.create().upgrade(mDatabase, 2, DatabaseHelper.DATABASE_VERSION);
+
+        assertEquals(1, count("SELECT COUNT(*) FROM vehicle WHERE status = 'A'"));
+        assertEquals(1, count("SELECT COUNT(*) FROM fueling WHERE status = 'C'"));
+        assertTrue(DatabaseMap_Fueling.indexHasColumn(mDatabase,
+                DatabaseMap_Fueling.INDEX_NAME_VEHICLE_DATE, DatabaseMap_Fueling.COLUMN_NAME_STATUS));
+        assertTrue(DatabaseMap_Deletion.triggerExists(mDatabase, DatabaseMap_Fueling.TABLE_NAME));
+        assertTrue(DatabaseMap_Deletion.triggerExists(mDatabase, PropertyDataMap.TABLE_NAME));
+        assertEquals(4, count("SELECT COUNT(*) FROM schema_migration WHERE skipped = 0"));
+
+        // Deletions are recorded from now on
+        mDatabase.execSQL("DELETE FROM fueling");
+        assertEquals(1, count("SELECT COUNT(*) FROM deleted_rows"));
+
+        DatabaseMigrations.create().upgrade(mDatabase, 2, DatabaseHelper.DATABASE_VERSION);
+        assertEquals(4, count("SELECT COUNT(*) FROM schema_migration WHERE skipped = 1"));
+    }
+
+    /**
+     * A step failing its check rolls back the steps before it as well.
+     * @throws Exception
+     */
+    public void testFailedStepRollsBack() throws Exception {
+        SchemaMigrator migrator = new SchemaMigrator()
+                .add(new CreateTable(2, "first"))
+                .add(new CreateTable(3, "second") {
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        // forgets to create its table
+                    }
+                });
+
+        try {
+            migrator.upgrade(mDatabase, 1, 3);
+            fail("Expected an IllegalStateException from the second step's check");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(DatabaseMap_Fueling.tableExists(mDatabase, "first"));
+        assertFalse(DatabaseMap_Fueling.tableExists(mDatabase, SchemaMigrator.TABLE_NAME));
+
+        try {
+            migrator.add(new CreateTable(3, "third"));
+            fail("Expected an IllegalArgumentException for a second step to version 3");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Only the steps after the old version run; the backfill then runs in batches, each
+     * filling in only rows not yet filled in, until it is done, and the rows and time are logged.
+     * @throws Exception
+     */
+    public void testBackfillInBatches() throws Exception {
+        mDatabase.execSQL("CREATE TABLE first (_id INTEGER PRIMARY KEY, value INTEGER)");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 1; i <= ROWS; i++)
+                mDatabase.execSQL("INSERT INTO first VALUES (" + i + ", " + i + ")");
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        SchemaMigrator migrator = new SchemaMigrator()
+                .add(new CreateTable(2, "first"))
+                .add(new SchemaMigration(3, "doubled") {
+                    @Override
+                    public boolean isApplied(SQLiteDatabase db) {
+                        return DatabaseMap_Fueling.columnExists(db, "first", "doubled");
+                    }
+
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        db.execSQL("ALTER TABLE first ADD COLUMN doubled INTEGER");
+                    }
+
+                    @Override
+                    public int backfill(SQLiteDatabase db, int maxRows) {
+                        return db.compileStatement("UPDATE first SET doubled = value * 2 " +
+                                "WHERE _id IN (SELECT _id FROM first WHERE doubled IS NULL " +
+                                "LIMIT " + maxRows + ")").executeUpdateDelete();
+                    }
+                });
+
+        migrator.upgrade(mDatabase, 2, 3);
+        assertEquals(1, count("SELECT COUNT(*) FROM schema_migration"));
+        assertEquals(ROWS, count("SELECT COUNT(*) FROM first WHERE doubled IS NULL"));
+
+        int batches = 0;
+        while (migrator.runBackfillBatch(mDatabase, 500)) {
+            batches++;
+            assertEquals(Math.max(0, ROWS - batches * 500),
+                    count("SELECT COUNT(*) FROM first WHERE doubled IS NULL"));
+        }
+        assertEquals((ROWS + 499) / 500, batches);
+        assertEquals(ROWS, count("SELECT COUNT(*) FROM first WHERE doubled = value * 2"));
+        assertEquals(ROWS, count("SELECT backfill_rows FROM schema_migration WHERE version = 3"));
+        assertEquals(1, count("SELECT backfill_done FROM schema_migration WHERE version = 3"));
+        assertFalse(migrator.runBackfillBatch(mDatabase, 500));
+    }
+
+    private long count(String sql) {
+        Cursor c = mDatabase.rawQuery(sql, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    /* A step which creates a table, if it isn't there already */
+    private static class CreateTable extends SchemaMigration {
+        private final String mTable;
+
+        CreateTable(int version, String table) {
+            super(version, "create " + table);
+            mTable = table;
+        }
+
+        @Override
+        public boolean isApplied(SQLiteDatabase db) {
+            return DatabaseMap_Fueling.tableExists(db, mTable);
+        }
+
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + mTable + " (_id INTEGER PRIMARY KEY, value INTEGER)");
+        }
+    }
+}
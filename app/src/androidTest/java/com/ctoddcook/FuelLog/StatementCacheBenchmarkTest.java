@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+
+/**
+ * Writes single rows through DatabaseHelper's cached, compiled statements and through the
+ * ContentValues path it used before: 10,000 inserts, then 10,000 updates, each on its own
+ * (no enclosing transaction), against a database held in memory. The tests check the rows each
+ * path wrote; the time each took is only logged, as it depends on the device.
+ */
+public class StatementCacheBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "StatementCacheBenchmark";
+    private static final int WRITES = 10000;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private DatabaseHelper mHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHelper = new DatabaseHelper(getContext(), null);
+        mDatabase = mHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        super.tearDown();
+    }
+
+    /**
+     * Inserting through the cached statement gives each fill its own new ID and writes the same
+     * rows as building ContentValues for each.
+     * @throws Exception
+     */
+    public void testInsertFueling() throws Exception {
+        ArrayList<Model_Fueling> fills = buildFills(WRITES);
+
+        long start = System.nanoTime();
+        for (Model_Fueling each : fills)
+            mDatabase.insert(DatabaseMap_Fueling.TABLE_NAME, null, toContentValues(each));
+        long oldPath = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Model_Fueling each : fills)
+            mHelper.insertFueling(each);
+        long newPath = System.nanoTime() - start;
+
+        report("insert", oldPath, newPath);
+        HashSet<Integer> ids = new HashSet<>(WRITES);
+        for (Model_Fueling each : fills) {
+            assertTrue(each.getID() > 0);
+            ids.add(each.getID());
+            assertSameRow(each, mHelper.fetchFueling(each.getID()));
+        }
+        assertEquals(WRITES, ids.size());
+        assertEquals(2 * WRITES, countFuelings());
+    }
+
+    /**
+     * Updating through the cached statement changes each fill's own row, and only that row.
+     * @throws Exception
+     */
+    public void testUpdateFueling() throws Exception {
+        ArrayList<Model_Fueling> fills = buildFills(WRITES);
+        for (Model_Fueling each : fills)
+            mHelper.insertFueling(each);
+
+        String[] whereArgs = new String[1];
+        long start = System.nanoTime();
+        for (Model_Fueling each : fills) {
+            whereArgs[0] = String.valueOf(each.getID());
+            mDatabase.update(DatabaseMap_Fueling.TABLE_NAME, toContentValues(each),
+                    DatabaseMap_Fueling.WHERE_ID_CLAUSE, whereArgs);
+        }
+        long oldPath = System.nanoTime() - start;
+
+        for (Model_Fueling each : fills)
+            each.setOdometer(each.getOdometer() + 1f);
+
+        start = System.nanoTime();
+        for (Model_Fueling each : fills)
+            assertTrue(mHelper.updateFueling(each));
+        long newPath = System.nanoTime() - start;
+
+        report("update", oldPath, newPath);
+        for (Model_Fueling each : fills)
+            assertSameRow(each, mHelper.fetchFueling(each.getID()));
+        assertEquals(WRITES, countFuelings());
+    }
+
+    private static void report(String operation, long oldPath, long newPath) {
+        Log.i(TAG, WRITES + " x " + operation + ": ContentValues " + oldPath / 1000000 +
+                "ms, cached statement " + newPath / 1000000 + "ms");
+    }
+
+    private static void assertSameRow(Model_Fueling expected, Model_Fueling actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getVehicleID(), actual.getVehicleID());
+        assertEquals(expected.getDateOfFill(), actual.getDateOfFill());
+        assertEquals(expected.getOdometer(), actual.getOdometer(), 0f);
+        assertEquals(expected.getLocation(), actual.getLocation());
+    }
+
+    private long countFuelings() {
+        return DatabaseUtils.queryNumEntries(mDatabase, DatabaseMap_Fueling.TABLE_NAME);
+    }
+
+    /**
+     * The ContentValues DatabaseHelper built for each write before statements were cached.
+     */
+    private static ContentValues toContentValues(Model_Fueling fd) {
+        ContentValues cv = new ContentValues();
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_VEHICLE_ID, fd.getVehicleID());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_DATE_OF_FILL, fd.getDateOfFill().getTime());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_DISTANCE, fd.getDistance());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_VOLUME, fd.getVolume());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_PRICE_PAID, fd.getPricePaid());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_ODOMETER, fd.getOdometer());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_LOCATION, fd.getLocation());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_LATITUDE, fd.getLatitude());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_LONGITUDE, fd.getLongitude());
+        cv.put(DatabaseMap_Fueling.COLUMN_NAME_LAST_UPDATED, fd.getLastUpdated().getTime());
+        return cv;
+    }
+
+    private static ArrayList<Model_Fueling> buildFills(int count) {
+        ArrayList<Model_Fueling> fills = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            Model_Fueling fd = new Model_Fueling();
+            fd.setVehicleID(1);
+            fd.setDateOfFill(new Date(now - i * DAY_MILLIS));
+            fd.setDistance(300f);
+            fd.setVolume(12f);
+            fd.setPricePaid(30f);
+            fd.setOdometer(i * 300f);
+            fd.setLocation("Omaha, NE");
+            fills.add(fd);
+        }
+
+        return fills;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.ctoddcook.FuelLogBackup.XmlToDatabaseImporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Restores hand-built XML backups, in the format BackupXmlPipeline writes, into a database held
+ * in memory: replacing the existing data, and merging into it with vehicle IDs remapped. The
+ * backups hold more fuelings than one restore batch, so a merge commits rows across batches,
+ * while an overwrite commits nothing until the whole backup is in.
+ * Backups compressed as GZIP restore the same, and are refused, without any change, if their
+ * checksum is wrong.
+ */
+public class XmlToDatabaseImporterTest extends AndroidTestCase {
+    private static final int FILLS = 1234;
+    private static final long NOW = 1478300000000L;
+
+    private DatabaseHelper mHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHelper = new DatabaseHelper(getContext(), null);
+        mDatabase = mHelper.getWritableDatabase();
+
+        // Existing data: vehicle 1 shares its name with the backup's vehicle 5
+        mDatabase.execSQL("INSERT INTO vehicle VALUES (1, 'Civic', 2009, 'Blue', 'Honda', '', " +
+                "'', 'A', 0)");
+        mDatabase.execSQL("INSERT INTO vehicle VALUES (2, 'Truck', 2001, 'Red', 'Ford', '', " +
+                "'', 'A', 0)");
+        mDatabase.execSQL("INSERT INTO fueling VALUES (1, 1, " + NOW + ", 1, 1, 1, 1, NULL, " +
+                "NULL, NULL, 0, 'C')");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        super.tearDown();
+    }
+
+    /**
+     * Overwriting replaces every row with the backup's, keeping the backup's IDs.
+     * @throws Exception
+     */
+    public void testOverwrite() throws Exception {
+        int rows = restore(true);
+
+        assertEquals(1 + 2 + FILLS, rows);
+        assertEquals(2, count("SELECT COUNT(*) FROM vehicle"));
+        assertEquals(1, count("SELECT COUNT(*) FROM vehicle WHERE _id = 5 AND " +
+                "vehicle_name = 'Civic' AND vehicle_year = 2015"));
+        assertEquals(FILLS, count("SELECT COUNT(*) FROM fueling"));
+        assertEquals(FILLS / 2, count("SELECT COUNT(*) FROM fueling WHERE vehicle_id = 9"));
+        assertEquals(1, count("SELECT COUNT(*) FROM fueling WHERE _id = 100 AND " +
+                "location = 'Ben & Jerry''s <Omaha>' AND odometer = 301.5"));
+        assertEquals(1, count("SELECT COUNT(*) FROM properties WHERE name = 'user_allows_gps'"));
+    }
+
+    /**
+     * Merging keeps the existing rows, updates the vehicle with the same name rather than adding
+     * another, gives the other vehicle a new ID, and points the fuelings at the vehicles' IDs
+     * in this database. The fueling matching an existing one updates it.
+     * @throws Exception
+     */
+    public void testMergeRemapsVehicleIDs() throws Exception {
+        restore(false);
+
+        assertEquals(3, count("SELECT COUNT(*) FROM vehicle"));
+        assertEquals(1, count("SELECT _id FROM vehicle WHERE vehicle_name = 'Civic'"));
+        assertEquals(2015, count("SELECT vehicle_year FROM vehicle WHERE _id = 1"));
+        long van = count("SELECT _id FROM vehicle WHERE vehicle_name = 'Van'");
+        assertTrue(van > 2);
+
+        assertEquals(FILLS, count("SELECT COUNT(*) FROM fueling"));
+        assertEquals(0, count("SELECT COUNT(*) FROM fueling WHERE vehicle_id IN (5, 9)"));
+        assertEquals(FILLS / 2, count("SELECT COUNT(*) FROM fueling WHERE vehicle_id = 1"));
+        assertEquals(FILLS / 2, count("SELECT COUNT(*) FROM fueling WHERE vehicle_id = " + van));
+        assertEquals(1, count("SELECT COUNT(*) FROM fueling WHERE vehicle_id = 1 AND " +
+                "date_of_fill = " + NOW + " AND odometer = 0"));
+    }
+
+    /**
+     * A backup cut off part way is reported, and overwriting from it leaves the existing data
+     * as it was, rather than emptied and partly refilled.
+     * @throws Exception
+     */
+    public void testDamagedBackup() throws Exception {
+        try {
+            XmlToDatabaseImporter.importData(mHelper,
+                    new ByteArrayInputStream(damagedBackup().getBytes("UTF-8")), true);
+            fail("Expected an IOException for a damaged backup");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertExistingDataKept();
+    }
+
+    /**
+     * Merging from a backup cut off part way leaves the batches before the break in place.
+     * @throws Exception
+     */
+    public void testDamagedBackupMerge() throws Exception {
+        try {
+            XmlToDatabaseImporter.importData(mHelper,
+                    new ByteArrayInputStream(damagedBackup().getBytes("UTF-8")), false);
+            fail("Expected an IOException for a damaged backup");
+        } catch (IOException e) {
+            // expected
+        }
+
+        long fills = count("SELECT COUNT(*) FROM fueling");
+        assertTrue("Restored " + fills, fills > 1 && fills < FILLS);
+    }
+
+    /**
+     * A compressed backup restores just as the plain one does.
+     * @throws Exception
+     */
+    public void testCompressedBackup() throws Exception {
+        int rows = XmlToDatabaseImporter.importData(mHelper,
+                new ByteArrayInputStream(compress(buildBackup())), true);
+
+        assertEquals(1 + 2 + FILLS, rows);
+        assertEquals(FILLS, count("SELECT COUNT(*) FROM fueling"));
+        assertEquals(1, count("SELECT COUNT(*) FROM fueling WHERE _id = 100 AND " +
+                "location = 'Ben & Jerry''s <Omaha>' AND odometer = 301.5"));
+    }
+
+    /**
+     * A compressed backup whose CRC32 does not match what it inflates to is reported, and
+     * nothing is overwritten.
+     * @throws Exception
+     */
+    public void testCompressedChecksumMismatch() throws Exception {
+        byte[] gz = compress(buildBackup());
+        gz[gz.length - 8] ^= 0x01;  // the trailer is the CRC32, then the length
+
+        try {
+            XmlToDatabaseImporter.importData(mHelper, new ByteArrayInputStream(gz), true);
+            fail("Expected an IOException for a checksum which does not match");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertExistingDataKept();
+    }
+
+    /**
+     * Merging from a compressed backup commits no batch until the checksum has been checked, so
+     * one which does not match adds nothing.
+     * @throws Exception
+     */
+    public void testCompressedChecksumMismatchMerge() throws Exception {
+        byte[] gz = compress(buildBackup());
+        gz[gz.length - 8] ^= 0x01;
+
+        try {
+            XmlToDatabaseImporter.importData(mHelper, new ByteArrayInputStream(gz), false);
+            fail("Expected an IOException for a checksum which does not match");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertExistingDataKept();
+    }
+
+    /* The vehicles and the fueling set up before each test are all there, and nothing else */
+    private void assertExistingDataKept() {
+        assertEquals(2, count("SELECT COUNT(*) FROM vehicle WHERE _id IN (1, 2)"));
+        assertEquals(2, count("SELECT COUNT(*) FROM vehicle"));
+        assertEquals(1, count("SELECT COUNT(*) FROM fueling WHERE _id = 1 AND vehicle_id = 1"));
+        assertEquals(1, count("SELECT COUNT(*) FROM fueling"));
+    }
+
+    /* A backup cut off three quarters of the way through its fuelings */
+    private static String damagedBackup() {
+        String xml = buildBackup();
+        return xml.substring(0, xml.length() * 3 / 4);
+    }
+
+    private static byte[] compress(String xml) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(bytes);
+        gz.write(xml.getBytes("UTF-8"));
+        gz.close();
+        return bytes.toByteArray();
+    }
+
+    private int restore(boolean overwrite) throws IOException {
+        return XmlToDatabaseImporter.importData(mHelper,
+                new ByteArrayInputStream(buildBackup().getBytes("UTF-8")), overwrite);
+    }
+
+    private long count(String sql) {
+        Cursor c = mDatabase.rawQuery(sql, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    /*
+     * One property, vehicles 5 ('Civic') and 9 ('Van'), and FILLS fuelings split between them.
+     * The first fueling of vehicle 5 is at the same time as the existing fueling of vehicle 1.
+     */
+    private static String buildBackup() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<database>\n");
+
+        xml.append("<table name=\"properties\" prime_key=\"_id\">\n<row>");
+        column(xml, "_id", 1, "4");
+        column(xml, "name", 3, "user_allows_gps");
+        column(xml, "type", 1, "3");
+        column(xml, "value", 3, "true");
+        column(xml, "last_updated", 1, Long.toString(NOW));
+        xml.append("</row>\n</table>\n");
+
+        xml.append("<table name=\"vehicle\" prime_key=\"_id\">\n");
+        vehicle(xml, 5, "Civic");
+        vehicle(xml, 9, "Van");
+        xml.append("</table>\n");
+
+        xml.append("<table name=\"fueling\" prime_key=\"_id\">\n");
+        for (int i = 0; i < FILLS; i++) {
+            xml.append("<row>");
+            column(xml, "_id", 1, Integer.toString(i + 1));
+            column(xml, "vehicle_id", 1, (i % 2 == 0 ? "5" : "9"));
+            column(xml, "date_of_fill", 1, Long.toString(NOW - (i / 2) * 86400000L));
+            column(xml, "distance", 2, "300.25");
+            column(xml, "volume", 2, "11.5");
+            column(xml, "price_paid", 2, "30.0");
+            column(xml, "odometer", 2, (i == 0 ? "0.0" : "301.5"));
+            column(xml, "location", 3, "Ben &amp; Jerry&apos;s &lt;Omaha&gt;");
+            column(xml, "latitude", 0, "");
+            column(xml, "longitude", 2, "-95.934");
+            column(xml, "last_updated", 1, Long.toString(NOW));
+            xml.append("</row>\n");
+        }
+        xml.append("</table>\n");
+
+        xml.append("</database>\n");
+        return xml.toString();
+    }
+
+    private static void vehicle(StringBuilder xml, int id, String name) {
+        xml.append("<row>");
+        column(xml, "_id", 1, Integer.toString(id));
+        column(xml, "vehicle_name", 3, name);
+        column(xml, "vehicle_year", 1, "2015");
+        column(xml, "vehicle_color", 3, "White");
+        column(xml, "model", 3, "Model");
+        column(xml, "vin", 3, "");
+        column(xml, "license_plate", 3, "ABC 123");
+        column(xml, "status", 3, "A");
+        column(xml, "last_updated", 1, Long.toString(NOW));
+        xml.append("</row>\n");
+    }
+
+    private static void column(StringBuilder xml, String name, int type, String value) {
+        xml.append("<column name=\"").append(name).append("\" type=\"").append(type)
+                .append("\">").append(value).append("</column>");
+    }
+}
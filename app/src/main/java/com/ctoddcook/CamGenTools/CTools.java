@@ -16,33 +16,125 @@ import java.math.BigDecimal;
  */
 public class CTools {
 
+  // Powers of ten which a double, or a float, holds exactly; 5^22 and 5^10 are the largest
+  // powers of five to fit in their 53 and 24 bit significands
+  private static final double DOUBLE_POWERS_OF_10[] = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+      1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+  private static final float FLOAT_POWERS_OF_10[] = {
+      1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+  // Above these, a scaled value has no fraction left to round, and a rounded one may not be
+  // held exactly, by a double or a float
+  private static final double MAX_SCALED_DOUBLE = 1L << 52;
+  private static final long MAX_ROUNDED_FLOAT = 1L << 24;
+  // A float times 10^places, for places up to this, is held exactly by a double: 24 bits of
+  // significand plus at most 28 bits for 5^places
+  private static final int MAX_EXACT_FLOAT_PLACES = 12;
+
   /**
    * This takes a double value, and rounds it to the indicated scale, returning a new
    * double.
+   * <p/>
+   * The result is the same as rounding the value's exact decimal expansion with a BigDecimal
+   * (ROUND_HALF_UP, so halves round away from zero), but it is worked out with scaled integers
+   * and creates no objects. Only when the scaled value is too close to a half for a double to
+   * tell which side it is on, or is too large to scale, is a BigDecimal used.
    *
    * @param value  The value to be rounded
    * @param places The scale for rounding (i.e., the significant digits)
    * @return A new double value rounded as indicated
+   * @throws NumberFormatException if the value is infinite or NaN
    */
   public static double round(double value, int places) {
     if (value == 0) return 0;
-
-    BigDecimal bd = new BigDecimal(value);
-    bd = bd.setScale(places, BigDecimal.ROUND_HALF_UP);
-    return bd.doubleValue();
+    if (places < -22 || places > 22 || Double.isNaN(value) || Double.isInfinite(value))
+      return roundWithBigDecimal(value, places);
+
+    double magnitude = Math.abs(value);
+    double scaled = places >= 0 ? magnitude * DOUBLE_POWERS_OF_10[places]
+        : magnitude / DOUBLE_POWERS_OF_10[-places];
+    if (scaled >= MAX_SCALED_DOUBLE)
+      return roundWithBigDecimal(value, places);
+
+    // The multiply or divide is off by up to half a unit in the last place, which only matters
+    // if the fraction is about a half
+    double whole = Math.floor(scaled);
+    double fraction = scaled - whole;
+    if (Math.abs(fraction - 0.5) <= Math.ulp(scaled))
+      return roundWithBigDecimal(value, places);
+
+    long rounded = (long) whole + (fraction > 0.5 ? 1 : 0);
+    if (rounded == 0)
+      return 0;
+
+    // A single divide or multiply of two exact values gives the nearest double, as
+    // BigDecimal.doubleValue() does
+    double result = places >= 0 ? rounded / DOUBLE_POWERS_OF_10[places]
+        : rounded * DOUBLE_POWERS_OF_10[-places];
+    return value < 0 ? -result : result;
   }
 
 
   /**
    * This takes a float value, and rounds it to the indicated scale, returning a new
    * float.
+   * <p/>
+   * As with round(double, int), the result is the same as rounding with a BigDecimal, without
+   * creating any objects. For the scales used for money and efficiency, a float scaled up in a
+   * double is exact, so even an exact half is rounded here.
    *
    * @param value  The value to be rounded
    * @param places The scale for rounding (i.e., the significant digits)
    * @return A new float value rounded as indicated
+   * @throws NumberFormatException if the value is infinite or NaN
    */
   public static float round(float value, int places) {
     if (value == 0) return 0;
+    if (places < -10 || places > 10 || Float.isNaN(value) || Float.isInfinite(value))
+      return roundWithBigDecimal(value, places);
+
+    double magnitude = Math.abs((double) value);
+    double scaled = places >= 0 ? magnitude * DOUBLE_POWERS_OF_10[places]
+        : magnitude / DOUBLE_POWERS_OF_10[-places];
+    if (scaled >= MAX_ROUNDED_FLOAT)
+      return roundWithBigDecimal(value, places);
+
+    double whole = Math.floor(scaled);
+    double fraction = scaled - whole;
+    boolean exact = places >= 0 && places <= MAX_EXACT_FLOAT_PLACES;
+    if (!exact && Math.abs(fraction - 0.5) <= Math.ulp(scaled))
+      return roundWithBigDecimal(value, places);
+
+    long rounded = (long) whole + (fraction >= 0.5 ? 1 : 0);
+    if (rounded == 0)
+      return 0;
+    if (rounded >= MAX_ROUNDED_FLOAT)
+      return roundWithBigDecimal(value, places);
+
+    // Both operands are exact floats, so a float divide or multiply gives the nearest float, as
+    // BigDecimal.floatValue() does
+    float result = places >= 0 ? rounded / FLOAT_POWERS_OF_10[places]
+        : rounded * FLOAT_POWERS_OF_10[-places];
+    return value < 0 ? -result : result;
+  }
+
+
+  /*
+   * Rounds the value's exact decimal expansion, for values round(double, int) cannot round
+   * with a double.
+   */
+  private static double roundWithBigDecimal(double value, int places) {
+    BigDecimal bd = new BigDecimal(value);
+    bd = bd.setScale(places, BigDecimal.ROUND_HALF_UP);
+    return bd.doubleValue();
+  }
+
+
+  /*
+   * Rounds the value's exact decimal expansion, for values round(float, int) cannot round
+   * with a double.
+   */
+  private static float roundWithBigDecimal(float value, int places) {
     BigDecimal bd = new BigDecimal(value);
     bd = bd.setScale(places, BigDecimal.ROUND_HALF_UP);
     return bd.floatValue();
@@ -33,6 +33,18 @@ public abstract class DataHolder {
             mStatus = STATUS_UPDATED;
     }
 
+    /**
+     * Updates the mLastUpdated field to the current datetime, without changing mStatus. Called
+     * as the instance is written to the database, so that its row holds the time of the write
+     * rather than of the last edit: an incremental backup taken between the two still picks up
+     * the row, by its later time.
+     * @return the new value of the mLastUpdated field
+     */
+    public Date stampLastUpdated() {
+        this.mLastUpdated = Calendar.getInstance().getTime();
+        return mLastUpdated;
+    }
+
     /**
      * Sets the state of this instances to CURRENT. Should only be called by a child class
      * when being instantiated with full data (i.e., when the data is being read from the
@@ -34,6 +34,16 @@ public abstract class DatabaseMap_Base {
   public static final String DELETE_ALL_SQL = "DELETE FROM %1$s";
   public static final String SELECT_SQL = "SELECT * FROM %1$s WHERE %2$s = %3$s";
 
+  // What kind of value a column holds, beyond its SQL type. Used to describe tables in a binary
+  // backup, which stores each kind in its own way; the numbers are written to the backup file,
+  // so must not change.
+  public static final int COLUMN_KIND_KEY = 1;        // integer primary key
+  public static final int COLUMN_KIND_INT = 2;
+  public static final int COLUMN_KIND_DATETIME = 3;   // millis, as an integer
+  public static final int COLUMN_KIND_FLOAT = 4;      // REAL column holding a Java float
+  public static final int COLUMN_KIND_DOUBLE = 5;
+  public static final int COLUMN_KIND_STRING = 6;
+
   private static final String DOES_TABLE_EXIST_PHRASE = "SELECT name FROM sqlite_master " +
       "WHERE type='table' AND name='?'";
 
@@ -55,6 +65,42 @@ public abstract class DatabaseMap_Base {
     return result;
   }
 
+  /**
+   * Checks whether a table has a column
+   *
+   * @param tableName  the name of the table
+   * @param columnName the name of the column to look for
+   * @return whether the table has the column
+   */
+  public static boolean columnExists(SQLiteDatabase db, String tableName, String columnName) {
+    return isNameListed(db, "PRAGMA table_info(" + tableName + ")", columnName);
+  }
+
+  /**
+   * Checks whether an index includes a column
+   *
+   * @param indexName  the name of the index
+   * @param columnName the name of the column to look for
+   * @return whether the index exists and includes the column
+   */
+  public static boolean indexHasColumn(SQLiteDatabase db, String indexName, String columnName) {
+    return isNameListed(db, "PRAGMA index_info(" + indexName + ")", columnName);
+  }
+
+  /* Whether any row of a PRAGMA listing columns has the given name */
+  private static boolean isNameListed(SQLiteDatabase db, String pragma, String name) {
+    Cursor cursor = db.rawQuery(pragma, null);
+    try {
+      int nameColumn = cursor.getColumnIndex("name");
+      while (cursor.moveToNext())
+        if (name.equalsIgnoreCase(cursor.getString(nameColumn)))
+          return true;
+      return false;
+    } finally {
+      cursor.close();
+    }
+  }
+
   public static String getDeleteSQL(String table, String column, String value) {
     return String.format(DELETE_SQL, table, column, value);
   }
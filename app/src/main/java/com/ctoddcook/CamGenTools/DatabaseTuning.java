@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.CamGenTools;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * How a database's connection is set up: whether it uses write-ahead logging, and the
+ * synchronous, cache size and memory-mapped I/O pragmas.
+ * <p/>
+ * With write-ahead logging, SQLiteDatabase reads on other connections, which carry on while a
+ * write commits rather than waiting for it, and a commit only needs the log synced to disk; with
+ * synchronous NORMAL it is only synced at checkpoints, which can lose the last commits (but never
+ * corrupt the database) if the device loses power.
+ */
+public class DatabaseTuning {
+  public static final String SYNCHRONOUS_OFF = "OFF";
+  public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+  public static final String SYNCHRONOUS_FULL = "FULL";
+
+  private final boolean mWriteAheadLogging;
+  private final String mSynchronous;
+  private final int mCacheSizeKb;
+  private final long mMmapSizeBytes;
+
+  /**
+   * Constructor.
+   *
+   * @param writeAheadLogging true to use write-ahead logging, false for SQLite's rollback journal
+   * @param synchronous       one of the SYNCHRONOUS_ constants
+   * @param cacheSizeKb       the connection's page cache, in KiB
+   * @param mmapSizeBytes     how much of the database file the connection may map into memory,
+   *                          in bytes; 0 to read it with ordinary I/O
+   */
+  public DatabaseTuning(boolean writeAheadLogging, String synchronous, int cacheSizeKb,
+                        long mmapSizeBytes) {
+    if (!SYNCHRONOUS_OFF.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous) &&
+        !SYNCHRONOUS_FULL.equals(synchronous))
+      throw new IllegalArgumentException("Unknown synchronous setting: " + synchronous);
+    if (cacheSizeKb <= 0 || mmapSizeBytes < 0)
+      throw new IllegalArgumentException("Cache size must be positive, and mmap size not " +
+          "negative");
+
+    mWriteAheadLogging = writeAheadLogging;
+    mSynchronous = synchronous;
+    mCacheSizeKb = cacheSizeKb;
+    mMmapSizeBytes = mmapSizeBytes;
+  }
+
+  public boolean isWriteAheadLogging() {
+    return mWriteAheadLogging;
+  }
+
+  public String getSynchronous() {
+    return mSynchronous;
+  }
+
+  public int getCacheSizeKb() {
+    return mCacheSizeKb;
+  }
+
+  public long getMmapSizeBytes() {
+    return mMmapSizeBytes;
+  }
+
+  /**
+   * Sets the pragmas for the writable connection. Call from SQLiteOpenHelper.onConfigure().
+   *
+   * @param db the writable connection
+   */
+  public void applyToWriter(SQLiteDatabase db) {
+    runPragma(db, "synchronous = " + mSynchronous);
+    // A negative cache_size is in KiB rather than pages
+    runPragma(db, "cache_size = -" + mCacheSizeKb);
+    runPragma(db, "mmap_size = " + mMmapSizeBytes);
+  }
+
+  /* Some pragmas return a row, which execSQL() refuses, so run them all as queries */
+  private static void runPragma(SQLiteDatabase db, String pragma) {
+    Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+    try {
+      cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+}
@@ -4,10 +4,10 @@
 
 package com.ctoddcook.CamGenTools;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
@@ -33,6 +33,7 @@ public class PropertiesHelper {
   private static HashMap<String, Property> sPropertyMap = new HashMap<>(10);
   private static PropertiesHelper sInstance;
   private static SQLiteDatabase sDatabase;
+  private static StatementCache sStatements;
 
 
   /**
@@ -67,7 +68,11 @@ public class PropertiesHelper {
     if (db == null)
       throw new IllegalArgumentException("Provided SQLiteOpenHelper argument is null. Bad.");
 
+    if (sStatements != null)
+      sStatements.close();
+
     sDatabase = db.getWritableDatabase();
+    sStatements = new StatementCache(sDatabase);
   }
 
   /**
@@ -331,7 +336,7 @@ public class PropertiesHelper {
       name = cursor.getString(PropertyDataMap.COLUMN_NBR_NAME);
       type = cursor.getInt(PropertyDataMap.COLUMN_NBR_TYPE);
       value = cursor.getString(PropertyDataMap.COLUMN_NBR_VALUE);
-      lastUpdated.setTime(cursor.getInt(PropertyDataMap.COLUMN_NBR_LAST_UPDATED));
+      lastUpdated.setTime(cursor.getLong(PropertyDataMap.COLUMN_NBR_LAST_UPDATED));
 
       try {
         p = new Property(id, name, type, value, lastUpdated);
@@ -375,16 +380,14 @@ public class PropertiesHelper {
       throw new IllegalArgumentException("Cannot insert Property if its state is not UPDATED");
 
     boolean result = true;
-    String[] whereArgs = new String[]{String.valueOf(p.getID())};
-
-    ContentValues cv = new ContentValues();
-    cv.put(PropertyDataMap.COLUMN_NAME_NAME, p.getName());
-    cv.put(PropertyDataMap.COLUMN_NAME_TYPE, p.getType());
-    cv.put(PropertyDataMap.COLUMN_NAME_VALUE, p.getValueAsString());
-    cv.put(PropertyDataMap.COLUMN_NAME_LAST_UPDATED, p.getLastUpdated().getTime());
+    SQLiteStatement update = sStatements.get(PropertyDataMap.SQL_UPDATE_BY_ID);
+    int rowsUpdated;
 
-    int rowsUpdated = sDatabase.update(PropertyDataMap.TABLE_NAME, cv, PropertyDataMap.WHERE_ID_CLAUSE,
-        whereArgs);
+    synchronized (update) {
+      bindProperty(update, p);
+      update.bindLong(5, p.getID());
+      rowsUpdated = update.executeUpdateDelete();
+    }
 
     if (rowsUpdated == 1)
       p.setCurrent();
@@ -403,14 +406,13 @@ public class PropertiesHelper {
     if (!p.isNew())
       throw new IllegalArgumentException("Cannot insert Property if its state is not NEW");
 
-    ContentValues cv = new ContentValues();
-
-    cv.put(PropertyDataMap.COLUMN_NAME_NAME, p.getName());
-    cv.put(PropertyDataMap.COLUMN_NAME_TYPE, p.getType());
-    cv.put(PropertyDataMap.COLUMN_NAME_VALUE, p.getValueAsString());
-    cv.put(PropertyDataMap.COLUMN_NAME_LAST_UPDATED, p.getLastUpdated().getTime());
+    SQLiteStatement insert = sStatements.get(PropertyDataMap.SQL_INSERT);
+    int newID;
 
-    int newID = (int) sDatabase.insert(PropertyDataMap.TABLE_NAME, null, cv);
+    synchronized (insert) {
+      bindProperty(insert, p);
+      newID = (int) insert.executeInsert();
+    }
 
     if (newID > 0) {
       p.setID(newID);
@@ -418,6 +420,18 @@ public class PropertiesHelper {
     }
   }
 
+  /**
+   * Binds a Property's name, type, value and last-updated time to a compiled INSERT or UPDATE.
+   * The last-updated time is set to now, the time of the write, for incremental backups.
+   */
+  private static void bindProperty(SQLiteStatement statement, Property p) {
+    statement.clearBindings();
+    StatementCache.bindString(statement, 1, p.getName());
+    statement.bindLong(2, p.getType());
+    StatementCache.bindString(statement, 3, p.getValueAsString());
+    statement.bindLong(4, p.stampLastUpdated().getTime());
+  }
+
   /**
    * Deletes the database row with the ID (prime key) of the Property instance.
    *
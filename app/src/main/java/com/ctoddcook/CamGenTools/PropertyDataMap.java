@@ -37,6 +37,13 @@ public class PropertyDataMap extends DatabaseMap_FuelLog implements BaseColumns
   public static final String SQL_DROP_TABLE =
       DROP_TABLE_PHRASE + TABLE_NAME;
 
+  // Every column in CREATE TABLE order, and the kind of value each holds
+  public static final String[] COLUMN_NAMES = {
+      _ID, COLUMN_NAME_NAME, COLUMN_NAME_TYPE, COLUMN_NAME_VALUE, COLUMN_NAME_LAST_UPDATED};
+  public static final int[] COLUMN_KINDS = {
+      COLUMN_KIND_KEY, COLUMN_KIND_STRING, COLUMN_KIND_INT, COLUMN_KIND_STRING,
+      COLUMN_KIND_DATETIME};
+
   public static final String SQL_SELECT_ALL =
       SELECT_PHRASE + "*" + FROM_PHRASE +
           TABLE_NAME + ORDER_BY_PHRASE + _ID;
@@ -44,6 +51,18 @@ public class PropertyDataMap extends DatabaseMap_FuelLog implements BaseColumns
   public static final String SQL_SELECT_SIMPLE =
       SELECT_PHRASE + _ID + COMMA_SEP + COLUMN_NAME_NAME + FROM_PHRASE + TABLE_NAME;
 
+  // For compiled statements: name, type, value and last updated are bound in that order, and
+  // the UPDATE binds the ID after them
+  public static final String SQL_INSERT =
+      "INSERT INTO " + TABLE_NAME + " (" + COLUMN_NAME_NAME + COMMA_SEP + COLUMN_NAME_TYPE +
+          COMMA_SEP + COLUMN_NAME_VALUE + COMMA_SEP + COLUMN_NAME_LAST_UPDATED +
+          ") VALUES (?, ?, ?, ?)";
+
+  public static final String SQL_UPDATE_BY_ID =
+      "UPDATE " + TABLE_NAME + " SET " + COLUMN_NAME_NAME + " = ?, " + COLUMN_NAME_TYPE +
+          " = ?, " + COLUMN_NAME_VALUE + " = ?, " + COLUMN_NAME_LAST_UPDATED + " = ?" +
+          WHERE_CLAUSE + WHERE_ID_CLAUSE;
+
   public static boolean tableExists(SQLiteDatabase db) {
     return tableExists(db, TABLE_NAME);
   }
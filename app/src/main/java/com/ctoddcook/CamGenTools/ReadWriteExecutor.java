@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.CamGenTools;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs database work in the background: reads on a small pool of threads, writes one at a time
+ * on a single thread, in the order submitted. Results are handed to a Callback through a
+ * callback Executor (for an app, one which posts to the UI thread's Looper).
+ * <p/>
+ * A read waits for every write submitted before it to finish, so a read started after a save
+ * always sees the saved data. Writes do not wait for earlier reads.
+ * <p/>
+ * Each task is submitted on behalf of an owner (usually the Activity that will use the result).
+ * When the owner goes away it calls cancelAll(owner): reads which have not started are dropped,
+ * and no callback is delivered to the owner afterwards. Writes are never dropped, since the
+ * user expects them to be saved, but their callbacks are not delivered either.
+ * <p/>
+ * A failure with no callback to handle it, such as a write submitted without one, is logged
+ * rather than thrown, since it would be thrown on the UI thread and end the app.
+ */
+public class ReadWriteExecutor {
+  private static final String TAG = "ReadWriteExecutor";
+  private final ExecutorService mReaders;
+  private final ExecutorService mWriter;
+  private final Executor mCallbackExecutor;
+  private final IdentityHashMap<Object, ArrayList<Task<?>>> mTasksByOwner = new IdentityHashMap<>();
+  private volatile Future<?> mLastWrite = null;
+
+  /**
+   * Receives the result of a task on the callback Executor. The default onError() logs the
+   * exception; override it to tell the user, or to recover.
+   *
+   * @param <T> the type of the task's result
+   */
+  public static abstract class Callback<T> {
+    public abstract void onResult(T result);
+
+    public void onError(Exception e) {
+      Log.e(TAG, "Background database task failed", e);
+    }
+  }
+
+  /**
+   * A handle to submitted work, which can be cancelled.
+   *
+   * @param <T> the type of the task's result
+   */
+  public static final class Task<T> {
+    private final Object mOwner;
+    private final Callable<T> mWork;
+    private final Callback<T> mCallback;
+    private final boolean mIsWrite;
+    private volatile boolean mCancelled = false;
+    private volatile Future<?> mFuture;
+
+    private Task(Object owner, Callable<T> work, Callback<T> callback, boolean isWrite) {
+      mOwner = owner;
+      mWork = work;
+      mCallback = callback;
+      mIsWrite = isWrite;
+    }
+
+    /**
+     * Stops the callback from being delivered and, for a read which has not yet started, stops
+     * the read from running. A write which has been submitted still runs.
+     */
+    public void cancel() {
+      mCancelled = true;
+      if (!mIsWrite && mFuture != null)
+        mFuture.cancel(false);
+    }
+
+    public boolean isCancelled() {
+      return mCancelled;
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param readerThreads    the number of threads reads may run on at once
+   * @param callbackExecutor where callbacks are run, e.g. on the UI thread
+   */
+  public ReadWriteExecutor(int readerThreads, Executor callbackExecutor) {
+    mReaders = Executors.newFixedThreadPool(readerThreads, namedThreads("db-reader-"));
+    mWriter = Executors.newSingleThreadExecutor(namedThreads("db-writer-"));
+    mCallbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Submits work which only reads. It will start once every write submitted before it is done.
+   *
+   * @param owner    the object the result is for, as passed to cancelAll()
+   * @param work     the work to run in the background
+   * @param callback receives the result, or null if no result is needed
+   * @return a handle to the task
+   */
+  public <T> Task<T> read(Object owner, Callable<T> work, Callback<T> callback) {
+    final Task<T> task = new Task<>(owner, work, callback, false);
+    final Future<?> priorWrite = mLastWrite;
+    track(task);
+
+    task.mFuture = mReaders.submit(new Runnable() {
+      @Override
+      public void run() {
+        if (priorWrite != null)
+          awaitQuietly(priorWrite);
+        runTask(task);
+      }
+    });
+
+    return task;
+  }
+
+  /**
+   * Submits work which writes. Writes run one at a time, in the order submitted.
+   *
+   * @param owner    the object the result is for, as passed to cancelAll()
+   * @param work     the work to run in the background
+   * @param callback receives the result, or null if no result is needed
+   * @return a handle to the task
+   */
+  public <T> Task<T> write(Object owner, Callable<T> work, Callback<T> callback) {
+    final Task<T> task = new Task<>(owner, work, callback, true);
+    track(task);
+
+    synchronized (mWriter) {
+      task.mFuture = mWriter.submit(new Runnable() {
+        @Override
+        public void run() {
+          runTask(task);
+        }
+      });
+      mLastWrite = task.mFuture;
+    }
+
+    return task;
+  }
+
+  /**
+   * @return an Executor which runs plain Runnables on the reader threads, without tracking or
+   * callbacks, e.g. for reading ahead
+   */
+  public Executor getReadExecutor() {
+    return mReaders;
+  }
+
+  /**
+   * Cancels every outstanding task submitted for an owner. Should be called when the owner is
+   * destroyed, e.g. from Activity.onDestroy().
+   *
+   * @param owner the owner whose tasks are to be cancelled
+   */
+  public void cancelAll(Object owner) {
+    ArrayList<Task<?>> tasks;
+    synchronized (mTasksByOwner) {
+      tasks = mTasksByOwner.remove(owner);
+    }
+
+    if (tasks != null) {
+      for (Task<?> each : tasks)
+        each.cancel();
+    }
+  }
+
+  /**
+   * Stops accepting work. Work already submitted is finished.
+   */
+  public void shutdown() {
+    mReaders.shutdown();
+    mWriter.shutdown();
+  }
+
+  /**
+   * Runs the work, then hands the result or exception to the callback Executor.
+   */
+  private <T> void runTask(final Task<T> task) {
+    if (task.mCancelled && !task.mIsWrite) {
+      untrack(task);
+      return;
+    }
+
+    T result = null;
+    Exception error = null;
+    try {
+      result = task.mWork.call();
+    } catch (Exception e) {
+      error = e;
+    }
+
+    final T finalResult = result;
+    final Exception finalError = error;
+    mCallbackExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        untrack(task);
+        if (!task.mCancelled && task.mCallback != null) {
+          if (finalError != null)
+            task.mCallback.onError(finalError);
+          else
+            task.mCallback.onResult(finalResult);
+        } else if (finalError != null && (task.mIsWrite || !task.mCancelled)) {
+          // Nobody to report to, but a failed write (or an unwatched read) must not go unnoticed
+          Log.e(TAG, (task.mIsWrite ? "Write" : "Read") + " failed with no callback", finalError);
+        }
+      }
+    });
+  }
+
+  private void track(Task<?> task) {
+    synchronized (mTasksByOwner) {
+      ArrayList<Task<?>> tasks = mTasksByOwner.get(task.mOwner);
+      if (tasks == null) {
+        tasks = new ArrayList<>();
+        mTasksByOwner.put(task.mOwner, tasks);
+      }
+      tasks.add(task);
+    }
+  }
+
+  private void untrack(Task<?> task) {
+    synchronized (mTasksByOwner) {
+      ArrayList<Task<?>> tasks = mTasksByOwner.get(task.mOwner);
+      if (tasks != null) {
+        tasks.remove(task);
+        if (tasks.isEmpty())
+          mTasksByOwner.remove(task.mOwner);
+      }
+    }
+  }
+
+  /**
+   * Waits for a prior write to finish. Its failure, if any, is reported through its own
+   * callback, so it is ignored here.
+   */
+  private static void awaitQuietly(Future<?> future) {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // reported by the write's own task
+    }
+  }
+
+  /**
+   * Returns a ThreadFactory for a pool's threads, which are named with a prefix and a number,
+   * and are daemon threads, so an idle pool never keeps the process alive.
+   *
+   * @param prefix the start of each thread's name, e.g. "db-reader-"
+   * @return the factory
+   */
+  public static ThreadFactory namedThreads(final String prefix) {
+    return new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + mCount.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
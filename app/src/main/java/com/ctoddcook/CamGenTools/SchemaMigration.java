@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.CamGenTools;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step in upgrading a database's schema to a given version, run by a SchemaMigrator.
+ * <p/>
+ * A step must be safe to run again: isApplied() is checked first, and the step is skipped if
+ * its change is already in place. After migrate() has run, verify() checks the result, and
+ * throws if it is wrong, so the whole upgrade is rolled back.
+ * <p/>
+ * migrate() runs inside the upgrade's single transaction, so should only change the schema
+ * (ALTER TABLE ... ADD COLUMN is quick however big the table). Work which touches every row of
+ * a large table belongs in backfill(), which the SchemaMigrator runs afterwards, a batch of rows
+ * to a transaction, so the database is never locked for long. Until its backfill is finished,
+ * the app must cope with rows not yet filled in.
+ */
+public abstract class SchemaMigration {
+  private final int mVersion;
+  private final String mName;
+
+  /**
+   * Constructor.
+   *
+   * @param version the schema version this step upgrades to
+   * @param name    a short description of the step, for the log
+   */
+  protected SchemaMigration(int version, String name) {
+    mVersion = version;
+    mName = name;
+  }
+
+  /**
+   * @return the schema version this step upgrades to
+   */
+  public int getVersion() {
+    return mVersion;
+  }
+
+  /**
+   * @return a short description of the step
+   */
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * The check before the step: whether its change is already in place.
+   *
+   * @param db the database being upgraded
+   * @return true if the step has nothing to do
+   */
+  public abstract boolean isApplied(SQLiteDatabase db);
+
+  /**
+   * Makes the step's change to the schema.
+   *
+   * @param db the database being upgraded, within a transaction
+   */
+  public abstract void migrate(SQLiteDatabase db);
+
+  /**
+   * The check after the step. By default, that isApplied() now returns true.
+   *
+   * @param db the database being upgraded, within a transaction
+   * @throws IllegalStateException if the change is not in place
+   */
+  public void verify(SQLiteDatabase db) {
+    if (!isApplied(db))
+      throw new IllegalStateException("Migration to version " + mVersion + " (" + mName +
+          ") did not take effect");
+  }
+
+  /**
+   * Fills in up to some number of rows after the schema has changed. Called, each time in its
+   * own transaction, until it returns fewer rows than asked for. It must only pick rows not yet
+   * filled in, so it can carry on where it left off if the app is stopped part way. By
+   * default there is nothing to fill in.
+   *
+   * @param db      the database, within a transaction
+   * @param maxRows the most rows to fill in
+   * @return the number of rows filled in
+   */
+  public int backfill(SQLiteDatabase db, int maxRows) {
+    return 0;
+  }
+}
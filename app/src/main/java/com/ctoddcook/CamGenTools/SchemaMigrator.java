@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.CamGenTools;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.TreeMap;
+
+/**
+ * A registry of SchemaMigration steps, in version order, which upgrades a database from one
+ * version to another by running every step in between, and then fills in any rows the steps
+ * need, a batch at a time.
+ * <p/>
+ * All the steps of an upgrade run in a single transaction, so a failed step leaves the database
+ * as it was. Each step is recorded in a log table, with how long it took; the log also keeps
+ * track of which steps' backfills are unfinished, so they carry on after the app is restarted.
+ * <pre>
+ *   onCreate():   migrator.createLog(db);
+ *   onUpgrade():  migrator.upgrade(db, oldVersion, newVersion);
+ *   later:        while (migrator.runBackfillBatch(db, 500)) { ... }
+ * </pre>
+ */
+public class SchemaMigrator {
+  private static final String TAG = "SchemaMigrator";
+
+  public static final String TABLE_NAME = "schema_migration";
+  public static final String COLUMN_NAME_VERSION = "version";
+  public static final String COLUMN_NAME_NAME = "name";
+  public static final String COLUMN_NAME_SKIPPED = "skipped";
+  public static final String COLUMN_NAME_MIGRATE_MILLIS = "migrate_millis";
+  public static final String COLUMN_NAME_BACKFILL_ROWS = "backfill_rows";
+  public static final String COLUMN_NAME_BACKFILL_MILLIS = "backfill_millis";
+  public static final String COLUMN_NAME_BACKFILL_DONE = "backfill_done";
+
+  private static final String SQL_CREATE_TABLE =
+      "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+          COLUMN_NAME_VERSION + DatabaseMap_Base.KEY_COLUMN_DEFINITION_PHRASE +
+          COLUMN_NAME_NAME + DatabaseMap_Base.STRING_TYPE + DatabaseMap_Base.NOT_NULL +
+          DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_SKIPPED + DatabaseMap_Base.INT_TYPE + DatabaseMap_Base.NOT_NULL +
+          DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_MIGRATE_MILLIS + DatabaseMap_Base.INT_TYPE + DatabaseMap_Base.NOT_NULL +
+          DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_BACKFILL_ROWS + DatabaseMap_Base.INT_TYPE + DatabaseMap_Base.NOT_NULL +
+          DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_BACKFILL_MILLIS + DatabaseMap_Base.INT_TYPE + DatabaseMap_Base.NOT_NULL +
+          DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_BACKFILL_DONE + DatabaseMap_Base.INT_TYPE + DatabaseMap_Base.NOT_NULL +
+          DatabaseMap_Base.COMMA_SEP +
+          DatabaseMap_Base.COLUMN_NAME_LAST_UPDATED + DatabaseMap_Base.DATETIME_TYPE + ")";
+
+  private static final String SQL_INSERT =
+      "INSERT OR REPLACE INTO " + TABLE_NAME + " (" +
+          COLUMN_NAME_VERSION + DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_NAME + DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_SKIPPED + DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_MIGRATE_MILLIS + DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_BACKFILL_ROWS + DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_BACKFILL_MILLIS + DatabaseMap_Base.COMMA_SEP +
+          COLUMN_NAME_BACKFILL_DONE + DatabaseMap_Base.COMMA_SEP +
+          DatabaseMap_Base.COLUMN_NAME_LAST_UPDATED + ") VALUES (?, ?, ?, ?, 0, 0, 0, ?)";
+
+  private static final String SQL_SELECT_PENDING =
+      "SELECT " + COLUMN_NAME_VERSION + " FROM " + TABLE_NAME +
+          " WHERE " + COLUMN_NAME_BACKFILL_DONE + " = 0" +
+          " ORDER BY " + COLUMN_NAME_VERSION + " LIMIT 1";
+
+  private static final String SQL_UPDATE_BACKFILL =
+      "UPDATE " + TABLE_NAME + " SET " +
+          COLUMN_NAME_BACKFILL_ROWS + " = " + COLUMN_NAME_BACKFILL_ROWS + " + ?, " +
+          COLUMN_NAME_BACKFILL_MILLIS + " = " + COLUMN_NAME_BACKFILL_MILLIS + " + ?, " +
+          COLUMN_NAME_BACKFILL_DONE + " = ?, " +
+          DatabaseMap_Base.COLUMN_NAME_LAST_UPDATED + " = ?" +
+          " WHERE " + COLUMN_NAME_VERSION + " = ?";
+
+  private final TreeMap<Integer, SchemaMigration> mSteps = new TreeMap<>();
+
+  /**
+   * Adds a step. Steps may be added in any order, but only one for each version.
+   *
+   * @param step the step to add
+   * @return this migrator, so calls can be chained
+   * @throws IllegalArgumentException if there is already a step for the step's version
+   */
+  public SchemaMigrator add(SchemaMigration step) {
+    if (mSteps.containsKey(step.getVersion()))
+      throw new IllegalArgumentException("There is already a migration to version " +
+          step.getVersion());
+
+    mSteps.put(step.getVersion(), step);
+    return this;
+  }
+
+  /**
+   * Creates the log table, if it doesn't already exist. Call from onCreate(), since a new
+   * database runs no steps.
+   *
+   * @param db the database
+   */
+  public void createLog(SQLiteDatabase db) {
+    db.execSQL(SQL_CREATE_TABLE);
+  }
+
+  /**
+   * Runs, in version order and in one transaction, every step after the old version up to and
+   * including the new one. A step whose change is already in place is skipped. Versions with no
+   * step had no change to the schema. Each step is logged, and its backfill marked as unfinished.
+   *
+   * @param db         the database
+   * @param oldVersion the version the database is at
+   * @param newVersion the version to upgrade it to
+   * @throws IllegalStateException if there are no steps up to the new version, or a step fails
+   *                               its check
+   */
+  public void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    if (oldVersion < 1 || mSteps.isEmpty() || newVersion > mSteps.lastKey() ||
+        oldVersion >= newVersion)
+      throw new IllegalStateException("No migration from version " + oldVersion + " to " +
+          newVersion);
+
+    db.beginTransaction();
+    try {
+      createLog(db);
+      SQLiteStatement insert = db.compileStatement(SQL_INSERT);
+
+      for (SchemaMigration step : mSteps.subMap(oldVersion, false, newVersion, true).values()) {
+        long start = System.nanoTime();
+        boolean skipped = step.isApplied(db);
+        if (!skipped) {
+          step.migrate(db);
+          step.verify(db);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        insert.clearBindings();
+        insert.bindLong(1, step.getVersion());
+        insert.bindString(2, step.getName());
+        insert.bindLong(3, skipped ? 1 : 0);
+        insert.bindLong(4, millis);
+        insert.bindLong(5, System.currentTimeMillis());
+        insert.executeInsert();
+
+        Log.i(TAG, "Version " + step.getVersion() + " (" + step.getName() + "): " +
+            (skipped ? "already applied" : millis + "ms"));
+      }
+      insert.close();
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Runs one batch of the earliest unfinished backfill, in its own transaction, and logs it.
+   * Call repeatedly, letting other work in between, until it returns false.
+   *
+   * @param db      the database
+   * @param maxRows the most rows to fill in in this batch
+   * @return true if a batch was run, so there may be more to do; false if every backfill is
+   * finished
+   */
+  public boolean runBackfillBatch(SQLiteDatabase db, int maxRows) {
+    if (!DatabaseMap_Base.tableExists(db, TABLE_NAME))
+      return false;
+
+    db.beginTransaction();
+    try {
+      int version;
+      Cursor cursor = db.rawQuery(SQL_SELECT_PENDING, null);
+      try {
+        if (!cursor.moveToFirst())
+          return false;
+        version = cursor.getInt(0);
+      } finally {
+        cursor.close();
+      }
+
+      // A step no longer registered has nothing left to fill in
+      SchemaMigration step = mSteps.get(version);
+      long start = System.nanoTime();
+      int rows = step == null ? 0 : step.backfill(db, maxRows);
+      long millis = (System.nanoTime() - start) / 1000000;
+      boolean done = rows < maxRows;
+
+      SQLiteStatement update = db.compileStatement(SQL_UPDATE_BACKFILL);
+      update.bindLong(1, rows);
+      update.bindLong(2, millis);
+      update.bindLong(3, done ? 1 : 0);
+      update.bindLong(4, System.currentTimeMillis());
+      update.bindLong(5, version);
+      update.executeUpdateDelete();
+      update.close();
+
+      db.setTransactionSuccessful();
+      if (done)
+        Log.i(TAG, "Version " + version + " backfill finished");
+      return true;
+    } finally {
+      db.endTransaction();
+    }
+  }
+}
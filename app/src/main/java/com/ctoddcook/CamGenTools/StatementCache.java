@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.CamGenTools;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+
+/**
+ * Holds compiled SQLiteStatements for one database connection, keyed by their SQL, so that
+ * fixed INSERT/UPDATE/DELETE statements are parsed once rather than on every write, and no
+ * ContentValues map is built for each row.
+ * <p/>
+ * A cached statement is shared by every caller, so bind its arguments and execute it while
+ * holding its lock:
+ * <pre>
+ *   SQLiteStatement insert = cache.get(SQL_INSERT);
+ *   synchronized (insert) {
+ *     insert.clearBindings();
+ *     insert.bindLong(1, ...);
+ *     id = insert.executeInsert();
+ *   }
+ * </pre>
+ * The statements belong to the connection they were compiled on; if it is closed and another
+ * opened, make a new cache for it (see isFor()).
+ */
+public class StatementCache {
+  private final SQLiteDatabase mDatabase;
+  private final HashMap<String, SQLiteStatement> mStatements = new HashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param db the open database connection the statements are compiled on
+   */
+  public StatementCache(SQLiteDatabase db) {
+    mDatabase = db;
+  }
+
+  /**
+   * @param db a database connection
+   * @return true if this cache's statements were compiled on that connection, and it is open
+   */
+  public boolean isFor(SQLiteDatabase db) {
+    return mDatabase == db && db.isOpen();
+  }
+
+  /**
+   * Returns the compiled statement for some SQL, compiling it the first time it is asked for.
+   *
+   * @param sql a statement with ? placeholders for its arguments
+   * @return the compiled statement
+   */
+  public synchronized SQLiteStatement get(String sql) {
+    SQLiteStatement statement = mStatements.get(sql);
+    if (statement == null) {
+      statement = mDatabase.compileStatement(sql);
+      mStatements.put(sql, statement);
+    }
+
+    return statement;
+  }
+
+  /**
+   * Closes every statement in the cache. Should be called before the connection is closed.
+   */
+  public synchronized void close() {
+    for (SQLiteStatement each : mStatements.values())
+      each.close();
+    mStatements.clear();
+  }
+
+  /**
+   * Binds a string which may be null. (SQLiteStatement.bindString() does not accept null.)
+   *
+   * @param statement the statement to bind to
+   * @param index     the 1-based index of the argument
+   * @param value     the value, or null
+   */
+  public static void bindString(SQLiteStatement statement, int index, String value) {
+    if (value == null)
+      statement.bindNull(index);
+    else
+      statement.bindString(index, value);
+  }
+}
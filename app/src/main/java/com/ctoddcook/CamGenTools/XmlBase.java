@@ -14,7 +14,11 @@ public class XmlBase {
 
   /**
    * Takes an input string, and searches for any special characters which must be escaped in XML,
-   * and if it finds any, replaces them with the escape value.
+   * and if it finds any, replaces them with the escape value. An ampersand which already begins
+   * one of the five escapes is left alone, so a value is never escaped twice.
+   * <p/>
+   * The value is scanned once; if nothing in it needs escaping, it is returned as it is, and
+   * nothing is copied.
    *
    * @param input A value which may require escaping
    * @return A string with characters escaped where required
@@ -23,21 +27,112 @@ public class XmlBase {
     if (input == null || input.length() == 0)
       return "";
 
-    /*
-    In the case of ampersands, we want to replace them with &amp; UNLESS the existing ampersand
-    is already part of a escape sequence.
-     */
-    input = input.replaceAll("&(?!amp;)(?!lt;)(?!gt;)(?!quot;)(?!apos;)", "&amp;");
-
-    /*
-    The other replacements are more straight forward.
-     */
-    input = input.replaceAll("<", "&lt;");
-    input = input.replaceAll(">", "&gt;");
-    input = input.replaceAll("\"", "&quot;");
-    input = input.replaceAll("'", "&apos;");
-
-    return input;
+    int length = input.length();
+    int first = 0;
+    while (first < length && getEscape(input, null, first, length) == null)
+      first++;
+    if (first == length)
+      return input;
+
+    StringBuilder sb = new StringBuilder(length + 16);
+    sb.append(input, 0, first);
+    try {
+      appendEscaped(input, first, length, sb);
+    } catch (IOException e) {
+      throw new IllegalStateException("A StringBuilder cannot throw an IOException", e);
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Escapes a value as encodeValue(String) does, appending it straight to a destination, such as
+   * a StringBuilder or a Writer, instead of building a new String. To write values held in a
+   * char array through a reused buffer, see XmlStreamWriter.
+   *
+   * @param input A value which may require escaping; null appends nothing
+   * @param out   Where the escaped value is appended
+   * @throws IOException if the destination fails
+   */
+  public static void encodeValue(CharSequence input, Appendable out) throws IOException {
+    if (input != null)
+      appendEscaped(input, 0, input.length(), out);
+  }
+
+  /*
+   * Appends a value, from index start up to end, escaping it. Runs of characters which need no
+   * escaping are appended whole.
+   */
+  private static void appendEscaped(CharSequence input, int start, int end, Appendable out)
+      throws IOException {
+    for (int i = start; i < end; i++) {
+      String escape = getEscape(input, null, i, end);
+      if (escape != null) {
+        out.append(input, start, i).append(escape);
+        start = i + 1;
+      }
+    }
+    out.append(input, start, end);
+  }
+
+  /**
+   * Returns the escape for one character of a value, or null if it is written as it is. The
+   * value is in either the char sequence or the array, and ends before index end; it is needed to
+   * look ahead after an ampersand. Shared with XmlStreamWriter, so both escape alike.
+   *
+   * @param text  The value, or null if it is in the array
+   * @param chars The array holding the value, if text is null
+   * @param index The index of the character
+   * @param end   The index following the value's last character
+   * @return The escape, or null
+   */
+  static String getEscape(CharSequence text, char[] chars, int index, int end) {
+    char c = (text != null ? text.charAt(index) : chars[index]);
+
+    // '>' is the highest of the characters which need escaping
+    if (c > '>')
+      return null;
+
+    switch (c) {
+      case '&':
+        return startsEscape(text, chars, index + 1, end) ? null : "&amp;";
+      case '<':
+        return "&lt;";
+      case '>':
+        return "&gt;";
+      case '"':
+        return "&quot;";
+      case '\'':
+        return "&apos;";
+      default:
+        return null;
+    }
+  }
+
+  /*
+   * Checks whether the characters following an ampersand complete one of the five escapes.
+   */
+  private static boolean startsEscape(CharSequence text, char[] chars, int from, int end) {
+    return matches("amp;", text, chars, from, end) ||
+        matches("lt;", text, chars, from, end) ||
+        matches("gt;", text, chars, from, end) ||
+        matches("quot;", text, chars, from, end) ||
+        matches("apos;", text, chars, from, end);
+  }
+
+  private static boolean matches(String name, CharSequence text, char[] chars, int from,
+                                 int end) {
+    int n = name.length();
+    if (from + n > end)
+      return false;
+
+    for (int i = 0; i < n; i++) {
+      char c = (text != null ? text.charAt(from + i) : chars[from + i]);
+      if (c != name.charAt(i))
+        return false;
+    }
+
+    return true;
   }
 
   /**
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.CamGenTools;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes XML text to a Writer through one reusable char buffer. Markup is copied in as-is;
+ * values are escaped as they are copied, in one pass, with the runs between escapes copied
+ * whole, so writing a value never builds an escaped copy of it. Nothing is allocated per write.
+ * <p/>
+ * Values are escaped by XmlBase.getEscape(), exactly as XmlBase.encodeValue() escapes them:
+ * &amp;, &lt;, &gt;, &quot; and &apos; replace the characters they stand for, except that an
+ * ampersand which already begins one of those five escapes is left alone.
+ */
+public class XmlStreamWriter {
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+  private final Writer mOut;
+  private final char[] mBuffer;
+  private int mCount = 0;
+
+  /**
+   * Constructor using the default buffer size.
+   *
+   * @param out where the XML is written
+   */
+  public XmlStreamWriter(Writer out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param out        where the XML is written
+   * @param bufferSize the number of chars held before they are passed to the Writer
+   */
+  public XmlStreamWriter(Writer out, int bufferSize) {
+    Assert.isTrue(bufferSize > 0, "The buffer size must be greater than 0");
+    mOut = out;
+    mBuffer = new char[bufferSize];
+  }
+
+  /**
+   * Writes markup (or anything else which needs no escaping) as it is.
+   *
+   * @param s the text to write
+   * @throws IOException if the Writer fails
+   */
+  public void write(String s) throws IOException {
+    write(s, 0, s.length());
+  }
+
+  /* Copies part of a string, from index start up to end, into the buffer */
+  private void write(String s, int start, int end) throws IOException {
+    while (start < end) {
+      if (mCount == mBuffer.length)
+        flushBuffer();
+      int n = Math.min(end - start, mBuffer.length - mCount);
+      s.getChars(start, start + n, mBuffer, mCount);
+      mCount += n;
+      start += n;
+    }
+  }
+
+  /* Copies part of a char array, from index start up to end, into the buffer */
+  private void write(char[] chars, int start, int end) throws IOException {
+    while (start < end) {
+      if (mCount == mBuffer.length)
+        flushBuffer();
+      int n = Math.min(end - start, mBuffer.length - mCount);
+      System.arraycopy(chars, start, mBuffer, mCount, n);
+      mCount += n;
+      start += n;
+    }
+  }
+
+  /**
+   * Writes a line separator.
+   *
+   * @throws IOException if the Writer fails
+   */
+  public void newLine() throws IOException {
+    write(LINE_SEPARATOR);
+  }
+
+  /**
+   * Writes a value, escaping the characters XML requires to be escaped.
+   *
+   * @param value the value to write; null is written as nothing
+   * @throws IOException if the Writer fails
+   */
+  public void writeEscaped(String value) throws IOException {
+    if (value == null)
+      return;
+
+    int length = value.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      String escape = XmlBase.getEscape(value, null, i, length);
+      if (escape != null) {
+        write(value, start, i);
+        write(escape);
+        start = i + 1;
+      }
+    }
+    write(value, start, length);
+  }
+
+  /**
+   * Writes a value held in a char array, escaping the characters XML requires to be escaped.
+   * Meant for values copied out of a database cursor into a reused buffer.
+   *
+   * @param chars  the array holding the value
+   * @param length the number of chars of the value, starting at index 0
+   * @throws IOException if the Writer fails
+   */
+  public void writeEscaped(char[] chars, int length) throws IOException {
+    writeEscaped(chars, 0, length);
+  }
+
+  /**
+   * Writes a value held in part of a char array, escaping the characters XML requires to be
+   * escaped. Nothing outside that part of the array is read.
+   *
+   * @param chars  the array holding the value
+   * @param offset the index of the value's first char
+   * @param length the number of chars of the value
+   * @throws IOException if the Writer fails
+   */
+  public void writeEscaped(char[] chars, int offset, int length) throws IOException {
+    int end = offset + length;
+    int start = offset;
+    for (int i = offset; i < end; i++) {
+      String escape = XmlBase.getEscape(null, chars, i, end);
+      if (escape != null) {
+        write(chars, start, i);
+        write(escape);
+        start = i + 1;
+      }
+    }
+    write(chars, start, end);
+  }
+
+  /**
+   * Passes everything buffered to the Writer, and flushes it.
+   *
+   * @throws IOException if the Writer fails
+   */
+  public void flush() throws IOException {
+    flushBuffer();
+    mOut.flush();
+  }
+
+  /**
+   * Passes everything buffered to the Writer, and closes it.
+   *
+   * @throws IOException if the Writer fails
+   */
+  public void close() throws IOException {
+    try {
+      flushBuffer();
+    } finally {
+      mOut.close();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (mCount > 0) {
+      mOut.write(mBuffer, 0, mCount);
+      mCount = 0;
+    }
+  }
+}
@@ -12,6 +12,7 @@ import android.database.sqlite.SQLiteCursor;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.design.widget.NavigationView;
+import android.support.design.widget.Snackbar;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v4.widget.SimpleCursorAdapter;
 import android.support.v7.app.ActionBarDrawerToggle;
@@ -30,6 +31,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.ctoddcook.CamGenTools.PropertiesHelper;
+import com.ctoddcook.CamGenTools.ReadWriteExecutor;
 import com.ctoddcook.CamUiTools.Handler_Hints;
 
 import java.util.ArrayList;
@@ -54,6 +56,7 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
 
     private static PropertiesHelper sPropertiesHelper;
     private static DatabaseHelper sDatabaseHelper;
+    private static AsyncDatabaseHelper sAsyncDatabaseHelper;
 
     private int mCurrentVehicleID = 0;
     private ListView mHistoricalsList;
@@ -91,6 +94,7 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
         Handler_Format.init(this);
 
         sDatabaseHelper = DatabaseHelper.getInstance(this);
+        sAsyncDatabaseHelper = AsyncDatabaseHelper.getInstance(this);
         PropertiesHelper.setDatabaseHelper(sDatabaseHelper);
         sPropertiesHelper = PropertiesHelper.getInstance();
 
@@ -98,20 +102,41 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
 
         populateScreen();
 
+        // Finish filling in any rows left by a schema upgrade
+        sAsyncDatabaseHelper.runBackfills();
+
+        // Clear out fuelings deleted long enough ago that they can no longer be undeleted, once
+        // there are enough of them to be worth it
+        sAsyncDatabaseHelper.compactDeletedFuelings(this, null);
+
         showHint();
     }
 
     /**
      * Called after the activity is covered (for example, by another activity) and then redisplayed.
+     * The app may have been in the background across days, so the averages are re-read, with the
+     * 3-month, 6-month and one-year spans measured back from today.
      * <p/>
      * {@link #onResumeFragments()}.
      */
     @Override
     protected void onResume() {
         super.onResume();
+        if (mCurrentVehicleID > 0)
+            loadAverages(mCurrentVehicleID);
         showHint();
     }
 
+    /**
+     * Called as the activity is destroyed. Database calls still outstanding for this activity
+     * are cancelled, so their results are not delivered to it.
+     */
+    @Override
+    protected void onDestroy() {
+        sAsyncDatabaseHelper.cancelAll(this);
+        super.onDestroy();
+    }
+
     /**
      * Called when a context menu for the {@code view} is about to be shown.
      * Unlike onCreateOptionsMenu(Menu), this will be called every
@@ -220,8 +245,23 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
 //  }
 //
         // get a cursor providing IDs and NAMEs for each vehicle (include retired vehicles)
-        Cursor cursor = sDatabaseHelper.fetchSimpleVehicleListCursor(true);
+        sAsyncDatabaseHelper.fetchSimpleVehicleListCursor(this, true,
+                new ReadWriteExecutor.Callback<Cursor>() {
+                    @Override
+                    public void onResult(Cursor cursor) {
+                        showVehicleSpinner(cursor);
+                    }
+                });
+    }
+
 
+    /**
+     * Fills the vehicle spinner from a cursor of vehicle IDs and names, and selects the current
+     * vehicle.
+     *
+     * @param cursor a cursor from DatabaseHelper.fetchSimpleVehicleListCursor()
+     */
+    private void showVehicleSpinner(Cursor cursor) {
         // make an adapter from the cursor
         String[] from = new String[]{DatabaseMap_Vehicle.COLUMN_NAME_NAME};
         int[] to = new int[]{android.R.id.text1};
@@ -275,13 +315,26 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
      * vehicle spinner.
      */
     private void loadVehicles() {
-        ArrayList<Model_Vehicle> vehicles;
-
         // Get the default Model_Vehicle
         mCurrentVehicleID = (int) sPropertiesHelper.getLongValue(Model_Vehicle.DEFAULT_VEHICLE_KEY, 0);
 
         // Fetch the list of vehicles into memory
-        vehicles = sDatabaseHelper.fetchVehicleList();
+        sAsyncDatabaseHelper.fetchVehicleList(this,
+                new ReadWriteExecutor.Callback<ArrayList<Model_Vehicle>>() {
+                    @Override
+                    public void onResult(ArrayList<Model_Vehicle> vehicles) {
+                        showVehicles(vehicles);
+                    }
+                });
+    }
+
+
+    /**
+     * Called with the list of vehicles once it has been fetched, to set up the vehicle spinner.
+     *
+     * @param vehicles all of the vehicles in the database
+     */
+    private void showVehicles(ArrayList<Model_Vehicle> vehicles) {
 
     /*
     If no vehicles were found in the database, we open the activity to add at least one vehicle.
@@ -305,28 +358,66 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
 
 
     /**
-     * Handler for loading Model_Vehicle data for a specified id.
+     * Handler for loading Model_Vehicle data for a specified id. The history is shown a page at a
+     * time from a FuelingPageSource, and the averages from span totals (see loadAverages()), so
+     * a vehicle's whole history is never read just to show it. Both are taken from
+     * DatabaseHelper's cache of recently shown vehicles if the vehicle is there; once the first
+     * page is shown, the vehicle is read into that cache in the background if it fits, so
+     * switching back to it doesn't go to the database again. If the user has picked another
+     * vehicle by the time a result arrives, it is ignored.
      *
      * @param id the id for the desired Model_Vehicle.
      */
-    private void loadFuelings(int id) {
-        ArrayList<Model_Fueling> fList = sDatabaseHelper.fetchFuelingData(id);
+    private void loadFuelings(final int id) {
+        sAsyncDatabaseHelper.fetchFuelingPages(this, id,
+                new ReadWriteExecutor.Callback<FuelingPageSource>() {
+                    @Override
+                    public void onResult(FuelingPageSource fuelings) {
+                        if (id != mCurrentVehicleID)
+                            return;
+
+                        FuelingPageSource.setCurrent(fuelings);
+                        if (fuelings.getCount() > 0)
+                            loadHistoricalFuelingsList(fuelings);
+
+                        sAsyncDatabaseHelper.fetchFuelingRepository(Activity_Main.this, id, null);
+                    }
+                });
 
-        if (!fList.isEmpty()) {
-            loadAverages();
-            loadHistoricalFuelingsList(fList);
-        }
+        loadAverages(id);
     }
 
 
     /**
-     * Retrieves averages calculations and writes them into the pre-defined TextViews in the
-     * Averages portion of the main screen. This should only be called after a fetch of all of the
-     * rows for a particular vehicle.
+     * Redraws the Averages portion of the main screen from a vehicle's span totals, measured
+     * back from now. The totals are read in the background, from the vehicle's cached fuelings
+     * if it has been cached or with one aggregate query if not. Nothing is redrawn if the
+     * vehicle has no fuelings.
      *
+     * @param id the id of the vehicle
      * @see #loadFuelings(int id)
      */
-    private void loadAverages() {
+    private void loadAverages(final int id) {
+        sAsyncDatabaseHelper.fetchSpanAggregates(this, id,
+                new ReadWriteExecutor.Callback<SpanAggregate[]>() {
+                    @Override
+                    public void onResult(SpanAggregate[] totals) {
+                        if (id == mCurrentVehicleID
+                                && totals[Model_Fueling.SPAN_ALL_TIME].getCount() > 0)
+                            loadAverages(totals);
+                    }
+                }, Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS,
+                Model_Fueling.SPAN_ONE_YEAR, Model_Fueling.SPAN_ALL_TIME);
+    }
+
+
+    /**
+     * Writes averages into the pre-defined TextViews in the Averages portion of the main screen.
+     *
+     * @param totals the totals for each span, indexed by the Model_Fueling.SPAN_ constants
+     * @see #loadAverages(int id)
+     */
+    private void loadAverages(SpanAggregate totals[]) {
         TextView tv;
         LinearLayout ll;
 
@@ -335,23 +426,23 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
      */
         tv = (TextView) findViewById(R.id.first_average_row_price);
         if (tv != null)
-            tv.setText(Handler_Format.formatPrice(Model_Fueling.getAvgPricePerUnitOverSpan(
-                    Model_Fueling.SPAN_3_MONTHS)));
+            tv.setText(Handler_Format.formatPrice(
+                    totals[Model_Fueling.SPAN_3_MONTHS].getAvgPricePerUnit()));
 
         tv = (TextView) findViewById(R.id.first_average_row_dist);
         if (tv != null)
-            tv.setText(Handler_Format.formatDistance(Model_Fueling.getAvgDistanceOverSpan(
-                    Model_Fueling.SPAN_3_MONTHS)));
+            tv.setText(Handler_Format.formatDistance(
+                    totals[Model_Fueling.SPAN_3_MONTHS].getAvgDistance()));
 
         tv = (TextView) findViewById(R.id.first_average_row_vol);
         if (tv != null)
-            tv.setText(Handler_Format.formatVolumeShort(Model_Fueling.getAvgVolumeOverSpan(
-                    Model_Fueling.SPAN_3_MONTHS)));
+            tv.setText(Handler_Format.formatVolumeShort(
+                    totals[Model_Fueling.SPAN_3_MONTHS].getAvgVolume()));
 
         tv = (TextView) findViewById(R.id.first_average_row_efficiency);
         if (tv != null)
-            tv.setText(Handler_Format.formatEfficiency(Model_Fueling.getAvgEfficiencyOverSpan(
-                    Model_Fueling.SPAN_3_MONTHS)));
+            tv.setText(Handler_Format.formatEfficiency(
+                    totals[Model_Fueling.SPAN_3_MONTHS].getAvgEfficiency()));
 
         ll = (LinearLayout) findViewById(R.id.averages_first_row);
         if (ll != null) ll.setOnClickListener(this);
@@ -363,23 +454,23 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
      */
         tv = (TextView) findViewById(R.id.second_average_row_price);
         if (tv != null)
-            tv.setText(Handler_Format.formatPrice(Model_Fueling.getAvgPricePerUnitOverSpan(
-                    Model_Fueling.SPAN_6_MONTHS)));
+            tv.setText(Handler_Format.formatPrice(
+                    totals[Model_Fueling.SPAN_6_MONTHS].getAvgPricePerUnit()));
 
         tv = (TextView) findViewById(R.id.second_average_row_dist);
         if (tv != null)
-            tv.setText(Handler_Format.formatDistance(Model_Fueling.getAvgDistanceOverSpan(
-                    Model_Fueling.SPAN_6_MONTHS)));
+            tv.setText(Handler_Format.formatDistance(
+                    totals[Model_Fueling.SPAN_6_MONTHS].getAvgDistance()));
 
         tv = (TextView) findViewById(R.id.second_average_row_vol);
         if (tv != null)
-            tv.setText(Handler_Format.formatVolumeShort(Model_Fueling.getAvgVolumeOverSpan(
-                    Model_Fueling.SPAN_6_MONTHS)));
+            tv.setText(Handler_Format.formatVolumeShort(
+                    totals[Model_Fueling.SPAN_6_MONTHS].getAvgVolume()));
 
         tv = (TextView) findViewById(R.id.second_average_row_efficiency);
         if (tv != null)
-            tv.setText(Handler_Format.formatEfficiency(Model_Fueling.getAvgEfficiencyOverSpan(
-                    Model_Fueling.SPAN_6_MONTHS)));
+            tv.setText(Handler_Format.formatEfficiency(
+                    totals[Model_Fueling.SPAN_6_MONTHS].getAvgEfficiency()));
 
         ll = (LinearLayout) findViewById(R.id.averages_second_row);
         if (ll != null) ll.setOnClickListener(this);
@@ -391,23 +482,23 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
      */
         tv = (TextView) findViewById(R.id.third_average_row_price);
         if (tv != null)
-            tv.setText(Handler_Format.formatPrice(Model_Fueling.getAvgPricePerUnitOverSpan(
-                    Model_Fueling.SPAN_ONE_YEAR)));
+            tv.setText(Handler_Format.formatPrice(
+                    totals[Model_Fueling.SPAN_ONE_YEAR].getAvgPricePerUnit()));
 
         tv = (TextView) findViewById(R.id.third_average_row_dist);
         if (tv != null)
-            tv.setText(Handler_Format.formatDistance(Model_Fueling.getAvgDistanceOverSpan(
-                    Model_Fueling.SPAN_ONE_YEAR)));
+            tv.setText(Handler_Format.formatDistance(
+                    totals[Model_Fueling.SPAN_ONE_YEAR].getAvgDistance()));
 
         tv = (TextView) findViewById(R.id.third_average_row_vol);
         if (tv != null)
-            tv.setText(Handler_Format.formatVolumeShort(Model_Fueling.getAvgVolumeOverSpan(
-                    Model_Fueling.SPAN_ONE_YEAR)));
+            tv.setText(Handler_Format.formatVolumeShort(
+                    totals[Model_Fueling.SPAN_ONE_YEAR].getAvgVolume()));
 
         tv = (TextView) findViewById(R.id.third_average_row_efficiency);
         if (tv != null)
-            tv.setText(Handler_Format.formatEfficiency(Model_Fueling.getAvgEfficiencyOverSpan(
-                    Model_Fueling.SPAN_ONE_YEAR)));
+            tv.setText(Handler_Format.formatEfficiency(
+                    totals[Model_Fueling.SPAN_ONE_YEAR].getAvgEfficiency()));
 
         ll = (LinearLayout) findViewById(R.id.averages_third_row);
         if (ll != null) ll.setOnClickListener(this);
@@ -419,23 +510,23 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
      */
         tv = (TextView) findViewById(R.id.fourth_average_row_price);
         if (tv != null)
-            tv.setText(Handler_Format.formatPrice(Model_Fueling.getAvgPricePerUnitOverSpan(
-                    Model_Fueling.SPAN_ALL_TIME)));
+            tv.setText(Handler_Format.formatPrice(
+                    totals[Model_Fueling.SPAN_ALL_TIME].getAvgPricePerUnit()));
 
         tv = (TextView) findViewById(R.id.fourth_average_row_dist);
         if (tv != null)
-            tv.setText(Handler_Format.formatDistance(Model_Fueling.getAvgDistanceOverSpan(
-                    Model_Fueling.SPAN_ALL_TIME)));
+            tv.setText(Handler_Format.formatDistance(
+                    totals[Model_Fueling.SPAN_ALL_TIME].getAvgDistance()));
 
         tv = (TextView) findViewById(R.id.fourth_average_row_vol);
         if (tv != null)
-            tv.setText(Handler_Format.formatVolumeShort(Model_Fueling.getAvgVolumeOverSpan(
-                    Model_Fueling.SPAN_ALL_TIME)));
+            tv.setText(Handler_Format.formatVolumeShort(
+                    totals[Model_Fueling.SPAN_ALL_TIME].getAvgVolume()));
 
         tv = (TextView) findViewById(R.id.fourth_average_row_efficiency);
         if (tv != null)
-            tv.setText(Handler_Format.formatEfficiency(Model_Fueling.getAvgEfficiencyOverSpan(
-                    Model_Fueling.SPAN_ALL_TIME)));
+            tv.setText(Handler_Format.formatEfficiency(
+                    totals[Model_Fueling.SPAN_ALL_TIME].getAvgEfficiency()));
 
         ll = (LinearLayout) findViewById(R.id.averages_fourth_row);
         if (ll != null) ll.setOnClickListener(this);
@@ -445,9 +536,10 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
     /**
      * Handler for loading historical Model_Fueling data into the scrolling ListView.
      *
-     * @param fList the complete list of Fuelings for the current Model_Vehicle.
+     * @param fuelings the source of Fuelings for the current Model_Vehicle; they are read a page
+     *                 at a time as the list is scrolled.
      */
-    private void loadHistoricalFuelingsList(ArrayList<Model_Fueling> fList) {
+    private void loadHistoricalFuelingsList(FuelingPageSource fuelings) {
         if (mHistoricalsList == null) {
             mHistoricalsList = (ListView) findViewById(R.id.Main_HistoricalsList);
             if (mHistoricalsList != null) {
@@ -456,7 +548,7 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
             }
         }
 
-        mHistoricalsList.setAdapter(new Row_FuelingDetails(this, fList));
+        mHistoricalsList.setAdapter(new Row_FuelingDetails(this, fuelings));
     }
 
 
@@ -539,6 +631,7 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
         intent.putExtra(Activity_DetailFrame.ARG_POSITION, pos);
         intent.putExtra(Activity_DetailFrame.ARG_VEHICLE, Model_Vehicle.getVehicle(mCurrentVehicleID)
                 .getName());
+        intent.putExtra(Activity_DetailFrame.ARG_VEHICLE_ID, mCurrentVehicleID);
         startActivity(intent);
     }
 
@@ -636,8 +729,24 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
      * @param fuelingID The id of the fueling to be deleted.
      */
     private void deleteFueling(int fuelingID) {
+        sAsyncDatabaseHelper.fetchFueling(this, fuelingID,
+                new ReadWriteExecutor.Callback<Model_Fueling>() {
+                    @Override
+                    public void onResult(Model_Fueling fueling) {
+                        confirmDeleteFueling(fueling);
+                    }
+                });
+    }
+
+
+    /**
+     * Called with the fueling the user asked to delete, once it has been fetched.
+     *
+     * @param fueling The fueling to be deleted, or null if it no longer exists
+     */
+    private void confirmDeleteFueling(Model_Fueling fueling) {
         // Note the vehicle which is to be deleted
-        mFuelingToDelete = Model_Fueling.getFueling(fuelingID);
+        mFuelingToDelete = fueling;
         if (mFuelingToDelete == null) return;
 
         // Setup the listeners which will respond to the user's response to the dialog
@@ -647,11 +756,8 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
                 switch (which) {
                     // If the user clicks "YES" then we delete the vehicle
                     case DialogInterface.BUTTON_POSITIVE:
-                        mFuelingToDelete.setDeleted();
-                        sDatabaseHelper.deleteFueling(mFuelingToDelete);
+                        executeDeleteFueling(mFuelingToDelete);
                         mFuelingToDelete = null;
-                        Handler_DataEvents.getInstance().dispatchDataUpdatedEvent(
-                                Handler_DataEvents.DataUpdateEvent.FUELING_LIST_UPDATED, null);
                         break;
 
                     // If the user clicks "NO" then we clean up and get out of here
@@ -666,12 +772,59 @@ public class Activity_Main extends AppCompatActivity implements AdapterView.OnIt
         // deleted.
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Delete Fueling?");
-        builder.setMessage("Deleting a fueling cannot be undone. Are you sure you want to do this?")
+        builder.setMessage("Are you sure you want to delete this fueling?")
                 .setPositiveButton("Yes, delete it", dialogClickListener)
                 .setNegativeButton("No, never mind", dialogClickListener).show();
     }
 
 
+    /**
+     * Deletes a fueling in the background. Once it is deleted, the screens are told and the user
+     * is offered the chance to undo it.
+     *
+     * @param fueling The fueling to be deleted
+     */
+    private void executeDeleteFueling(final Model_Fueling fueling) {
+        fueling.setDeleted();
+        sAsyncDatabaseHelper.deleteFueling(this, fueling, new ReadWriteExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean deleted) {
+                if (deleted) {
+                    Handler_DataEvents.getInstance().dispatchDataUpdateEvent(
+                            Handler_DataEvents.DataUpdateEvent.FUELING_LIST_UPDATED, null);
+                    offerUndoDelete(fueling);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Offers to undo the deletion of a fueling, for as long as the message is shown. The row is
+     * only marked as deleted, so undoing it is a single update.
+     *
+     * @param deleted The fueling which was just deleted
+     */
+    private void offerUndoDelete(final Model_Fueling deleted) {
+        Snackbar.make(findViewById(R.id.Main_HistoricalsList), "Fueling deleted",
+                Snackbar.LENGTH_LONG).setAction("Undo", new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                sAsyncDatabaseHelper.undeleteFueling(Activity_Main.this, deleted,
+                        new ReadWriteExecutor.Callback<Boolean>() {
+                            @Override
+                            public void onResult(Boolean undeleted) {
+                                if (undeleted)
+                                    Handler_DataEvents.getInstance().dispatchDataUpdateEvent(
+                                            Handler_DataEvents.DataUpdateEvent.FUELING_LIST_UPDATED,
+                                            null);
+                            }
+                        });
+            }
+        }).show();
+    }
+
+
     /**
      * This is a call-back method to respond to data-update events. An example of such an event is
      * when a vehicle is retired or deleted.
@@ -61,6 +61,30 @@ public class Activity_Settings extends AppCompatActivity {
         sPropertiesHelper.put(Activity_EditFueling.KEY_USER_ALLOWS_GPS, isChecked);
       }
     });
+
+    // How backups are written; each is off until the user turns it on
+    setupSwitch(R.id.backup_binary, Handler_Backup.KEY_BACKUP_BINARY);
+    setupSwitch(R.id.backup_compressed, Handler_Backup.KEY_BACKUP_COMPRESSED);
+    setupSwitch(R.id.backup_incremental, Handler_Backup.KEY_BACKUP_INCREMENTAL);
+  }
+
+
+  /**
+   * Sets a switch according to the saved setting (off, if it has never been saved), and stores
+   * the new value whenever the user changes it.
+   * @param switchID The ID of the switch
+   * @param key The name of the property the setting is saved as
+   */
+  private void setupSwitch(int switchID, final String key) {
+    Switch setting = (Switch) findViewById(switchID);
+
+    setting.setChecked(sPropertiesHelper.getBooleanValue(key, false));
+    setting.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+      @Override
+      public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+        sPropertiesHelper.put(key, isChecked);
+      }
+    });
   }
 
 
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.app.backup.BackupManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.ctoddcook.CamGenTools.ReadWriteExecutor;
+import com.ctoddcook.CamGenTools.ReadWriteExecutor.Callback;
+import com.ctoddcook.CamGenTools.ReadWriteExecutor.Task;
+import com.ctoddcook.FuelLogBackup.BackupChain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs DatabaseHelper calls off the UI thread, so that opening a vehicle with a long history
+ * (or any other slow query) cannot hold up the screen. Reads run on a small pool of threads;
+ * writes run one at a time, and a read always sees the writes submitted before it. Results are
+ * delivered to a Callback on the UI thread.
+ * <p/>
+ * Every call takes an owner, normally the calling Activity, which must call cancelAll(this) in
+ * its onDestroy() so that results are not delivered to a destroyed Activity. Writes already
+ * submitted are still completed.
+ * <p/>
+ * Once a write which changes the vehicles or fuelings has run, the backup manager is told the
+ * data has changed, so that it asks FuelLogBackupAgent for a backup.
+ */
+public class AsyncDatabaseHelper {
+  private static final int READER_THREADS = 2;
+  private static AsyncDatabaseHelper sInstance;
+
+  private final DatabaseHelper mDatabaseHelper;
+  private final ReadWriteExecutor mExecutor;
+  private final BackupManager mBackupManager;
+
+  private AsyncDatabaseHelper(Context context) {
+    final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    mDatabaseHelper = DatabaseHelper.getInstance(context);
+    mBackupManager = new BackupManager(context);
+    mExecutor = new ReadWriteExecutor(READER_THREADS, new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        uiHandler.post(command);
+      }
+    });
+  }
+
+  /**
+   * Returns reference to singleton instance for global use.
+   * @param c the context in which this is being used
+   * @return a reference to the global AsyncDatabaseHelper instance
+   */
+  public static synchronized AsyncDatabaseHelper getInstance(Context c) {
+    if (sInstance == null)
+      sInstance = new AsyncDatabaseHelper(c.getApplicationContext());
+
+    return sInstance;
+  }
+
+  /**
+   * Cancels every outstanding call made by an owner; its callbacks will not be run.
+   *
+   * @param owner the owner, usually an Activity being destroyed
+   */
+  public void cancelAll(Object owner) {
+    mExecutor.cancelAll(owner);
+  }
+
+  /*
+   * Submits a write which changes the data, and once it has run, tells the backup manager so.
+   */
+  private <T> Task<T> writeData(Object owner, final Callable<T> work, Callback<T> callback) {
+    return mExecutor.write(owner, new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        T result = work.call();
+        mBackupManager.dataChanged();
+        return result;
+      }
+    }, callback);
+  }
+
+
+
+    /*
+    READS
+     */
+
+  /**
+   * @see DatabaseHelper#fetchVehicleList()
+   */
+  public Task<ArrayList<Model_Vehicle>> fetchVehicleList(Object owner,
+                                                        Callback<ArrayList<Model_Vehicle>> callback) {
+    return mExecutor.read(owner, new Callable<ArrayList<Model_Vehicle>>() {
+      @Override
+      public ArrayList<Model_Vehicle> call() {
+        return mDatabaseHelper.fetchVehicleList();
+      }
+    }, callback);
+  }
+
+  /**
+   * Fetches the vehicle list cursor, and fills its window before handing it back, so that the
+   * UI thread doesn't do the reading when the cursor is first used.
+   *
+   * @see DatabaseHelper#fetchSimpleVehicleListCursor(boolean)
+   */
+  public Task<Cursor> fetchSimpleVehicleListCursor(Object owner, final boolean includeRetired,
+                                                   Callback<Cursor> callback) {
+    return mExecutor.read(owner, new Callable<Cursor>() {
+      @Override
+      public Cursor call() {
+        Cursor cursor = mDatabaseHelper.fetchSimpleVehicleListCursor(includeRetired);
+        cursor.getCount();
+        return cursor;
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#fetchSpanAggregates(int, int...)
+   */
+  public Task<SpanAggregate[]> fetchSpanAggregates(Object owner, final int vehicleID,
+                                                   Callback<SpanAggregate[]> callback,
+                                                   final int... spans) {
+    return mExecutor.read(owner, new Callable<SpanAggregate[]>() {
+      @Override
+      public SpanAggregate[] call() {
+        return mDatabaseHelper.fetchSpanAggregates(vehicleID, spans);
+      }
+    }, callback);
+  }
+
+  /**
+   * Counts the vehicle's fuelings and reads the first page in the background. Later pages are
+   * read ahead of the scroll on the same reader threads.
+   *
+   * @see DatabaseHelper#fetchFuelingPages(int)
+   */
+  public Task<FuelingPageSource> fetchFuelingPages(Object owner, final int vehicleID,
+                                                   Callback<FuelingPageSource> callback) {
+    return mExecutor.read(owner, new Callable<FuelingPageSource>() {
+      @Override
+      public FuelingPageSource call() {
+        FuelingPageSource source = mDatabaseHelper.fetchFuelingPages(vehicleID);
+        source.setReadAheadExecutor(mExecutor.getReadExecutor());
+        if (source.getCount() > 0)
+          source.get(0);
+        return source;
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#fetchFuelingColumns(int)
+   */
+  public Task<FuelingColumns> fetchFuelingColumns(Object owner, final int vehicleID,
+                                                  Callback<FuelingColumns> callback) {
+    return mExecutor.read(owner, new Callable<FuelingColumns>() {
+      @Override
+      public FuelingColumns call() {
+        return mDatabaseHelper.fetchFuelingColumns(vehicleID);
+      }
+    }, callback);
+  }
+
+  /**
+   * Reads the vehicle into DatabaseHelper's cache in the background, if it fits. The result is
+   * null if it does not, so callers that only want the cache warmed may pass a null callback.
+   *
+   * @see DatabaseHelper#fetchFuelingRepository(int)
+   */
+  public Task<FuelingRepository> fetchFuelingRepository(Object owner, final int vehicleID,
+                                                        Callback<FuelingRepository> callback) {
+    return mExecutor.read(owner, new Callable<FuelingRepository>() {
+      @Override
+      public FuelingRepository call() {
+        return mDatabaseHelper.fetchFuelingRepository(vehicleID);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#fetchFleetSummary()
+   */
+  public Task<FleetSummary> fetchFleetSummary(Object owner, Callback<FleetSummary> callback) {
+    return mExecutor.read(owner, new Callable<FleetSummary>() {
+      @Override
+      public FleetSummary call() {
+        return mDatabaseHelper.fetchFleetSummary();
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#fetchFueling(int)
+   */
+  public Task<Model_Fueling> fetchFueling(Object owner, final int fuelingID,
+                                          Callback<Model_Fueling> callback) {
+    return mExecutor.read(owner, new Callable<Model_Fueling>() {
+      @Override
+      public Model_Fueling call() {
+        return mDatabaseHelper.fetchFueling(fuelingID);
+      }
+    }, callback);
+  }
+
+
+
+    /*
+    WRITES
+     */
+
+  /**
+   * @see DatabaseHelper#insertFueling(Model_Fueling)
+   */
+  public Task<Integer> insertFueling(Object owner, final Model_Fueling fd,
+                                     Callback<Integer> callback) {
+    return writeData(owner, new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return mDatabaseHelper.insertFueling(fd);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#updateFueling(Model_Fueling)
+   */
+  public Task<Boolean> updateFueling(Object owner, final Model_Fueling fd,
+                                     Callback<Boolean> callback) {
+    return writeData(owner, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return mDatabaseHelper.updateFueling(fd);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#insertFuelings(Collection)
+   */
+  public Task<int[]> insertFuelings(Object owner, final Collection<Model_Fueling> fdList,
+                                    Callback<int[]> callback) {
+    return writeData(owner, new Callable<int[]>() {
+      @Override
+      public int[] call() {
+        return mDatabaseHelper.insertFuelings(fdList);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#updateFuelings(Collection)
+   */
+  public Task<boolean[]> updateFuelings(Object owner, final Collection<Model_Fueling> fdList,
+                                        Callback<boolean[]> callback) {
+    return writeData(owner, new Callable<boolean[]>() {
+      @Override
+      public boolean[] call() {
+        return mDatabaseHelper.updateFuelings(fdList);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#deleteFueling(Model_Fueling)
+   */
+  public Task<Boolean> deleteFueling(Object owner, final Model_Fueling fd,
+                                     Callback<Boolean> callback) {
+    return writeData(owner, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return mDatabaseHelper.deleteFueling(fd);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#undeleteFueling(Model_Fueling)
+   */
+  public Task<Boolean> undeleteFueling(Object owner, final Model_Fueling fd,
+                                       Callback<Boolean> callback) {
+    return writeData(owner, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return mDatabaseHelper.undeleteFueling(fd);
+      }
+    }, callback);
+  }
+
+  /**
+   * Removes the fuelings deleted more than DatabaseHelper.KEEP_DELETED_FUELINGS_MILLIS ago, once
+   * there are enough of them, as a write, so it never runs alongside another.
+   *
+   * @see DatabaseHelper#compactDeletedFuelings(long)
+   */
+  public Task<Integer> compactDeletedFuelings(Object owner, Callback<Integer> callback) {
+    return mExecutor.write(owner, new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        int removed = mDatabaseHelper.compactDeletedFuelings(
+            System.currentTimeMillis() - DatabaseHelper.KEEP_DELETED_FUELINGS_MILLIS);
+        if (removed > 0)
+          mBackupManager.dataChanged();
+        return removed;
+      }
+    }, callback);
+  }
+
+  /**
+   * Runs the backfills left by a schema upgrade, one batch to a write, so other writes submitted
+   * meanwhile are not held up behind the whole of it. Carries on, in the background, whether or
+   * not the owner is still around.
+   *
+   * @see DatabaseHelper#runBackfillBatch()
+   */
+  public void runBackfills() {
+    mExecutor.write(this, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return mDatabaseHelper.runBackfillBatch();
+      }
+    }, new Callback<Boolean>() {
+      @Override
+      public void onResult(Boolean more) {
+        if (more)
+          runBackfills();
+      }
+    });
+  }
+
+  /**
+   * Restores a backup as a write, so no other write runs while the tables are being replaced.
+   *
+   * @see DatabaseHelper#restoreBackup(BackupChain, boolean)
+   */
+  public Task<Integer> restoreBackup(Object owner, final BackupChain chain,
+                                     final boolean overwrite, Callback<Integer> callback) {
+    return writeData(owner, new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return mDatabaseHelper.restoreBackup(chain, overwrite);
+      }
+    }, callback);
+  }
+
+  /**
+   * Takes a backup as a write, so no other write runs while its rows are read: each write
+   * submitted before the backup is in it, and each one after is stamped with a later time than
+   * the backup's watermark, for the next incremental backup to pick up.
+   *
+   * @param backup reads the tables and writes the backup
+   */
+  public <T> Task<T> backup(Object owner, Callable<T> backup, Callback<T> callback) {
+    return mExecutor.write(owner, backup, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#insertVehicle(Model_Vehicle)
+   */
+  public Task<Integer> insertVehicle(Object owner, final Model_Vehicle vehicle,
+                                     Callback<Integer> callback) {
+    return writeData(owner, new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return mDatabaseHelper.insertVehicle(vehicle);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#updateVehicle(Model_Vehicle)
+   */
+  public Task<Boolean> updateVehicle(Object owner, final Model_Vehicle vehicle,
+                                     Callback<Boolean> callback) {
+    return writeData(owner, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return mDatabaseHelper.updateVehicle(vehicle);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#upsertVehicles(Collection)
+   */
+  public Task<int[]> upsertVehicles(Object owner, final Collection<Model_Vehicle> vehicles,
+                                    Callback<int[]> callback) {
+    return writeData(owner, new Callable<int[]>() {
+      @Override
+      public int[] call() {
+        return mDatabaseHelper.upsertVehicles(vehicles);
+      }
+    }, callback);
+  }
+
+  /**
+   * @see DatabaseHelper#deleteVehicle(Model_Vehicle)
+   */
+  public Task<Boolean> deleteVehicle(Object owner, final Model_Vehicle vehicle,
+                                     Callback<Boolean> callback) {
+    return writeData(owner, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return mDatabaseHelper.deleteVehicle(vehicle);
+      }
+    }, callback);
+  }
+}
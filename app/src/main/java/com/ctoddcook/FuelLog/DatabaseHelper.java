@@ -1,15 +1,28 @@
 package com.ctoddcook.FuelLog;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-
-import com.ctoddcook.CamGenTools.DatabaseMap_Base;
-
+import android.database.sqlite.SQLiteStatement;
+
+import com.ctoddcook.CamGenTools.DataHolder;
+import com.ctoddcook.CamGenTools.DatabaseTuning;
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.CamGenTools.ReadWriteExecutor;
+import com.ctoddcook.CamGenTools.SchemaMigrator;
+import com.ctoddcook.CamGenTools.StatementCache;
+import com.ctoddcook.FuelLogBackup.BackupChain;
+import com.ctoddcook.FuelLogBackup.XmlToDatabaseImporter;
+
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by C. Todd Cook on 4/17/2016.
@@ -17,12 +30,66 @@ import java.util.Date;
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
-  public static final int DATABASE_VERSION = 3;
+  public static final int DATABASE_VERSION = 7;
+
+  // Deleted fuelings are kept (marked) this long, so a deletion can be undone, before
+  // compactDeletedFuelings() removes them
+  public static final long KEEP_DELETED_FUELINGS_MILLIS = 7L * 24 * 60 * 60 * 1000;
+  private static final int COMPACT_BATCH_ROWS = 500;
+  // Deleted fuelings are only removed once there are at least this many to remove
+  private static final long COMPACT_MIN_DELETED = 50;
+  // Free pages are only handed back once at least this many pages, and this percentage of all
+  // of the database's pages, are free
+  private static final long VACUUM_MIN_FREE_PAGES = 64;
+  private static final long VACUUM_MIN_FREE_PERCENT = 20;
+  private static final long AUTO_VACUUM_INCREMENTAL = 2;
+  private static final int BACKFILL_BATCH_ROWS = 500;
+  private static final SchemaMigrator MIGRATIONS = DatabaseMigrations.create();
+
+  // Write-ahead logging, so the list, the averages and backups can read while a write commits:
+  // SQLiteDatabase then runs queries from other threads on connections of its own, alongside the
+  // one writing. A commit is synced to disk at checkpoints rather than every time; one lost to a
+  // power cut is just a fueling to enter again.
+  public static final DatabaseTuning DEFAULT_TUNING = new DatabaseTuning(true,
+      DatabaseTuning.SYNCHRONOUS_NORMAL, 2048, 8L * 1024 * 1024);
+  // Room for the fuelings of a few dozen vehicles with years of history each
+  private static final long REPOSITORY_CACHE_BYTES = 4L * 1024 * 1024;
+  // The fleet summary is totaled on one thread per core
+  private static final int FLEET_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
   private static DatabaseHelper sInstance;
+  private final DatabaseTuning mTuning;
+  private StatementCache mStatements = null;
+  private final VehicleDatasetCache mRepositories =
+      new VehicleDatasetCache(REPOSITORY_CACHE_BYTES);
+  private ExecutorService mFleetWorkers = null;
 
 
   private DatabaseHelper(Context context) {
-    super(context, DatabaseMap_FuelLog.DATABASE_NAME, null, DATABASE_VERSION);
+    this(context, DatabaseMap_FuelLog.DATABASE_NAME);
+  }
+
+
+  /**
+   * Constructor for a helper on a database other than the app's, for tests.
+   * @param context the context in which this is being used
+   * @param name    the database file name, or null for a database held in memory
+   */
+  DatabaseHelper(Context context, String name) {
+    this(context, name, DEFAULT_TUNING);
+  }
+
+
+  /**
+   * Constructor for a helper with connections set up other than the app's are, for tests.
+   * @param context the context in which this is being used
+   * @param name    the database file name, or null for a database held in memory
+   * @param tuning  how to set up the database's connections
+   */
+  DatabaseHelper(Context context, String name, DatabaseTuning tuning) {
+    super(context, name, null, DATABASE_VERSION);
+    mTuning = tuning;
+    setWriteAheadLoggingEnabled(tuning.isWriteAheadLogging());
   }
 
 
@@ -39,6 +106,21 @@ public class DatabaseHelper extends SQLiteOpenHelper {
   }
 
 
+  /**
+   * Asks for incremental auto-vacuum, so the free pages left by compactDeletedFuelings() can be
+   * handed back a few at a time. This only takes effect on a new database; an older one, which
+   * would need a full VACUUM to switch over, keeps its free pages and reuses them for new rows.
+   * Then sets the writable connection's pragmas from the DatabaseTuning.
+   *
+   * @param db the database for this app
+   */
+  @Override
+  public void onConfigure(SQLiteDatabase db) {
+    db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    mTuning.applyToWriter(db);
+  }
+
+
   /**
    * On create, check for existence of FUELING and VEHICLE tables. If they don't exist,
    * create them. (They should not exist, since onCreate() is called when the database
@@ -50,16 +132,23 @@ public class DatabaseHelper extends SQLiteOpenHelper {
   public void onCreate(SQLiteDatabase db) {
     if (!DatabaseMap_Fueling.tableExists(db)) {
       db.execSQL(DatabaseMap_Fueling.SQL_CREATE_TABLE);
+      db.execSQL(DatabaseMap_Fueling.SQL_CREATE_INDEX_VEHICLE_DATE);
     }
 
     if (!DatabaseMap_Vehicle.tableExists(db)) {
       db.execSQL(DatabaseMap_Vehicle.SQL_CREATE_TABLE);
     }
+
+    createDeletionTracking(db);
+    createPropertiesDeletionTracking(db);
+    MIGRATIONS.createLog(db);
   }
 
 
   /**
-   * Upgrade table(s) when a schema changes from one production release to another.
+   * Upgrade table(s) when a schema changes from one production release to another, by running
+   * the steps in DatabaseMigrations, all in one transaction. Rows the steps leave to be filled
+   * in are done afterwards, by runBackfillBatch().
    *
    * @param db         The database
    * @param oldVersion The user's old (current) version, to be upgraded from
@@ -78,22 +167,42 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         */
 
-    switch (oldVersion) {
-      case 1:   // version 1 was never put into production
-      case 2:
-        upgradeToVersion3(db);
-        break;
-      default:
-        throw new IllegalStateException("onUpgrade() with unknown oldVersion" + oldVersion);
-    }
+    MIGRATIONS.upgrade(db, oldVersion, newVersion);
   }
 
 
   /**
    * Closes the open database. Should be called before the app exits.
    */
-  public void close() {
-    sInstance.close();
+  public synchronized void close() {
+    if (mStatements != null) {
+      mStatements.close();
+      mStatements = null;
+    }
+    if (mFleetWorkers != null) {
+      mFleetWorkers.shutdown();
+      mFleetWorkers = null;
+    }
+
+    super.close();
+  }
+
+
+  /**
+   * Returns the compiled statement for some fixed SQL on the writable connection, compiling it
+   * the first time. Bind and execute it while holding its lock (see StatementCache); a batch
+   * takes that lock before starting its transaction, never after, so two writers cannot each
+   * hold what the other is waiting for.
+   *
+   * @param sql one of the DML statements from the DatabaseMap classes
+   * @return the compiled statement
+   */
+  private synchronized SQLiteStatement getStatement(String sql) {
+    SQLiteDatabase db = this.getWritableDatabase();
+    if (mStatements == null || !mStatements.isFor(db))
+      mStatements = new StatementCache(db);
+
+    return mStatements.get(sql);
   }
 
 
@@ -104,36 +213,39 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
 
   /**
-   * Retrieves the complete list of vehicles from the database.
+   * Retrieves the complete list of vehicles from the database. Model_Vehicle's static list is
+   * rebuilt while holding its lock, so a thread reading it never sees a partial list.
    *
    * @return an ArrayList of all vehicles defined
    */
   public ArrayList<Model_Vehicle> fetchVehicleList() {
-    SQLiteDatabase db = this.getWritableDatabase();
     ArrayList<Model_Vehicle> vehicleList = new ArrayList<>();
     int id, year;
     String name, color, model, vin, licensePlate, status;
     Date lastUpdated;
     Model_Vehicle vehicle;
 
-    Model_Vehicle.clearAll();
-
+    SQLiteDatabase db = this.getReadableDatabase();
     Cursor cursor = db.rawQuery(DatabaseMap_Vehicle.SQL_SELECT_ALL, null);
 
-    while (cursor.moveToNext()) {
-      id = cursor.getInt(DatabaseMap_Vehicle.COLUMN_NBR_ID);
-      name = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_NAME);
-      year = cursor.getInt(DatabaseMap_Vehicle.COLUMN_NBR_YEAR);
-      color = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_COLOR);
-      model = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_MODEL);
-      vin = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_VIN);
-      licensePlate = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_LICENSE_PLATE);
-      status = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_STATUS);
-      lastUpdated = new Date(cursor.getInt(DatabaseMap_Vehicle.COLUMN_NBR_LAST_UPDATED));
+    synchronized (Model_Vehicle.class) {
+      Model_Vehicle.clearAll();
 
-      vehicle = new Model_Vehicle(id, name, year, color, model, vin, licensePlate, status, lastUpdated);
+      while (cursor.moveToNext()) {
+        id = cursor.getInt(DatabaseMap_Vehicle.COLUMN_NBR_ID);
+        name = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_NAME);
+        year = cursor.getInt(DatabaseMap_Vehicle.COLUMN_NBR_YEAR);
+        color = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_COLOR);
+        model = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_MODEL);
+        vin = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_VIN);
+        licensePlate = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_LICENSE_PLATE);
+        status = cursor.getString(DatabaseMap_Vehicle.COLUMN_NBR_STATUS);
+        lastUpdated = new Date(cursor.getLong(DatabaseMap_Vehicle.COLUMN_NBR_LAST_UPDATED));
 
-      vehicleList.add(vehicle);
+        vehicle = new Model_Vehicle(id, name, year, color, model, vin, licensePlate, status, lastUpdated);
+
+        vehicleList.add(vehicle);
+      }
     }
 
     cursor.close();
@@ -148,7 +260,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
    * @return a cursor pointing to the Model_Vehicle table
    */
   public Cursor fetchSimpleVehicleListCursor(boolean includeRetired) {
-    SQLiteDatabase db = this.getWritableDatabase();
+    SQLiteDatabase db = this.getReadableDatabase();
 
     String sql = (includeRetired ? DatabaseMap_Vehicle.SQL_SELECT_SIMPLE : DatabaseMap_Vehicle
         .SQL_SELECT_SIMPLE_EXCLUDE_RETIRED);
@@ -169,19 +281,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     if (!vehicle.isNew())
       throw new IllegalArgumentException("Cannot insert a new vehicle if its state is not new");
 
-    SQLiteDatabase db = this.getWritableDatabase();
-
-    ContentValues cv = new ContentValues();
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_NAME, vehicle.getName());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_YEAR, vehicle.getYear());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_COLOR, vehicle.getColor());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_MODEL, vehicle.getModel());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_VIN, vehicle.getVIN());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_LICENSE_PLATE, vehicle.getLicensePlate());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_STATUS, vehicle.getVehicleStatus());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_LAST_UPDATED, vehicle.getLastUpdated().getTime());
+    SQLiteStatement insert = getStatement(DatabaseMap_Vehicle.SQL_INSERT);
+    int newID;
 
-    int newID = (int) db.insert(DatabaseMap_Vehicle.TABLE_NAME, null, cv);
+    synchronized (insert) {
+      insert.clearBindings();
+      bindVehicle(insert, 1, vehicle);
+      newID = (int) insert.executeInsert();
+    }
 
     if (newID > 0) {
       vehicle.setVehicleID(newID);
@@ -215,6 +322,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
+      mRepositories.invalidateVehicle(vehicle.getID());
     }
 
     return (rowsDeleted > 1);
@@ -232,20 +340,15 @@ public class DatabaseHelper extends SQLiteOpenHelper {
       throw new IllegalArgumentException("Cannot update a vehicle record whose state is not UPDATED");
 
     boolean result = true;
-    SQLiteDatabase db = this.getWritableDatabase();
-    String[] whereArgs = new String[]{String.valueOf(vehicle.getID())};
-
-    ContentValues cv = new ContentValues();
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_NAME, vehicle.getName());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_YEAR, vehicle.getYear());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_COLOR, vehicle.getColor());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_MODEL, vehicle.getModel());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_VIN, vehicle.getVIN());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_LICENSE_PLATE, vehicle.getLicensePlate());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_STATUS, vehicle.getVehicleStatus());
-    cv.put(DatabaseMap_Vehicle.COLUMN_NAME_LAST_UPDATED, vehicle.getLastUpdated().getTime());
-
-    int rowsUpdated = db.update(DatabaseMap_Vehicle.TABLE_NAME, cv, DatabaseMap_Vehicle.WHERE_ID_CLAUSE, whereArgs);
+    SQLiteStatement update = getStatement(DatabaseMap_Vehicle.SQL_UPDATE_BY_ID);
+    int rowsUpdated;
+
+    synchronized (update) {
+      update.clearBindings();
+      bindVehicle(update, 1, vehicle);
+      update.bindLong(DatabaseMap_Vehicle.DATA_COLUMN_COUNT + 1, vehicle.getID());
+      rowsUpdated = update.executeUpdateDelete();
+    }
     if (rowsUpdated == 1)
       vehicle.setCurrent();
     else
@@ -255,25 +358,136 @@ public class DatabaseHelper extends SQLiteOpenHelper {
   }
 
   /**
-   * For each Model_Vehicle instance in the list, the object is passed through to
-   * updateVehicle(Model_Vehicle). The number of updated rows is returned; the calling
-   * method can compare this to the number of items in the list as a check on total success.
+   * Updates the database with each Model_Vehicle instance in the list, in a single transaction,
+   * with the cached UPDATE statement rebound for each row. A vehicle whose row no longer exists
+   * is not written back, and is left as it is. The number of updated rows is returned; the
+   * calling method can compare this to the number of items in the list as a check on total
+   * success.
+   * <p/>
+   * If any row fails, the whole transaction is rolled back, the exception is thrown, and none of
+   * the vehicles are changed. Otherwise each vehicle whose row was updated has its state set to
+   * CURRENT.
    *
    * @param vList an array of Model_Vehicle objects to be updated in the database
    * @return the number of successfully updated rows
+   * @throws IllegalArgumentException if any vehicle's state is not set to UPDATED
    */
   @SuppressWarnings("unused")
-  public int updateVehicles(ArrayList<Model_Vehicle> vList) {
-    int result = 0;
+  public int updateVehicles(ArrayList<Model_Vehicle> vList) throws IllegalArgumentException {
+    for (Model_Vehicle each : vList) {
+      if (!each.isUpdated())
+        throw new IllegalArgumentException("Cannot update a vehicle record whose state is not UPDATED");
+    }
 
+    SQLiteDatabase db = this.getWritableDatabase();
+    boolean[] updated = new boolean[vList.size()];
+    int i = 0;
+
+    SQLiteStatement update = getStatement(DatabaseMap_Vehicle.SQL_UPDATE_BY_ID);
+    synchronized (update) {
+      db.beginTransaction();
+      try {
+        for (Model_Vehicle each : vList) {
+          update.clearBindings();
+          bindVehicle(update, 1, each);
+          update.bindLong(DatabaseMap_Vehicle.DATA_COLUMN_COUNT + 1, each.getID());
+          updated[i++] = (update.executeUpdateDelete() == 1);
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    }
+
+    // Only touch the instances once the rows are committed
+    int result = 0;
+    i = 0;
     for (Model_Vehicle each : vList) {
-      if (updateVehicle(each))
+      if (updated[i++]) {
+        each.setCurrent();
         result++;
+      }
     }
 
     return result;
   }
 
+  /**
+   * Inserts the NEW vehicles in a collection and writes the UPDATED ones over their existing
+   * rows (or inserts them with their IDs, if their rows are missing). All of the rows are
+   * written in one transaction, with a single compiled statement, so a large import costs one
+   * commit rather than one per vehicle.
+   * <p/>
+   * If any row fails, the whole transaction is rolled back, the exception is thrown, and none of
+   * the vehicles are changed. Otherwise new vehicles are given their IDs and every vehicle's
+   * state is set to CURRENT.
+   *
+   * @param vehicles the vehicles to be written
+   * @return the ID of each vehicle's row, in the collection's order
+   * @throws IllegalArgumentException if any vehicle's state is not NEW or UPDATED
+   */
+  public int[] upsertVehicles(Collection<Model_Vehicle> vehicles) throws IllegalArgumentException {
+    for (Model_Vehicle each : vehicles) {
+      if (!each.isNew() && !each.isUpdated())
+        throw new IllegalArgumentException("Cannot write a vehicle whose state is not NEW or UPDATED");
+    }
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    int[] ids = new int[vehicles.size()];
+    int i = 0;
+
+    SQLiteStatement upsert = getStatement(DatabaseMap_Vehicle.SQL_UPSERT);
+    synchronized (upsert) {
+      db.beginTransaction();
+      try {
+        for (Model_Vehicle each : vehicles) {
+          upsert.clearBindings();
+          if (each.isNew())
+            upsert.bindNull(1);
+          else
+            upsert.bindLong(1, each.getID());
+          bindVehicle(upsert, 2, each);
+
+          ids[i++] = (int) upsert.executeInsert();
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    }
+
+    // Only touch the instances once the rows are committed
+    i = 0;
+    for (Model_Vehicle each : vehicles) {
+      int id = ids[i++];
+      if (id > 0) {
+        if (each.isNew())
+          each.setVehicleID(id);
+        each.setCurrent();
+      }
+    }
+
+    return ids;
+  }
+
+  /**
+   * Binds a vehicle's values (all but its ID) to a compiled statement, in CREATE TABLE order.
+   * The vehicle's last-updated time is set to now, the time of the write, for incremental
+   * backups.
+   *
+   * @param first the index the first value (the name) is bound to
+   */
+  private static void bindVehicle(SQLiteStatement statement, int first, Model_Vehicle vehicle) {
+    StatementCache.bindString(statement, first, vehicle.getName());
+    statement.bindLong(first + 1, vehicle.getYear());
+    StatementCache.bindString(statement, first + 2, vehicle.getColor());
+    StatementCache.bindString(statement, first + 3, vehicle.getModel());
+    StatementCache.bindString(statement, first + 4, vehicle.getVIN());
+    StatementCache.bindString(statement, first + 5, vehicle.getLicensePlate());
+    StatementCache.bindString(statement, first + 6, vehicle.getVehicleStatus());
+    statement.bindLong(first + 7, vehicle.stampLastUpdated().getTime());
+  }
+
 
 
 
@@ -284,48 +498,288 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
 
   /**
-   * Retrieves the complete list of Model_Fueling records from the database, in descending
-   * order by DateOfFill (i.e., the newest records are fetched first).
+   * Reads a vehicle's fuelings, newest first, straight into a FuelingColumns store, so no
+   * Model_Fueling is created for each.
+   *
+   * @param vehicleID the vehicle whose fuelings are wanted, or 0 for all vehicles
+   * @return the fuelings, column by column
+   */
+  public FuelingColumns fetchFuelingColumns(int vehicleID) {
+    FuelingColumns columns;
+
+    SQLiteDatabase db = this.getReadableDatabase();
+    Cursor cursor = db.rawQuery(DatabaseMap_Fueling.getSelectSQL(vehicleID), null);
+
+    columns = new FuelingColumns(cursor.getCount());
+    while (cursor.moveToNext())
+      columns.add(cursor.getInt(DatabaseMap_Fueling.COLUMN_NBR_FUELING_ID),
+          cursor.getInt(DatabaseMap_Fueling.COLUMN_NBR_VEHICLE_ID),
+          cursor.getLong(DatabaseMap_Fueling.COLUMN_NBR_DATE_OF_FILL),
+          cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_DISTANCE),
+          cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_VOLUME),
+          cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_PRICE_PAID),
+          cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_ODOMETER),
+          cursor.getString(DatabaseMap_Fueling.COLUMN_NBR_LOCATION),
+          cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_LATITUDE),
+          cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_LONGITUDE),
+          cursor.getLong(DatabaseMap_Fueling.COLUMN_NBR_LAST_UPDATED));
+
+    cursor.close();
+
+    columns.trimToSize();
+    return columns;
+  }
+
+  /**
+   * Returns a vehicle's FuelingRepository, from the cache of the vehicles most recently shown.
+   * If the vehicle is not cached, its fuelings are counted first, and only read with
+   * fetchFuelingColumns() and cached if a repository of that many would fit the cache: a longer
+   * history is left to be paged and totaled in SQL (see fetchFuelingPages() and
+   * fetchSpanAggregates()). Every insert, update and delete of a fueling through this helper is
+   * applied to the cached repositories once it is written, so a repository returned here stays
+   * current. A cached repository's dated spans are moved on to now each time it is returned,
+   * which only visits the fills that have left a span since.
+   *
+   * @param vehicleID the vehicle whose fuelings are wanted
+   * @return the repository, or null if the vehicle's fuelings would not fit the cache
+   */
+  public FuelingRepository fetchFuelingRepository(int vehicleID) {
+    FuelingRepository repository = getCachedRepository(vehicleID);
+    if (repository != null)
+      return repository;
+
+    long generation = mRepositories.getGeneration();
+    if (!mRepositories.fits(FuelingRepository.estimateBytes(countFuelings(vehicleID))))
+      return null;
+
+    repository = new FuelingRepository(vehicleID, fetchFuelingColumns(vehicleID), new Date());
+    mRepositories.put(repository, generation);
+
+    return repository;
+  }
+
+  /**
+   * Returns a vehicle's FuelingRepository only if it is already cached, with its dated spans
+   * moved on to now.
+   *
+   * @param vehicleID the vehicle whose fuelings are wanted
+   * @return the repository, or null if the vehicle is not cached
+   */
+  private FuelingRepository getCachedRepository(int vehicleID) {
+    FuelingRepository repository = mRepositories.get(vehicleID);
+    if (repository != null)
+      repository.advanceSpansTo(new Date());
+
+    return repository;
+  }
+
+  /**
+   * Totals every vehicle's fuelings by span, along with the whole fleet's, so the vehicles can
+   * be ranked against each other (see FleetSummary). The fuelings are read in one query, split
+   * by vehicle, and totaled on a pool of one thread per core.
+   * <p/>
+   * Should be run in the background, as with AsyncDatabaseHelper.fetchFleetSummary().
+   *
+   * @return the totals for each vehicle and for the fleet, measured back from now
+   */
+  public FleetSummary fetchFleetSummary() {
+    HashMap<Integer, FuelingColumns> fills = FuelingColumns.byVehicle(fetchFuelingColumns(0));
+    return FleetSummary.build(fills, new Date(), getFleetWorkers(), FLEET_THREADS);
+  }
+
+  private synchronized ExecutorService getFleetWorkers() {
+    if (mFleetWorkers == null)
+      mFleetWorkers = Executors.newFixedThreadPool(FLEET_THREADS,
+          ReadWriteExecutor.namedThreads("fleet-"));
+
+    return mFleetWorkers;
+  }
+
+  /**
+   * Drops every vehicle from the cache used by fetchFuelingRepository(). Called after the
+   * tables have been written other than through this helper, as by a restore.
+   */
+  public void clearRepositoryCache() {
+    mRepositories.clear();
+  }
+
+  /**
+   * Returns a FuelingPageSource for a vehicle's fuelings, newest first. If the vehicle's
+   * FuelingRepository is cached the pages are taken from it; otherwise they are read from the
+   * database a page at a time as they are displayed, and only the number of fuelings is read
+   * here.
+   *
+   * @param vehicleID the vehicle whose fuelings are to be paged through, or 0 for all vehicles
+   * @return a source of the vehicle's fuelings
+   */
+  public FuelingPageSource fetchFuelingPages(final int vehicleID) {
+    FuelingRepository repository = vehicleID > 0 ? getCachedRepository(vehicleID) : null;
+    if (repository != null)
+      return repository.getSnapshot().toPageSource();
+
+    return new FuelingPageSource(countFuelings(vehicleID), new FuelingPageSource.PageLoader() {
+      @Override
+      public ArrayList<Model_Fueling> loadPage(long beforeDate, int beforeID, int limit) {
+        return fetchFuelingPage(vehicleID, beforeDate, beforeID, limit);
+      }
+    });
+  }
+
+  /**
+   * Counts a vehicle's fuelings, not including deleted ones.
    *
+   * @param vehicleID the vehicle whose fuelings are to be counted, or 0 for all vehicles
+   * @return the number of fuelings
+   */
+  private int countFuelings(int vehicleID) {
+    SQLiteDatabase db = this.getReadableDatabase();
+    if (vehicleID > 0)
+      return (int) DatabaseUtils.queryNumEntries(db, DatabaseMap_Fueling.TABLE_NAME,
+          DatabaseMap_Fueling.WHERE_VEHICLE_ID_NOT_DELETED,
+          new String[]{String.valueOf(vehicleID)});
+
+    return (int) DatabaseUtils.queryNumEntries(db, DatabaseMap_Fueling.TABLE_NAME,
+        DatabaseMap_Fueling.WHERE_NOT_DELETED);
+  }
+
+  /**
+   * Retrieves one page of a vehicle's fuelings, newest first: those older than a given date of
+   * fill, or with the same date and a lower ID.
+   *
+   * @param vehicleID  the vehicle whose fuelings are wanted, or 0 for all vehicles
+   * @param beforeDate the date of fill (in millis) of the last fueling on the previous page
+   * @param beforeID   the ID of the last fueling on the previous page
+   * @param limit      the maximum number of fuelings to return
    * @return an ArrayList of Model_Fueling objects
+   * @see FuelingPageSource.PageLoader#loadPage(long, int, int)
    */
-  public ArrayList<Model_Fueling> fetchFuelingData(int vehicleID) {
-    SQLiteDatabase db = this.getWritableDatabase();
-    ArrayList<Model_Fueling> fdList = new ArrayList<>();
-    int fuelingID;
-    Date dateOfFill;
-    Date lastUpdated;
-    float distance, volume, pricePaid, odometer, latitude, longitude;
-    String location;
-    Model_Fueling fd;
-    String sql = DatabaseMap_Fueling.getSelectSQL(vehicleID);
+  public ArrayList<Model_Fueling> fetchFuelingPage(int vehicleID, long beforeDate, int beforeID,
+                                                   int limit) {
+    ArrayList<Model_Fueling> fdList = new ArrayList<>(limit);
+    String args[] = new String[vehicleID > 0 ? 5 : 4];
+    int i = 0;
 
-    Model_Fueling.clearAll();
+    if (vehicleID > 0)
+      args[i++] = String.valueOf(vehicleID);
+    args[i++] = String.valueOf(beforeDate);
+    args[i++] = String.valueOf(beforeDate);
+    args[i++] = String.valueOf(beforeID);
+    args[i] = String.valueOf(limit);
 
-    Cursor cursor = db.rawQuery(sql, null);
+    SQLiteDatabase db = this.getReadableDatabase();
+    Cursor cursor = db.rawQuery(DatabaseMap_Fueling.getPageSQL(vehicleID), args);
 
-    while (cursor.moveToNext()) {
-      fuelingID = cursor.getInt(DatabaseMap_Fueling.COLUMN_NBR_FUELING_ID);
-      vehicleID = cursor.getInt(DatabaseMap_Fueling.COLUMN_NBR_VEHICLE_ID);
-      dateOfFill = new Date(cursor.getLong(DatabaseMap_Fueling.COLUMN_NBR_DATE_OF_FILL));
-      distance = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_DISTANCE);
-      volume = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_VOLUME);
-      pricePaid = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_PRICE_PAID);
-      odometer = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_ODOMETER);
-      location = cursor.getString(DatabaseMap_Fueling.COLUMN_NBR_LOCATION);
-      latitude = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_LATITUDE);
-      longitude = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_LONGITUDE);
-      lastUpdated = new Date(cursor.getLong(DatabaseMap_Fueling.COLUMN_NBR_LAST_UPDATED));
+    while (cursor.moveToNext())
+      fdList.add(readFueling(cursor));
 
-      fd = new Model_Fueling(fuelingID, vehicleID, dateOfFill, distance, volume, pricePaid,
-          odometer, location, latitude, longitude, lastUpdated);
+    cursor.close();
+
+    return fdList;
+  }
+
+  /**
+   * Retrieves a single fueling by its ID, as it now stands in the database, as a new instance
+   * for the caller to show or edit.
+   *
+   * @param fuelingID the ID of the fueling
+   * @return the fueling, or null if there is no fueling with that ID (or it has been deleted)
+   */
+  public Model_Fueling fetchFueling(int fuelingID) {
+    Model_Fueling fd = null;
+    String[] whereArgs = new String[]{String.valueOf(fuelingID)};
 
-      fdList.add(fd);
+    SQLiteDatabase db = this.getReadableDatabase();
+    Cursor cursor = db.query(DatabaseMap_Fueling.TABLE_NAME, null,
+        DatabaseMap_Fueling.WHERE_ID_NOT_DELETED, whereArgs, null, null, null);
+
+    if (cursor.moveToFirst())
+      fd = readFueling(cursor);
+
+    cursor.close();
+
+    return fd;
+  }
+
+  /**
+   * Builds a Model_Fueling from the current row of a cursor over the fueling table.
+   *
+   * @param cursor a cursor positioned on a row with all of the fueling table's columns
+   * @return the new instance
+   */
+  private Model_Fueling readFueling(Cursor cursor) {
+    int fuelingID = cursor.getInt(DatabaseMap_Fueling.COLUMN_NBR_FUELING_ID);
+    int vehicleID = cursor.getInt(DatabaseMap_Fueling.COLUMN_NBR_VEHICLE_ID);
+    Date dateOfFill = new Date(cursor.getLong(DatabaseMap_Fueling.COLUMN_NBR_DATE_OF_FILL));
+    float distance = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_DISTANCE);
+    float volume = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_VOLUME);
+    float pricePaid = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_PRICE_PAID);
+    float odometer = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_ODOMETER);
+    String location = cursor.getString(DatabaseMap_Fueling.COLUMN_NBR_LOCATION);
+    float latitude = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_LATITUDE);
+    float longitude = cursor.getFloat(DatabaseMap_Fueling.COLUMN_NBR_LONGITUDE);
+    Date lastUpdated = new Date(cursor.getLong(DatabaseMap_Fueling.COLUMN_NBR_LAST_UPDATED));
+
+    return new Model_Fueling(fuelingID, vehicleID, dateOfFill, distance, volume, pricePaid,
+        odometer, location, latitude, longitude, lastUpdated);
+  }
+
+  /**
+   * Totals the fuelings for a vehicle by span, so averages can be shown without reading every
+   * fueling into memory: from the vehicle's FuelingRepository if it is cached, or otherwise with
+   * a single aggregate query. The 3-month, 6-month and one-year cutoffs are measured back from
+   * the current time.
+   *
+   * @param vehicleID the vehicle whose fuelings are to be totaled, or 0 for all vehicles
+   * @param spans     any of Model_Fueling.SPAN_3_MONTHS, SPAN_6_MONTHS, SPAN_ONE_YEAR and
+   *                  SPAN_ALL_TIME
+   * @return the totals for each span requested, in the order requested
+   * @throws IllegalArgumentException if a span is not one of the Model_Fueling.SPAN_ constants
+   */
+  public SpanAggregate[] fetchSpanAggregates(int vehicleID, int... spans) throws IllegalArgumentException {
+    for (int span : spans)
+      if (span < Model_Fueling.SPAN_3_MONTHS || span > Model_Fueling.SPAN_ALL_TIME)
+        throw new IllegalArgumentException("Argument passed: " + span + " is not a valid span");
+
+    SpanAggregate result[] = new SpanAggregate[spans.length];
+
+    FuelingRepository repository = vehicleID > 0 ? getCachedRepository(vehicleID) : null;
+    if (repository != null) {
+      FuelingRepository.Snapshot snapshot = repository.getSnapshot();
+      for (int i = 0; i < spans.length; i++)
+        result[i] = snapshot.getSpanAggregate(spans[i]);
+
+      return result;
+    }
+
+    Date thresholds[] = Model_Fueling.getSpanThresholds(new Date());
+    double bucketTotals[] = new double[(Model_Fueling.SPAN_ALL_TIME + 1) * SpanAggregate.TOTALS_SIZE];
+
+    String args[] = new String[vehicleID > 0 ? 4 : 3];
+    args[0] = String.valueOf(thresholds[Model_Fueling.SPAN_3_MONTHS].getTime());
+    args[1] = String.valueOf(thresholds[Model_Fueling.SPAN_6_MONTHS].getTime());
+    args[2] = String.valueOf(thresholds[Model_Fueling.SPAN_ONE_YEAR].getTime());
+    if (vehicleID > 0)
+      args[3] = String.valueOf(vehicleID);
+
+    SQLiteDatabase db = this.getReadableDatabase();
+    Cursor cursor = db.rawQuery(DatabaseMap_Fueling.getSpanTotalsSQL(vehicleID), args);
+
+    while (cursor.moveToNext()) {
+      int offset = cursor.getInt(DatabaseMap_Fueling.COLUMN_NBR_SPAN_BUCKET) * SpanAggregate.TOTALS_SIZE;
+      for (int i = 0; i < SpanAggregate.TOTALS_SIZE; i++)
+        bucketTotals[offset + i] = cursor.getDouble(i);
     }
 
     cursor.close();
 
-    return fdList;
+    // Each span is made up of its own bucket plus all of the more recent ones
+    for (int i = 0; i < spans.length; i++) {
+      result[i] = new SpanAggregate();
+      for (int bucket = 0; bucket <= spans[i]; bucket++)
+        result[i].addTotals(bucketTotals, bucket * SpanAggregate.TOTALS_SIZE);
+    }
+
+    return result;
   }
 
   /**
@@ -341,47 +795,165 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     if (!fd.isNew())
       throw new IllegalArgumentException("Cannot insert a Model_Fueling record if its state is not NEW");
 
-    SQLiteDatabase db = this.getWritableDatabase();
-
-    ContentValues cv = new ContentValues();
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_VEHICLE_ID, fd.getVehicleID());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_DATE_OF_FILL, fd.getDateOfFill().getTime());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_DISTANCE, fd.getDistance());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_VOLUME, fd.getVolume());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_PRICE_PAID, fd.getPricePaid());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_ODOMETER, fd.getOdometer());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_LOCATION, fd.getLocation());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_LATITUDE, fd.getLatitude());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_LONGITUDE, fd.getLongitude());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_LAST_UPDATED, fd.getLastUpdated().getTime());
+    SQLiteStatement insert = getStatement(DatabaseMap_Fueling.SQL_INSERT);
+    int newID;
 
-    int newID = (int) db.insert(DatabaseMap_Fueling.TABLE_NAME, null, cv);
+    synchronized (insert) {
+      bindFueling(insert, fd);
+      newID = (int) insert.executeInsert();
+    }
 
     if (newID > 0) {
       fd.setFuelingID(newID);
       fd.setCurrent();
+      mRepositories.fuelingSaved(fd);
     }
 
     return newID;
   }
 
   /**
-   * Deletes the database row with the ID (prime key) of the Model_Fueling instance.
+   * Deletes the fueling with the ID (prime key) of the Model_Fueling instance. The row is only
+   * marked as deleted, which leaves it out of every fetch and total, so the deletion can be
+   * undone with undeleteFueling(); compactDeletedFuelings() removes it later.
    *
    * @param fd the instance to be deleted
-   * @return true if the number of rows deleted is exactly 1
+   * @return true if the number of rows marked is exactly 1
    * @throws IllegalArgumentException if the instance's state is not set to DELETED
    */
   public boolean deleteFueling(Model_Fueling fd) throws IllegalArgumentException {
     if (!fd.isDeleted())
       throw new IllegalArgumentException("Cannot delete an object if it's state is not DELETED");
 
+    boolean result = setFuelingStatus(fd, DataHolder.STATUS_DELETED,
+        fd.stampLastUpdated().getTime());
+    if (result)
+      mRepositories.fuelingDeleted(fd.getID());
+
+    return result;
+  }
+
+  /**
+   * Undoes deleteFueling(), as long as compactDeletedFuelings() has not yet removed the row.
+   * The instance's state is set to CURRENT, and it is put back into the cached repositories.
+   *
+   * @param fd the instance whose deletion is to be undone
+   * @return true if exactly 1 row was undeleted
+   * @throws IllegalArgumentException if the instance's state is not set to DELETED
+   */
+  public boolean undeleteFueling(Model_Fueling fd) throws IllegalArgumentException {
+    if (!fd.isDeleted())
+      throw new IllegalArgumentException("Cannot undelete an object if it's state is not DELETED");
+
+    boolean result = setFuelingStatus(fd, DataHolder.STATUS_CURRENT,
+        fd.stampLastUpdated().getTime());
+    if (result) {
+      fd.setCurrent();
+      mRepositories.fuelingSaved(fd);
+    }
+
+    return result;
+  }
+
+  /*
+   * Sets the status column of a fueling's row, with the cached statement.
+   */
+  private boolean setFuelingStatus(Model_Fueling fd, char status, long lastUpdated) {
+    SQLiteStatement update = getStatement(DatabaseMap_Fueling.SQL_SET_STATUS_BY_ID);
+    int rowsUpdated;
+
+    synchronized (update) {
+      update.clearBindings();
+      update.bindString(1, String.valueOf(status));
+      update.bindLong(2, lastUpdated);
+      update.bindLong(3, fd.getID());
+      rowsUpdated = update.executeUpdateDelete();
+    }
+
+    return (rowsUpdated == 1);
+  }
+
+  /**
+   * Removes the fuelings which were deleted before a time, once there are at least
+   * COMPACT_MIN_DELETED of them, so that most calls cost no more than counting them. They are
+   * removed in batches, each in its own transaction, so other writes are not held up for long.
+   * Afterwards, if enough of the database's pages are free, they are handed back by incremental
+   * vacuum (see onConfigure()); a full VACUUM, which rewrites the whole file, is never run.
+   * <p/>
+   * Should be run in the background, as with AsyncDatabaseHelper.compactDeletedFuelings().
+   *
+   * @param before the time (in millis) before which deleted fuelings are removed
+   * @return the number of fuelings removed
+   */
+  public int compactDeletedFuelings(long before) {
     SQLiteDatabase db = this.getWritableDatabase();
-    String[] whereArgs = new String[]{String.valueOf(fd.getID())};
+    int removed = 0;
 
-    int rowsDeleted = db.delete(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling.WHERE_ID_CLAUSE, whereArgs);
+    if (countDeletedFuelings(before) >= COMPACT_MIN_DELETED)
+      removed = removeDeletedFuelings(db, before);
+    vacuumIfFragmented(db);
 
-    return (rowsDeleted == 1);
+    return removed;
+  }
+
+  /* Counts the fuelings deleted before a time */
+  private long countDeletedFuelings(long before) {
+    SQLiteStatement count = getStatement(DatabaseMap_Fueling.SQL_COUNT_MARKED_BEFORE);
+
+    synchronized (count) {
+      count.clearBindings();
+      count.bindLong(1, before);
+      return count.simpleQueryForLong();
+    }
+  }
+
+  /* Removes the fuelings deleted before a time, a batch to a transaction */
+  private int removeDeletedFuelings(SQLiteDatabase db, long before) {
+    SQLiteStatement delete = getStatement(DatabaseMap_Fueling.SQL_DELETE_MARKED_BEFORE);
+    int removed = 0;
+    int batch;
+
+    do {
+      synchronized (delete) {
+        db.beginTransaction();
+        try {
+          delete.clearBindings();
+          delete.bindLong(1, before);
+          delete.bindLong(2, COMPACT_BATCH_ROWS);
+          batch = delete.executeUpdateDelete();
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+      }
+      removed += batch;
+    } while (batch == COMPACT_BATCH_ROWS);
+
+    return removed;
+  }
+
+  /*
+   * Hands free pages back to the file system by incremental vacuum, once there are enough of
+   * them to be worth it. A database without incremental auto-vacuum keeps them.
+   */
+  private void vacuumIfFragmented(SQLiteDatabase db) {
+    if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL)
+      return;
+
+    long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+    long free = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    if (free < VACUUM_MIN_FREE_PAGES || free * 100 < pages * VACUUM_MIN_FREE_PERCENT)
+      return;
+
+    // Returns no rows, but must be stepped through as a query to run
+    Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+    try {
+      while (cursor.moveToNext()) {
+        // nothing to read
+      }
+    } finally {
+      cursor.close();
+    }
   }
 
   /**
@@ -398,78 +970,267 @@ public class DatabaseHelper extends SQLiteOpenHelper {
       throw new IllegalArgumentException("Cannot updated a database record if the object's state is not set to UPDATED");
 
     boolean result = true;
-    SQLiteDatabase db = this.getWritableDatabase();
-    String[] whereArgs = new String[]{String.valueOf(fd.getID())};
-
-    ContentValues cv = new ContentValues();
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_VEHICLE_ID, fd.getVehicleID());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_DATE_OF_FILL, fd.getDateOfFill().getTime());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_DISTANCE, fd.getDistance());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_VOLUME, fd.getVolume());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_PRICE_PAID, fd.getPricePaid());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_ODOMETER, fd.getOdometer());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_LOCATION, fd.getLocation());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_LATITUDE, fd.getLatitude());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_LONGITUDE, fd.getLongitude());
-    cv.put(DatabaseMap_Fueling.COLUMN_NAME_LAST_UPDATED, fd.getLastUpdated().getTime());
-
-    int rowsUpdated = db.update(DatabaseMap_Fueling.TABLE_NAME, cv, DatabaseMap_Fueling.WHERE_ID_CLAUSE, whereArgs);
+    SQLiteStatement update = getStatement(DatabaseMap_Fueling.SQL_UPDATE_BY_ID);
+    int rowsUpdated;
 
-    if (rowsUpdated == 1)
+    synchronized (update) {
+      bindFueling(update, fd);
+      update.bindLong(DatabaseMap_Fueling.DATA_COLUMN_COUNT + 1, fd.getID());
+      rowsUpdated = update.executeUpdateDelete();
+    }
+
+    if (rowsUpdated == 1) {
       fd.setCurrent();
-    else
+      mRepositories.fuelingSaved(fd);
+    } else {
+      mRepositories.fuelingDeleted(fd.getID());
       result = false;
+    }
 
     return result;
   }
 
   /**
-   * For each Model_Fueling instance in the provided list, it is passed through to
-   * updateFueling(Model_Fueling). The number of updated rows is returned; the calling
-   * method can compare this to the number of items in the list as a check on total success.
+   * Updates each Model_Fueling instance in the provided list, in a single transaction (see
+   * updateFuelings()). The number of updated rows is returned; the calling method can compare
+   * this to the number of items in the list as a check on total success.
    *
    * @param fdList an array of Model_Fueling objects to be updated in the database
    * @return the number of successfully updated rows
+   * @throws IllegalArgumentException if any instance's state is not set to UPDATED
    */
   @SuppressWarnings("unused")
-  public int updateFueling(ArrayList<Model_Fueling> fdList) {
+  public int updateFueling(ArrayList<Model_Fueling> fdList) throws IllegalArgumentException {
     int result = 0;
 
-    for (Model_Fueling each : fdList) {
-      if (!updateFueling(each))
+    for (boolean updated : updateFuelings(fdList)) {
+      if (updated)
         result++;
     }
 
     return result;
   }
 
+  /**
+   * Inserts a collection of new Model_Fueling records in one transaction, with the cached
+   * INSERT statement rebound for each row, so that a large import costs one commit rather than
+   * one per row.
+   * <p/>
+   * If any row fails, the whole transaction is rolled back, the exception is thrown, and none of
+   * the instances are changed. Otherwise each instance is given the unique ID assigned to its
+   * record, and its state is set to CURRENT.
+   *
+   * @param fdList the instances to be inserted
+   * @return the unique ID of each new record, in the collection's order
+   * @throws IllegalArgumentException if any instance's state is not NEW
+   */
+  public int[] insertFuelings(Collection<Model_Fueling> fdList) throws IllegalArgumentException {
+    for (Model_Fueling each : fdList) {
+      if (!each.isNew())
+        throw new IllegalArgumentException("Cannot insert a Model_Fueling record if its state is not NEW");
+    }
 
+    SQLiteDatabase db = this.getWritableDatabase();
+    int[] ids = new int[fdList.size()];
+    int i = 0;
+
+    SQLiteStatement insert = getStatement(DatabaseMap_Fueling.SQL_INSERT);
+    synchronized (insert) {
+      db.beginTransaction();
+      try {
+        for (Model_Fueling each : fdList) {
+          bindFueling(insert, each);
+          ids[i++] = (int) insert.executeInsert();
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    }
+
+    // Only touch the instances once the rows are committed. A large import would cost a copy of
+    // the vehicle's repository per row, so the vehicles are dropped from the cache instead.
+    i = 0;
+    for (Model_Fueling each : fdList) {
+      int id = ids[i++];
+      if (id > 0) {
+        each.setFuelingID(id);
+        each.setCurrent();
+      }
+      mRepositories.invalidateVehicle(each.getVehicleID());
+    }
 
+    return ids;
+  }
 
-  /*
-  **
-  ** Following are methods for upgrading database schemas
-  **
+  /**
+   * Updates a collection of Model_Fueling records in one transaction, with the cached UPDATE
+   * statement rebound for each row.
+   * <p/>
+   * If any row fails, the whole transaction is rolled back, the exception is thrown, and none of
+   * the instances are changed. Otherwise each instance whose record was updated has its state
+   * set to CURRENT; one whose record no longer exists is left as it is.
+   *
+   * @param fdList the instances whose records are to be updated
+   * @return for each instance, in the collection's order, whether exactly 1 row was updated
+   * @throws IllegalArgumentException if any instance's state is not set to UPDATED
    */
+  public boolean[] updateFuelings(Collection<Model_Fueling> fdList) throws IllegalArgumentException {
+    for (Model_Fueling each : fdList) {
+      if (!each.isUpdated())
+        throw new IllegalArgumentException("Cannot updated a database record if the object's state is not set to UPDATED");
+    }
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    boolean[] updated = new boolean[fdList.size()];
+    int i = 0;
+
+    SQLiteStatement update = getStatement(DatabaseMap_Fueling.SQL_UPDATE_BY_ID);
+    synchronized (update) {
+      db.beginTransaction();
+      try {
+        for (Model_Fueling each : fdList) {
+          bindFueling(update, each);
+          update.bindLong(DatabaseMap_Fueling.DATA_COLUMN_COUNT + 1, each.getID());
+          updated[i++] = (update.executeUpdateDelete() == 1);
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    }
+
+    i = 0;
+    for (Model_Fueling each : fdList) {
+      if (updated[i++]) {
+        each.setCurrent();
+        mRepositories.fuelingSaved(each);
+      } else {
+        mRepositories.fuelingDeleted(each.getID());
+      }
+    }
 
+    return updated;
+  }
 
   /**
-   * To get from 2 to 3, we add the column "status" to the table "vehicle". Fill the column with
-   * "A" (meaning "active") for all existing rows.
+   * Binds a fueling's values to a compiled INSERT or UPDATE, in the order of
+   * DatabaseMap_Fueling's data columns. The fueling's last-updated time is set to now, the time
+   * of the write, for incremental backups.
    */
-  private void upgradeToVersion3(SQLiteDatabase db) {
-    String sqlAlter = "ALTER TABLE " + DatabaseMap_Vehicle.TABLE_NAME + " ADD COLUMN " +
-        DatabaseMap_Vehicle.COLUMN_NAME_STATUS + " " + DatabaseMap_Base.STRING_TYPE;
-    String sqlUpdate = "UPDATE " + DatabaseMap_Vehicle.TABLE_NAME + " SET " + DatabaseMap_Vehicle
-        .COLUMN_NAME_STATUS + " = '" + Model_Vehicle.STATUS_ACTIVE + "'";
+  private static void bindFueling(SQLiteStatement statement, Model_Fueling fd) {
+    statement.clearBindings();
+    statement.bindLong(1, fd.getVehicleID());
+    statement.bindLong(2, fd.getDateOfFill().getTime());
+    statement.bindDouble(3, fd.getDistance());
+    statement.bindDouble(4, fd.getVolume());
+    statement.bindDouble(5, fd.getPricePaid());
+    statement.bindDouble(6, fd.getOdometer());
+    StatementCache.bindString(statement, 7, fd.getLocation());
+    statement.bindDouble(8, fd.getLatitude());
+    statement.bindDouble(9, fd.getLongitude());
+    statement.bindLong(10, fd.stampLastUpdated().getTime());
+  }
 
-    db.beginTransaction();
+
+
+  /**
+   * Fills in one batch of rows left by a schema upgrade (see DatabaseMigrations), in its own
+   * transaction, so that a long backfill never holds the database for long. The rows filled in
+   * may be any vehicle's, so the cache used by fetchFuelingRepository() is cleared after a
+   * batch.
+   *
+   * @return true if a batch was run, and there may be more; false once every backfill is done
+   */
+  public boolean runBackfillBatch() {
+    boolean ran = MIGRATIONS.runBackfillBatch(getWritableDatabase(), BACKFILL_BATCH_ROWS);
+    if (ran)
+      mRepositories.clear();
+    return ran;
+  }
+
+
+  /**
+   * Restores the database from a chain of XML backups. A chain with incremental backups is
+   * always restored over the existing data, since its rows apply by ID; otherwise the full backup
+   * is merged into the existing data, or replaces it. The rows the restore deletes are not
+   * recorded as deleted, since the next backup after a restore is a full one. The tables are
+   * written around this helper, so the cache used by fetchFuelingRepository() is cleared
+   * afterwards, whether or not the restore succeeds.
+   *
+   * @param chain     the backups, which must include a full backup
+   * @param overwrite true to replace the existing data with a full backup's; false to merge
+   * @return the number of rows restored
+   * @throws IOException if a backup can't be read, or is not valid
+   */
+  public int restoreBackup(BackupChain chain, boolean overwrite) throws IOException {
+    SQLiteDatabase db = getWritableDatabase();
+    dropDeletionTracking(db);
     try {
-      db.execSQL(sqlAlter);
-      db.execSQL(sqlUpdate);
-      db.setTransactionSuccessful();
+      if (chain.getDeltas().length > 0)
+        return chain.restore(this);
+      return XmlToDatabaseImporter.importData(this, chain.getBase(), overwrite);
     } finally {
-      db.endTransaction();
+      createDeletionTracking(db);
+      createPropertiesDeletionTracking(db);
+      mRepositories.clear();
+    }
+  }
+
+
+  /**
+   * Forgets the rows deleted before a time. Called after a full backup, which holds none of
+   * them, so no incremental backup will need them again.
+   *
+   * @param before the time (in millis) before which deletions are forgotten
+   * @return the number of deletions forgotten
+   */
+  public int purgeDeletionsBefore(long before) {
+    SQLiteStatement purge = getStatement(DatabaseMap_Deletion.SQL_DELETE_BEFORE);
+
+    synchronized (purge) {
+      purge.clearBindings();
+      purge.bindLong(1, before);
+      return purge.executeUpdateDelete();
+    }
+  }
+
+
+
+
+  /*
+   * Drops the triggers which fill the table of deleted rows, so that a restore emptying the
+   * tables records nothing. createDeletionTracking() and createPropertiesDeletionTracking() put
+   * them back.
+   */
+  private static void dropDeletionTracking(SQLiteDatabase db) {
+    db.execSQL(DatabaseMap_Deletion.getDropTriggerSQL(DatabaseMap_Fueling.TABLE_NAME));
+    db.execSQL(DatabaseMap_Deletion.getDropTriggerSQL(DatabaseMap_Vehicle.TABLE_NAME));
+    db.execSQL(DatabaseMap_Deletion.getDropTriggerSQL(PropertyDataMap.TABLE_NAME));
+  }
+
+  /*
+   * Creates the properties table, if PropertiesHelper has not yet, and the trigger which
+   * records its deleted rows, so that a setting removed since a full backup is removed by the
+   * incremental backups after it. The table of deleted rows must already exist.
+   */
+  static void createPropertiesDeletionTracking(SQLiteDatabase db) {
+    if (!PropertyDataMap.tableExists(db))
+      db.execSQL(PropertyDataMap.SQL_CREATE_TABLE);
+    db.execSQL(DatabaseMap_Deletion.getCreateTriggerSQL(PropertyDataMap.TABLE_NAME));
+  }
+
+  /*
+   * Creates the table of deleted rows, and the triggers on the fueling and vehicle tables
+   * which fill it, if they don't already exist.
+   */
+  static void createDeletionTracking(SQLiteDatabase db) {
+    if (!DatabaseMap_Deletion.tableExists(db)) {
+      db.execSQL(DatabaseMap_Deletion.SQL_CREATE_TABLE);
+      db.execSQL(DatabaseMap_Deletion.SQL_CREATE_INDEX_LAST_UPDATED);
     }
+    db.execSQL(DatabaseMap_Deletion.getCreateTriggerSQL(DatabaseMap_Fueling.TABLE_NAME));
+    db.execSQL(DatabaseMap_Deletion.getCreateTriggerSQL(DatabaseMap_Vehicle.TABLE_NAME));
+    db.execSQL(DatabaseMap_Fueling.SQL_CREATE_INDEX_LAST_UPDATED);
   }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.CamGenTools.SchemaMigration;
+import com.ctoddcook.CamGenTools.SchemaMigrator;
+
+/**
+ * The steps which upgrade an existing FuelLog database to the current schema, one for each
+ * version which changed it. Versions 1 and 2 came before any upgrades (1 was never put into
+ * production), and version 4's index is created by version 6's step.
+ * <p/>
+ * To change the schema, raise DatabaseHelper.DATABASE_VERSION and add a step for the new
+ * version here. Keep its migrate() to schema changes; anything which must visit every row of
+ * the fueling table goes in its backfill().
+ */
+final class DatabaseMigrations {
+
+  private DatabaseMigrations() {
+    // not to be instantiated
+  }
+
+  /**
+   * @return a migrator holding every step
+   */
+  static SchemaMigrator create() {
+    return new SchemaMigrator()
+        .add(new SchemaMigration(3, "vehicle status") {
+          @Override
+          public boolean isApplied(SQLiteDatabase db) {
+            return DatabaseMap_Vehicle.columnExists(db, DatabaseMap_Vehicle.TABLE_NAME,
+                DatabaseMap_Vehicle.COLUMN_NAME_STATUS);
+          }
+
+          /*
+           * Existing vehicles are made active by the column's default, rather than by updating
+           * every row.
+           */
+          @Override
+          public void migrate(SQLiteDatabase db) {
+            db.execSQL(DatabaseMap_Vehicle.SQL_ADD_STATUS_COLUMN);
+          }
+        })
+
+        .add(new SchemaMigration(5, "deleted row tracking") {
+          @Override
+          public boolean isApplied(SQLiteDatabase db) {
+            return DatabaseMap_Deletion.tableExists(db) &&
+                DatabaseMap_Deletion.triggerExists(db, DatabaseMap_Fueling.TABLE_NAME) &&
+                DatabaseMap_Deletion.triggerExists(db, DatabaseMap_Vehicle.TABLE_NAME) &&
+                DatabaseMap_Fueling.indexHasColumn(db, DatabaseMap_Fueling.INDEX_NAME_LAST_UPDATED,
+                    DatabaseMap_Fueling.COLUMN_NAME_LAST_UPDATED);
+          }
+
+          /*
+           * Rows deleted before the upgrade were never recorded, so the first backup after it
+           * should be a full one.
+           */
+          @Override
+          public void migrate(SQLiteDatabase db) {
+            DatabaseHelper.createDeletionTracking(db);
+          }
+        })
+
+        .add(new SchemaMigration(6, "fueling status") {
+          @Override
+          public boolean isApplied(SQLiteDatabase db) {
+            return DatabaseMap_Fueling.columnExists(db, DatabaseMap_Fueling.TABLE_NAME,
+                DatabaseMap_Fueling.COLUMN_NAME_STATUS) &&
+                DatabaseMap_Fueling.indexHasColumn(db, DatabaseMap_Fueling.INDEX_NAME_VEHICLE_DATE,
+                    DatabaseMap_Fueling.COLUMN_NAME_STATUS);
+          }
+
+          /*
+           * Existing fuelings take the default status, CURRENT. The covering index gains the
+           * column too, so the span totals can still be read from it alone.
+           */
+          @Override
+          public void migrate(SQLiteDatabase db) {
+            if (!DatabaseMap_Fueling.columnExists(db, DatabaseMap_Fueling.TABLE_NAME,
+                DatabaseMap_Fueling.COLUMN_NAME_STATUS))
+              db.execSQL(DatabaseMap_Fueling.SQL_ADD_STATUS_COLUMN);
+            db.execSQL(DatabaseMap_Fueling.SQL_DROP_INDEX_VEHICLE_DATE);
+            db.execSQL(DatabaseMap_Fueling.SQL_CREATE_INDEX_VEHICLE_DATE);
+          }
+        })
+
+        .add(new SchemaMigration(7, "deleted property tracking") {
+          @Override
+          public boolean isApplied(SQLiteDatabase db) {
+            return DatabaseMap_Deletion.triggerExists(db, PropertyDataMap.TABLE_NAME);
+          }
+
+          /*
+           * Properties deleted before the upgrade were never recorded, so the first backup
+           * after it should be a full one. The properties table is created here if
+           * PropertiesHelper has not yet created it, since the trigger needs it.
+           */
+          @Override
+          public void migrate(SQLiteDatabase db) {
+            DatabaseHelper.createPropertiesDeletionTracking(db);
+          }
+        });
+  }
+}
@@ -3,23 +3,29 @@ package com.ctoddcook.FuelLog;
 import android.app.backup.BackupAgent;
 import android.app.backup.BackupDataInput;
 import android.app.backup.BackupDataOutput;
+import android.database.sqlite.SQLiteDatabase;
 import android.os.ParcelFileDescriptor;
 
-import java.io.ByteArrayOutputStream;
+import com.ctoddcook.CamGenTools.LastModifiedState;
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.FuelLogBackup.BackupEntities;
+
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 
 /**
- * Handler for backing up application and user data, for later restore
+ * Handler for backing up application and user data, for later restore. The tables are sent to
+ * the backup transport as chunked entities by BackupEntities; a table which has not changed since
+ * the last backup is not sent again.
  * <p/>
  * Created by C. Todd Cook on 5/26/2016.<br>
  * ctodd@ctoddcook.com
  */
 public class FuelLogBackupAgent extends BackupAgent {
 
-  private static final String LAST_BACKUP_KEY = "LastBackupDT";
-
-
   /**
    * The application is being asked to write any data changed since the last
    * time it performed a backup operation. The state data recorded during the
@@ -50,36 +56,28 @@ public class FuelLogBackupAgent extends BackupAgent {
    *                 state here after writing the requested data to the <code>data</code>
    */
   @Override
-  public void onBackup(ParcelFileDescriptor oldState, BackupDataOutput data, ParcelFileDescriptor newState) throws IOException {
-    /*
-    I'm not basing backups on the oldState information, so I just disregard it. The user can
-    request a backup anytime.
-     */
-//    try {
-//        constructBackupData(data);
-//        // The file has been modified, so do a backup
-//        // Or the time on the device changed, so be safe and do a backup
-//      }
-//    } catch (IOException e) {
-//      // todo reuse backup operation
-//      // Unable to read state file... be safe and do a backup
-//    }
-  }
+  public void onBackup(ParcelFileDescriptor oldState, final BackupDataOutput data,
+                       ParcelFileDescriptor newState) throws IOException {
+    BackupEntities.State old = null;
+    if (oldState != null)
+      old = BackupEntities.State.read(new DataInputStream(
+          new FileInputStream(oldState.getFileDescriptor())));
+
+    BackupEntities.State state = getEntities().backup(old,
+        LastModifiedState.getLastModified(this), new BackupEntities.EntityOutput() {
+          @Override
+          public void writeEntity(String key, byte[] bytes, int size) throws IOException {
+            data.writeEntityHeader(key, size);
+            data.writeEntityData(bytes, size);
+          }
 
-  private void constructBackupData(BackupDataOutput data) {
-    // Create buffer stream and data output stream for our data
-    // See here: https://developer.android.com/guide/topics/data/backup.html
-    // See here: http://stackoverflow.com/questions/5282936/android-backup-restore-how-to-backup-an-internal-database
-    ByteArrayOutputStream bufStream = new ByteArrayOutputStream();
-    DataOutputStream outWriter = new DataOutputStream(bufStream);
-// Write structured data
-//    outWriter.writeUTF(mPlayerName);
-//    outWriter.writeInt(mPlayerScore);
-// Send the data to the Backup Manager via the BackupDataOutput
-    byte[] buffer = bufStream.toByteArray();
-    int len = buffer.length;
-//    data.writeEntityHeader(TOPSCORE_BACKUP_KEY, len);
-//    data.writeEntityData(buffer, len);
+          @Override
+          public void deleteEntity(String key) throws IOException {
+            data.writeEntityHeader(key, -1);
+          }
+        });
+
+    writeState(newState, state);
   }
 
   /**
@@ -113,7 +111,69 @@ public class FuelLogBackupAgent extends BackupAgent {
    *                       state here after restoring its data from the <code>data</code> stream.
    */
   @Override
-  public void onRestore(BackupDataInput data, int appVersionCode, ParcelFileDescriptor newState) throws IOException {
+  public void onRestore(final BackupDataInput data, int appVersionCode,
+                        ParcelFileDescriptor newState) throws IOException {
+    SQLiteDatabase db = DatabaseHelper.getInstance(this).getWritableDatabase();
+    if (!PropertyDataMap.tableExists(db))
+      db.execSQL(PropertyDataMap.SQL_CREATE_TABLE);
+
+    // The data is being replaced wholesale, so incremental file backups must start over
+    LastModifiedState.touch(this);
+
+    BackupEntities.State state = getEntities().restore(new BackupEntities.EntityInput() {
+      @Override
+      public boolean readNextHeader() throws IOException {
+        return data.readNextHeader();
+      }
+
+      @Override
+      public String getKey() {
+        return data.getKey();
+      }
+
+      @Override
+      public int getDataSize() {
+        return data.getDataSize();
+      }
 
+      @Override
+      public int readEntityData(byte[] bytes, int offset, int size) throws IOException {
+        return data.readEntityData(bytes, offset, size);
+      }
+
+      @Override
+      public void skipEntityData() throws IOException {
+        data.skipEntityData();
+      }
+    }, LastModifiedState.getLastModified(this));
+    DatabaseHelper.getInstance(this).clearRepositoryCache();
+
+    writeState(newState, state);
+  }
+
+
+  /*
+   * The tables backed up, in the order they are written. Properties first, then vehicles
+   * before the fuelings which refer to them.
+   */
+  private BackupEntities getEntities() {
+    BackupEntities entities = new BackupEntities(DatabaseHelper.getInstance(this));
+    entities.addTable(PropertyDataMap.TABLE_NAME, PropertyDataMap._ID,
+        PropertyDataMap.COLUMN_NAMES, PropertyDataMap.COLUMN_KINDS);
+    entities.addTable(DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Vehicle._ID,
+        DatabaseMap_Vehicle.COLUMN_NAMES, DatabaseMap_Vehicle.COLUMN_KINDS);
+    entities.addTable(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID,
+        DatabaseMap_Fueling.COLUMN_NAMES, DatabaseMap_Fueling.COLUMN_KINDS);
+    return entities;
+  }
+
+
+  /*
+   * Records the state in the file the backup manager keeps for the next backup. The stream is
+   * not closed, as the backup manager owns the file descriptor.
+   */
+  private static void writeState(ParcelFileDescriptor newState, BackupEntities.State state)
+      throws IOException {
+    state.write(new DataOutputStream(new FileOutputStream(newState.getFileDescriptor())));
   }
 }
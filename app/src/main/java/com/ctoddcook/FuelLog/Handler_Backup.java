@@ -3,20 +3,29 @@ package com.ctoddcook.FuelLog;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Environment;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AlertDialog;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.ctoddcook.CamGenTools.LastModifiedState;
+import com.ctoddcook.CamGenTools.PropertiesHelper;
 import com.ctoddcook.CamGenTools.PropertyDataMap;
-import com.ctoddcook.FuelLogBackup.BackupXmlEncoder;
+import com.ctoddcook.CamGenTools.ReadWriteExecutor;
+import com.ctoddcook.FuelLogBackup.BackupBinaryEncoder;
+import com.ctoddcook.FuelLogBackup.BackupChain;
+import com.ctoddcook.FuelLogBackup.BackupXmlPipeline;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 import static android.Manifest.permission;
 
@@ -34,13 +43,24 @@ class Handler_Backup extends Activity implements ActivityCompat.OnRequestPermiss
     private static final int PERMISSION_TO_WRITE_TO_EXT_STORAGE = 370;
     private static final int PERMISSION_TO_READ_FROM_EXT_STORAGE = 268;
 
+    /* Settings for how backups are written, see Activity_Settings */
+    static final String KEY_BACKUP_BINARY = "com.ctoddcook.FuelLog.BACKUP_BINARY";
+    static final String KEY_BACKUP_COMPRESSED = "com.ctoddcook.FuelLog.BACKUP_COMPRESSED";
+    static final String KEY_BACKUP_INCREMENTAL = "com.ctoddcook.FuelLog.BACKUP_INCREMENTAL";
+
+    // XML backups are named from this, see BackupChain: flbak.xml, flbak.delta.1.xml, and so on
+    @SuppressWarnings("SpellCheckingInspection")
+    private static final String BACKUP_NAME_PREFIX = "flbak";
     @SuppressWarnings("SpellCheckingInspection")
-    private static final String BACKUP_FILE_NAME = "flbak.xml";
+    private static final String BINARY_BACKUP_FILE_NAME = "flbak.bin";
     private static final String BACKUP_FOLDER_NAME = "FuelLogBackup";
 
     private Activity mActivity;
     private Context mContext;
     private DatabaseHelper mDatabaseHelper;
+    private boolean mBinary = false;
+    private boolean mCompressed = false;
+    private boolean mIncremental = false;
 
 
     /**
@@ -54,6 +74,20 @@ class Handler_Backup extends Activity implements ActivityCompat.OnRequestPermiss
         mDatabaseHelper = DatabaseHelper.getInstance(mContext);
     }
 
+    /**
+     * Reads the backup settings the user has chosen. A binary backup is far smaller and quicker
+     * to write than an XML one, but can't be read by a person. A compressed XML backup (as GZIP,
+     * to flbak.xml.gz) is a small fraction of the size. An incremental XML backup holds only the
+     * rows changed or deleted since the backup before; the first backup, and the first after a
+     * restore, is always a full one. The restore reads any of them.
+     */
+    private void readSettings() {
+        PropertiesHelper settings = PropertiesHelper.getInstance();
+        mBinary = settings.getBooleanValue(KEY_BACKUP_BINARY, false);
+        mCompressed = settings.getBooleanValue(KEY_BACKUP_COMPRESSED, false);
+        mIncremental = settings.getBooleanValue(KEY_BACKUP_INCREMENTAL, false);
+    }
+
     /**
      * Primary access for starting the backup operation.
      */
@@ -86,9 +120,7 @@ class Handler_Backup extends Activity implements ActivityCompat.OnRequestPermiss
 
         /* Check for permission to read from external storage, and if we have it, restore. */
         if (isReadFromExternalAllowed()) {
-            /* Warn user about overwriting data */
-            // TODO: Snackbar a message yes/no about overwriting data
-            //executeRestore();
+            confirmRestore();
         } else {
             Snackbar.make(mActivity.findViewById(R.id.Main_HistoricalsList), "If you just granted" +
                     " permission for reading from external storage, you may have to try the " +
@@ -97,45 +129,224 @@ class Handler_Backup extends Activity implements ActivityCompat.OnRequestPermiss
     }
 
     /*
-     * Opens (or creates) the path
+     * Opens (or creates) the path, then writes the backup on the database's writer thread, so
+     * neither the reading and encoding nor the purge of old deletions runs on the UI thread, and
+     * lets the user know once it is saved.
      */
     @TargetApi(Build.VERSION_CODES.KITKAT)
     private synchronized void executeBackup() {
+        final File backupFolder = getFileFolder();
+        if (backupFolder == null)
+            return;
+
+        readSettings();
+        AsyncDatabaseHelper.getInstance(mContext).backup(mActivity, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                if (mBinary)
+                    executeBinaryBackup(backupFolder);
+                else
+                    executeXmlBackup(backupFolder);
+                return null;
+            }
+        }, new ReadWriteExecutor.Callback<Void>() {
+            @Override
+            public void onResult(Void result) {
+                Snackbar.make(mActivity.findViewById(R.id.Main_HistoricalsList), "Backup has " +
+                        "been saved to " + backupFolder, Snackbar.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (e instanceof FileNotFoundException) {
+                    Toast.makeText(mContext, "Dang! Got an IOException when trying to create a " +
+                            "FileOutputStream. The backup has not been saved.",
+                            Toast.LENGTH_LONG).show();
+                    Log.d(TAG, "backupToFile/Creating FileOutputStream:" + e.getMessage());
+                } else {
+                    Toast.makeText(mContext, "Uhm, this is embarrassing. We got an " +
+                            "IOException while trying to write to the backup file. The backup " +
+                            "has not been saved.", Toast.LENGTH_LONG).show();
+                    Log.d(TAG, "backupToFile:/Encoding Database: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /*
+     * Asks the user whether to merge the backup into the existing data or to replace it, then
+     * restores. A chain with incremental backups can only replace the data, so the user is only
+     * asked to confirm that.
+     */
+    private synchronized void confirmRestore() {
         File backupFolder = getFileFolder();
         if (backupFolder == null)
             return;
 
-        /* Setup the backup encoder */
-        File file = new File(backupFolder, BACKUP_FILE_NAME);
-        BackupXmlEncoder d2x;
+        final BackupChain chain = new BackupChain(backupFolder, BACKUP_NAME_PREFIX);
+        if (chain.getBase() == null) {
+            Toast.makeText(mContext, "There's no backup file to restore from in " + backupFolder,
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
 
-        try {
-            d2x = BackupXmlEncoder.getInstance(mDatabaseHelper, file);
-        } catch (IOException e) {
-            Toast.makeText(mContext, "Dang! Got an IOException when trying to create a " +
-                    "FileOutputStream. The backup has not been saved.", Toast.LENGTH_LONG).show();
-            Log.d(TAG, "backupToFile/Creating FileOutputStream:" + e.getMessage());
+        if (chain.getDeltas().length > 0) {
+            confirmOverwrite(chain, "The backup includes incremental backups, which can only be " +
+                    "restored over the existing data. ");
             return;
         }
 
+        DialogInterface.OnClickListener dialogClickListener = new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                switch (which) {
+                    case DialogInterface.BUTTON_POSITIVE:
+                        executeRestore(chain, false);
+                        break;
+
+                    case DialogInterface.BUTTON_NEUTRAL:
+                        confirmOverwrite(chain, "");
+                        break;
+
+                    // If the user clicks "Cancel" then there is nothing to do
+                    case DialogInterface.BUTTON_NEGATIVE:
+                        break;
+                }
+            }
+        };
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(mActivity);
+        builder.setTitle("Restore Backup?");
+        builder.setMessage("Add the backup's vehicles and fuelings to those you have now, or " +
+                "replace yours with the backup's?")
+                .setPositiveButton("Add them", dialogClickListener)
+                .setNeutralButton("Replace mine", dialogClickListener)
+                .setNegativeButton("Cancel", dialogClickListener).show();
+    }
+
+    /*
+     * Asks the user to confirm that the existing data is to be replaced by the backup's, and if
+     * so, restores.
+     */
+    private void confirmOverwrite(final BackupChain chain, String reason) {
+        DialogInterface.OnClickListener dialogClickListener = new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                if (which == DialogInterface.BUTTON_POSITIVE)
+                    executeRestore(chain, true);
+            }
+        };
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(mActivity);
+        builder.setTitle("Replace Data?");
+        builder.setMessage(reason + "All of the vehicles and fuelings you have now will be " +
+                "replaced by those in the backup. Are you sure?")
+                .setPositiveButton("Yes, replace them", dialogClickListener)
+                .setNegativeButton("No, never mind", dialogClickListener).show();
+    }
+
+    /*
+     * Restores the data from the backup, a row at a time, on the database's writer thread, then
+     * lets the screens know the data has changed.
+     */
+    private synchronized void executeRestore(BackupChain chain, boolean overwrite) {
+        /* The data no longer follows on from the last backup, so the next must be a full one */
+        LastModifiedState.touch(mContext);
+
+        AsyncDatabaseHelper.getInstance(mContext).restoreBackup(mActivity, chain, overwrite,
+                new ReadWriteExecutor.Callback<Integer>() {
+                    @Override
+                    public void onResult(Integer rows) {
+                        Handler_DataEvents events = Handler_DataEvents.getInstance();
+                        events.dispatchDataUpdateEvent(
+                                Handler_DataEvents.DataUpdateEvent.VEHICLE_LIST_UPDATED, null);
+                        events.dispatchDataUpdateEvent(
+                                Handler_DataEvents.DataUpdateEvent.FUELING_LIST_UPDATED, null);
+                        Snackbar.make(mActivity.findViewById(R.id.Main_HistoricalsList),
+                                "Restored " + rows + " rows from the backup.",
+                                Snackbar.LENGTH_SHORT).show();
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Toast.makeText(mContext, "Sorry, we couldn't read the backup file, so " +
+                                "the data may be only partly restored.", Toast.LENGTH_LONG).show();
+                        Log.d(TAG, "restoreFromFile: " + e.getMessage());
+                    }
+                });
+    }
+
+    /*
+     * Writes the backup as XML, reading the tables, encoding and writing all at once, and logs
+     * how quickly it went. An incremental backup carries on from the watermark of the last
+     * backup, unless there is none, or the data has been restored since. Runs on the writer
+     * thread, so no write is under way when the watermark is taken.
+     */
+    private void executeXmlBackup(File backupFolder) throws IOException {
+        BackupChain chain = new BackupChain(backupFolder, BACKUP_NAME_PREFIX);
+        long until = System.currentTimeMillis();
+        long since = (mIncremental ? chain.getWatermark() : -1);
+        if (since >= 0 && LastModifiedState.getLastModified(mContext) >= since)
+            since = -1;
+
+        File file = (since >= 0 ? chain.newDeltaFile(mCompressed) :
+                chain.newBaseFile(mCompressed));
+        BackupXmlPipeline d2x = BackupXmlPipeline.getInstance(mDatabaseHelper, file);
+        d2x.setCompressed(mCompressed);
+        d2x.setWatermark(until);
+
         /* Add to the backup encoder the tables to be backed up */
-        d2x.adddTable(PropertyDataMap.TABLE_NAME, PropertyDataMap._ID);
-        d2x.adddTable(DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Vehicle._ID);
-        d2x.adddTable(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID);
+        if (since >= 0) {
+            d2x.setChangedSince(since);
+            d2x.addTable(DatabaseMap_Deletion.TABLE_NAME, DatabaseMap_Deletion._ID);
+        }
+        d2x.addTable(PropertyDataMap.TABLE_NAME, PropertyDataMap._ID);
+        d2x.addTable(DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Vehicle._ID);
+        d2x.addTable(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID);
 
-        /* Encode to XML */
+        d2x.setProgressListener(new BackupXmlPipeline.ProgressListener() {
+            @Override
+            public void onProgress(String tableName, long rowsEncoded, long bytesWritten) {
+                Log.d(TAG, "executeXmlBackup: " + tableName + ": " + rowsEncoded + " rows, " +
+                        bytesWritten + " bytes written");
+            }
+        });
+
+        BackupXmlPipeline.Metrics metrics;
         try {
-            d2x.encodeDatabase();
+            metrics = d2x.encodeDatabase();
         } catch (IOException e) {
-            Toast.makeText(mContext, "Uhm, this is embarrassing. We got an " +
-                    "IOException while trying to write to the backup file. The backup has not " +
-                    "been saved.", Toast.LENGTH_LONG).show();
-            Log.d(TAG, "backupToFile:/Encoding Database: " + e.getMessage());
-            return;
+            /* A broken incremental backup would break the chain; the one before still stands */
+            if (since >= 0 && !file.delete())
+                Log.d(TAG, "executeXmlBackup: could not delete " + file);
+            throw e;
         }
+        Log.i(TAG, "executeXmlBackup: " + (since >= 0 ? "incremental, " : "full, ") + metrics);
+
+        /* A full backup starts a new chain: the old incremental backups, and the deletions they
+           were taken from, are no longer needed */
+        if (since < 0) {
+            if (!chain.deleteDeltas())
+                Log.d(TAG, "executeXmlBackup: could not delete old incremental backups");
+            mDatabaseHelper.purgeDeletionsBefore(until);
+        }
+    }
+
+    /*
+     * Writes the backup in the binary format, describing each table by its database map.
+     */
+    private void executeBinaryBackup(File backupFolder) throws IOException {
+        File file = new File(backupFolder, BINARY_BACKUP_FILE_NAME);
+        BackupBinaryEncoder d2b = BackupBinaryEncoder.getInstance(mDatabaseHelper, file);
+
+        d2b.addTable(PropertyDataMap.TABLE_NAME, PropertyDataMap._ID,
+                PropertyDataMap.COLUMN_NAMES, PropertyDataMap.COLUMN_KINDS);
+        d2b.addTable(DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Vehicle._ID,
+                DatabaseMap_Vehicle.COLUMN_NAMES, DatabaseMap_Vehicle.COLUMN_KINDS);
+        d2b.addTable(DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID,
+                DatabaseMap_Fueling.COLUMN_NAMES, DatabaseMap_Fueling.COLUMN_KINDS);
 
-        Snackbar.make(mActivity.findViewById(R.id.Main_HistoricalsList), "Backup has been saved " +
-                "to " + backupFolder, Snackbar.LENGTH_SHORT).show();
+        d2b.encodeDatabase();
     }
 
     /*
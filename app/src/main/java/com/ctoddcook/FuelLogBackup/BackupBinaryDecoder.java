@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLogBackup;
+
+import com.ctoddcook.CamGenTools.DatabaseMap_Base;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a binary backup, as written by BackupBinaryWriter (which describes the format). The
+ * schema is read when the decoder is constructed; the tables are then read in order, one row at
+ * a time, and only the current row is held in memory:
+ * <pre>
+ *   BackupBinaryTable t;
+ *   while ((t = decoder.nextTable()) != null) {
+ *     while (decoder.nextRow()) {
+ *       long id = decoder.getLong(t.indexOf(t.primeKey));
+ *       ...
+ *     }
+ *   }
+ * </pre>
+ */
+public class BackupBinaryDecoder {
+    private final InputStream mIn;
+    private final List<BackupBinaryTable> mTables;
+    private int mTableNumber = -1;
+    private BackupBinaryTable mTable;
+    private boolean mTableEnded;
+
+    // The current row: its bytes as read, and its values once decoded
+    private byte[] mRow = new byte[256];
+    private int mPosition;
+    private long mNulls;
+    private long[] mLongs;
+    private double[] mDoubles;
+    private String[] mStrings;
+
+    /**
+     * Constructor. Reads and checks the schema at the head of the backup.
+     *
+     * @param in The stream to read the backup from
+     * @throws IOException If the stream fails, or does not hold a binary backup this version of
+     *                     the decoder can read
+     */
+    public BackupBinaryDecoder(InputStream in) throws IOException {
+        mIn = new BufferedInputStream(in);
+
+        for (byte b : BackupBinaryWriter.MAGIC)
+            if (readByte() != b)
+                throw new IOException("Not a binary backup");
+
+        long version = readVarint();
+        if (version != BackupBinaryWriter.VERSION)
+            throw new IOException("Unsupported binary backup version " + version);
+
+        int tableCount = readCount();
+        ArrayList<BackupBinaryTable> tables = new ArrayList<>(tableCount);
+        for (int t = 0; t < tableCount; t++) {
+            String name = readString();
+            String primeKey = readString();
+            int columnCount = readCount();
+            if (columnCount > BackupBinaryTable.MAX_COLUMNS)
+                throw new IOException("Table " + name + " has too many columns: " + columnCount);
+
+            String[] columns = new String[columnCount];
+            int[] kinds = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columns[i] = readString();
+                kinds[i] = readByte();
+                if (!BackupBinaryTable.isKnownKind(kinds[i]))
+                    throw new IOException("Unknown kind " + kinds[i] + " for column " +
+                            columns[i] + " of table " + name);
+            }
+
+            try {
+                tables.add(new BackupBinaryTable(name, primeKey, columns, kinds));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad description of table " + name + ": " + e.getMessage());
+            }
+        }
+        mTables = Collections.unmodifiableList(tables);
+    }
+
+    /**
+     * @return The tables in the backup, in the order they are stored
+     */
+    public List<BackupBinaryTable> getTables() {
+        return mTables;
+    }
+
+    /**
+     * Moves to the next table, skipping whatever rows of the current one have not been read.
+     *
+     * @return The table whose rows are now to be read, or null if there are no more tables
+     * @throws IOException If the stream fails or the backup is damaged
+     */
+    public BackupBinaryTable nextTable() throws IOException {
+        if (mTable != null)
+            while (nextRow()) {
+                // skip
+            }
+
+        if (++mTableNumber >= mTables.size()) {
+            mTable = null;
+            return null;
+        }
+
+        mTable = mTables.get(mTableNumber);
+        mTableEnded = false;
+        int columnCount = mTable.getColumnCount();
+        mLongs = new long[columnCount];
+        mDoubles = new double[columnCount];
+        mStrings = new String[columnCount];
+        return mTable;
+    }
+
+    /**
+     * Reads the next row of the current table.
+     *
+     * @return true if a row was read; false if the table has no more rows
+     * @throws IOException If the stream fails or the backup is damaged
+     */
+    public boolean nextRow() throws IOException {
+        if (mTable == null)
+            throw new IllegalStateException("No table has been started");
+        if (mTableEnded)
+            return false;
+
+        int length = readCount();
+        if (length == 0) {
+            mTableEnded = true;
+            return false;
+        }
+
+        if (length > mRow.length)
+            mRow = new byte[Math.max(length, mRow.length * 2)];
+        readFully(mRow, length);
+        mPosition = 0;
+
+        mNulls = rowVarint(length);
+        for (int i = 0; i < mTable.getColumnCount(); i++) {
+            mStrings[i] = null;
+            if (isNull(i))
+                continue;
+
+            switch (mTable.getColumnKind(i)) {
+                case DatabaseMap_Base.COLUMN_KIND_KEY:
+                case DatabaseMap_Base.COLUMN_KIND_DATETIME:
+                    mLongs[i] += BackupBinaryWriter.unzigzag(rowVarint(length));
+                    break;
+                case DatabaseMap_Base.COLUMN_KIND_INT:
+                    mLongs[i] = BackupBinaryWriter.unzigzag(rowVarint(length));
+                    break;
+                case DatabaseMap_Base.COLUMN_KIND_FLOAT:
+                    mDoubles[i] = Float.intBitsToFloat((int) rowFixed(4, length));
+                    break;
+                case DatabaseMap_Base.COLUMN_KIND_DOUBLE:
+                    mDoubles[i] = Double.longBitsToDouble(rowFixed(8, length));
+                    break;
+                case DatabaseMap_Base.COLUMN_KIND_STRING:
+                    int size = (int) rowVarint(length);
+                    checkRoom(size, length);
+                    mStrings[i] = new String(mRow, mPosition, size, BackupBinaryWriter.UTF8);
+                    mPosition += size;
+                    break;
+            }
+        }
+
+        if (mPosition != length)
+            throw new IOException("Row of table " + mTable.name + " is damaged");
+        return true;
+    }
+
+    /**
+     * @param column A column number of the current table
+     * @return true if the column of the current row is null
+     */
+    public boolean isNull(int column) {
+        return (mNulls & (1L << column)) != 0;
+    }
+
+    /**
+     * @param column A KEY, INT or DATETIME column of the current table
+     * @return The column's value in the current row (0 if it is null)
+     */
+    public long getLong(int column) {
+        return isNull(column) ? 0 : mLongs[column];
+    }
+
+    /**
+     * @param column A FLOAT or DOUBLE column of the current table
+     * @return The column's value in the current row (0 if it is null)
+     */
+    public double getDouble(int column) {
+        return isNull(column) ? 0 : mDoubles[column];
+    }
+
+    /**
+     * @param column A STRING column of the current table
+     * @return The column's value in the current row, or null
+     */
+    public String getString(int column) {
+        return mStrings[column];
+    }
+
+    /**
+     * Closes the stream.
+     *
+     * @throws IOException If the stream fails
+     */
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private long rowVarint(int length) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            checkRoom(1, length);
+            int b = mRow[mPosition++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint in table " + mTable.name);
+    }
+
+    private long rowFixed(int size, int length) throws IOException {
+        checkRoom(size, length);
+        long bits = 0;
+        for (int i = 0; i < size; i++)
+            bits = (bits << 8) | (mRow[mPosition++] & 0xFF);
+        return bits;
+    }
+
+    private void checkRoom(int size, int length) throws IOException {
+        if (size < 0 || mPosition + size > length)
+            throw new IOException("Row of table " + mTable.name + " is damaged");
+    }
+
+    private int readByte() throws IOException {
+        int b = mIn.read();
+        if (b < 0)
+            throw new EOFException("The backup ends too soon");
+        return b;
+    }
+
+    private void readFully(byte[] into, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = mIn.read(into, read, length - read);
+            if (n < 0)
+                throw new EOFException("The backup ends too soon");
+            read += n;
+        }
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /* Reads a varint which is a count or length, and so must fit in an int */
+    private int readCount() throws IOException {
+        long count = readVarint();
+        if (count < 0 || count > Integer.MAX_VALUE)
+            throw new IOException("Bad length in backup: " + count);
+        return (int) count;
+    }
+
+    private String readString() throws IOException {
+        int length = readCount();
+        byte[] bytes = new byte[length];
+        readFully(bytes, length);
+        return new String(bytes, BackupBinaryWriter.UTF8);
+    }
+}
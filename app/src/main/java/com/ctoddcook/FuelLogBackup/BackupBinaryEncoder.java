@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLogBackup;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.ctoddcook.CamGenTools.Assert;
+import com.ctoddcook.CamGenTools.DatabaseMap_Base;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+
+/**
+ * Tables to binary backup exporter; the compact counterpart of BackupXmlPipeline. The format is
+ * described in BackupBinaryWriter, and read back by BackupBinaryDecoder. Each table is described
+ * by a BackupBinaryTable, usually built from the COLUMN_NAMES and COLUMN_KINDS of its database
+ * map, and its rows are read in keyset chunks, the same way BackupXmlPipeline reads them.
+ */
+public class BackupBinaryEncoder {
+    private final SQLiteDatabase mDB;
+    private final OutputStream mOut;
+    private ArrayList<BackupBinaryTable> mTableList = new ArrayList<>(10);
+
+    /* Constructor for use with an output stream */
+    private BackupBinaryEncoder(SQLiteDatabase db, OutputStream os) {
+        mDB = db;
+        mOut = os;
+    }
+
+    /**
+     * Returns a constructed instance using the provided File to open an output stream
+     * @param dbOpener The Database helper which will provide data
+     * @param outFile The File to which the backup is to be written
+     * @return An instance of this class, ready to have tables added and then to encode
+     * @throws IOException If there is a problem opening the provided File
+     */
+    public static BackupBinaryEncoder getInstance(SQLiteOpenHelper dbOpener, File outFile)
+            throws IOException {
+        return getInstance(dbOpener, new FileOutputStream(outFile));
+    }
+
+    /**
+     * Returns a constructed instance using the output stream.
+     * @param dbOpener The Database helper which will provide data
+     * @param os The stream to which the backup is to be written
+     * @return An instance of this class, ready to have tables added and then to encode
+     */
+    public static BackupBinaryEncoder getInstance(SQLiteOpenHelper dbOpener, OutputStream os) {
+        return new BackupBinaryEncoder(dbOpener.getReadableDatabase(), os);
+    }
+
+    /**
+     * Adds a table to the list of tables to be backed up. This must be called for ALL tables to
+     * be included, before calling encodeDatabase().
+     *
+     * @param name     The name of the table
+     * @param primeKey The table's primary key
+     * @param columns  The table's columns, in the order they are to be stored
+     * @param kinds    The kind of each column (DatabaseMap_Base.COLUMN_KIND_ constants)
+     */
+    public void addTable(String name, String primeKey, String[] columns, int[] kinds) {
+        mTableList.add(new BackupBinaryTable(name, primeKey, columns, kinds));
+    }
+
+    /**
+     * Encodes all of the added tables and their data, and closes the output stream.
+     *
+     * @throws IOException
+     */
+    public void encodeDatabase() throws IOException {
+        Assert.notEmpty(mTableList, "The mTableList field is null or empty");
+
+        BackupBinaryWriter writer;
+        try {
+            writer = new BackupBinaryWriter(mOut, mTableList);
+        } catch (IOException e) {
+            mOut.close();
+            throw e;
+        }
+
+        try {
+            for (int i = 0; i < mTableList.size(); i++) {
+                encodeTable(writer, writer.nextTable());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Encodes a single table, reading its rows in chunks of BackupXmlPipeline.CHUNK_ROWS, each
+     * picking up after the highest prime key of the chunk before.
+     *
+     * @param writer The writer, already started on the table
+     * @param t      The table to be encoded
+     * @throws IOException
+     */
+    private void encodeTable(BackupBinaryWriter writer, BackupBinaryTable t) throws IOException {
+        StringBuilder columns = new StringBuilder();
+        for (int i = 0; i < t.getColumnCount(); i++) {
+            if (i > 0)
+                columns.append(DatabaseMap_Base.COMMA_SEP);
+            columns.append(t.getColumnName(i));
+        }
+
+        final String sql = "select " + columns + " from " + t.name + " where " + t.primeKey +
+                " > ? order by " + t.primeKey + " limit " + BackupXmlPipeline.CHUNK_ROWS;
+        final String[] args = new String[1];
+        final int pkColumn = t.indexOf(t.primeKey);
+        long lastKey = Long.MIN_VALUE;
+        int rowsRead;
+
+        do {
+            args[0] = Long.toString(lastKey);
+            final Cursor c = mDB.rawQuery(sql, args);
+            rowsRead = 0;
+
+            try {
+                while (c.moveToNext()) {
+                    encodeRow(writer, t, c);
+                    lastKey = c.getLong(pkColumn);
+                    rowsRead++;
+                }
+            } finally {
+                c.close();
+            }
+        } while (rowsRead == BackupXmlPipeline.CHUNK_ROWS);
+    }
+
+    /**
+     * Encodes the cursor's current row. The cursor's columns are the table's, in the same order.
+     */
+    static void encodeRow(BackupBinaryWriter writer, BackupBinaryTable t, Cursor c)
+            throws IOException {
+        for (int i = 0; i < t.getColumnCount(); i++) {
+            if (c.isNull(i)) {
+                writer.putNull();
+                continue;
+            }
+
+            switch (t.getColumnKind(i)) {
+                case DatabaseMap_Base.COLUMN_KIND_FLOAT:
+                    writer.putDouble(c.getFloat(i));
+                    break;
+                case DatabaseMap_Base.COLUMN_KIND_DOUBLE:
+                    writer.putDouble(c.getDouble(i));
+                    break;
+                case DatabaseMap_Base.COLUMN_KIND_STRING:
+                    writer.putString(c.getString(i));
+                    break;
+                default:
+                    writer.putLong(c.getLong(i));
+            }
+        }
+
+        writer.endRow();
+    }
+}
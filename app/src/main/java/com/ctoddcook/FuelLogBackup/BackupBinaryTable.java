@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLogBackup;
+
+import com.ctoddcook.CamGenTools.Assert;
+import com.ctoddcook.CamGenTools.DatabaseMap_Base;
+
+import java.util.Arrays;
+
+/**
+ * Describes one table in a binary backup: its name, its prime key, and each column's name and
+ * kind (one of the DatabaseMap_Base.COLUMN_KIND_ constants). Tables are usually described from
+ * the COLUMN_NAMES and COLUMN_KINDS arrays of their database maps; the description is written
+ * at the head of the backup, and read back from it by BackupBinaryDecoder.
+ */
+public class BackupBinaryTable {
+    // The null flags for a row are held in one long
+    static final int MAX_COLUMNS = 63;
+
+    public final String name;
+    public final String primeKey;
+    private final String[] mColumns;
+    private final int[] mKinds;
+
+    /**
+     * Constructor.
+     *
+     * @param name     The name of the table
+     * @param primeKey The table's prime key, which must be one of the columns, of kind
+     *                 COLUMN_KIND_KEY
+     * @param columns  The names of the columns, in the order they are to be stored
+     * @param kinds    The kind of each column, in the same order
+     */
+    public BackupBinaryTable(String name, String primeKey, String[] columns, int[] kinds) {
+        Assert.isTrue(name != null && !name.isEmpty(), "The table name must not be empty or null");
+        Assert.notEmpty(columns, "The column names must not be empty or null");
+        Assert.isTrue(kinds != null && kinds.length == columns.length,
+                "There must be one kind for each column");
+        Assert.isTrue(columns.length <= MAX_COLUMNS, "A table may have at most " + MAX_COLUMNS +
+                " columns");
+
+        for (int kind : kinds)
+            Assert.isTrue(isKnownKind(kind), "Unknown column kind: " + kind);
+
+        this.name = name;
+        this.primeKey = primeKey;
+        mColumns = columns.clone();
+        mKinds = kinds.clone();
+
+        int key = indexOf(primeKey);
+        Assert.isTrue(key >= 0 && mKinds[key] == DatabaseMap_Base.COLUMN_KIND_KEY,
+                "The prime key must be a column of kind COLUMN_KIND_KEY");
+    }
+
+    public int getColumnCount() {
+        return mColumns.length;
+    }
+
+    public String getColumnName(int column) {
+        return mColumns[column];
+    }
+
+    public int getColumnKind(int column) {
+        return mKinds[column];
+    }
+
+    /**
+     * @param columnName The name of a column
+     * @return The column's number, or -1 if the table has no such column
+     */
+    public int indexOf(String columnName) {
+        for (int i = 0; i < mColumns.length; i++)
+            if (mColumns[i].equals(columnName))
+                return i;
+
+        return -1;
+    }
+
+    static boolean isKnownKind(int kind) {
+        return kind >= DatabaseMap_Base.COLUMN_KIND_KEY && kind <= DatabaseMap_Base.COLUMN_KIND_STRING;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof BackupBinaryTable))
+            return false;
+
+        BackupBinaryTable other = (BackupBinaryTable) o;
+        return name.equals(other.name) && primeKey.equals(other.primeKey) &&
+                Arrays.equals(mColumns, other.mColumns) && Arrays.equals(mKinds, other.mKinds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + Arrays.hashCode(mColumns);
+    }
+}
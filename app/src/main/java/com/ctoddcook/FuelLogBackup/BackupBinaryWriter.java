@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLogBackup;
+
+import com.ctoddcook.CamGenTools.Assert;
+import com.ctoddcook.CamGenTools.DatabaseMap_Base;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the binary backup format, a value at a time. BackupBinaryEncoder feeds it from the
+ * database; BackupBinaryDecoder reads what it writes.
+ * <p/>
+ * The file starts with the magic bytes "FLBK" and a format version, then the schema: the number
+ * of tables, and for each its name, prime key, number of columns, and each column's name and
+ * kind. The tables' rows follow, in the same order as the schema. Each row is written as its
+ * length in bytes, then a set of null flags (bit n set if column n is null), then the value of
+ * each column which is not null. A zero length ends a table.
+ * <p/>
+ * How a value is stored depends on the kind of its column:
+ * <ul>
+ * <li>KEY and DATETIME: the difference from the same column in the row before, as a zigzag
+ * varint, so ascending IDs and dates close together take a byte or two</li>
+ * <li>INT: a zigzag varint</li>
+ * <li>FLOAT and DOUBLE: the raw 4 or 8 bytes, big-endian</li>
+ * <li>STRING: the length of its UTF-8 bytes as a varint, then the bytes</li>
+ * </ul>
+ * Lengths and counts are unsigned varints: 7 bits to a byte, low bits first, the high bit set
+ * on every byte but the last.
+ */
+public class BackupBinaryWriter {
+    static final byte[] MAGIC = {'F', 'L', 'B', 'K'};
+    static final int VERSION = 1;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final OutputStream mOut;
+    private final List<BackupBinaryTable> mTables;
+    private int mTableNumber = -1;
+    private BackupBinaryTable mTable;
+
+    // The row being built; its null flags and length are only known once it is complete
+    private byte[] mRow = new byte[256];
+    private int mRowLength;
+    private long mNulls;
+    private int mColumn;
+    private long[] mPrevious;
+    private final byte[] mVarint = new byte[10];
+    private final byte[] mFlags = new byte[10];
+
+    /**
+     * Constructor. Writes the schema for all of the tables straight away; the tables' rows must
+     * then be written in the same order.
+     *
+     * @param out    The stream to write to
+     * @param tables The tables which will be written
+     * @throws IOException If the stream fails
+     */
+    public BackupBinaryWriter(OutputStream out, List<BackupBinaryTable> tables)
+            throws IOException {
+        Assert.isTrue(tables != null && !tables.isEmpty(), "There must be at least one table");
+
+        mOut = new BufferedOutputStream(out);
+        mTables = new ArrayList<>(tables);
+
+        mOut.write(MAGIC);
+        writeVarint(VERSION);
+        writeVarint(mTables.size());
+        for (BackupBinaryTable t : mTables) {
+            writeString(t.name);
+            writeString(t.primeKey);
+            writeVarint(t.getColumnCount());
+            for (int i = 0; i < t.getColumnCount(); i++) {
+                writeString(t.getColumnName(i));
+                mOut.write(t.getColumnKind(i));
+            }
+        }
+    }
+
+    /**
+     * Ends the table being written, if any, and starts the next one in the schema.
+     *
+     * @return The table whose rows are now to be written
+     * @throws IOException If the stream fails
+     */
+    public BackupBinaryTable nextTable() throws IOException {
+        Assert.isTrue(mTableNumber + 1 < mTables.size(), "Every table has been written");
+        endTable();
+
+        mTable = mTables.get(++mTableNumber);
+        mPrevious = new long[mTable.getColumnCount()];
+        return mTable;
+    }
+
+    /**
+     * Stores a null in the next column of the row.
+     */
+    public void putNull() {
+        checkColumn();
+        mNulls |= 1L << mColumn;
+        mColumn++;
+    }
+
+    /**
+     * Stores a value in the next column of the row, which must be a KEY, INT or DATETIME column.
+     *
+     * @param value The value
+     */
+    public void putLong(long value) {
+        switch (checkColumn()) {
+            case DatabaseMap_Base.COLUMN_KIND_KEY:
+            case DatabaseMap_Base.COLUMN_KIND_DATETIME:
+                rowVarint(zigzag(value - mPrevious[mColumn]));
+                mPrevious[mColumn] = value;
+                break;
+            case DatabaseMap_Base.COLUMN_KIND_INT:
+                rowVarint(zigzag(value));
+                break;
+            default:
+                throw new IllegalArgumentException("Column " + mTable.getColumnName(mColumn) +
+                        " does not hold an integer");
+        }
+        mColumn++;
+    }
+
+    /**
+     * Stores a value in the next column of the row, which must be a FLOAT or DOUBLE column.
+     *
+     * @param value The value
+     */
+    public void putDouble(double value) {
+        switch (checkColumn()) {
+            case DatabaseMap_Base.COLUMN_KIND_FLOAT:
+                rowFixed(Float.floatToIntBits((float) value), 4);
+                break;
+            case DatabaseMap_Base.COLUMN_KIND_DOUBLE:
+                rowFixed(Double.doubleToLongBits(value), 8);
+                break;
+            default:
+                throw new IllegalArgumentException("Column " + mTable.getColumnName(mColumn) +
+                        " does not hold a real number");
+        }
+        mColumn++;
+    }
+
+    /**
+     * Stores a value in the next column of the row, which must be a STRING column.
+     *
+     * @param value The value; null is stored as a null
+     */
+    public void putString(String value) {
+        if (value == null) {
+            putNull();
+            return;
+        }
+
+        Assert.isTrue(checkColumn() == DatabaseMap_Base.COLUMN_KIND_STRING,
+                "The column does not hold a string");
+        byte[] bytes = value.getBytes(UTF8);
+        rowVarint(bytes.length);
+        rowBytes(bytes, bytes.length);
+        mColumn++;
+    }
+
+    /**
+     * Writes the row whose columns have all been put, and starts a new one.
+     *
+     * @throws IOException If the stream fails
+     */
+    public void endRow() throws IOException {
+        Assert.isTrue(mTable != null && mColumn == mTable.getColumnCount(),
+                "Every column of the row must be put before it is ended");
+
+        int flagsLength = varint(mNulls, mFlags);
+        writeVarint(flagsLength + mRowLength);
+        mOut.write(mFlags, 0, flagsLength);
+        mOut.write(mRow, 0, mRowLength);
+
+        mRowLength = 0;
+        mNulls = 0;
+        mColumn = 0;
+    }
+
+    /**
+     * Ends the last table, writes an empty section for any table not written, and closes the
+     * stream.
+     *
+     * @throws IOException If the stream fails
+     */
+    public void close() throws IOException {
+        try {
+            endTable();
+            while (++mTableNumber < mTables.size())
+                writeVarint(0);
+            mOut.flush();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    private void endTable() throws IOException {
+        if (mTable == null)
+            return;
+
+        Assert.isTrue(mColumn == 0, "The last row of the table was not ended");
+        writeVarint(0);
+        mTable = null;
+    }
+
+    private int checkColumn() {
+        Assert.isTrue(mTable != null, "No table has been started");
+        Assert.isTrue(mColumn < mTable.getColumnCount(), "Every column of the row has been put");
+        return mTable.getColumnKind(mColumn);
+    }
+
+    private void rowVarint(long value) {
+        rowBytes(mVarint, varint(value, mVarint));
+    }
+
+    private void rowFixed(long bits, int size) {
+        ensureRoom(size);
+        for (int shift = (size - 1) * 8; shift >= 0; shift -= 8)
+            mRow[mRowLength++] = (byte) (bits >>> shift);
+    }
+
+    private void rowBytes(byte[] bytes, int length) {
+        ensureRoom(length);
+        System.arraycopy(bytes, 0, mRow, mRowLength, length);
+        mRowLength += length;
+    }
+
+    private void ensureRoom(int more) {
+        if (mRowLength + more > mRow.length) {
+            byte[] bigger = new byte[Math.max(mRow.length * 2, mRowLength + more)];
+            System.arraycopy(mRow, 0, bigger, 0, mRowLength);
+            mRow = bigger;
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        mOut.write(mVarint, 0, varint(value, mVarint));
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarint(bytes.length);
+        mOut.write(bytes);
+    }
+
+    /**
+     * Encodes an unsigned varint into a buffer of at least 10 bytes.
+     *
+     * @return The number of bytes used
+     */
+    static int varint(long value, byte[] into) {
+        int n = 0;
+        while ((value & ~0x7FL) != 0) {
+            into[n++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        into[n++] = (byte) value;
+        return n;
+    }
+
+    /* Maps signed values to unsigned ones so that small negatives stay small: 0, -1, 1, -2... */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
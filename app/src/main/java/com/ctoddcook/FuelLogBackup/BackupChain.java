@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLogBackup;
+
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The XML backups in a folder: a full backup, and the incremental backups taken after it, in
+ * order. Each incremental backup holds the rows changed since the one before it (or since the
+ * full backup), as told by the watermarks on their database tags. Restoring replays the lot:
+ * the full backup overwrites the data, then each incremental backup is applied in turn.
+ * <p/>
+ * The full backup is named <code>prefix.xml</code>, and the incremental backups
+ * <code>prefix.delta.N.xml</code>, numbered from 1; each may be compressed, with ".gz" on the
+ * end of its name.
+ */
+public class BackupChain {
+    private static final String XML = ".xml";
+    private static final String GZ = ".gz";
+    private static final String DELTA = ".delta.";
+
+    private final File mFolder;
+    private final String mPrefix;
+
+    /**
+     * @param folder The folder holding the backups
+     * @param prefix The name of the full backup, without ".xml"
+     */
+    public BackupChain(File folder, String prefix) {
+        mFolder = folder;
+        mPrefix = prefix;
+    }
+
+    /**
+     * Returns the full backup: the compressed or plain one, whichever was written last.
+     *
+     * @return The full backup, or null if there is none
+     */
+    public File getBase() {
+        final File plain = new File(mFolder, mPrefix + XML);
+        final File compressed = new File(mFolder, mPrefix + XML + GZ);
+
+        if (!compressed.exists())
+            return plain.exists() ? plain : null;
+        if (!plain.exists() || compressed.lastModified() >= plain.lastModified())
+            return compressed;
+        return plain;
+    }
+
+    /**
+     * @return The incremental backups taken after the full backup, in the order taken
+     */
+    public File[] getDeltas() {
+        final File[] deltas = mFolder.listFiles();
+        if (deltas == null)
+            return new File[0];
+
+        int count = 0;
+        for (File f : deltas)
+            if (deltaNumber(f) > 0)
+                deltas[count++] = f;
+
+        final File[] sorted = Arrays.copyOf(deltas, count);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final int na = deltaNumber(a);
+                final int nb = deltaNumber(b);
+                return (na < nb ? -1 : (na == nb ? 0 : 1));
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Returns the watermark of the last backup taken: the time from which the next incremental
+     * backup should hold the changes.
+     *
+     * @return The watermark, or -1 if there is no full backup, or the last backup has none (was
+     * written before incremental backups were), or can't be read
+     */
+    public long getWatermark() {
+        final File base = getBase();
+        if (base == null)
+            return -1;
+
+        final File[] deltas = getDeltas();
+        try {
+            return readWatermarks(deltas.length > 0 ? deltas[deltas.length - 1] : base)[1];
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param compressed Whether the backup is to be compressed
+     * @return The file to write a full backup to
+     */
+    public File newBaseFile(boolean compressed) {
+        return new File(mFolder, mPrefix + XML + (compressed ? GZ : ""));
+    }
+
+    /**
+     * @param compressed Whether the backup is to be compressed
+     * @return The file to write the next incremental backup to
+     */
+    public File newDeltaFile(boolean compressed) {
+        final File[] deltas = getDeltas();
+        final int next = (deltas.length > 0 ? deltaNumber(deltas[deltas.length - 1]) + 1 : 1);
+        return new File(mFolder, mPrefix + DELTA + next + XML + (compressed ? GZ : ""));
+    }
+
+    /**
+     * Deletes the incremental backups, which no longer apply once a new full backup is written.
+     *
+     * @return Whether they were all deleted
+     */
+    public boolean deleteDeltas() {
+        boolean deleted = true;
+        for (File f : getDeltas())
+            deleted &= f.delete();
+        return deleted;
+    }
+
+    /**
+     * Restores the database from the full backup, overwriting its data, then applies each
+     * incremental backup in the order taken. Each incremental backup must carry on from the
+     * watermark of the backup before it, or the restore stops there.
+     *
+     * @param dbOpener The Database helper for the database to restore to
+     * @return The number of rows restored, deleted and updated
+     * @throws IOException If a backup can't be read, or the chain is broken
+     */
+    public int restore(SQLiteOpenHelper dbOpener) throws IOException {
+        final File base = getBase();
+        if (base == null)
+            throw new IOException("There is no full backup in " + mFolder);
+
+        long watermark = readWatermarks(base)[1];
+        int rows = XmlToDatabaseImporter.importData(dbOpener, base, true);
+
+        for (File delta : getDeltas()) {
+            final long[] watermarks = readWatermarks(delta);
+            if (watermark < 0 || watermarks[0] != watermark)
+                throw new IOException("The backup before " + delta.getName() + " is missing");
+            rows += XmlToDatabaseImporter.applyDelta(dbOpener, delta);
+            watermark = watermarks[1];
+        }
+
+        return rows;
+    }
+
+    /* Returns the number of an incremental backup, or 0 if the file is not one of ours */
+    private int deltaNumber(File f) {
+        String name = f.getName();
+        if (!name.startsWith(mPrefix + DELTA))
+            return 0;
+        name = name.substring(mPrefix.length() + DELTA.length());
+        if (name.endsWith(GZ))
+            name = name.substring(0, name.length() - GZ.length());
+        if (!name.endsWith(XML))
+            return 0;
+        name = name.substring(0, name.length() - XML.length());
+
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /*
+     * Reads the since and until watermarks from a backup's database tag, without reading the
+     * rest. Either is -1 if the backup doesn't have it.
+     */
+    private static long[] readWatermarks(File f) throws IOException {
+        final InputStream is = XmlToDatabaseImporter.inflateIfCompressed(new FileInputStream(f));
+        try {
+            final XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(is, "UTF-8");
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, null, BackupXmlDatabase.DATABASE_TAG);
+            return new long[]{
+                    parseWatermark(parser.getAttributeValue(null, BackupXmlDatabase.SINCE_ATTR)),
+                    parseWatermark(parser.getAttributeValue(null, BackupXmlDatabase.UNTIL_ATTR))};
+        } catch (XmlPullParserException | NumberFormatException e) {
+            throw new IOException("Error reading " + f.getName() + ": " + e.getMessage(), e);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static long parseWatermark(String value) {
+        return (value == null ? -1 : Long.parseLong(value));
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLogBackup;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.ctoddcook.CamGenTools.Assert;
+import com.ctoddcook.CamGenTools.DatabaseMap_Base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Backs tables up as a set of keyed entities, for a BackupAgent, and restores them. Each table
+ * is written in chunks of BackupXmlPipeline.CHUNK_ROWS rows, under the keys "table.0",
+ * "table.1" and so on; each chunk is a binary backup of just those rows (see
+ * BackupBinaryWriter), so no more than one chunk is ever held in memory.
+ * <p/>
+ * Along with the entities, backup() returns a State, which the agent keeps between backups.
+ * It records, for each table, its row count, highest prime key and latest last_updated time,
+ * and the number of chunks written. A table whose figures have not changed since the last
+ * backup is not written again; a table which now needs fewer chunks has the extra keys
+ * deleted. The time from LastModifiedState is recorded too: when that moves (a restore has
+ * replaced the data), every table is written again.
+ * <p/>
+ * The agent adapts BackupDataOutput and BackupDataInput to the EntityOutput and EntityInput
+ * interfaces, which keeps this class testable without a backup transport.
+ */
+public class BackupEntities {
+    static final int STATE_VERSION = 1;
+    static final char KEY_SEPARATOR = '.';
+
+    /**
+     * Where backed up entities are written; BackupDataOutput, for a BackupAgent.
+     */
+    public interface EntityOutput {
+        /**
+         * Writes an entity, replacing any held under the same key.
+         *
+         * @param key  The entity's key
+         * @param data A buffer holding the entity's data
+         * @param size The number of bytes of data, at the start of the buffer
+         * @throws IOException If the entity cannot be written
+         */
+        void writeEntity(String key, byte[] data, int size) throws IOException;
+
+        /**
+         * Deletes the entity held under a key.
+         *
+         * @param key The entity's key
+         * @throws IOException If the deletion cannot be written
+         */
+        void deleteEntity(String key) throws IOException;
+    }
+
+    /**
+     * Where entities to be restored are read from; BackupDataInput, for a BackupAgent.
+     */
+    public interface EntityInput {
+        /**
+         * Moves to the next entity.
+         *
+         * @return true if there is another entity; false at the end of the data
+         * @throws IOException If the data cannot be read
+         */
+        boolean readNextHeader() throws IOException;
+
+        /**
+         * @return The current entity's key
+         */
+        String getKey();
+
+        /**
+         * @return The size of the current entity's data, in bytes
+         */
+        int getDataSize();
+
+        /**
+         * Reads the current entity's data.
+         *
+         * @param data   The buffer to read into
+         * @param offset Where in the buffer to start
+         * @param size   The number of bytes to read
+         * @return The number of bytes read
+         * @throws IOException If the data cannot be read
+         */
+        int readEntityData(byte[] data, int offset, int size) throws IOException;
+
+        /**
+         * Skips the current entity's data.
+         *
+         * @throws IOException If the data cannot be read
+         */
+        void skipEntityData() throws IOException;
+    }
+
+    /**
+     * What was backed up: the LastModifiedState time, and for each table the figures which
+     * show whether it has changed, and how many chunks it was written in.
+     */
+    public static class State {
+        public final long lastModified;
+        private final HashMap<String, TableState> mTables = new HashMap<>();
+
+        State(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @param tableName The name of a table
+         * @return The number of chunks the table was backed up in, or 0 if it was not
+         */
+        public int getChunks(String tableName) {
+            TableState ts = mTables.get(tableName);
+            return ts == null ? 0 : ts.chunks;
+        }
+
+        /**
+         * Reads a state, as written by write().
+         *
+         * @param in The stream to read from
+         * @return The state read, or null if the stream is empty or does not hold a state this
+         * version can read
+         */
+        public static State read(DataInputStream in) {
+            try {
+                if (in.readInt() != STATE_VERSION)
+                    return null;
+
+                State state = new State(in.readLong());
+                int tables = in.readInt();
+                for (int i = 0; i < tables; i++) {
+                    String name = in.readUTF();
+                    TableState ts = new TableState(in.readLong(), in.readLong(), in.readLong());
+                    ts.chunks = in.readInt();
+                    state.mTables.put(name, ts);
+                }
+                return state;
+            } catch (IOException e) {
+                // Nothing recorded yet, or something unreadable: back up everything
+                return null;
+            }
+        }
+
+        /**
+         * Writes the state, to be read back by read().
+         *
+         * @param out The stream to write to
+         * @throws IOException If the stream fails
+         */
+        public void write(DataOutputStream out) throws IOException {
+            out.writeInt(STATE_VERSION);
+            out.writeLong(lastModified);
+            out.writeInt(mTables.size());
+            for (String name : mTables.keySet()) {
+                TableState ts = mTables.get(name);
+                out.writeUTF(name);
+                out.writeLong(ts.rows);
+                out.writeLong(ts.maxKey);
+                out.writeLong(ts.maxUpdated);
+                out.writeInt(ts.chunks);
+            }
+            out.flush();
+        }
+    }
+
+    /* The figures recorded for one table */
+    private static class TableState {
+        final long rows;
+        final long maxKey;
+        final long maxUpdated;
+        int chunks;
+
+        TableState(long rows, long maxKey, long maxUpdated) {
+            this.rows = rows;
+            this.maxKey = maxKey;
+            this.maxUpdated = maxUpdated;
+        }
+
+        boolean sameData(TableState other) {
+            return other != null && rows == other.rows && maxKey == other.maxKey &&
+                    maxUpdated == other.maxUpdated;
+        }
+    }
+
+    /* Lets a chunk be handed on without copying it out of the stream */
+    private static class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer() {
+            super(32 * 1024);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    private final SQLiteDatabase mDB;
+    private final ArrayList<BackupBinaryTable> mTableList = new ArrayList<>(10);
+
+    /**
+     * Constructor.
+     *
+     * @param dbOpener The Database helper which provides, and takes restored, data
+     */
+    public BackupEntities(SQLiteOpenHelper dbOpener) {
+        mDB = dbOpener.getWritableDatabase();
+    }
+
+    /**
+     * Adds a table to be backed up, or restored. Entities for tables which have not been added
+     * are skipped on restore.
+     *
+     * @param name     The name of the table
+     * @param primeKey The table's primary key
+     * @param columns  The table's columns, in the order they are to be stored
+     * @param kinds    The kind of each column (DatabaseMap_Base.COLUMN_KIND_ constants)
+     */
+    public void addTable(String name, String primeKey, String[] columns, int[] kinds) {
+        mTableList.add(new BackupBinaryTable(name, primeKey, columns, kinds));
+    }
+
+    /**
+     * Writes the entities for every table which has changed since the old state.
+     *
+     * @param oldState     The state returned by the last backup, or null to write everything
+     * @param lastModified The LastModifiedState time
+     * @param out          Where the entities are to be written
+     * @return The state to be passed to the next backup
+     * @throws IOException If an entity cannot be written
+     */
+    public State backup(State oldState, long lastModified, EntityOutput out) throws IOException {
+        Assert.notEmpty(mTableList, "The mTableList field is null or empty");
+
+        State newState = new State(lastModified);
+        boolean unchanged = oldState != null && oldState.lastModified == lastModified;
+        ChunkBuffer buffer = new ChunkBuffer();
+
+        for (BackupBinaryTable t : mTableList) {
+            // Figures first, so any rows changed while the table is written show next time
+            TableState ts = readTableState(t);
+            TableState old = oldState == null ? null : oldState.mTables.get(t.name);
+
+            if (unchanged && ts.sameData(old)) {
+                ts.chunks = old.chunks;
+            } else {
+                ts.chunks = writeTable(t, buffer, out);
+                for (int i = ts.chunks; old != null && i < old.chunks; i++)
+                    out.deleteEntity(getKey(t.name, i));
+            }
+
+            newState.mTables.put(t.name, ts);
+        }
+
+        if (oldState != null)
+            for (String name : oldState.mTables.keySet())
+                if (!newState.mTables.containsKey(name))
+                    for (int i = 0; i < oldState.getChunks(name); i++)
+                        out.deleteEntity(getKey(name, i));
+
+        return newState;
+    }
+
+    /**
+     * Replaces the data of the added tables with the entities read. Every added table is
+     * emptied first; each entity's rows are then inserted in a transaction of their own.
+     *
+     * @param in           Where the entities are to be read from
+     * @param lastModified The LastModifiedState time, once the restore is done
+     * @return The state to be passed to the next backup
+     * @throws IOException If an entity cannot be read, or holds a damaged chunk
+     */
+    public State restore(EntityInput in, long lastModified) throws IOException {
+        Assert.notEmpty(mTableList, "The mTableList field is null or empty");
+
+        HashMap<String, BackupBinaryTable> tables = new HashMap<>();
+        HashMap<String, SQLiteStatement> inserts = new HashMap<>();
+        HashSet<String> emptied = new HashSet<>();
+        for (BackupBinaryTable t : mTableList)
+            tables.put(t.name, t);
+
+        byte[] data = new byte[32 * 1024];
+        try {
+            while (in.readNextHeader()) {
+                String name = getTableName(in.getKey());
+                if (name == null || !tables.containsKey(name)) {
+                    in.skipEntityData();
+                    continue;
+                }
+
+                int size = in.getDataSize();
+                if (size > data.length)
+                    data = new byte[Math.max(size, data.length * 2)];
+                for (int read = 0; read < size; ) {
+                    int n = in.readEntityData(data, read, size - read);
+                    if (n <= 0)
+                        throw new IOException("Entity " + in.getKey() + " is incomplete");
+                    read += n;
+                }
+
+                restoreChunk(name, data, size, emptied, inserts);
+            }
+
+            // Tables with no entities at all are emptied too
+            for (BackupBinaryTable t : mTableList)
+                if (!emptied.contains(t.name))
+                    restoreChunk(t.name, null, 0, emptied, inserts);
+        } finally {
+            for (SQLiteStatement statement : inserts.values())
+                statement.close();
+        }
+
+        // What is now in the tables is what a backup would write, so note it as written
+        State state = new State(lastModified);
+        for (BackupBinaryTable t : mTableList) {
+            TableState ts = readTableState(t);
+            ts.chunks = (int) ((ts.rows + BackupXmlPipeline.CHUNK_ROWS - 1) /
+                    BackupXmlPipeline.CHUNK_ROWS);
+            state.mTables.put(t.name, ts);
+        }
+        return state;
+    }
+
+    /**
+     * @param tableName The name of a table
+     * @param chunk     The number of one of its chunks
+     * @return The key the chunk is stored under
+     */
+    public static String getKey(String tableName, int chunk) {
+        return tableName + KEY_SEPARATOR + chunk;
+    }
+
+    /* The name of the table an entity key belongs to, or null if it is not a chunk's key */
+    static String getTableName(String key) {
+        int at = key.lastIndexOf(KEY_SEPARATOR);
+        if (at <= 0 || at == key.length() - 1)
+            return null;
+        for (int i = at + 1; i < key.length(); i++)
+            if (!Character.isDigit(key.charAt(i)))
+                return null;
+        return key.substring(0, at);
+    }
+
+    /*
+     * Writes a table's chunks, reading the rows in keyset chunks as BackupBinaryEncoder does,
+     * and returns the number written. An empty table is written as one empty chunk.
+     */
+    private int writeTable(BackupBinaryTable t, ChunkBuffer buffer, EntityOutput out)
+            throws IOException {
+        List<BackupBinaryTable> schema = Collections.singletonList(t);
+        final String sql = "select " + getColumnList(t) + " from " + t.name + " where " +
+                t.primeKey + " > ? order by " + t.primeKey + " limit " +
+                BackupXmlPipeline.CHUNK_ROWS;
+        final String[] args = new String[1];
+        final int pkColumn = t.indexOf(t.primeKey);
+        long lastKey = Long.MIN_VALUE;
+        int chunks = 0;
+        int rowsRead;
+
+        do {
+            args[0] = Long.toString(lastKey);
+            buffer.reset();
+            BackupBinaryWriter writer = new BackupBinaryWriter(buffer, schema);
+            writer.nextTable();
+            rowsRead = 0;
+
+            Cursor c = mDB.rawQuery(sql, args);
+            try {
+                while (c.moveToNext()) {
+                    BackupBinaryEncoder.encodeRow(writer, t, c);
+                    lastKey = c.getLong(pkColumn);
+                    rowsRead++;
+                }
+            } finally {
+                c.close();
+            }
+            writer.close();
+
+            if (rowsRead > 0 || chunks == 0)
+                out.writeEntity(getKey(t.name, chunks++), buffer.bytes(), buffer.size());
+        } while (rowsRead == BackupXmlPipeline.CHUNK_ROWS);
+
+        return chunks;
+    }
+
+    /*
+     * Inserts one chunk's rows in a transaction, emptying the table first if this is its first
+     * chunk. A null chunk only empties the table.
+     */
+    private void restoreChunk(String name, byte[] data, int size, HashSet<String> emptied,
+                              HashMap<String, SQLiteStatement> inserts) throws IOException {
+        mDB.beginTransaction();
+        try {
+            if (emptied.add(name))
+                mDB.delete(name, null, null);
+
+            if (data != null) {
+                BackupBinaryDecoder decoder =
+                        new BackupBinaryDecoder(new ByteArrayInputStream(data, 0, size));
+                BackupBinaryTable t = decoder.nextTable();
+                if (t == null || !t.name.equals(name))
+                    throw new IOException("Chunk for table " + name + " holds another table");
+
+                SQLiteStatement insert = inserts.get(name);
+                if (insert == null) {
+                    insert = mDB.compileStatement(getInsertSQL(t));
+                    inserts.put(name, insert);
+                }
+
+                while (decoder.nextRow())
+                    insertRow(insert, t, decoder);
+            }
+
+            mDB.setTransactionSuccessful();
+        } finally {
+            mDB.endTransaction();
+        }
+    }
+
+    /* Binds the decoder's current row to the insert statement, and executes it */
+    private static void insertRow(SQLiteStatement insert, BackupBinaryTable t,
+                                  BackupBinaryDecoder decoder) {
+        insert.clearBindings();
+        for (int i = 0; i < t.getColumnCount(); i++) {
+            if (decoder.isNull(i)) {
+                insert.bindNull(i + 1);
+                continue;
+            }
+
+            switch (t.getColumnKind(i)) {
+                case DatabaseMap_Base.COLUMN_KIND_FLOAT:
+                case DatabaseMap_Base.COLUMN_KIND_DOUBLE:
+                    insert.bindDouble(i + 1, decoder.getDouble(i));
+                    break;
+                case DatabaseMap_Base.COLUMN_KIND_STRING:
+                    insert.bindString(i + 1, decoder.getString(i));
+                    break;
+                default:
+                    insert.bindLong(i + 1, decoder.getLong(i));
+            }
+        }
+        insert.executeInsert();
+    }
+
+    /* Reads the figures which show whether a table has changed */
+    private TableState readTableState(BackupBinaryTable t) {
+        String maxUpdated = t.indexOf(DatabaseMap_Base.COLUMN_NAME_LAST_UPDATED) < 0 ? "0" :
+                "max(" + DatabaseMap_Base.COLUMN_NAME_LAST_UPDATED + ")";
+        Cursor c = mDB.rawQuery("select count(*), max(" + t.primeKey + "), " + maxUpdated +
+                " from " + t.name, null);
+        try {
+            if (!c.moveToFirst())
+                return new TableState(0, 0, 0);
+            return new TableState(c.getLong(0), c.getLong(1), c.getLong(2));
+        } finally {
+            c.close();
+        }
+    }
+
+    private static String getInsertSQL(BackupBinaryTable t) {
+        StringBuilder sql = new StringBuilder("insert or replace into ").append(t.name)
+                .append(" (").append(getColumnList(t)).append(") values (");
+        for (int i = 0; i < t.getColumnCount(); i++)
+            sql.append(i == 0 ? "?" : ", ?");
+        return sql.append(')').toString();
+    }
+
+    private static String getColumnList(BackupBinaryTable t) {
+        StringBuilder columns = new StringBuilder();
+        for (int i = 0; i < t.getColumnCount(); i++) {
+            if (i > 0)
+                columns.append(DatabaseMap_Base.COMMA_SEP);
+            columns.append(t.getColumnName(i));
+        }
+        return columns.toString();
+    }
+}
@@ -10,6 +10,10 @@ import java.util.ArrayList;
  */
 public class BackupXmlDatabase {
   public static final String DATABASE_TAG = "database";
+  // For incremental backups: the backup holds the rows changed from SINCE_ATTR up to UNTIL_ATTR
+  // (times in millis). A full backup has only UNTIL_ATTR, the time it was taken.
+  public static final String SINCE_ATTR = "since";
+  public static final String UNTIL_ATTR = "until";
 
   public final ArrayList<BackupXmlTable> tables = new ArrayList<>();
 
@@ -0,0 +1,692 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLogBackup;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.ctoddcook.CamGenTools.Assert;
+import com.ctoddcook.CamGenTools.DatabaseMap_Base;
+import com.ctoddcook.CamGenTools.XmlBase;
+import com.ctoddcook.CamGenTools.XmlStreamWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Tables to XML file exporter which reads, encodes and writes at the same time, in three stages:
+ * <ul>
+ * <li>Read: a thread copies the tables' rows out of the database, one table after another,
+ * CHUNK_ROWS at a time, into chunks from a pool of CHUNKS. Each chunk picks up after the highest
+ * prime key of the chunk before, so no cursor ever holds more than one chunk, and reading a chunk
+ * late in a big table costs no more than reading the first. All the tables are read inside one
+ * transaction, so the backup holds the database as it was at a single moment; writes wait until
+ * the reader has finished.</li>
+ * <li>Encode: the calling thread encodes the chunks to XML, handing each back to the pool once
+ * encoded. The bytes go into blocks of BLOCK_SIZE.</li>
+ * <li>Write: a thread writes each full block to the file through a FileChannel, while the
+ * encoder fills the next, and hands it back. If the backup is to be compressed, this thread
+ * also deflates the blocks, as GZIP.</li>
+ * </ul>
+ * A stage which gets ahead waits for a chunk or a block to be handed back, so however big the
+ * tables, no more than the pools are held in memory.
+ * <p/>
+ * An incremental backup (see setChangedSince()) reads only the rows changed since the backup
+ * before; the watermarks on the database tag let BackupChain put the backups in order.
+ */
+public class BackupXmlPipeline extends XmlBase {
+    // Rows read per query; small enough that a chunk fits in one cursor window
+    static final int CHUNK_ROWS = 500;
+    static final int CHUNKS = 8;
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int BLOCKS = 4;
+
+    private static final String TABLE_INDENT = INDENT;
+    private static final String ROW_INDENT = TABLE_INDENT + INDENT;
+    private static final String COLUMN_INDENT = ROW_INDENT + INDENT;
+    private static final String DATABASE_OPEN = "<" + BackupXmlDatabase.DATABASE_TAG + ">";
+    private static final String DATABASE_CLOSE = "</" + BackupXmlDatabase.DATABASE_TAG + ">";
+    private static final String TABLE_CLOSE = "</" + BackupXmlTable.TABLE_TAG + ">";
+    private static final String ROW_OPEN = "<" + BackupXmlRow.ROW_TAG + ">";
+    private static final String ROW_CLOSE = "</" + BackupXmlRow.ROW_TAG + ">";
+    private static final String COLUMN_CLOSE = "</" + BackupXmlColumn.COLUMN_TAG + ">";
+
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+    // Handed to the encoder in place of the rest of the chunks when the reader stops early
+    private static final Chunk READ_FAILED = new Chunk();
+
+    /**
+     * Told of the backup's progress, on the encoding thread, after each chunk of rows.
+     */
+    public interface ProgressListener {
+        /**
+         * @param tableName    The table being encoded
+         * @param rowsEncoded  The rows encoded so far, in all tables
+         * @param bytesWritten The bytes written to the file so far
+         */
+        void onProgress(String tableName, long rowsEncoded, long bytesWritten);
+    }
+
+    /**
+     * How much a backup wrote, how long it took, and how long each stage was busy. When
+     * compressing, the bytes are those of the compressed file, and the writer's time includes
+     * deflating.
+     */
+    public static final class Metrics {
+        public final long rows;
+        public final long bytes;
+        public final long elapsedMillis;
+        public final long readMillis;
+        public final long encodeMillis;
+        public final long writeMillis;
+
+        Metrics(long rows, long bytes, long elapsedNanos, long readNanos, long encodeNanos,
+                long writeNanos) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedNanos / 1000000;
+            this.readMillis = readNanos / 1000000;
+            this.encodeMillis = encodeNanos / 1000000;
+            this.writeMillis = writeNanos / 1000000;
+        }
+
+        public long rowsPerSecond() {
+            return rows * 1000 / Math.max(elapsedMillis, 1);
+        }
+
+        public long kilobytesPerSecond() {
+            return bytes * 1000 / 1024 / Math.max(elapsedMillis, 1);
+        }
+
+        @Override
+        public String toString() {
+            return rows + " rows, " + bytes / 1024 + " KB in " + elapsedMillis + " ms (" +
+                    rowsPerSecond() + " rows/s, " + kilobytesPerSecond() + " KB/s); busy: read " +
+                    readMillis + " ms, encode " + encodeMillis + " ms, write " + writeMillis +
+                    " ms";
+        }
+    }
+
+    private final SQLiteDatabase mDB;
+    private final File mOutFile;
+    private final ArrayList<Table> mTableList = new ArrayList<>(10);
+    private final BlockingQueue<Chunk> mFree = new ArrayBlockingQueue<>(CHUNKS);
+    // One more than there are chunks, so there is always room for READ_FAILED
+    private final BlockingQueue<Chunk> mFilled = new ArrayBlockingQueue<>(CHUNKS + 1);
+    private volatile RuntimeException mReadError;
+    private ProgressListener mListener;
+    private boolean mCompressed = false;
+    private long mSince = -1;
+    private long mUntil = -1;
+    private BlockOutputStream mOut;
+
+    private final AtomicLong mReadNanos = new AtomicLong();
+    private long mEncoderWaitNanos;
+    private long mRowsEncoded;
+
+    private BackupXmlPipeline(SQLiteDatabase db, File outFile) {
+        mDB = db;
+        mOutFile = outFile;
+        for (int i = 0; i < CHUNKS; i++)
+            mFree.add(new Chunk());
+    }
+
+    /**
+     * Returns a constructed instance which will write to the provided File
+     * @param dbOpener The Database helper which will provide data
+     * @param outFile The File to which the XML data is to be written
+     * @return An instance of this class, ready to have tables added and then to encode
+     */
+    public static BackupXmlPipeline getInstance(SQLiteOpenHelper dbOpener, File outFile) {
+        return new BackupXmlPipeline(dbOpener.getReadableDatabase(), outFile);
+    }
+
+    /**
+     * Adds a <code>table name/prime key</code> pair to the list of tables to be exported to XML.
+     * This must be called for ALL tables to be included, before calling encodeDatabase(). The
+     * prime key must be an integer column.
+     *
+     * @param name     The name of the table
+     * @param primeKey The table's primary key
+     */
+    public void addTable(final String name, final String primeKey) {
+        Assert.isTrue(name != null, "The table name must not be empty or null");
+        Assert.isTrue(primeKey != null, "The prime key must not be empty or null");
+
+        mTableList.add(new Table(name, primeKey));
+    }
+
+    /**
+     * @param listener Told of the backup's progress; may be null
+     */
+    public void setProgressListener(ProgressListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Chooses whether the file is compressed, as GZIP: deflated, with a CRC32 and the length of
+     * the XML at the end, which XmlToDatabaseImporter checks as it restores. The XML compresses
+     * to a small fraction of its size, so there is much less to write. The default is not to
+     * compress.
+     *
+     * @param compressed Whether to compress the file
+     */
+    public void setCompressed(boolean compressed) {
+        mCompressed = compressed;
+    }
+
+    /**
+     * Records in the file the time the backup was taken, from which the next incremental backup
+     * carries on. The time should be taken before the backup starts reading, so that no row
+     * changed while it reads is missed by the next; such a row may appear in both.
+     *
+     * @param until The time of the backup, in millis
+     */
+    public void setWatermark(long until) {
+        mUntil = until;
+    }
+
+    /**
+     * Makes this an incremental backup, holding only the rows whose last_updated column is at or
+     * after the given time: the watermark of the backup before. Every table added must have a
+     * last_updated column.
+     *
+     * @param since The watermark of the backup before, in millis
+     */
+    public void setChangedSince(long since) {
+        mSince = since;
+    }
+
+    /**
+     * Encodes all of the added tables and their data to XML, and returns once the file is
+     * written and closed. May be called only once.
+     *
+     * @return How much was written, and how long it took
+     * @throws IOException If the file can't be written, or a table can't be read
+     */
+    public Metrics encodeDatabase() throws IOException {
+        Assert.notEmpty(mTableList, "The mTableList field is null or empty");
+
+        final long start = System.nanoTime();
+        final BlockOutputStream out = new BlockOutputStream(new FileOutputStream(mOutFile),
+                mCompressed);
+        final XmlStreamWriter w = new XmlStreamWriter(new OutputStreamWriter(out, "UTF8"));
+        mOut = out;
+        boolean done = false;
+
+        final Reader reader = new Reader();
+        reader.start();
+
+        try {
+            w.write(HEADER);
+            w.newLine();
+
+            w.write(databaseOpenTag());
+            w.newLine();
+
+            for (Table t : mTableList)
+                encodeTable(w, t);
+
+            w.write(DATABASE_CLOSE);
+            w.newLine();
+
+            w.close();
+            joinReader(reader);
+            done = true;
+        } finally {
+            if (!done) {
+                reader.interrupt();
+                out.abort();
+            }
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        return new Metrics(mRowsEncoded, out.mBytesWritten.get(), elapsed, mReadNanos.get(),
+                elapsed - mEncoderWaitNanos - out.mWaitNanos, out.mWriteNanos);
+    }
+
+    /* Waits for the reader to end its transaction */
+    private static void joinReader(Thread reader) throws InterruptedIOException {
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Backup interrupted");
+        }
+    }
+
+    /* The database's opening tag, with the watermarks if set */
+    private String databaseOpenTag() throws IOException {
+        if (mSince >= 0)
+            return openTag(BackupXmlDatabase.DATABASE_TAG,
+                    BackupXmlDatabase.SINCE_ATTR, Long.toString(mSince),
+                    BackupXmlDatabase.UNTIL_ATTR, Long.toString(mUntil));
+        if (mUntil >= 0)
+            return openTag(BackupXmlDatabase.DATABASE_TAG,
+                    BackupXmlDatabase.UNTIL_ATTR, Long.toString(mUntil));
+        return DATABASE_OPEN;
+    }
+
+    /**
+     * Encodes a single table to XML, as the reader hands over chunks of its rows.
+     */
+    private void encodeTable(final XmlStreamWriter w, final Table t) throws IOException {
+        w.write(TABLE_INDENT);
+        w.write(openTag(BackupXmlTable.TABLE_TAG,
+                BackupXmlTable.NAME_ATTR, t.mName,
+                BackupXmlTable.PK_ATTR, t.mPrimeKey));
+        w.newLine();
+
+        String[][] columnTags = null;
+        boolean last;
+
+        do {
+            final Chunk chunk = take(mFilled);
+            if (chunk == READ_FAILED) {
+                final RuntimeException e = mReadError;
+                if (e == null)
+                    throw new IOException("Could not read table " + t.mName);
+                throw new IOException("Could not read table " + t.mName + ": " + e.getMessage(),
+                        e);
+            }
+
+            if (columnTags == null)
+                columnTags = new String[chunk.columnNames.length][];
+
+            int value = 0;
+            for (int r = 0; r < chunk.rows; r++) {
+                w.write(ROW_INDENT);
+                w.write(ROW_OPEN);
+                w.newLine();
+
+                for (int col = 0; col < chunk.columns; col++, value++) {
+                    w.write(COLUMN_INDENT);
+                    w.write(columnTag(columnTags, chunk.columnNames, col, chunk.types[value]));
+                    final int begin = (value == 0 ? 0 : chunk.ends[value - 1]);
+                    w.writeEscaped(chunk.chars, begin, chunk.ends[value] - begin);
+                    w.write(COLUMN_CLOSE);
+                    w.newLine();
+                }
+
+                w.write(ROW_INDENT);
+                w.write(ROW_CLOSE);
+                w.newLine();
+            }
+
+            mRowsEncoded += chunk.rows;
+            last = chunk.last;
+            put(mFree, chunk);
+
+            if (mListener != null)
+                mListener.onProgress(t.mName, mRowsEncoded, mOut.mBytesWritten.get());
+        } while (!last);
+
+        w.write(TABLE_INDENT);
+        w.write(TABLE_CLOSE);
+        w.newLine();
+    }
+
+    /* Returns the opening tag of a column, building it the first time it is needed */
+    private String columnTag(String[][] columnTags, String[] names, int col, int type)
+            throws IOException {
+        if (columnTags[col] == null)
+            columnTags[col] = new String[Cursor.FIELD_TYPE_BLOB + 1];
+        String tag = columnTags[col][type];
+        if (tag == null) {
+            tag = openTag(BackupXmlColumn.COLUMN_TAG,
+                    BackupXmlColumn.NAME_ATTR, names[col],
+                    BackupXmlColumn.TYPE_ATTR, Integer.toString(type));
+            columnTags[col][type] = tag;
+        }
+        return tag;
+    }
+
+    /* Takes from a queue, counting the time spent waiting as the encoder's */
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedIOException {
+        final long start = System.nanoTime();
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Backup interrupted");
+        } finally {
+            mEncoderWaitNanos += System.nanoTime() - start;
+        }
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item) throws InterruptedIOException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Backup interrupted");
+        }
+    }
+
+    /**
+     * Up to CHUNK_ROWS rows of a table, copied out of a cursor: every value's chars packed into
+     * one array, with where each ends, and each value's type.
+     */
+    private static final class Chunk {
+        String[] columnNames;
+        int columns;
+        int rows;
+        int[] types = new int[0];
+        int[] ends = new int[0];
+        char[] chars = new char[8192];
+        int length;
+        boolean last;
+
+        /* Copies the cursor's current row onto the end of the chunk */
+        void addRow(Cursor c, CharArrayBuffer buffer) {
+            final int first = rows * columns;
+            if (first + columns > types.length) {
+                types = new int[CHUNK_ROWS * columns];
+                ends = new int[types.length];
+            }
+
+            for (int col = 0; col < columns; col++) {
+                types[first + col] = c.getType(col);
+                c.copyStringToBuffer(col, buffer);
+                final int size = buffer.sizeCopied;
+                if (length + size > chars.length) {
+                    final char[] bigger = new char[Math.max(chars.length * 2, length + size)];
+                    System.arraycopy(chars, 0, bigger, 0, length);
+                    chars = bigger;
+                }
+                System.arraycopy(buffer.data, 0, chars, length, size);
+                length += size;
+                ends[first + col] = length;
+            }
+            rows++;
+        }
+    }
+
+    /* A table to back up */
+    private static final class Table {
+        final String mName;
+        final String mPrimeKey;
+
+        Table(String name, String primeKey) {
+            mName = name;
+            mPrimeKey = primeKey;
+        }
+    }
+
+    /**
+     * Reads every table on its own thread, inside one transaction, handing the encoder a chunk
+     * at a time.
+     */
+    private final class Reader extends Thread {
+        private final CharArrayBuffer mBuffer = new CharArrayBuffer(64);
+        private final String[] mArgs = new String[1];
+
+        Reader() {
+            super("backup-read");
+        }
+
+        @Override
+        public void run() {
+            boolean handedOver = false;
+
+            try {
+                mDB.beginTransaction();
+                try {
+                    for (Table t : mTableList)
+                        readTable(t);
+                    mDB.setTransactionSuccessful();
+                } finally {
+                    mDB.endTransaction();
+                }
+                handedOver = true;
+            } catch (InterruptedException e) {
+                // The encoder has given up; nobody is waiting for the rest
+                handedOver = true;
+            } catch (RuntimeException e) {
+                mReadError = e;
+            } finally {
+                // Whatever stopped the reader, even an Error, the encoder must not be left
+                // waiting for chunks which will never come
+                if (!handedOver)
+                    mFilled.offer(READ_FAILED);
+            }
+        }
+
+        private void readTable(Table t) throws InterruptedException {
+            final String changed = (mSince >= 0 ? DatabaseMap_Base.COLUMN_NAME_LAST_UPDATED +
+                    " >= " + mSince + " and " : "");
+            final String sql = "select * from " + t.mName + " where " + changed + t.mPrimeKey +
+                    " > ? order by " + t.mPrimeKey + " limit " + CHUNK_ROWS;
+            String[] columnNames = null;
+            int pkColumn = 0;
+            long lastKey = Long.MIN_VALUE;
+            boolean last;
+
+            do {
+                final Chunk chunk = mFree.take();
+                chunk.rows = 0;
+                chunk.length = 0;
+
+                final long start = System.nanoTime();
+                mArgs[0] = Long.toString(lastKey);
+                final Cursor c = mDB.rawQuery(sql, mArgs);
+                try {
+                    if (columnNames == null) {
+                        columnNames = c.getColumnNames();
+                        pkColumn = c.getColumnIndexOrThrow(t.mPrimeKey);
+                    }
+                    chunk.columnNames = columnNames;
+                    chunk.columns = columnNames.length;
+
+                    while (c.moveToNext()) {
+                        chunk.addRow(c, mBuffer);
+                        lastKey = c.getLong(pkColumn);
+                    }
+                } finally {
+                    c.close();
+                }
+                mReadNanos.addAndGet(System.nanoTime() - start);
+
+                last = (chunk.rows < CHUNK_ROWS);
+                chunk.last = last;
+                mFilled.put(chunk);
+            } while (!last);
+        }
+    }
+
+    /**
+     * Collects encoded bytes into blocks, and writes each full block to a FileChannel on its own
+     * thread, deflating it first if compressing.
+     */
+    private static final class BlockOutputStream extends OutputStream {
+        private final FileOutputStream mFile;
+        private final FileChannel mChannel;
+        private final BlockingQueue<ByteBuffer> mFree = new ArrayBlockingQueue<>(BLOCKS);
+        private final BlockingQueue<ByteBuffer> mFull = new ArrayBlockingQueue<>(BLOCKS + 1);
+        private final Thread mWriter;
+        private final GZIPOutputStream mDeflater;  // null if not compressing
+        private final byte[] mDeflaterInput;
+        private ByteBuffer mBlock;
+        private boolean mClosed = false;
+        private volatile boolean mAborted = false;
+
+        final AtomicLong mBytesWritten = new AtomicLong();
+        volatile long mWriteNanos;
+        long mWaitNanos;            // the encoder's, waiting for a free block
+        private volatile IOException mError;
+
+        BlockOutputStream(FileOutputStream file, boolean compressed) throws IOException {
+            mFile = file;
+            mChannel = file.getChannel();
+            if (compressed) {
+                mDeflater = new GZIPOutputStream(Channels.newOutputStream(mChannel), BLOCK_SIZE);
+                mDeflaterInput = new byte[BLOCK_SIZE];
+            } else {
+                mDeflater = null;
+                mDeflaterInput = null;
+            }
+            mBlock = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            for (int i = 1; i < BLOCKS; i++)
+                mFree.add(ByteBuffer.allocateDirect(BLOCK_SIZE));
+
+            mWriter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeBlocks();
+                }
+            }, "backup-write");
+            mWriter.start();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!mBlock.hasRemaining())
+                sendBlock(true);
+            mBlock.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!mBlock.hasRemaining())
+                    sendBlock(true);
+                final int n = Math.min(len, mBlock.remaining());
+                mBlock.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Writes what is left, waits for the writer to finish, and closes the file.
+         */
+        @Override
+        public void close() throws IOException {
+            if (mClosed)
+                return;
+
+            try {
+                if (mBlock.position() > 0)
+                    sendBlock(false);
+            } finally {
+                finish();
+            }
+
+            if (mError != null)
+                throw mError;
+        }
+
+        /**
+         * Stops the writer without writing what is left, and closes the file.
+         */
+        void abort() {
+            if (mClosed)
+                return;
+
+            mAborted = true;
+            try {
+                finish();
+            } catch (IOException e) {
+                // Already failing; the first error is the one reported
+            }
+        }
+
+        private void finish() throws IOException {
+            mClosed = true;
+            try {
+                mFull.put(END_OF_DATA);
+                mWriter.join();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Backup interrupted");
+            } finally {
+                mFile.close();
+            }
+        }
+
+        /* Hands the current block to the writer and, if more is to come, takes a free one */
+        private void sendBlock(boolean more) throws IOException {
+            if (mError != null)
+                throw mError;
+
+            try {
+                mBlock.flip();
+                mFull.put(mBlock);
+                mBlock = null;
+                if (more) {
+                    final long start = System.nanoTime();
+                    mBlock = mFree.take();
+                    mWaitNanos += System.nanoTime() - start;
+                    mBlock.clear();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Backup interrupted");
+            }
+        }
+
+        /* Runs on the writer thread until END_OF_DATA */
+        private void writeBlocks() {
+            try {
+                while (true) {
+                    final ByteBuffer block = mFull.take();
+                    if (block == END_OF_DATA) {
+                        if (mDeflater != null && mError == null && !mAborted)
+                            finishDeflating();
+                        return;
+                    }
+
+                    if (mError == null) {
+                        final long start = System.nanoTime();
+                        try {
+                            writeBlock(block);
+                        } catch (IOException e) {
+                            mError = e;
+                        }
+                        mWriteNanos += System.nanoTime() - start;
+                    }
+                    mFree.put(block);
+                }
+            } catch (InterruptedException e) {
+                mError = new InterruptedIOException("Backup interrupted");
+            }
+        }
+
+        private void writeBlock(ByteBuffer block) throws IOException {
+            if (mDeflater == null) {
+                while (block.hasRemaining())
+                    mChannel.write(block);
+            } else {
+                final int size = block.remaining();
+                block.get(mDeflaterInput, 0, size);
+                mDeflater.write(mDeflaterInput, 0, size);
+            }
+            mBytesWritten.set(mChannel.position());
+        }
+
+        /* Writes what the deflater holds back, and the GZIP trailer */
+        private void finishDeflating() {
+            final long start = System.nanoTime();
+            try {
+                mDeflater.finish();
+                mDeflater.flush();
+                mBytesWritten.set(mChannel.position());
+            } catch (IOException e) {
+                mError = e;
+            }
+            mWriteNanos += System.nanoTime() - start;
+        }
+    }
+}
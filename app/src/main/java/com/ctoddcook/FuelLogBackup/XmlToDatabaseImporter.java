@@ -1,226 +1,346 @@
 package com.ctoddcook.FuelLogBackup;
 
-import android.content.ContentValues;
-import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.util.LongSparseArray;
 import android.util.Xml;
 
 import com.ctoddcook.CamGenTools.CTools;
+import com.ctoddcook.CamGenTools.DatabaseMap_Base;
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.CamGenTools.StatementCache;
 import com.ctoddcook.CamGenTools.XmlBase;
+import com.ctoddcook.FuelLog.DatabaseMap_Deletion;
+import com.ctoddcook.FuelLog.DatabaseMap_Fueling;
+import com.ctoddcook.FuelLog.DatabaseMap_Vehicle;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 
 /**
- * Tables to XML importer.
+ * XML to tables importer. Restores a backup written by BackupXmlPipeline, streaming it: each row
+ * is read from the XmlPullParser and written to the database through a compiled statement before
+ * the next is read, so no more than one row is held in memory however big the backup is. When
+ * merging, rows are written in transactions of BATCH_ROWS rows; when overwriting, the tables are
+ * emptied and refilled in a single transaction, so a backup which fails part way leaves the
+ * existing data as it was. A backup compressed as GZIP is inflated as it is read; its CRC32 and
+ * length can only be checked at the end, so it is always restored in a single transaction,
+ * committed once the check has passed. An incremental
+ * backup is applied on top of the data restored from the backups before it (see applyDelta()).
+ * Modifications made by
+ * <a href="mailto:ctodd@ctoddcook.com">C. Todd Cook</a>
  *
  * @author <a href="mailto:konstantin.sobolev@gmail.com">Konstantin Sobolev</a>
  */
 public class XmlToDatabaseImporter extends XmlBase {
     private static final String TAG = "XmlToDatabaseImporter";
-    private static SQLiteDatabase mDB;
 
+    // Rows written per transaction: enough that commits are rare, few enough that a transaction's
+    // journal stays small
+    static final int BATCH_ROWS = 500;
 
-    public static void importData(final Context ctx, final File f, final boolean overwrite)
+    // The first two bytes of a GZIP stream
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+    // How the backup's rows are written
+    private static final int MODE_OVERWRITE = 0;    // replace the tables' rows, keeping IDs
+    private static final int MODE_MERGE = 1;        // merge into the rows, with new IDs
+    private static final int MODE_DELTA = 2;        // delete and update rows by ID
+
+    private final SQLiteDatabase mDB;
+    private final XmlPullParser mParser;
+    private final InputStream mSource;
+    private final StatementCache mStatements;
+    private boolean mBatched = false;   // whether a transaction is committed every BATCH_ROWS rows
+    private int mRowsInBatch = 0;
+    private int mRowsImported = 0;
+
+    private XmlToDatabaseImporter(SQLiteDatabase db, XmlPullParser parser, InputStream source) {
+        mDB = db;
+        mParser = parser;
+        mSource = source;
+        mStatements = new StatementCache(db);
+    }
+
+    /**
+     * Restores the database from a backup file.
+     *
+     * @param dbOpener  The Database helper for the database to restore to
+     * @param f         The backup file
+     * @param overwrite If true, the tables' rows are replaced by those in the backup, keeping
+     *                  their IDs; if false, the backup's rows are merged into the existing data
+     *                  (see importData(SQLiteOpenHelper, InputStream, boolean))
+     * @return The number of rows restored
+     * @throws IOException If the file can't be read, or is not a valid backup
+     */
+    public static int importData(final SQLiteOpenHelper dbOpener, final File f,
+                                 final boolean overwrite) throws IOException {
+        final FileInputStream fis = new FileInputStream(f);
+        try {
+            return importData(dbOpener, fis, overwrite);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Restores the database from a backup read from a stream.
+     * <p/>
+     * When overwriting, each table is emptied and the backup's rows inserted with their IDs. When
+     * merging, rows are inserted with new IDs, except that a row matching an existing one (a
+     * property with the same name, a vehicle with the same name, a fueling for the same vehicle
+     * at the same date and time) updates that row instead. Either way, fuelings are pointed at
+     * their vehicles' new IDs.
+     * <p/>
+     * If an overwriting restore fails part way, nothing is changed. If a merging restore fails
+     * part way, the batches written before the failure are kept. A compressed backup whose CRC32
+     * or length does not match what was read fails at the end, and changes nothing.
+     *
+     * @param dbOpener  The Database helper for the database to restore to
+     * @param is        The stream holding the backup, either XML or XML compressed as GZIP
+     * @param overwrite Whether to replace the existing data, or merge into it
+     * @return The number of rows restored
+     * @throws IOException If the stream can't be read, or does not hold a valid backup
+     */
+    public static int importData(final SQLiteOpenHelper dbOpener, final InputStream is,
+                                 final boolean overwrite) throws IOException {
+        return importData(dbOpener, is, overwrite ? MODE_OVERWRITE : MODE_MERGE);
+    }
+
+    /**
+     * Applies an incremental backup file to the database.
+     *
+     * @param dbOpener The Database helper for the database to restore to
+     * @param f        The incremental backup file
+     * @return The number of rows deleted, inserted or updated
+     * @throws IOException If the file can't be read, or is not a valid incremental backup
+     * @see #applyDelta(SQLiteOpenHelper, InputStream)
+     */
+    public static int applyDelta(final SQLiteOpenHelper dbOpener, final File f)
             throws IOException {
         final FileInputStream fis = new FileInputStream(f);
         try {
-            importData(ctx, fis, overwrite);
+            return applyDelta(dbOpener, fis);
         } finally {
             fis.close();
         }
     }
 
-    public static void importData(final Context ctx, final InputStream is, final boolean overwrite)
+    /**
+     * Applies an incremental backup, read from a stream, to a database holding what the backups
+     * before it hold: restored by overwriting from the full backup, then applying each
+     * incremental backup after it in turn. The rows deleted since the backup before are deleted,
+     * then the rows changed since then are written over the rows with the same IDs, or inserted
+     * with their IDs if new. (Deleting first means a row given the ID of one deleted is kept.)
+     *
+     * @param dbOpener The Database helper for the database to restore to
+     * @param is       The stream holding the incremental backup, either XML or GZIP
+     * @return The number of rows deleted, inserted or updated
+     * @throws IOException If the stream can't be read, or does not hold a valid incremental
+     *                     backup
+     */
+    public static int applyDelta(final SQLiteOpenHelper dbOpener, final InputStream is)
             throws IOException {
-        final InputStreamReader isr = new InputStreamReader(is, "UTF8");
+        return importData(dbOpener, is, MODE_DELTA);
+    }
+
+    private static int importData(final SQLiteOpenHelper dbOpener, final InputStream is,
+                                  final int mode) throws IOException {
+        final InputStream source = inflateIfCompressed(is);
+        final InputStreamReader isr = new InputStreamReader(source, "UTF8");
+        final SQLiteDatabase db = dbOpener.getWritableDatabase();
+
         try {
             final XmlPullParser parser = Xml.newPullParser();
             parser.setInput(isr);
-            readTag(parser, BackupXmlDatabase.DATABASE_TAG, false);
-
-            // Order of tables matters for foreign keys. If a table has a foreign key pointing to
-            // another table, it must come after the table it points to
-
-            // I've commented out the next 2 lines so I can get the app to compile, but otherwise I
-            // have not changed them.
-//      final LongSparseArray<Long> tagIDRemapping = importTable(
-//          mDB,
-//          p,
-//          DBHelper.TAG_TABLE_NAME,
-//          overwrite,
-//          null,
-//          null,
-//          DBHelper.TAG_TAG);
-//      importTable(
-//          mDB,
-//          p,
-//          DBHelper.TODO_TABLE_NAME,
-//          overwrite,
-//          DBHelper.TODO_TAG_ID,
-//          tagIDRemapping,
-//          DBHelper.TODO_TAG_ID,
-//          DBHelper.TODO_SUMMARY);
+            return new XmlToDatabaseImporter(db, parser, source).importTables(mode);
         } catch (XmlPullParserException e) {
-            Log.e(TAG, "error parsing backup file", e);
+            throw new IOException("Error parsing backup file: " + e.getMessage(), e);
         } finally {
-            mDB.close();
             isr.close();
         }
     }
 
+    /*
+     * Returns a stream which inflates the given one if it starts as GZIP does, otherwise one
+     * which reads it as it is.
+     */
+    static InputStream inflateIfCompressed(final InputStream is) throws IOException {
+        final InputStream in = is.markSupported() ? is : new BufferedInputStream(is);
+        in.mark(2);
+        final boolean compressed = (in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2);
+        in.reset();
+
+        return compressed ? new GZIPInputStream(in, INFLATE_BUFFER_SIZE) : in;
+    }
 
     /*
-    I have not been able to figure out what he's doing with the mergeByColumn arguments. He called
-    this method with two tables. For the first one, he passed nothing for mergeByColumn; for the
-    second one, he passed TODO_TAG_ID (which appears to be a foreign key pointing to the TAG_ID
-    column of the TAG table), and passed TODO_SUMMARY.
+     * Reads to the end of the source, past anything the parser had no need of. For a GZIP
+     * stream that includes the trailer, which GZIPInputStream checks against the CRC32 and
+     * length of what it inflated, throwing an IOException if they differ.
+     */
+    private void readToEnd() throws IOException {
+        final byte[] rest = new byte[512];
+        //noinspection StatementWithEmptyBody
+        while (mSource.read(rest) != -1) {
+            // nothing but whitespace is expected after the database's closing tag
+        }
+    }
 
-    fkColumn is when the table being passed here has a foreign key pointing to another table.
+    /*
+     * Imports the tables in the order the backup holds them. Order of tables matters for foreign
+     * keys: if a table has a foreign key pointing to another table, it must come after the table
+     * it points to. An incremental backup holds its deleted rows first.
      */
-    // todo document this method thoroughly
-    private static LongSparseArray<Long> importTable(
-            final SQLiteDatabase db,
-            final XmlPullParser xmlParser,
+    private int importTables(final int mode) throws IOException, XmlPullParserException {
+        readTag(mParser, BackupXmlDatabase.DATABASE_TAG, false);
+        final boolean delta = (mode == MODE_DELTA);
+        if (delta != (mParser.getAttributeValue(null, BackupXmlDatabase.SINCE_ATTR) != null))
+            throw new IOException(delta ? "Not an incremental backup" :
+                    "An incremental backup can't be restored on its own");
+
+        /* Emptying a table must not be committed until its rows are all back, nor the rows of a
+           compressed backup until its trailer has been checked */
+        mBatched = (mode != MODE_OVERWRITE && !(mSource instanceof GZIPInputStream));
+        mDB.beginTransaction();
+        try {
+            if (delta)
+                importDeletions();
+            importTable(PropertyDataMap.TABLE_NAME, mode, false, null, null,
+                    PropertyDataMap.COLUMN_NAME_NAME);
+            final LongSparseArray<Long> vehicleIDRemapping = importTable(
+                    DatabaseMap_Vehicle.TABLE_NAME, mode, true, null, null,
+                    DatabaseMap_Vehicle.COLUMN_NAME_NAME);
+            importTable(DatabaseMap_Fueling.TABLE_NAME, mode, false,
+                    DatabaseMap_Fueling.COLUMN_NAME_VEHICLE_ID, vehicleIDRemapping,
+                    DatabaseMap_Fueling.COLUMN_NAME_VEHICLE_ID,
+                    DatabaseMap_Fueling.COLUMN_NAME_DATE_OF_FILL);
+
+            readTag(mParser, BackupXmlDatabase.DATABASE_TAG, true);
+            readToEnd();
+            mDB.setTransactionSuccessful();
+        } finally {
+            mDB.endTransaction();
+            mStatements.close();
+        }
+
+        return mRowsImported;
+    }
+
+    /**
+     * Imports the rows of one table, which must be the next in the backup.
+     *
+     * @param tableName     The table expected next
+     * @param mode          Whether to empty the table and keep the backup's IDs, merge into it
+     *                      with new IDs, or update it by ID
+     * @param keepRemapping Whether to return the mapping of old IDs to new ones; only asked for
+     *                      tables other tables point to, so a big table costs no memory
+     * @param fkColumn      A column pointing to the prime key of another table, or null
+     * @param fkRemapping   The mapping of that table's old IDs to new ones, or null if they were
+     *                      kept
+     * @param mergeByColumn When merging, the columns which identify a row matching an existing
+     *                      one
+     * @return The mapping of the table's old IDs to new ones; null if IDs are kept, or not asked
+     * for
+     */
+    private LongSparseArray<Long> importTable(
             final String tableName,
-            final boolean overwrite,
+            final int mode,
+            final boolean keepRemapping,
             @Nullable final String fkColumn,  // points to the prime key of another table
             @Nullable final LongSparseArray<Long> fkRemapping,
             final String... mergeByColumn) throws IOException, XmlPullParserException {
-        readTag(xmlParser, BackupXmlTable.TABLE_TAG, false);
-        CTools.assertEquals(tableName, xmlParser.getAttributeValue(null, BackupXmlTable.NAME_ATTR));
+        readTag(mParser, BackupXmlTable.TABLE_TAG, false);
+        CTools.assertEquals(tableName, mParser.getAttributeValue(null, BackupXmlTable.NAME_ATTR));
+
+        final String pkColumn = mParser.getAttributeValue(null, BackupXmlTable.PK_ATTR);
+        final boolean keepIDs = (mode != MODE_MERGE);
+        final LongSparseArray<Long> remapping =
+                (!keepIDs && keepRemapping) ? new LongSparseArray<Long>() : null;
+        final String[] mergeBy = (mode == MODE_MERGE ? mergeByColumn :
+                mode == MODE_DELTA ? new String[]{pkColumn} : new String[0]);
+        final TableImporter table = new TableImporter(tableName, pkColumn, keepIDs, remapping,
+                fkColumn, fkRemapping, mergeBy);
 
-        final String pkColumn = xmlParser.getAttributeValue(null, BackupXmlTable.PK_ATTR);
-        final LongSparseArray<Long> remapping = overwrite ? null : new LongSparseArray<Long>();
-        final HashSet<String> mb = new HashSet<>(mergeByColumn.length);
-        mb.addAll(Arrays.asList(mergeByColumn));
+        if (mode == MODE_OVERWRITE)
+            mDB.execSQL(DatabaseMap_Base.getDeleteAllSQL(tableName));
 
         while (true) {
-            final int et = xmlParser.nextTag();
+            final int et = mParser.nextTag();
             if (et == XmlPullParser.END_TAG) {
-                CTools.assertEquals(BackupXmlTable.TABLE_TAG, xmlParser.getName());
+                CTools.assertEquals(BackupXmlTable.TABLE_TAG, mParser.getName());
                 return remapping;
             } else {
                 CTools.assertEquals(XmlPullParser.START_TAG, et);
-                CTools.assertEquals(BackupXmlRow.ROW_TAG, xmlParser.getName());
-                importRow(db, xmlParser, tableName, pkColumn, remapping, fkColumn, fkRemapping, mb);
+                CTools.assertEquals(BackupXmlRow.ROW_TAG, mParser.getName());
+                table.importRow();
+                endOfRow();
             }
         }
     }
 
-    // todo document this method thoroughly
-    private static void importRow(final SQLiteDatabase db,
-                                  final XmlPullParser xmlParser,
-                                  final String tableName,
-                                  final String pkColumn,
-                                  final LongSparseArray<Long> pkRemapping, //we fill pkRemapping
-                                  @Nullable final String fkColumn,
-                                  @Nullable final LongSparseArray<Long> fkRemapping, //we use
-                                  final Set<String> mergeByColumn)
-            throws IOException, XmlPullParserException {
-        final ContentValues cv = new ContentValues();
-        int mergeCnt = 0;
-        final StringBuilder mergeCond = new StringBuilder();
-        final String[] mergeCols = new String[mergeByColumn.size()];
-        final String[] mergeArgs = new String[mergeByColumn.size()];
-/*
-    Long oldPK = null;
-    while (true) {
-      final int et = xmlParser.nextTag();
-      if (et == XmlPullParser.END_TAG) {
-        if (BackupXmlRow.ROW_TAG.equals(xmlParser.getName()))
-          break;
-        CTools.assertEquals(BackupXmlColumn.COLUMN_TAG, xmlParser.getName());
-      } else {
-        CTools.assertEquals(XmlPullParser.START_TAG, et);
-        CTools.assertEquals(BackupXmlColumn.COLUMN_TAG, xmlParser.getName());
-        final String columnName = xmlParser.getAttributeValue(null, BackupXmlColumn.NAME_ATTR);
-//        final String columnValue = unescape(xmlParser.nextText());
-
-        if (pkRemapping == null || !columnName.equals(pkColumn))
-//          cv.put(columnName, columnValue);
-        if (fkRemapping != null && columnName.equals(fkColumn)) {
-//          final Long oldFK = Long.parseLong(columnValue);
-          final Long newFK = fkRemapping.get(oldFK);
-          if (newFK == null) {
-            Log.w(TAG, "can't find remapping for " + oldFK + " for table " + tableName);
-          } else if (!newFK.equals(oldFK)) {
-//						Log.i(TAG, "remapped " + tableName + '.' + fkColumn + ": " + oldFK + " -> " + newFK);
-            cv.put(columnName, newFK);
-          } // else same FK
-        }
-        if (columnName.equals(pkColumn))
-          oldPK = Long.parseLong(columnValue);
-
-        if (mergeByColumn.contains(columnName)) {
-          if (mergeCnt > 0)
-            mergeCond.append(" AND ");
-          mergeCond.append(columnName).append("=?");
-          mergeCols[mergeCnt] = columnName;
-          mergeArgs[mergeCnt++] = columnValue;
-        }
-      }
-    }
-    if (fkRemapping != null)
-      for (int i = 0; i < mergeCnt; i++) {
-        if (mergeCols[i].equals(fkColumn)) {
-          final Long oldFK = Long.parseLong(mergeArgs[i]);
-          final Long newFK = fkRemapping.get(oldFK);
-          if (newFK != null && !newFK.equals(oldFK))
-            mergeArgs[i] = newFK.toString();
-        }
-      }
-    if (mergeCnt > 0) {
-      final String mergeCondStr = mergeCond.toString();
-//			Log.i(TAG, "merge: " + mergeCondStr + ", " + Arrays.toString(mergeArgs));
-      final int updated = db.update(tableName, cv, mergeCondStr, mergeArgs);
-      if (updated > 1) {
-        if (pkRemapping != null)
-          Log.w(TAG, "Can't do PK remapping, updated more than 1 row");
-        return;
-      }
-      if (updated == 1) {
-        if (pkRemapping != null) {
-          final Cursor cursor = db.query(tableName, new String[]{pkColumn}, mergeCondStr,
-              mergeArgs, null, null, null);
-          final int cnt = cursor.getCount();
-          if (cnt != 1)
-            Log.w(TAG, "Can't do PK remapping, error finding updated row; cnt=" + cnt);
-          else if (oldPK == null)
-            Log.w(TAG, "Can't do PK remapping, oldPK is null; cnt=" + cnt);
-          else {
-            cursor.moveToFirst();
-            pkRemapping.put(oldPK, cursor.getLong(0));
-            cursor.close();
-          }
-        }
-//				Log.i(TAG, "Merged!");
-        return;
-      }
-      /*
-      ????? He has no insert statement???? This next line was commented out by him
-       */
-        //updated 0 = do an insert
-  /*
+    /*
+     * Deletes the rows an incremental backup records as deleted. Only rows of the tables the
+     * backup holds are deleted, by their prime keys.
+     */
+    private void importDeletions() throws IOException, XmlPullParserException {
+        readTag(mParser, BackupXmlTable.TABLE_TAG, false);
+        CTools.assertEquals(DatabaseMap_Deletion.TABLE_NAME,
+                mParser.getAttributeValue(null, BackupXmlTable.NAME_ATTR));
+        final TableImporter reader = new TableImporter(DatabaseMap_Deletion.TABLE_NAME,
+                DatabaseMap_Deletion._ID, true, null, null, null, new String[0]);
+
+        while (true) {
+            final int et = mParser.nextTag();
+            if (et == XmlPullParser.END_TAG) {
+                CTools.assertEquals(BackupXmlTable.TABLE_TAG, mParser.getName());
+                return;
+            }
+            CTools.assertEquals(XmlPullParser.START_TAG, et);
+            CTools.assertEquals(BackupXmlRow.ROW_TAG, mParser.getName());
+
+            reader.readRow();
+            final String table = reader.valueOf(DatabaseMap_Deletion.COLUMN_NAME_TABLE_NAME);
+            final String rowID = reader.valueOf(DatabaseMap_Deletion.COLUMN_NAME_ROW_ID);
+            if (!DatabaseMap_Fueling.TABLE_NAME.equals(table) &&
+                    !DatabaseMap_Vehicle.TABLE_NAME.equals(table) &&
+                    !PropertyDataMap.TABLE_NAME.equals(table))
+                throw new IOException("Deleted row of unknown table " + table);
+
+            final SQLiteStatement delete = mStatements.get("DELETE FROM " + table +
+                    DatabaseMap_Base.WHERE_CLAUSE + DatabaseMap_Base.WHERE_ID_CLAUSE);
+            delete.bindLong(1, Long.parseLong(rowID));
+            delete.executeUpdateDelete();
+            endOfRow();
+        }
     }
-    final long pk = db.replace(tableName, null, cv);
-    if (oldPK != null && pkRemapping != null)
-      pkRemapping.put(oldPK, pk);
-*/
+
+    /* Counts a row, and commits the batch when it is full, if the rows are written in batches */
+    private void endOfRow() {
+        mRowsImported++;
+        if (mBatched && ++mRowsInBatch == BATCH_ROWS) {
+            mDB.setTransactionSuccessful();
+            mDB.endTransaction();
+            mDB.beginTransaction();
+            mRowsInBatch = 0;
+        }
     }
 
     private static void readTag(final XmlPullParser p, final String expectedName,
@@ -228,4 +348,215 @@ public class XmlToDatabaseImporter extends XmlBase {
         p.nextTag();
         p.require(closing ? XmlPullParser.END_TAG : XmlPullParser.START_TAG, null, expectedName);
     }
+
+    /**
+     * Imports the rows of one table. Holds the columns of the row being imported, and the
+     * statements compiled for the table's columns; the statements are compiled again only if a
+     * row has different columns from the row before.
+     */
+    private class TableImporter {
+        private final String mTableName;
+        private final String mPkColumn;
+        private final boolean mKeepIDs;
+        private final LongSparseArray<Long> mPkRemapping;   // we fill pkRemapping
+        private final String mFkColumn;
+        private final LongSparseArray<Long> mFkRemapping;   // we use
+        private final String[] mMergeBy;
+
+        // The row being imported
+        private String[] mNames = new String[16];
+        private int[] mTypes = new int[16];
+        private String[] mValues = new String[16];
+        private int mCount;
+
+        // The columns the statements were compiled for, and where the special columns are
+        private String[] mStatementColumns = new String[0];
+        private int mPk, mFk;
+        private int[] mMerge;
+        private SQLiteStatement mInsert, mUpdate, mFind;
+
+        TableImporter(String tableName, String pkColumn, boolean keepIDs,
+                      @Nullable LongSparseArray<Long> pkRemapping, @Nullable String fkColumn,
+                      @Nullable LongSparseArray<Long> fkRemapping, String[] mergeBy) {
+            mTableName = tableName;
+            mPkColumn = pkColumn;
+            mKeepIDs = keepIDs;
+            mPkRemapping = pkRemapping;
+            mFkColumn = fkColumn;
+            mFkRemapping = fkRemapping;
+            mMergeBy = mergeBy;
+            mMerge = new int[mergeBy.length];
+        }
+
+        /**
+         * Reads the columns of one row from the parser, which is at the row's start tag, and
+         * writes the row to the database.
+         */
+        void importRow() throws IOException, XmlPullParserException {
+            readRow();
+            if (!sameColumns())
+                compileStatements();
+
+            Long oldPK = (mPk >= 0 && mTypes[mPk] == Cursor.FIELD_TYPE_INTEGER ?
+                    Long.parseLong(mValues[mPk]) : null);
+
+            if (mFk >= 0 && mFkRemapping != null && mTypes[mFk] == Cursor.FIELD_TYPE_INTEGER) {
+                final long oldFK = Long.parseLong(mValues[mFk]);
+                final Long newFK = mFkRemapping.get(oldFK);
+                if (newFK == null)
+                    Log.w(TAG, "can't find remapping for " + oldFK + " for table " +
+                            mTableName);
+                else if (newFK.longValue() != oldFK)
+                    mValues[mFk] = newFK.toString();
+            }
+
+            long pk = -1;
+            if (mFind != null) {
+                mFind.clearBindings();
+                for (int i = 0; i < mMerge.length; i++)
+                    bind(mFind, i + 1, mTypes[mMerge[i]], mValues[mMerge[i]]);
+                try {
+                    pk = mFind.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    pk = -1;
+                }
+            }
+
+            if (pk >= 0) {
+                // Matches an existing row: update it
+                int n = bindValues(mUpdate);
+                mUpdate.bindLong(n + 1, pk);
+                mUpdate.executeUpdateDelete();
+            } else {
+                bindValues(mInsert);
+                pk = mInsert.executeInsert();
+            }
+
+            if (oldPK != null && mPkRemapping != null)
+                mPkRemapping.put(oldPK, pk);
+        }
+
+        /* Reads the row's columns into the arrays */
+        void readRow() throws IOException, XmlPullParserException {
+            mCount = 0;
+            while (true) {
+                final int et = mParser.nextTag();
+                if (et == XmlPullParser.END_TAG) {
+                    CTools.assertEquals(BackupXmlRow.ROW_TAG, mParser.getName());
+                    return;
+                }
+
+                CTools.assertEquals(XmlPullParser.START_TAG, et);
+                CTools.assertEquals(BackupXmlColumn.COLUMN_TAG, mParser.getName());
+                if (mCount == mNames.length) {
+                    mNames = Arrays.copyOf(mNames, mCount * 2);
+                    mTypes = Arrays.copyOf(mTypes, mCount * 2);
+                    mValues = Arrays.copyOf(mValues, mCount * 2);
+                }
+                mNames[mCount] = mParser.getAttributeValue(null, BackupXmlColumn.NAME_ATTR);
+                mTypes[mCount] = Integer.parseInt(
+                        mParser.getAttributeValue(null, BackupXmlColumn.TYPE_ATTR));
+                mValues[mCount] = mParser.nextText();
+                mCount++;
+            }
+        }
+
+        /*
+         * Compiles the insert, update and find statements for the columns of the current row.
+         * The prime key is only written when IDs are kept; otherwise new rows are given new IDs.
+         */
+        private void compileStatements() {
+            mStatementColumns = Arrays.copyOf(mNames, mCount);
+            mPk = indexOf(mPkColumn);
+            mFk = (mFkColumn != null ? indexOf(mFkColumn) : -1);
+
+            final StringBuilder columns = new StringBuilder();
+            final StringBuilder places = new StringBuilder();
+            final StringBuilder sets = new StringBuilder();
+            for (int i = 0; i < mCount; i++) {
+                if (i == mPk && !mKeepIDs)
+                    continue;
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                    places.append(", ");
+                    sets.append(", ");
+                }
+                columns.append(mNames[i]);
+                places.append('?');
+                sets.append(mNames[i]).append(" = ?");
+            }
+
+            mInsert = mStatements.get("INSERT INTO " + mTableName + " (" + columns +
+                    ") VALUES (" + places + ")");
+            mUpdate = mStatements.get("UPDATE " + mTableName + " SET " + sets + " WHERE " +
+                    mPkColumn + " = ?");
+
+            mFind = null;
+            if (mMergeBy.length > 0) {
+                final StringBuilder where = new StringBuilder();
+                for (int i = 0; i < mMergeBy.length; i++) {
+                    mMerge[i] = indexOf(mMergeBy[i]);
+                    CTools.assertTrue(mMerge[i] >= 0);
+                    if (i > 0)
+                        where.append(" AND ");
+                    where.append(mMergeBy[i]).append(" = ?");
+                }
+                mFind = mStatements.get("SELECT " + mPkColumn + " FROM " + mTableName +
+                        " WHERE " + where + " LIMIT 1");
+            }
+        }
+
+        /* Binds the values being written, in column order, and returns how many were bound */
+        private int bindValues(SQLiteStatement statement) {
+            statement.clearBindings();
+            int n = 0;
+            for (int i = 0; i < mCount; i++) {
+                if (i == mPk && !mKeepIDs)
+                    continue;
+                bind(statement, ++n, mTypes[i], mValues[i]);
+            }
+            return n;
+        }
+
+        /* Checks whether the current row has the columns the statements were compiled for */
+        private boolean sameColumns() {
+            if (mCount != mStatementColumns.length)
+                return false;
+            for (int i = 0; i < mCount; i++)
+                if (!mNames[i].equals(mStatementColumns[i]))
+                    return false;
+            return true;
+        }
+
+        /* Returns the value of a column of the row read, or null if the row doesn't have it */
+        @Nullable
+        String valueOf(String name) {
+            final int i = indexOf(name);
+            return (i >= 0 ? mValues[i] : null);
+        }
+
+        private int indexOf(String name) {
+            for (int i = 0; i < mCount; i++)
+                if (mNames[i].equals(name))
+                    return i;
+            return -1;
+        }
+    }
+
+    /* Binds a value read from the backup according to the type it was backed up as */
+    private static void bind(SQLiteStatement statement, int index, int type, String value) {
+        switch (type) {
+            case Cursor.FIELD_TYPE_NULL:
+                statement.bindNull(index);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                statement.bindLong(index, Long.parseLong(value));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                statement.bindDouble(index, Double.parseDouble(value));
+                break;
+            default:
+                StatementCache.bindString(statement, index, value);
+        }
+    }
 }
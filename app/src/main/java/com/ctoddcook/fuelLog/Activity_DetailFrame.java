@@ -26,6 +26,7 @@ public class Activity_DetailFrame extends AppCompatActivity {
   public static final int TYPE_AVERAGE = 103;
   public static final String ARG_POSITION = "Position";
   public static final String ARG_VEHICLE = "Model_Vehicle";
+  public static final String ARG_VEHICLE_ID = "VehicleID";
 
   private static ViewPager mPager;
   private Toolbar mToolbar;
@@ -74,8 +75,13 @@ public class Activity_DetailFrame extends AppCompatActivity {
         break;
 
       case TYPE_FUELING:
-        Pager_Fueling pagerFueling = new Pager_Fueling(getSupportFragmentManager(),
-            Model_Fueling.getFuelingList());
+        FuelingPageSource fuelings = FuelingPageSource.getCurrent();
+        if (fuelings == null) {
+          finish();
+          return;
+        }
+
+        Pager_Fueling pagerFueling = new Pager_Fueling(getSupportFragmentManager(), fuelings);
         mPager.setAdapter(pagerFueling);
         mPager.setCurrentItem(position);
         mToolbar.setLogo(R.drawable.ic_gas_pump);
@@ -85,8 +91,9 @@ public class Activity_DetailFrame extends AppCompatActivity {
 
       case TYPE_AVERAGE:
         String vehicleName = getIntent().getStringExtra(ARG_VEHICLE);
+        int vehicleID = getIntent().getIntExtra(ARG_VEHICLE_ID, 0);
         Pager_Averages pagerAverages = new Pager_Averages(getSupportFragmentManager(),
-            vehicleName);
+            vehicleName, vehicleID);
         mPager.setAdapter(pagerAverages);
         mPager.setCurrentItem(position);
         mToolbar.setLogo(R.drawable.ic_bar_chart);
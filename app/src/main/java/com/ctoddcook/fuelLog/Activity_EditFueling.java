@@ -24,6 +24,7 @@ import android.widget.Toast;
 import com.ctoddcook.CamGenTools.CLocationTools;
 import com.ctoddcook.CamGenTools.CLocationWaiter;
 import com.ctoddcook.CamGenTools.PropertiesHelper;
+import com.ctoddcook.CamGenTools.ReadWriteExecutor.Callback;
 import com.ctoddcook.CamUiTools.Fragment_DatePicker;
 import com.ctoddcook.CamUiTools.Fragment_TimePicker;
 import com.ctoddcook.CamUiTools.Handler_Hints;
@@ -52,7 +53,7 @@ public class Activity_EditFueling extends AppCompatActivity
   public static final String KEY_USER_ALLOWS_GPS = "com.ctoddcook.FuelLog.GPS_ALLOWED";
   public static final int MODE_ADD = 1;
   public static final int MODE_EDIT = 2;
-  private static DatabaseHelper sDatabaseHelper;
+  private static AsyncDatabaseHelper sAsyncDatabaseHelper;
   float mDistance = 0f, mVolume = 0f, mPricePaid = 0f, mOdometer = 0f;
   String mLocation = null;
   private int mode;
@@ -68,7 +69,8 @@ public class Activity_EditFueling extends AppCompatActivity
    * When the activity is created, apart from the standard actions, we retrieve the type of
    * user action (add or edit a mFueling) and if the mode is EDIT. If the mode is to add a new
    * fueling, we create a new one and assign it to the mFueling field; if the mode is to edit
-   * an existing fueling, we retrieve that fueling and assign it to mFueling.
+   * an existing fueling, we start retrieving that fueling, and showFueling() assigns it to
+   * mFueling when it arrives.
    *
    * @param savedInstanceState data saved from prior shut down (probably null)
    */
@@ -84,7 +86,7 @@ public class Activity_EditFueling extends AppCompatActivity
       toolbar.setLogo(R.drawable.ic_gas_pump);
     }
 
-    sDatabaseHelper = DatabaseHelper.getInstance(this);
+    sAsyncDatabaseHelper = AsyncDatabaseHelper.getInstance(this);
 
     GregorianCalendar gc = new GregorianCalendar();
 
@@ -107,15 +109,12 @@ public class Activity_EditFueling extends AppCompatActivity
           throw new IllegalArgumentException("In edit mode, a Model_Fueling ID must be " +
               "provided");
 
-        mFueling = Model_Fueling.getFueling(fuelingID);
-        gc.setTimeInMillis(mFueling.getDateOfFill().getTime());
-
-        mDistanceET.setText(Handler_Format.formatDistanceRaw(mFueling.getDistance()));
-        mVolumeET.setText(Handler_Format.formatVolumeLongRaw(mFueling.getVolume()));
-        mPricePaidDT.setText(Handler_Format.formatPriceRaw(mFueling.getPricePaid()));
-        mLocationET.setText(mFueling.getLocation());
-        mOdometerET.setText(String.format(Locale.getDefault(), "%1.1f", mFueling.getOdometer()));
-
+        sAsyncDatabaseHelper.fetchFueling(this, fuelingID, new Callback<Model_Fueling>() {
+          @Override
+          public void onResult(Model_Fueling result) {
+            showFueling(result);
+          }
+        });
         break;
       default:
         throw new IllegalArgumentException("Calling process must specify add/edit mode");
@@ -127,7 +126,57 @@ public class Activity_EditFueling extends AppCompatActivity
     }
     setupVehicleSpinner();
 
-    // Get the current, local, date and time; set the seconds and milliseconds to 0
+    // Start with the current, local, date and time
+    setDateOfFill(gc);
+
+    Handler_Hints.showHint(this, Handler_FuelLogHints.FIRST_FUELING_HINT_KEY,
+        getString(R.string.first_fueling_hint_title),
+        getString(R.string.first_fueling_hint));
+  }
+
+  /**
+   * Cancels any database calls still outstanding, so their results are not delivered to this
+   * activity after it is gone. A save already submitted is still completed.
+   */
+  @Override
+  protected void onDestroy() {
+    sAsyncDatabaseHelper.cancelAll(this);
+    super.onDestroy();
+  }
+
+  /**
+   * In EDIT mode, receives the fueling once it has been read from the database and fills in the
+   * edit fields and the date and time from it.
+   *
+   * @param fueling the fueling being edited
+   */
+  private void showFueling(Model_Fueling fueling) {
+    if (fueling == null) {
+      finish();
+      return;
+    }
+
+    mFueling = fueling;
+
+    mDistanceET.setText(Handler_Format.formatDistanceRaw(mFueling.getDistance()));
+    mVolumeET.setText(Handler_Format.formatVolumeLongRaw(mFueling.getVolume()));
+    mPricePaidDT.setText(Handler_Format.formatPriceRaw(mFueling.getPricePaid()));
+    mLocationET.setText(mFueling.getLocation());
+    mOdometerET.setText(String.format(Locale.getDefault(), "%1.1f", mFueling.getOdometer()));
+
+    GregorianCalendar gc = new GregorianCalendar();
+    gc.setTimeInMillis(mFueling.getDateOfFill().getTime());
+    setDateOfFill(gc);
+  }
+
+  /**
+   * Sets the date of fill, and the fields used by the date and time pickers, from a calendar,
+   * and displays it.
+   *
+   * @param gc the date and time of fill
+   */
+  private void setDateOfFill(GregorianCalendar gc) {
+    // Set the seconds and milliseconds to 0
     gc.set(Calendar.SECOND, 0);
     gc.set(Calendar.MILLISECOND, 0);
     mDateOfFill = gc.getTime();
@@ -139,10 +188,6 @@ public class Activity_EditFueling extends AppCompatActivity
 
     // Display the date and time
     displayDateOfFill();
-
-    Handler_Hints.showHint(this, Handler_FuelLogHints.FIRST_FUELING_HINT_KEY,
-        getString(R.string.first_fueling_hint_title),
-        getString(R.string.first_fueling_hint));
   }
 
   /**
@@ -151,17 +196,28 @@ public class Activity_EditFueling extends AppCompatActivity
    */
   private void setupVehicleSpinner() {
     // get a cursor providing IDs and NAMEs for each vehicle
-    Cursor cursor = sDatabaseHelper.fetchSimpleVehicleListCursor(false);
-
-    // if the cursor has no results, open the Activity_EditVehicle, then try again
-    if (cursor.getCount() < 1) {
-      Intent intent = new Intent(this, Activity_EditVehicle.class);
-      intent.putExtra(Activity_EditVehicle.KEY_ADD_EDIT_MODE, Activity_EditVehicle
-          .MODE_ADD);
-      startActivity(intent);
-      cursor = sDatabaseHelper.fetchSimpleVehicleListCursor(false);
-    }
+    sAsyncDatabaseHelper.fetchSimpleVehicleListCursor(this, false, new Callback<Cursor>() {
+      @Override
+      public void onResult(Cursor cursor) {
+        // if the cursor has no results, open the Activity_EditVehicle
+        if (cursor.getCount() < 1) {
+          Intent intent = new Intent(Activity_EditFueling.this, Activity_EditVehicle.class);
+          intent.putExtra(Activity_EditVehicle.KEY_ADD_EDIT_MODE, Activity_EditVehicle
+              .MODE_ADD);
+          startActivity(intent);
+        }
+
+        showVehicleSpinner(cursor);
+      }
+    });
+  }
 
+  /**
+   * Displays the spinner of vehicles, once the cursor has been read.
+   *
+   * @param cursor a cursor providing IDs and NAMEs for each vehicle
+   */
+  private void showVehicleSpinner(Cursor cursor) {
     // make an adapter from the cursor
     String[] from = new String[]{DatabaseMap_Vehicle.COLUMN_NAME_NAME};
     int[] to = new int[]{android.R.id.text1};
@@ -280,6 +336,9 @@ public class Activity_EditFueling extends AppCompatActivity
    * @param v The view (the SAVE button) which called this method
    */
   public void processEdits(View v) {
+    // in EDIT mode, the fueling may not have been read yet
+    if (mFueling == null) return;
+
     extractDetails();
     if (sanityChecksPass())
       saveFueling();
@@ -376,10 +435,10 @@ public class Activity_EditFueling extends AppCompatActivity
 
     switch (mode) {
       case MODE_ADD:
-        sDatabaseHelper.insertFueling(mFueling);
+        sAsyncDatabaseHelper.insertFueling(this, mFueling, null);
         break;
       case MODE_EDIT:
-        sDatabaseHelper.updateFueling(mFueling);
+        sAsyncDatabaseHelper.updateFueling(this, mFueling, null);
         break;
       default:
         throw new IllegalArgumentException("Member field mode does not " +
@@ -27,7 +27,7 @@ public class Activity_EditVehicle extends AppCompatActivity {
   public static final int MODE_ADD = 1;
   public static final int MODE_EDIT = 2;
   private static final String TAG = "Activity_EditVehicle";
-  private static DatabaseHelper sDatabaseHelper;
+  private static AsyncDatabaseHelper sAsyncDatabaseHelper;
   EditText mNameET, mColorET, mYearET, mModelET, mLicensePlateET, mVinET;
   String mName, mColor, mModel, mVin, mLicensePlate;
   int mYear = 0;
@@ -54,7 +54,7 @@ public class Activity_EditVehicle extends AppCompatActivity {
       toolbar.setLogo(R.drawable.ic_car);
     }
 
-    sDatabaseHelper = DatabaseHelper.getInstance(this);
+    sAsyncDatabaseHelper = AsyncDatabaseHelper.getInstance(this);
 
     mNameET = (EditText) findViewById(R.id.vehicle_edit_name);
     mColorET = (EditText) findViewById(R.id.vehicle_edit_color);
@@ -90,6 +90,16 @@ public class Activity_EditVehicle extends AppCompatActivity {
 
   }
 
+  /**
+   * Cancels any database calls still outstanding for this activity. A save already submitted is
+   * still completed.
+   */
+  @Override
+  protected void onDestroy() {
+    sAsyncDatabaseHelper.cancelAll(this);
+    super.onDestroy();
+  }
+
   /**
    * Populates the display with details from the current vehicle.
    */
@@ -189,7 +199,9 @@ public class Activity_EditVehicle extends AppCompatActivity {
   }
 
   /**
-   * Place the user-provided details into the vehicle instance and save it to the database.
+   * Place the user-provided details into the vehicle instance and save it to the database. The
+   * save runs in the background; anything which reads the vehicle list in response to the update
+   * event will wait for it.
    */
   public void saveVehicle() {
     mVehicle.setName(mName);
@@ -201,10 +213,10 @@ public class Activity_EditVehicle extends AppCompatActivity {
 
     switch (mMode) {
       case MODE_ADD:
-        sDatabaseHelper.insertVehicle(mVehicle);
+        sAsyncDatabaseHelper.insertVehicle(this, mVehicle, null);
         break;
       case MODE_EDIT:
-        sDatabaseHelper.updateVehicle(mVehicle);
+        sAsyncDatabaseHelper.updateVehicle(this, mVehicle, null);
         break;
       default:
         throw new IllegalArgumentException("Member field mMode does not " +
@@ -19,6 +19,7 @@ import android.widget.LinearLayout;
 import android.widget.ListView;
 
 import com.ctoddcook.CamGenTools.PropertiesHelper;
+import com.ctoddcook.CamGenTools.ReadWriteExecutor.Callback;
 import com.ctoddcook.CamUiTools.Handler_Hints;
 
 import java.util.ArrayList;
@@ -37,7 +38,7 @@ public class Activity_VehicleList extends AppCompatActivity implements AdapterVi
     Handler_DataEvents.DataUpdateListener {
 
   private static ListView sVehicleListView;
-  private DatabaseHelper sDB;
+  private AsyncDatabaseHelper sDB;
   private Model_Vehicle mVehicleToDelete = null;
   private Model_Vehicle mVehicleToRetire = null;
 
@@ -54,19 +55,40 @@ public class Activity_VehicleList extends AppCompatActivity implements AdapterVi
     }
 
 
-    sDB = DatabaseHelper.getInstance(this);
+    sDB = AsyncDatabaseHelper.getInstance(this);
     Handler_DataEvents.getInstance().setOnDataUpdatedListener(this);
     showVehicles();
     showHint();
   }
 
   /**
-   * Fetches the list of vehicles from the database and displays them as a list
+   * Cancels any database calls still outstanding for this activity, so their results are not
+   * delivered after it is gone.
+   */
+  @Override
+  protected void onDestroy() {
+    sDB.cancelAll(this);
+    super.onDestroy();
+  }
+
+  /**
+   * Fetches the list of vehicles from the database in the background, then displays them as a
+   * list
    */
   private void showVehicles() {
-    ArrayList<Model_Vehicle> mVehicleList;
-    mVehicleList = sDB.fetchVehicleList();
+    sDB.fetchVehicleList(this, new Callback<ArrayList<Model_Vehicle>>() {
+      @Override
+      public void onResult(ArrayList<Model_Vehicle> result) {
+        showVehicles(result);
+      }
+    });
+  }
 
+  /**
+   * Displays the vehicles as a list, once they have been read
+   * @param mVehicleList the vehicles to display
+   */
+  private void showVehicles(ArrayList<Model_Vehicle> mVehicleList) {
     sVehicleListView = (ListView) findViewById(R.id.Vehicle_ListView);
     if (sVehicleListView != null) {
       sVehicleListView.setOnItemClickListener(this);
@@ -228,7 +250,7 @@ public class Activity_VehicleList extends AppCompatActivity implements AdapterVi
           // If the user clicks "YES" then we retire the vehicle
           case DialogInterface.BUTTON_POSITIVE:
             mVehicleToRetire.setRetired();
-            sDB.updateVehicle(mVehicleToRetire);
+            sDB.updateVehicle(Activity_VehicleList.this, mVehicleToRetire, null);
             mVehicleToRetire = null;
             Handler_DataEvents.getInstance().dispatchDataUpdateEvent(
                 Handler_DataEvents.DataUpdateEvent.VEHICLE_LIST_UPDATED, null);
@@ -262,7 +284,7 @@ public class Activity_VehicleList extends AppCompatActivity implements AdapterVi
     Model_Vehicle vehicle = Model_Vehicle.getVehicle(vehicleID);
     if (vehicle.isRetired()) {
       vehicle.setActive();
-      sDB.updateVehicle(vehicle);
+      sDB.updateVehicle(this, vehicle, null);
       showVehicles();
     }
   }
@@ -285,7 +307,7 @@ public class Activity_VehicleList extends AppCompatActivity implements AdapterVi
           // If the user clicks "YES" then we delete the vehicle
           case DialogInterface.BUTTON_POSITIVE:
             mVehicleToDelete.setDeleted();
-            sDB.deleteVehicle(mVehicleToDelete);
+            sDB.deleteVehicle(Activity_VehicleList.this, mVehicleToDelete, null);
             mVehicleToDelete = null;
             Handler_DataEvents.getInstance().dispatchDataUpdateEvent(
                 Handler_DataEvents.DataUpdateEvent.VEHICLE_LIST_UPDATED, null);
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+
+/**
+ * Provides SQL specifications for the table of deleted rows, which an incremental backup reads
+ * to know what has been deleted since the backup before. A trigger on each backed-up table adds
+ * a row here for every row deleted from it. Its timestamp column has the same name as the other
+ * tables' last_updated column, so an incremental backup selects from it in the same way.
+ */
+public final class DatabaseMap_Deletion extends DatabaseMap_FuelLog implements BaseColumns {
+  // To prevent someone from accidentally instantiating this class, here is
+  // an empty constructor.
+  private DatabaseMap_Deletion() {
+  }
+
+
+  public static final String TABLE_NAME = "deleted_rows";
+  public static final String COLUMN_NAME_TABLE_NAME = "table_name";
+  public static final String COLUMN_NAME_ROW_ID = "row_id";
+
+  // These column numbers must match the order in the CREATE TABLE statement
+  public static final int COLUMN_NBR_ID = 0;
+  public static final int COLUMN_NBR_TABLE_NAME = 1;
+  public static final int COLUMN_NBR_ROW_ID = 2;
+  public static final int COLUMN_NBR_LAST_UPDATED = 3;
+
+  public static final String SQL_CREATE_TABLE =
+      CREATE_TABLE_PHRASE + TABLE_NAME + " (" +
+          _ID + KEY_COLUMN_DEFINITION_PHRASE +
+          COLUMN_NAME_TABLE_NAME + STRING_TYPE + NOT_NULL + COMMA_SEP +
+          COLUMN_NAME_ROW_ID + INT_TYPE + NOT_NULL + COMMA_SEP +
+          COLUMN_NAME_LAST_UPDATED + DATETIME_TYPE + NOT_NULL + " )";
+
+  public static final String SQL_DROP_TABLE =
+      DROP_TABLE_PHRASE + TABLE_NAME;
+
+  public static final String INDEX_NAME_LAST_UPDATED = "deleted_rows_last_updated";
+  public static final String SQL_CREATE_INDEX_LAST_UPDATED =
+      "CREATE INDEX IF NOT EXISTS " + INDEX_NAME_LAST_UPDATED + " ON " + TABLE_NAME + " (" +
+          COLUMN_NAME_LAST_UPDATED + ")";
+
+  // Deleted rows already covered by a full backup are of no further use
+  public static final String SQL_DELETE_BEFORE =
+      "DELETE FROM " + TABLE_NAME + WHERE_CLAUSE + COLUMN_NAME_LAST_UPDATED + " < ?";
+
+  // The current time in milliseconds, as SQLite works it out
+  private static final String NOW_MILLIS =
+      "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+  /**
+   * Returns the SQL creating the trigger which records each row deleted from a table.
+   *
+   * @param table the table whose deletions are to be recorded; its prime key must be _ID
+   * @return the CREATE TRIGGER statement
+   */
+  public static String getCreateTriggerSQL(String table) {
+    return "CREATE TRIGGER IF NOT EXISTS " + getTriggerName(table) +
+        " AFTER DELETE ON " + table + " BEGIN " +
+        "INSERT INTO " + TABLE_NAME + " (" +
+        COLUMN_NAME_TABLE_NAME + COMMA_SEP +
+        COLUMN_NAME_ROW_ID + COMMA_SEP +
+        COLUMN_NAME_LAST_UPDATED + ") VALUES ('" + table + "', OLD." + _ID + COMMA_SEP +
+        NOW_MILLIS + "); END";
+  }
+
+  /**
+   * Returns the SQL dropping the trigger which records each row deleted from a table.
+   *
+   * @param table the table whose deletions are recorded
+   * @return the DROP TRIGGER statement
+   */
+  public static String getDropTriggerSQL(String table) {
+    return "DROP TRIGGER IF EXISTS " + getTriggerName(table);
+  }
+
+  public static String getTriggerName(String table) {
+    return table + "_deleted";
+  }
+
+  public static boolean tableExists(SQLiteDatabase db) {
+    return tableExists(db, TABLE_NAME);
+  }
+
+  /**
+   * Checks whether the trigger recording a table's deleted rows exists
+   *
+   * @param table the table whose deletions are recorded
+   * @return whether the trigger exists
+   */
+  public static boolean triggerExists(SQLiteDatabase db, String table) {
+    Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'trigger' " +
+        "AND name = ?", new String[]{getTriggerName(table)});
+    try {
+      return cursor.getCount() > 0;
+    } finally {
+      cursor.close();
+    }
+  }
+}
@@ -3,6 +3,8 @@ package com.ctoddcook.FuelLog;
 import android.database.sqlite.SQLiteDatabase;
 import android.provider.BaseColumns;
 
+import com.ctoddcook.CamGenTools.DataHolder;
+
 /**
  * This provides Database/SQL information for the table which holds Model_Fueling data. Includes column
  * names, types, ordinal numbers, table mName, create table statement, select all, etc.
@@ -27,6 +29,7 @@ public final class DatabaseMap_Fueling extends DatabaseMap_FuelLog implements Ba
   public static final String COLUMN_NAME_LOCATION;        // Name of city, state
   public static final String COLUMN_NAME_LATITUDE;
   public static final String COLUMN_NAME_LONGITUDE;
+  public static final String COLUMN_NAME_STATUS;          // DataHolder.STATUS_CURRENT or _DELETED
 
 
   // These column numbers must match the order in the CREATE TABLE statement
@@ -41,6 +44,7 @@ public final class DatabaseMap_Fueling extends DatabaseMap_FuelLog implements Ba
   public static final int COLUMN_NBR_LATITUDE = 8;
   public static final int COLUMN_NBR_LONGITUDE = 9;
   public static final int COLUMN_NBR_LAST_UPDATED = 10;
+  public static final int COLUMN_NBR_STATUS = 11;
 
 
   static {
@@ -54,6 +58,7 @@ public final class DatabaseMap_Fueling extends DatabaseMap_FuelLog implements Ba
     COLUMN_NAME_LOCATION = "location";
     COLUMN_NAME_LATITUDE = "latitude";
     COLUMN_NAME_LONGITUDE = "longitude";
+    COLUMN_NAME_STATUS = "status";
   }
 
   public static final String SQL_CREATE_TABLE =
@@ -68,34 +73,221 @@ public final class DatabaseMap_Fueling extends DatabaseMap_FuelLog implements Ba
           COLUMN_NAME_LOCATION + STRING_TYPE + COMMA_SEP +
           COLUMN_NAME_LATITUDE + REAL_TYPE + COMMA_SEP +
           COLUMN_NAME_LONGITUDE + REAL_TYPE + COMMA_SEP +
-          COLUMN_NAME_LAST_UPDATED + DATETIME_TYPE + " )";
+          COLUMN_NAME_LAST_UPDATED + DATETIME_TYPE + COMMA_SEP +
+          COLUMN_NAME_STATUS + STRING_TYPE + NOT_NULL + " DEFAULT '" +
+          DataHolder.STATUS_CURRENT + "' )";
+
+  // Added to an existing table at version 6; it goes last, as in a new table
+  public static final String SQL_ADD_STATUS_COLUMN =
+      "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_NAME_STATUS + STRING_TYPE +
+          NOT_NULL + " DEFAULT '" + DataHolder.STATUS_CURRENT + "'";
 
   public static final String SQL_DROP_TABLE =
       DROP_TABLE_PHRASE + TABLE_NAME;
 
+  // Every column in CREATE TABLE order, and the kind of value each holds
+  public static final String[] COLUMN_NAMES = {
+      _ID,
+      COLUMN_NAME_VEHICLE_ID,
+      COLUMN_NAME_DATE_OF_FILL,
+      COLUMN_NAME_DISTANCE,
+      COLUMN_NAME_VOLUME,
+      COLUMN_NAME_PRICE_PAID,
+      COLUMN_NAME_ODOMETER,
+      COLUMN_NAME_LOCATION,
+      COLUMN_NAME_LATITUDE,
+      COLUMN_NAME_LONGITUDE,
+      COLUMN_NAME_LAST_UPDATED,
+      COLUMN_NAME_STATUS};
+  public static final int[] COLUMN_KINDS = {
+      COLUMN_KIND_KEY,
+      COLUMN_KIND_INT,
+      COLUMN_KIND_DATETIME,
+      COLUMN_KIND_FLOAT,
+      COLUMN_KIND_FLOAT,
+      COLUMN_KIND_FLOAT,
+      COLUMN_KIND_FLOAT,
+      COLUMN_KIND_STRING,
+      COLUMN_KIND_FLOAT,
+      COLUMN_KIND_FLOAT,
+      COLUMN_KIND_DATETIME,
+      COLUMN_KIND_STRING};
+
+  // A deleted fueling stays in the table, marked, until compactDeletedFuelings() removes it;
+  // every query for fuelings to show or total leaves it out.
+  public static final String WHERE_NOT_DELETED =
+      COLUMN_NAME_STATUS + NOT_EQUAL + "'" + DataHolder.STATUS_DELETED + "'";
+
   public static final String SQL_SELECT_ALL =
-      SELECT_PHRASE + "*" + FROM_PHRASE +
-          TABLE_NAME + ORDER_BY_PHRASE + COLUMN_NAME_DATE_OF_FILL + " DESC";
+      SELECT_PHRASE + "*" + FROM_PHRASE + TABLE_NAME + WHERE_CLAUSE + WHERE_NOT_DELETED +
+          ORDER_BY_PHRASE + COLUMN_NAME_DATE_OF_FILL + " DESC";
 
   public static final String WHERE_VEHICLE_ID = COLUMN_NAME_VEHICLE_ID + EQUAL + "?";
+  public static final String WHERE_VEHICLE_ID_NOT_DELETED =
+      WHERE_VEHICLE_ID + " AND " + WHERE_NOT_DELETED;
+  public static final String WHERE_ID_NOT_DELETED = WHERE_ID_CLAUSE + " AND " + WHERE_NOT_DELETED;
+
+  // Every column but the ID, in CREATE TABLE order. For compiled statements, the values are
+  // bound in this order, starting at 1; the UPDATE binds the row's ID after them.
+  private static final String DATA_COLUMNS =
+      COLUMN_NAME_VEHICLE_ID + COMMA_SEP +
+          COLUMN_NAME_DATE_OF_FILL + COMMA_SEP +
+          COLUMN_NAME_DISTANCE + COMMA_SEP +
+          COLUMN_NAME_VOLUME + COMMA_SEP +
+          COLUMN_NAME_PRICE_PAID + COMMA_SEP +
+          COLUMN_NAME_ODOMETER + COMMA_SEP +
+          COLUMN_NAME_LOCATION + COMMA_SEP +
+          COLUMN_NAME_LATITUDE + COMMA_SEP +
+          COLUMN_NAME_LONGITUDE + COMMA_SEP +
+          COLUMN_NAME_LAST_UPDATED;
+  public static final int DATA_COLUMN_COUNT = 10;
+
+  public static final String SQL_INSERT =
+      "INSERT INTO " + TABLE_NAME + " (" + DATA_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  public static final String SQL_UPDATE_BY_ID =
+      "UPDATE " + TABLE_NAME + " SET " +
+          COLUMN_NAME_VEHICLE_ID + " = ?, " +
+          COLUMN_NAME_DATE_OF_FILL + " = ?, " +
+          COLUMN_NAME_DISTANCE + " = ?, " +
+          COLUMN_NAME_VOLUME + " = ?, " +
+          COLUMN_NAME_PRICE_PAID + " = ?, " +
+          COLUMN_NAME_ODOMETER + " = ?, " +
+          COLUMN_NAME_LOCATION + " = ?, " +
+          COLUMN_NAME_LATITUDE + " = ?, " +
+          COLUMN_NAME_LONGITUDE + " = ?, " +
+          COLUMN_NAME_LAST_UPDATED + " = ?" +
+          WHERE_CLAUSE + WHERE_ID_CLAUSE;
+
+  public static final String SQL_DELETE_BY_ID =
+      "DELETE FROM " + TABLE_NAME + WHERE_CLAUSE + WHERE_ID_CLAUSE;
+
+  // Marks a fueling deleted, or undeletes it: binds the status, the last-updated time and the ID
+  public static final String SQL_SET_STATUS_BY_ID =
+      "UPDATE " + TABLE_NAME + " SET " +
+          COLUMN_NAME_STATUS + " = ?, " +
+          COLUMN_NAME_LAST_UPDATED + " = ?" +
+          WHERE_CLAUSE + WHERE_ID_CLAUSE;
+
+  // Counts the fuelings marked deleted before a time: binds the time
+  public static final String SQL_COUNT_MARKED_BEFORE =
+      SELECT_PHRASE + "COUNT(*)" + FROM_PHRASE + TABLE_NAME + WHERE_CLAUSE + COLUMN_NAME_STATUS +
+          " = '" + DataHolder.STATUS_DELETED + "' AND " + COLUMN_NAME_LAST_UPDATED + " < ?";
+
+  // Removes one batch of fuelings marked deleted before a time: binds the time, then batch size
+  public static final String SQL_DELETE_MARKED_BEFORE =
+      "DELETE FROM " + TABLE_NAME + WHERE_CLAUSE + _ID + " IN (" + SELECT_PHRASE + _ID +
+          FROM_PHRASE + TABLE_NAME + WHERE_CLAUSE + COLUMN_NAME_STATUS + " = '" +
+          DataHolder.STATUS_DELETED + "' AND " + COLUMN_NAME_LAST_UPDATED + " < ? LIMIT ?)";
+
+  // Covers the span-totals query (every column it reads is in the index, the status included),
+  // and also serves the per-vehicle, newest-first fetch of fuelings.
+  public static final String INDEX_NAME_VEHICLE_DATE = "fueling_vehicle_date";
+  public static final String SQL_CREATE_INDEX_VEHICLE_DATE =
+      "CREATE INDEX IF NOT EXISTS " + INDEX_NAME_VEHICLE_DATE + " ON " + TABLE_NAME + " (" +
+          COLUMN_NAME_VEHICLE_ID + COMMA_SEP +
+          COLUMN_NAME_DATE_OF_FILL + COMMA_SEP +
+          COLUMN_NAME_DISTANCE + COMMA_SEP +
+          COLUMN_NAME_VOLUME + COMMA_SEP +
+          COLUMN_NAME_PRICE_PAID + COMMA_SEP +
+          COLUMN_NAME_STATUS + ")";
+  public static final String SQL_DROP_INDEX_VEHICLE_DATE =
+      "DROP INDEX IF EXISTS " + INDEX_NAME_VEHICLE_DATE;
+
+  // Finds the fuelings changed since an incremental backup's watermark without reading them all
+  public static final String INDEX_NAME_LAST_UPDATED = "fueling_last_updated";
+  public static final String SQL_CREATE_INDEX_LAST_UPDATED =
+      "CREATE INDEX IF NOT EXISTS " + INDEX_NAME_LAST_UPDATED + " ON " + TABLE_NAME + " (" +
+          COLUMN_NAME_LAST_UPDATED + ")";
+
+  // Column number of the span bucket in the span-totals query; columns before it follow the
+  // order of the SpanAggregate.TOTAL_ constants.
+  public static final int COLUMN_NBR_SPAN_BUCKET = SpanAggregate.TOTALS_SIZE;
 
   public static boolean tableExists(SQLiteDatabase db) {
     return tableExists(db, TABLE_NAME);
   }
 
+  /**
+   * Returns a SELECT statement which totals fuelings by span, in a single pass over the table.
+   * Each row is one span "bucket": 0 for fills after the 3-month cutoff, 1 for fills after the
+   * 6-month cutoff but not the 3-month one, and so on up to 3 for fills older than a year. The
+   * cutoff dates are bound as the first three arguments (in millis), followed by the vehicle ID
+   * if one was provided.
+   * <p/>
+   * Columns 0 to SpanAggregate.TOTALS_SIZE - 1 hold the totals in SpanAggregate.TOTAL_ order;
+   * the bucket is in COLUMN_NBR_SPAN_BUCKET.
+   *
+   * @param vehicleID the vehicle to filter by, or 0 to total the fuelings for all vehicles
+   * @return a string with a SELECT statement
+   */
+  public static String getSpanTotalsSQL(int vehicleID) {
+    String priced = COLUMN_NAME_PRICE_PAID + " > 0";
+    String withVolume = COLUMN_NAME_VOLUME + " > 0";
+    String withDistance = COLUMN_NAME_DISTANCE + " > 0";
+    String where = WHERE_CLAUSE +
+        (vehicleID > 0 ? WHERE_VEHICLE_ID_NOT_DELETED : WHERE_NOT_DELETED);
+
+    return SELECT_PHRASE +
+        "COUNT(*)" + COMMA_SEP +
+        total("1", COLUMN_NAME_DISTANCE) + COMMA_SEP +
+        total("1", COLUMN_NAME_VOLUME) + COMMA_SEP +
+        total(withVolume, "1") + COMMA_SEP +
+        total(priced, "1") + COMMA_SEP +
+        total(priced, COLUMN_NAME_PRICE_PAID) + COMMA_SEP +
+        total(priced + " AND " + withVolume, "1") + COMMA_SEP +
+        total(priced + " AND " + withVolume, COLUMN_NAME_PRICE_PAID) + COMMA_SEP +
+        total(priced + " AND " + withVolume, COLUMN_NAME_VOLUME) + COMMA_SEP +
+        total(priced + " AND " + withDistance, "1") + COMMA_SEP +
+        total(priced + " AND " + withDistance, COLUMN_NAME_PRICE_PAID) + COMMA_SEP +
+        total(priced + " AND " + withDistance, COLUMN_NAME_DISTANCE) + COMMA_SEP +
+        "CASE WHEN " + COLUMN_NAME_DATE_OF_FILL + " > ? THEN 0" +
+        " WHEN " + COLUMN_NAME_DATE_OF_FILL + " > ? THEN 1" +
+        " WHEN " + COLUMN_NAME_DATE_OF_FILL + " > ? THEN 2 ELSE 3 END AS span_bucket" +
+        FROM_PHRASE + TABLE_NAME + where + " GROUP BY span_bucket";
+  }
+
+  /**
+   * Builds a TOTAL() of a value over the rows meeting a condition. (TOTAL() rather than SUM()
+   * so an empty group gives 0.0 rather than NULL.)
+   */
+  private static String total(String condition, String value) {
+    return "TOTAL(CASE WHEN " + condition + " THEN " + value + " END)";
+  }
+
+  /**
+   * Returns a SELECT statement for one page of fuelings, newest first, using keyset pagination:
+   * rather than skipping rows with OFFSET, it picks up after the last row of the previous page.
+   * The arguments to bind are the vehicle ID (if one was provided), then the date of fill of the
+   * previous page's last row twice, its ID, and the page size.
+   *
+   * @param vehicleID the vehicle to filter by, or 0 to page through the fuelings for all vehicles
+   * @return a string with a SELECT statement
+   */
+  public static String getPageSQL(int vehicleID) {
+    String vehicle = (vehicleID > 0 ? WHERE_VEHICLE_ID + " AND " : "");
+
+    return SELECT_PHRASE + "*" + FROM_PHRASE + TABLE_NAME + WHERE_CLAUSE + vehicle +
+        WHERE_NOT_DELETED + " AND " +
+        "(" + COLUMN_NAME_DATE_OF_FILL + " < ? OR (" + COLUMN_NAME_DATE_OF_FILL + " = ? AND " +
+        _ID + " < ?))" + ORDER_BY_PHRASE + COLUMN_NAME_DATE_OF_FILL + " DESC" + COMMA_SEP +
+        _ID + " DESC LIMIT ?";
+  }
+
   /**
    * Returns a string containing a SELECT statement for fetching Model_Fueling records from the
-   * database for a particular vehicleID (or all vehicles).
-   * @param vehicleID the vehicle to filter by, or 0 to get all records with no filter
+   * database for a particular vehicleID (or all vehicles), newest first (by date of fill, then
+   * ID, as FuelingColumns needs).
+   * @param vehicleID the vehicle to filter by, or 0 to get all records with no vehicle filter
    * @return a string with a SELECT statement
    */
   public static String getSelectSQL(int vehicleID) {
-    String where = "";
+    String where = WHERE_CLAUSE + WHERE_NOT_DELETED;
     if (vehicleID > 0)
-      where = " WHERE " + COLUMN_NAME_VEHICLE_ID + " = " + vehicleID;
+      where += " AND " + COLUMN_NAME_VEHICLE_ID + " = " + vehicleID;
 
     return SELECT_PHRASE + "*" + FROM_PHRASE + TABLE_NAME +
-        where + ORDER_BY_PHRASE + COLUMN_NAME_DATE_OF_FILL + " DESC";
+        where + ORDER_BY_PHRASE + COLUMN_NAME_DATE_OF_FILL + " DESC" + COMMA_SEP + _ID + " DESC";
   }
 }
 
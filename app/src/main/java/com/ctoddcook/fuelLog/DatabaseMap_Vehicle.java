@@ -46,9 +46,79 @@ public class DatabaseMap_Vehicle extends DatabaseMap_FuelLog implements BaseColu
           COLUMN_NAME_STATUS + STRING_TYPE + NOT_NULL + COMMA_SEP +
           COLUMN_NAME_LAST_UPDATED + DATETIME_TYPE + " )";
 
+  // Added to an existing table at version 3; existing vehicles take the default, active
+  public static final String SQL_ADD_STATUS_COLUMN =
+      "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_NAME_STATUS + STRING_TYPE +
+          NOT_NULL + " DEFAULT '" + Model_Vehicle.STATUS_ACTIVE + "'";
+
   public static final String SQL_DROP_TABLE =
       DROP_TABLE_PHRASE + TABLE_NAME;
 
+  // Every column in CREATE TABLE order, and the kind of value each holds
+  public static final String[] COLUMN_NAMES = {
+      _ID,
+      COLUMN_NAME_NAME,
+      COLUMN_NAME_YEAR,
+      COLUMN_NAME_COLOR,
+      COLUMN_NAME_MODEL,
+      COLUMN_NAME_VIN,
+      COLUMN_NAME_LICENSE_PLATE,
+      COLUMN_NAME_STATUS,
+      COLUMN_NAME_LAST_UPDATED};
+  public static final int[] COLUMN_KINDS = {
+      COLUMN_KIND_KEY,
+      COLUMN_KIND_STRING,
+      COLUMN_KIND_INT,
+      COLUMN_KIND_STRING,
+      COLUMN_KIND_STRING,
+      COLUMN_KIND_STRING,
+      COLUMN_KIND_STRING,
+      COLUMN_KIND_STRING,
+      COLUMN_KIND_DATETIME};
+
+  // Inserts a new vehicle, which is assigned an ID. Binds the columns other than the ID in
+  // CREATE TABLE order.
+  public static final String SQL_INSERT =
+      "INSERT INTO " + TABLE_NAME + " (" +
+          COLUMN_NAME_NAME + COMMA_SEP +
+          COLUMN_NAME_YEAR + COMMA_SEP +
+          COLUMN_NAME_COLOR + COMMA_SEP +
+          COLUMN_NAME_MODEL + COMMA_SEP +
+          COLUMN_NAME_VIN + COMMA_SEP +
+          COLUMN_NAME_LICENSE_PLATE + COMMA_SEP +
+          COLUMN_NAME_STATUS + COMMA_SEP +
+          COLUMN_NAME_LAST_UPDATED +
+          ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+  // Inserts a vehicle, or replaces the row with the same ID. The ID is bound first (null for a
+  // new vehicle, so one is assigned), then the other columns in CREATE TABLE order.
+  public static final String SQL_UPSERT =
+      "INSERT OR REPLACE INTO " + TABLE_NAME + " (" +
+          _ID + COMMA_SEP +
+          COLUMN_NAME_NAME + COMMA_SEP +
+          COLUMN_NAME_YEAR + COMMA_SEP +
+          COLUMN_NAME_COLOR + COMMA_SEP +
+          COLUMN_NAME_MODEL + COMMA_SEP +
+          COLUMN_NAME_VIN + COMMA_SEP +
+          COLUMN_NAME_LICENSE_PLATE + COMMA_SEP +
+          COLUMN_NAME_STATUS + COMMA_SEP +
+          COLUMN_NAME_LAST_UPDATED +
+          ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  // Binds the columns other than the ID in CREATE TABLE order, then the ID
+  public static final int DATA_COLUMN_COUNT = 8;
+  public static final String SQL_UPDATE_BY_ID =
+      "UPDATE " + TABLE_NAME + " SET " +
+          COLUMN_NAME_NAME + " = ?, " +
+          COLUMN_NAME_YEAR + " = ?, " +
+          COLUMN_NAME_COLOR + " = ?, " +
+          COLUMN_NAME_MODEL + " = ?, " +
+          COLUMN_NAME_VIN + " = ?, " +
+          COLUMN_NAME_LICENSE_PLATE + " = ?, " +
+          COLUMN_NAME_STATUS + " = ?, " +
+          COLUMN_NAME_LAST_UPDATED + " = ?" +
+          WHERE_CLAUSE + WHERE_ID_CLAUSE;
+
   public static final String SQL_SELECT_ALL =
       SELECT_PHRASE +
           _ID + COMMA_SEP +
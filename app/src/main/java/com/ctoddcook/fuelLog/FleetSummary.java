@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Span totals for every vehicle, and for the fleet as a whole, with the vehicles ranked by
+ * their averages (see rank()).
+ * <p/>
+ * Each vehicle's fills are totaled by bucket (see FuelingColumns.getBucketTotals()) on its own,
+ * so the vehicles are split into chunks of roughly equal numbers of fills and totaled in
+ * parallel, several chunks per thread so that a thread which finishes early takes on another.
+ * The thread calling build() totals chunks too, and any chunk no worker has started by the time
+ * it waits is totaled in place, so build() finishes even if every worker is busy, or the pool
+ * has been shut down (as by DatabaseHelper.close()) part way through. The fleet's totals are
+ * merged from the vehicles' afterwards, in vehicle order, so they come out the same however the
+ * work was split.
+ * <p/>
+ * A summary is immutable, and can be read from any thread.
+ */
+class FleetSummary {
+  // What rank() can order the vehicles by; each is ordered worst first
+  static final int RANK_EFFICIENCY = 0;           // lowest distance per unit of fuel first
+  static final int RANK_PRICE_PER_DISTANCE = 1;   // highest price per distance first
+  static final int RANK_PRICE_PER_UNIT = 2;       // highest price per unit of fuel first
+
+  // Chunks per thread, so the threads stay busy when some vehicles take longer than others
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final long mMeasuredAt;
+  private final VehicleTotals mVehicles[];   // by ascending vehicle ID
+  private final double mFleetTotals[];       // the sum of the vehicles' bucket totals
+
+  /**
+   * One vehicle's totals, for each span.
+   */
+  static final class VehicleTotals {
+    private final int mVehicleID;
+    private final double mBucketTotals[];
+
+    private VehicleTotals(int vehicleID, double bucketTotals[]) {
+      mVehicleID = vehicleID;
+      mBucketTotals = bucketTotals;
+    }
+
+    int getVehicleID() {
+      return mVehicleID;
+    }
+
+    /**
+     * @param span one of the Model_Fueling.SPAN_ constants
+     * @return new totals for the span, which the caller may change
+     * @throws IllegalArgumentException if the span is not one of the Model_Fueling.SPAN_
+     *                                  constants
+     */
+    SpanAggregate getSpanAggregate(int span) throws IllegalArgumentException {
+      return sumBuckets(mBucketTotals, span);
+    }
+  }
+
+  private FleetSummary(long measuredAt, VehicleTotals vehicles[]) {
+    mMeasuredAt = measuredAt;
+    mVehicles = vehicles;
+    mFleetTotals = new double[FuelingColumns.BUCKET_TOTALS_SIZE];
+    for (VehicleTotals each : vehicles) {
+      for (int i = 0; i < mFleetTotals.length; i++)
+        mFleetTotals[i] += each.mBucketTotals[i];
+    }
+  }
+
+  /**
+   * Totals each vehicle's fills by span, splitting the work over a pool of threads, and merges
+   * the vehicles' totals into the fleet's.
+   *
+   * @param fillsByVehicle each vehicle's fills, newest first, as from FuelingColumns.byVehicle()
+   * @param now            the time the spans are measured back from
+   * @param workers        the threads to total on, or null to total on the calling thread
+   * @param parallelism    the number of threads to split the work for, such as the number of
+   *                       workers; 1 or less totals on the calling thread
+   * @return the summary
+   */
+  static FleetSummary build(Map<Integer, FuelingColumns> fillsByVehicle, Date now,
+                            ExecutorService workers, int parallelism) {
+    Integer vehicleIDs[] = fillsByVehicle.keySet().toArray(new Integer[fillsByVehicle.size()]);
+    Arrays.sort(vehicleIDs);
+
+    FuelingColumns fills[] = new FuelingColumns[vehicleIDs.length];
+    long totalFills = 0;
+    for (int i = 0; i < vehicleIDs.length; i++) {
+      fills[i] = fillsByVehicle.get(vehicleIDs[i]);
+      totalFills += fills[i].size();
+    }
+
+    Date thresholds[] = Model_Fueling.getSpanThresholds(now);
+    VehicleTotals vehicles[] = new VehicleTotals[vehicleIDs.length];
+
+    if (workers == null || parallelism <= 1 || vehicleIDs.length <= 1) {
+      new Chunk(vehicleIDs, fills, thresholds, vehicles, 0, vehicleIDs.length).run();
+    } else {
+      runChunks(split(vehicleIDs, fills, thresholds, vehicles, totalFills,
+          parallelism * CHUNKS_PER_THREAD), workers);
+    }
+
+    return new FleetSummary(now.getTime(), vehicles);
+  }
+
+  /* Splits the vehicles into runs of roughly equal numbers of fills */
+  private static ArrayList<Chunk> split(Integer vehicleIDs[], FuelingColumns fills[],
+                                        Date thresholds[], VehicleTotals vehicles[],
+                                        long totalFills, int chunkCount) {
+    ArrayList<Chunk> chunks = new ArrayList<>(chunkCount);
+    long fillsPerChunk = Math.max(1, (totalFills + chunkCount - 1) / chunkCount);
+    int first = 0;
+    long fillsInChunk = 0;
+
+    for (int i = 0; i < vehicleIDs.length; i++) {
+      fillsInChunk += fills[i].size();
+      if (fillsInChunk >= fillsPerChunk || i == vehicleIDs.length - 1) {
+        chunks.add(new Chunk(vehicleIDs, fills, thresholds, vehicles, first, i + 1));
+        first = i + 1;
+        fillsInChunk = 0;
+      }
+    }
+
+    return chunks;
+  }
+
+  /*
+   * Hands every chunk but the first to the workers, totals the first, then waits for the rest,
+   * totaling in place any which no worker has started, or which the workers refused.
+   */
+  private static void runChunks(ArrayList<Chunk> chunks, ExecutorService workers) {
+    ArrayList<Future<?>> futures = new ArrayList<>(chunks.size());
+    for (int i = 1; i < chunks.size(); i++) {
+      try {
+        futures.add(workers.submit(chunks.get(i)));
+      } catch (RejectedExecutionException e) {
+        futures.add(null);
+      }
+    }
+
+    chunks.get(0).run();
+
+    boolean interrupted = false;
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        Future<?> future = futures.get(i);
+        if (future == null || future.cancel(false)) {
+          chunks.get(i + 1).run();
+          continue;
+        }
+
+        while (true) {
+          try {
+            future.get();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+              throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+          }
+        }
+      }
+    } finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  /* Totals a run of vehicles, each into its own slot of the results */
+  private static class Chunk implements Runnable {
+    private final Integer mVehicleIDs[];
+    private final FuelingColumns mFills[];
+    private final Date mThresholds[];
+    private final VehicleTotals mResults[];
+    private final int mFirst;
+    private final int mEnd;
+
+    Chunk(Integer vehicleIDs[], FuelingColumns fills[], Date thresholds[],
+          VehicleTotals results[], int first, int end) {
+      mVehicleIDs = vehicleIDs;
+      mFills = fills;
+      mThresholds = thresholds;
+      mResults = results;
+      mFirst = first;
+      mEnd = end;
+    }
+
+    @Override
+    public void run() {
+      for (int i = mFirst; i < mEnd; i++) {
+        double bucketTotals[] = new double[FuelingColumns.BUCKET_TOTALS_SIZE];
+        mFills[i].addBucketTotals(mThresholds, bucketTotals, 0);
+        mResults[i] = new VehicleTotals(mVehicleIDs[i], bucketTotals);
+      }
+    }
+  }
+
+  /**
+   * @return the time the spans were measured back from, in millis
+   */
+  long getMeasuredAt() {
+    return mMeasuredAt;
+  }
+
+  /**
+   * @return the number of vehicles summarized
+   */
+  int getVehicleCount() {
+    return mVehicles.length;
+  }
+
+  /**
+   * @return a vehicle's totals, or null if the vehicle has no fills
+   */
+  VehicleTotals getVehicle(int vehicleID) {
+    int low = 0;
+    int high = mVehicles.length - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int each = mVehicles[mid].getVehicleID();
+      if (each < vehicleID)
+        low = mid + 1;
+      else if (each > vehicleID)
+        high = mid - 1;
+      else
+        return mVehicles[mid];
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the whole fleet's totals for a span.
+   *
+   * @param span one of the Model_Fueling.SPAN_ constants
+   * @return new totals, which the caller may change
+   * @throws IllegalArgumentException if the span is not one of the Model_Fueling.SPAN_ constants
+   */
+  SpanAggregate getFleetAggregate(int span) throws IllegalArgumentException {
+    return sumBuckets(mFleetTotals, span);
+  }
+
+  /**
+   * Ranks the vehicles by one of their averages over a span, worst first. Vehicles with no
+   * fills in the span that count toward the average (for instance, no fills with a price, for
+   * RANK_PRICE_PER_UNIT) are left out. Vehicles with the same average are in ID order.
+   *
+   * @param measure RANK_EFFICIENCY, RANK_PRICE_PER_DISTANCE or RANK_PRICE_PER_UNIT
+   * @param span    one of the Model_Fueling.SPAN_ constants
+   * @return the vehicles, worst first
+   * @throws IllegalArgumentException if the measure or the span is not valid
+   */
+  ArrayList<VehicleTotals> rank(final int measure, int span) throws IllegalArgumentException {
+    if (measure < RANK_EFFICIENCY || measure > RANK_PRICE_PER_UNIT)
+      throw new IllegalArgumentException("Argument passed: " + measure + " is not a valid measure");
+
+    final ArrayList<VehicleTotals> ranked = new ArrayList<>(mVehicles.length);
+    final ArrayList<Float> averages = new ArrayList<>(mVehicles.length);
+    for (VehicleTotals each : mVehicles) {
+      float average = getAverage(each.getSpanAggregate(span), measure);
+      // The averages are 0 when there is nothing to average
+      if (average > 0f) {
+        ranked.add(each);
+        averages.add(average);
+      }
+    }
+
+    // Sort positions into the lists, so each average is worked out once
+    Integer order[] = new Integer[ranked.size()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int result = Float.compare(averages.get(a), averages.get(b));
+        if (measure != RANK_EFFICIENCY)
+          result = -result;
+        return result != 0 ? result : a.compareTo(b);
+      }
+    });
+
+    ArrayList<VehicleTotals> result = new ArrayList<>(order.length);
+    for (Integer each : order)
+      result.add(ranked.get(each));
+
+    return result;
+  }
+
+  /**
+   * @return the vehicles' totals, by ascending vehicle ID
+   */
+  List<VehicleTotals> getVehicles() {
+    return Collections.unmodifiableList(Arrays.asList(mVehicles));
+  }
+
+  private static float getAverage(SpanAggregate totals, int measure) {
+    switch (measure) {
+      case RANK_EFFICIENCY:
+        return totals.getAvgEfficiency();
+      case RANK_PRICE_PER_DISTANCE:
+        return totals.getAvgPricePerDistance();
+      default:
+        return totals.getAvgPricePerUnit();
+    }
+  }
+
+  /* A span's totals are those of its bucket and every more recent one */
+  private static SpanAggregate sumBuckets(double bucketTotals[], int span)
+      throws IllegalArgumentException {
+    if (span < Model_Fueling.SPAN_3_MONTHS || span > Model_Fueling.SPAN_ALL_TIME)
+      throw new IllegalArgumentException("Argument passed: " + span + " is not a valid span");
+
+    SpanAggregate result = new SpanAggregate();
+    for (int bucket = 0; bucket <= span; bucket++)
+      result.addTotals(bucketTotals, bucket * SpanAggregate.TOTALS_SIZE);
+
+    return result;
+  }
+}
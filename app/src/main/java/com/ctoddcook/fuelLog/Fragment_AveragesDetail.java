@@ -8,6 +8,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.ctoddcook.CamGenTools.ReadWriteExecutor;
+
 
 /**
  * This populates the display with the details from a particular time span.
@@ -18,8 +20,10 @@ import android.widget.TextView;
 public class Fragment_AveragesDetail extends Fragment {
   private static final String SPAN = "Span";
   private static final String VEHICLE_NAME = "VehicleName";
+  private static final String VEHICLE_ID = "VehicleID";
   private int mSpan;
   private String mVehicleName;
+  private int mVehicleID;
 
   /**
    * Android does not want parameters passed through a constructor; they only want parameters
@@ -27,13 +31,16 @@ public class Fragment_AveragesDetail extends Fragment {
    * be reconstituted.
    *
    * @param span indicates which span's averages are to be displayed
+   * @param vehicleName the name of the vehicle whose averages are displayed
+   * @param vehicleID the ID of the vehicle whose averages are displayed
    * @return a new Fragment_AveragesDetail
    */
-  public static Fragment_AveragesDetail getInstance(int span, String vehicleName) {
+  public static Fragment_AveragesDetail getInstance(int span, String vehicleName, int vehicleID) {
     Fragment_AveragesDetail sdf = new Fragment_AveragesDetail();
     Bundle args = new Bundle();
     args.putInt(SPAN, span);
     args.putString(VEHICLE_NAME, vehicleName);
+    args.putInt(VEHICLE_ID, vehicleID);
     sdf.setArguments(args);
     return sdf;
   }
@@ -50,10 +57,14 @@ public class Fragment_AveragesDetail extends Fragment {
     super.onCreate(savedInstanceState);
     mSpan = (getArguments() != null ? getArguments().getInt(SPAN) : -1);
     mVehicleName = (getArguments() != null ? getArguments().getString(VEHICLE_NAME) : "");
+    mVehicleID = (getArguments() != null ? getArguments().getInt(VEHICLE_ID) : 0);
   }
 
   /**
-   * Puts the details from the vehicle in question into the TextViews which are displayed on screen.
+   * Puts the vehicle's name and the span's period into the TextViews which are displayed on
+   * screen, and starts reading the span's totals in the background, with a single aggregate query,
+   * so the vehicle's fuelings need not be held in memory. The averages are filled in once the
+   * totals have been read.
    *
    * @param inflater           The LayoutInflater object that can be used to inflate
    *                           any views in the fragment,
@@ -67,7 +78,7 @@ public class Fragment_AveragesDetail extends Fragment {
   @Nullable
   @Override
   public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-    View view = inflater.inflate(R.layout.fragment_averages_detail, container, false);
+    final View view = inflater.inflate(R.layout.fragment_averages_detail, container, false);
 
     TextView tvVehicle = (TextView) view.findViewById(R.id.span_detail_vehicle);
     tvVehicle.setText(mVehicleName);
@@ -75,24 +86,49 @@ public class Fragment_AveragesDetail extends Fragment {
     TextView tvPeriod = (TextView) view.findViewById(R.id.span_detail_period);
     tvPeriod.setText(Model_Fueling.getSpanPeriod(mSpan));
 
+    AsyncDatabaseHelper.getInstance(getContext()).fetchSpanAggregates(this, mVehicleID,
+        new ReadWriteExecutor.Callback<SpanAggregate[]>() {
+          @Override
+          public void onResult(SpanAggregate[] totals) {
+            showTotals(view, totals[0]);
+          }
+        }, mSpan);
+
+    return view;
+  }
+
+  /**
+   * Stops the totals from being delivered once the fragment's views are gone.
+   */
+  @Override
+  public void onDestroyView() {
+    AsyncDatabaseHelper.getInstance(getContext()).cancelAll(this);
+    super.onDestroyView();
+  }
+
+  /**
+   * Puts the span's averages into the TextViews which are displayed on screen.
+   *
+   * @param view the fragment's inflated layout
+   * @param totals the span's totals
+   */
+  private void showTotals(View view, SpanAggregate totals) {
     TextView tvDist = (TextView) view.findViewById(R.id.span_detail_distance);
-    tvDist.setText(Handler_Format.formatDistance(Model_Fueling.getAvgDistanceOverSpan(mSpan)));
+    tvDist.setText(Handler_Format.formatDistance(totals.getAvgDistance()));
 
     TextView tvVol = (TextView) view.findViewById(R.id.span_detail_volume);
-    tvVol.setText(Handler_Format.formatVolumeLong(Model_Fueling.getAvgVolumeOverSpan(mSpan)));
+    tvVol.setText(Handler_Format.formatVolumeLong(totals.getAvgVolume()));
 
     TextView tvPrice = (TextView) view.findViewById(R.id.span_detail_total_price_paid);
-    tvPrice.setText(Handler_Format.formatPrice(Model_Fueling.getAvgPricePaidOverSpan(mSpan)));
+    tvPrice.setText(Handler_Format.formatPrice(totals.getAvgPricePaid()));
 
     TextView tvMPG = (TextView) view.findViewById(R.id.span_detail_efficiency);
-    tvMPG.setText(Handler_Format.formatEfficiency(Model_Fueling.getAvgEfficiencyOverSpan(mSpan)));
+    tvMPG.setText(Handler_Format.formatEfficiency(totals.getAvgEfficiency()));
 
     TextView tvPPG = (TextView) view.findViewById(R.id.span_detail_price_per_unit);
-    tvPPG.setText(Handler_Format.formatPriceLong(Model_Fueling.getAvgPricePerUnitOverSpan(mSpan)));
+    tvPPG.setText(Handler_Format.formatPriceLong(totals.getAvgPricePerUnit()));
 
     TextView tvPPM = (TextView) view.findViewById(R.id.span_detail_price_per_distance);
-    tvPPM.setText(Handler_Format.formatPriceLong(Model_Fueling.getAvgPricePerDistanceOverSpan(mSpan)));
-
-    return view;
+    tvPPM.setText(Handler_Format.formatPriceLong(totals.getAvgPricePerDistance()));
   }
 }
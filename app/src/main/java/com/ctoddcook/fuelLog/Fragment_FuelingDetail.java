@@ -8,6 +8,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.ctoddcook.CamGenTools.ReadWriteExecutor;
 
 
 /**
@@ -37,8 +38,8 @@ public class Fragment_FuelingDetail extends Fragment {
   }
 
   /**
-   * This simply gets (from arguments) the ID of the fueling to be displayed, then retrieves that
-   * fueling.
+   * This simply gets (from arguments) the ID of the fueling to be displayed, then starts reading
+   * that fueling in the background. Its details are shown once it has been read.
    *
    * @param savedInstanceState If the fragment is being re-created from
    *                           a previous saved state, this is the state.
@@ -47,11 +48,29 @@ public class Fragment_FuelingDetail extends Fragment {
   public void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     int fuelingID = (getArguments() != null ? getArguments().getInt(FUELING_ID) : -1);
-    mFueling = Model_Fueling.getFueling(fuelingID);
+
+    AsyncDatabaseHelper.getInstance(getContext()).fetchFueling(this, fuelingID,
+        new ReadWriteExecutor.Callback<Model_Fueling>() {
+          @Override
+          public void onResult(Model_Fueling fueling) {
+            mFueling = fueling;
+            if (mFueling != null && getView() != null)
+              showFueling(getView());
+          }
+        });
   }
 
   /**
-   * Puts the details from the fueling in question into the TextViews which are displayed on screen.
+   * Stops the fueling from being delivered once the fragment is gone.
+   */
+  @Override
+  public void onDestroy() {
+    AsyncDatabaseHelper.getInstance(getContext()).cancelAll(this);
+    super.onDestroy();
+  }
+
+  /**
+   * Inflates the layout, and fills it in if the fueling has already been read.
    *
    * @param inflater           The LayoutInflater object that can be used to inflate
    *                           any views in the fragment,
@@ -67,6 +86,18 @@ public class Fragment_FuelingDetail extends Fragment {
   public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
     View layoutView = inflater.inflate(R.layout.fragment_fueling_detail, container, false);
 
+    if (mFueling != null)
+      showFueling(layoutView);
+
+    return layoutView;
+  }
+
+  /**
+   * Puts the details from the fueling in question into the TextViews which are displayed on screen.
+   *
+   * @param layoutView the fragment's inflated layout
+   */
+  private void showFueling(View layoutView) {
     TextView tvVehicle = (TextView) layoutView.findViewById(R.id.fueling_detail_vehicle);
     tvVehicle.setText(Model_Vehicle.getVehicle(mFueling.getVehicleID()).getName());
 
@@ -99,8 +130,5 @@ public class Fragment_FuelingDetail extends Fragment {
 
     TextView tvGPS = (TextView) layoutView.findViewById(R.id.fueling_detail_coordinates);
     tvGPS.setText(mFueling.getGeoURI());
-
-
-    return layoutView;
   }
 }
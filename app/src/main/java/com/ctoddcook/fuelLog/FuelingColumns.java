@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Fills held column by column, in parallel primitive arrays, rather than as one Model_Fueling
+ * each. A Model_Fueling costs a Date, a String and its DataHolder state as well as its fields;
+ * here a fill is a few ints, longs and floats, and each distinct location is held once, in a
+ * dictionary, with each fill keeping only its index.
+ * <p/>
+ * The averages, charts and the list can read a fill's values by row, or take span totals, without
+ * creating an object per fill. As a FuelingPageSource.PageLoader, it builds Model_Fueling
+ * instances only for the rows on a page being displayed.
+ * <p/>
+ * Rows must be added newest first, by date of fill and then ID, as DatabaseHelper reads them
+ * (see DatabaseHelper.fetchFuelingColumns()). A store is filled on one thread, then only read;
+ * after fills are added, changed or removed, read a new one.
+ */
+class FuelingColumns implements FuelingPageSource.PageLoader {
+  private static final int DEFAULT_CAPACITY = 64;
+  private static final int NO_LOCATION = -1;
+
+  // Rough heap sizes, for estimateBytes(): the store itself with its 11 arrays' headers, each
+  // row's share of the arrays, and each location's String, char array and dictionary entries
+  private static final int STORE_BYTES = 300;
+  private static final int ROW_BYTES = 3 * 4 + 2 * 8 + 6 * 4;
+  private static final int LOCATION_BYTES = 100;
+
+  // The length of the array returned by getBucketTotals()
+  static final int BUCKET_TOTALS_SIZE =
+      (Model_Fueling.SPAN_ALL_TIME + 1) * SpanAggregate.TOTALS_SIZE;
+
+  private int mSize = 0;
+  private int mIDs[];
+  private int mVehicleIDs[];
+  private long mDates[];
+  private float mDistances[];
+  private float mVolumes[];
+  private float mPricesPaid[];
+  private float mOdometers[];
+  private int mLocations[];
+  private float mLatitudes[];
+  private float mLongitudes[];
+  private long mLastUpdated[];
+
+  private final ArrayList<String> mLocationNames = new ArrayList<>();
+  private final HashMap<String, Integer> mLocationIndexes = new HashMap<>();
+
+  /**
+   * Constructor for a store with room for a few fills; it grows as they are added.
+   */
+  FuelingColumns() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity the number of fills to make room for, such as a count from the database
+   */
+  FuelingColumns(int capacity) {
+    capacity = Math.max(1, capacity);
+    mIDs = new int[capacity];
+    mVehicleIDs = new int[capacity];
+    mDates = new long[capacity];
+    mDistances = new float[capacity];
+    mVolumes = new float[capacity];
+    mPricesPaid = new float[capacity];
+    mOdometers = new float[capacity];
+    mLocations = new int[capacity];
+    mLatitudes = new float[capacity];
+    mLongitudes = new float[capacity];
+    mLastUpdated = new long[capacity];
+  }
+
+  /**
+   * Adds a fill after those already added.
+   *
+   * @return the row the fill was added at
+   * @throws IllegalArgumentException if the fill is newer than the one added before it
+   */
+  int add(int fuelingID, int vehicleID, long dateOfFill, float distance, float volume,
+          float pricePaid, float odometer, String location, float latitude, float longitude,
+          long lastUpdated) throws IllegalArgumentException {
+    if (mSize > 0 && (dateOfFill > mDates[mSize - 1] ||
+        (dateOfFill == mDates[mSize - 1] && fuelingID > mIDs[mSize - 1])))
+      throw new IllegalArgumentException("Fills must be added newest first");
+
+    if (mSize == mIDs.length)
+      resize(mSize * 2);
+
+    int row = mSize++;
+    mIDs[row] = fuelingID;
+    mVehicleIDs[row] = vehicleID;
+    mDates[row] = dateOfFill;
+    mDistances[row] = distance;
+    mVolumes[row] = volume;
+    mPricesPaid[row] = pricePaid;
+    mOdometers[row] = odometer;
+    mLocations[row] = getLocationIndex(location);
+    mLatitudes[row] = latitude;
+    mLongitudes[row] = longitude;
+    mLastUpdated[row] = lastUpdated;
+
+    return row;
+  }
+
+  /**
+   * Adds a copy of another store's row after those already added. The location String is
+   * shared with the other store.
+   *
+   * @return the row the fill was added at
+   * @throws IllegalArgumentException if the fill is newer than the one added before it
+   */
+  int add(FuelingColumns from, int row) throws IllegalArgumentException {
+    from.checkRow(row);
+    return add(from.mIDs[row], from.mVehicleIDs[row], from.mDates[row], from.mDistances[row],
+        from.mVolumes[row], from.mPricesPaid[row], from.mOdometers[row], from.getLocation(row),
+        from.mLatitudes[row], from.mLongitudes[row], from.mLastUpdated[row]);
+  }
+
+  /**
+   * Adds a fill's values after those already added.
+   *
+   * @return the row the fill was added at
+   * @throws IllegalArgumentException if the fill is newer than the one added before it
+   */
+  int add(Model_Fueling fd) throws IllegalArgumentException {
+    return add(fd.getID(), fd.getVehicleID(), fd.getDateOfFill().getTime(), fd.getDistance(),
+        fd.getVolume(), fd.getPricePaid(), fd.getOdometer(), fd.getLocation(), fd.getLatitude(),
+        fd.getLongitude(), fd.getLastUpdated().getTime());
+  }
+
+  /**
+   * Splits a mixed store, such as the one returned by DatabaseHelper.fetchFuelingColumns(0),
+   * into one store per vehicle, each still newest first.
+   *
+   * @param fills the fills to split
+   * @return a map of vehicle ID to that vehicle's fills
+   */
+  static HashMap<Integer, FuelingColumns> byVehicle(FuelingColumns fills) {
+    HashMap<Integer, int[]> counts = new HashMap<>();
+    for (int row = 0; row < fills.mSize; row++) {
+      int count[] = counts.get(fills.mVehicleIDs[row]);
+      if (count == null) {
+        count = new int[1];
+        counts.put(fills.mVehicleIDs[row], count);
+      }
+      count[0]++;
+    }
+
+    HashMap<Integer, FuelingColumns> stores = new HashMap<>(counts.size() * 2);
+    for (Integer vehicleID : counts.keySet())
+      stores.put(vehicleID, new FuelingColumns(counts.get(vehicleID)[0]));
+
+    for (int row = 0; row < fills.mSize; row++)
+      stores.get(fills.mVehicleIDs[row]).add(fills, row);
+
+    return stores;
+  }
+
+  /*
+   * Returns a location's index in the dictionary, adding it if it's new.
+   */
+  private int getLocationIndex(String location) {
+    if (location == null)
+      return NO_LOCATION;
+
+    Integer index = mLocationIndexes.get(location);
+    if (index == null) {
+      index = mLocationNames.size();
+      mLocationNames.add(location);
+      mLocationIndexes.put(location, index);
+    }
+
+    return index;
+  }
+
+  /**
+   * Releases the room left over once every fill has been added.
+   */
+  void trimToSize() {
+    if (mSize < mIDs.length)
+      resize(Math.max(1, mSize));
+  }
+
+  private void resize(int capacity) {
+    mIDs = Arrays.copyOf(mIDs, capacity);
+    mVehicleIDs = Arrays.copyOf(mVehicleIDs, capacity);
+    mDates = Arrays.copyOf(mDates, capacity);
+    mDistances = Arrays.copyOf(mDistances, capacity);
+    mVolumes = Arrays.copyOf(mVolumes, capacity);
+    mPricesPaid = Arrays.copyOf(mPricesPaid, capacity);
+    mOdometers = Arrays.copyOf(mOdometers, capacity);
+    mLocations = Arrays.copyOf(mLocations, capacity);
+    mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+    mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+    mLastUpdated = Arrays.copyOf(mLastUpdated, capacity);
+  }
+
+  /**
+   * @return the number of fills held
+   */
+  int size() {
+    return mSize;
+  }
+
+  /**
+   * @return the number of distinct locations among the fills
+   */
+  int getLocationCount() {
+    return mLocationNames.size();
+  }
+
+  /**
+   * Estimates the heap taken by the store, with its arrays at their current capacity, for
+   * VehicleDatasetCache to size itself by.
+   *
+   * @return the estimated size, in bytes
+   */
+  long estimateBytes() {
+    long bytes = STORE_BYTES + (long) mIDs.length * ROW_BYTES;
+    for (String each : mLocationNames)
+      bytes += LOCATION_BYTES + 2L * each.length();
+
+    return bytes;
+  }
+
+  /**
+   * Estimates the heap a store of a number of fills would take, trimmed to size, before its
+   * locations are known: for deciding whether to read them at all.
+   *
+   * @param fills the number of fills
+   * @return the estimated size, in bytes
+   */
+  static long estimateBytes(int fills) {
+    return STORE_BYTES + (long) Math.max(1, fills) * ROW_BYTES;
+  }
+
+  /**
+   * @return true if a fill with the ID is held
+   */
+  boolean containsID(int fuelingID) {
+    for (int row = 0; row < mSize; row++) {
+      if (mIDs[row] == fuelingID)
+        return true;
+    }
+
+    return false;
+  }
+
+  int getID(int row) {
+    return mIDs[checkRow(row)];
+  }
+
+  int getVehicleID(int row) {
+    return mVehicleIDs[checkRow(row)];
+  }
+
+  /**
+   * @return the date of fill, in millis
+   */
+  long getDateOfFill(int row) {
+    return mDates[checkRow(row)];
+  }
+
+  float getDistance(int row) {
+    return mDistances[checkRow(row)];
+  }
+
+  float getVolume(int row) {
+    return mVolumes[checkRow(row)];
+  }
+
+  float getPricePaid(int row) {
+    return mPricesPaid[checkRow(row)];
+  }
+
+  float getOdometer(int row) {
+    return mOdometers[checkRow(row)];
+  }
+
+  /**
+   * @return the location, the same String for every fill at that location, or null
+   */
+  String getLocation(int row) {
+    int index = mLocations[checkRow(row)];
+    return index == NO_LOCATION ? null : mLocationNames.get(index);
+  }
+
+  float getLatitude(int row) {
+    return mLatitudes[checkRow(row)];
+  }
+
+  float getLongitude(int row) {
+    return mLongitudes[checkRow(row)];
+  }
+
+  /**
+   * @return the time the fill was last updated, in millis
+   */
+  long getLastUpdated(int row) {
+    return mLastUpdated[checkRow(row)];
+  }
+
+  private int checkRow(int row) {
+    if (row < 0 || row >= mSize)
+      throw new IndexOutOfBoundsException("Row " + row + " of " + mSize);
+    return row;
+  }
+
+  /**
+   * Builds a Model_Fueling for one row, for a screen which needs the whole fill, such as the
+   * edit screen.
+   *
+   * @param row the row
+   * @return a new instance
+   */
+  Model_Fueling toFueling(int row) {
+    checkRow(row);
+    return new Model_Fueling(mIDs[row], mVehicleIDs[row], new Date(mDates[row]),
+        mDistances[row], mVolumes[row], mPricesPaid[row], mOdometers[row], getLocation(row),
+        mLatitudes[row], mLongitudes[row], new Date(mLastUpdated[row]));
+  }
+
+  /**
+   * Totals the fills by span, as DatabaseHelper.fetchSpanAggregates() does, in one pass over the
+   * columns. The 3-month, 6-month and one-year cutoffs are measured back from a given time.
+   *
+   * @param now   the time the spans are measured back from
+   * @param spans any of Model_Fueling.SPAN_3_MONTHS, SPAN_6_MONTHS, SPAN_ONE_YEAR and
+   *              SPAN_ALL_TIME
+   * @return the totals for each span requested, in the order requested
+   * @throws IllegalArgumentException if a span is not one of the Model_Fueling.SPAN_ constants
+   */
+  SpanAggregate[] getSpanAggregates(Date now, int... spans) throws IllegalArgumentException {
+    double bucketTotals[] = getBucketTotals(now);
+
+    // Each span is made up of its own bucket plus all of the more recent ones
+    SpanAggregate result[] = new SpanAggregate[spans.length];
+    for (int i = 0; i < spans.length; i++) {
+      if (spans[i] < Model_Fueling.SPAN_3_MONTHS || spans[i] > Model_Fueling.SPAN_ALL_TIME)
+        throw new IllegalArgumentException("Argument passed: " + spans[i] + " is not a valid span");
+
+      result[i] = new SpanAggregate();
+      for (int b = 0; b <= spans[i]; b++)
+        result[i].addTotals(bucketTotals, b * SpanAggregate.TOTALS_SIZE);
+    }
+
+    return result;
+  }
+
+  /**
+   * Totals the fills by bucket, in one pass: bucket SPAN_3_MONTHS holds the fills in the last 3
+   * months, SPAN_6_MONTHS those in the 3 months before that, and so on, with SPAN_ALL_TIME
+   * holding those older than a year. A span's totals are those of its bucket and every more
+   * recent one.
+   *
+   * @param now the time the spans are measured back from
+   * @return a block of SpanAggregate.TOTALS_SIZE totals for each bucket, in order
+   */
+  double[] getBucketTotals(Date now) {
+    double bucketTotals[] = new double[BUCKET_TOTALS_SIZE];
+    addBucketTotals(Model_Fueling.getSpanThresholds(now), bucketTotals, 0);
+
+    return bucketTotals;
+  }
+
+  /**
+   * Adds the fills' totals by bucket (see getBucketTotals()) to a block of an array, for
+   * callers which total many stores against the same cutoffs, such as FleetSummary.
+   *
+   * @param thresholds the cutoffs, from Model_Fueling.getSpanThresholds()
+   * @param totals     the array to add to
+   * @param offset     the index in the array of the first bucket's TOTAL_COUNT entry
+   */
+  void addBucketTotals(Date thresholds[], double totals[], int offset) {
+    long cutoffs[] = new long[Model_Fueling.SPAN_ALL_TIME];
+    for (int bucket = 0; bucket < cutoffs.length; bucket++)
+      cutoffs[bucket] = thresholds[bucket].getTime();
+
+    // Newest first, so each bucket's fills follow the last bucket's
+    int bucket = Model_Fueling.SPAN_3_MONTHS;
+    for (int row = 0; row < mSize; row++) {
+      while (bucket < Model_Fueling.SPAN_ALL_TIME && mDates[row] <= cutoffs[bucket])
+        bucket++;
+      SpanAggregate.accumulate(totals, offset + bucket * SpanAggregate.TOTALS_SIZE,
+          mDistances[row], mVolumes[row], mPricesPaid[row], 1);
+    }
+  }
+
+  /**
+   * Counts the fills dated after a time, by binary search. As the rows are newest first, they
+   * are the rows before the one returned: the rows a span with that cutoff holds.
+   *
+   * @param cutoff the time, in millis
+   * @return the number of fills dated after it
+   */
+  int countNewerThan(long cutoff) {
+    int low = 0;
+    int high = mSize;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (mDates[mid] > cutoff)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return low;
+  }
+
+  /**
+   * Adds a range of rows' values to a block of totals (sign = 1), or subtracts them
+   * (sign = -1), as when fills enter or leave a span.
+   *
+   * @param fromRow the first row, inclusive
+   * @param toRow   the last row, exclusive
+   * @param totals  the array holding the totals
+   * @param offset  the index in the array of the TOTAL_COUNT entry
+   * @param sign    1 to add, -1 to subtract
+   */
+  void accumulateRows(int fromRow, int toRow, double totals[], int offset, int sign) {
+    for (int row = fromRow; row < toRow; row++)
+      SpanAggregate.accumulate(totals, offset, mDistances[row], mVolumes[row], mPricesPaid[row],
+          sign);
+  }
+
+  /**
+   * Finds the first row after a key in newest-first order: the first fill older than a date,
+   * or with the same date and a lower ID.
+   *
+   * @return the row, or size() if every fill comes before the key
+   */
+  int findRowAfter(long beforeDate, int beforeID) {
+    int low = 0;
+    int high = mSize;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (mDates[mid] > beforeDate || (mDates[mid] == beforeDate && mIDs[mid] >= beforeID))
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return low;
+  }
+
+  /**
+   * Builds the fills for one page, from the rows after the key.
+   *
+   * @see FuelingPageSource.PageLoader#loadPage(long, int, int)
+   */
+  @Override
+  public ArrayList<Model_Fueling> loadPage(long beforeDate, int beforeID, int limit) {
+    int first = findRowAfter(beforeDate, beforeID);
+    int end = (int) Math.min((long) first + limit, mSize);
+    ArrayList<Model_Fueling> page = new ArrayList<>(Math.max(0, end - first));
+
+    for (int row = first; row < end; row++)
+      page.add(toFueling(row));
+
+    return page;
+  }
+
+  /**
+   * @return a FuelingPageSource over these fills, for the list and the detail pager
+   */
+  FuelingPageSource toPageSource() {
+    return new FuelingPageSource(mSize, this);
+  }
+}
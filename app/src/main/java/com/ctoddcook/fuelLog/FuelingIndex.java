@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * A read-only index over one vehicle's fills which answers total and average queries for any
+ * date range in O(log n).
+ * <p/>
+ * Fill dates are held in ascending order in a long[], alongside running (prefix) sums of the
+ * SpanAggregate totals: block i holds the totals of the first i fills. The totals between two
+ * dates are the difference of the blocks found by binary-searching the two dates.
+ * <p/>
+ * An index is a snapshot. If fills are added, changed or removed afterwards, build a new one;
+ * Model_Fueling and FuelingRepository do this automatically for the fills they hold.
+ */
+class FuelingIndex {
+  private final int mVehicleID;
+  private final long mDates[];
+  private final double mPrefixSums[];
+
+  /**
+   * Builds an index over the fills for one vehicle.
+   *
+   * @param vehicleID the vehicle to index, or 0 to index every fill provided
+   * @param fills     the fills to choose from, in any order
+   */
+  FuelingIndex(int vehicleID, Collection<Model_Fueling> fills) {
+    ArrayList<Model_Fueling> sorted = new ArrayList<>(fills.size());
+    for (Model_Fueling each : fills) {
+      if (each.getDateOfFill() != null && (vehicleID == 0 || each.getVehicleID() == vehicleID))
+        sorted.add(each);
+    }
+
+    Collections.sort(sorted, new Comparator<Model_Fueling>() {
+      @Override
+      public int compare(Model_Fueling lhs, Model_Fueling rhs) {
+        return lhs.getDateOfFill().compareTo(rhs.getDateOfFill());
+      }
+    });
+
+    mVehicleID = vehicleID;
+    mDates = new long[sorted.size()];
+    mPrefixSums = new double[(sorted.size() + 1) * SpanAggregate.TOTALS_SIZE];
+
+    int offset = 0;
+    for (int i = 0; i < mDates.length; i++) {
+      Model_Fueling f = sorted.get(i);
+      int next = offset + SpanAggregate.TOTALS_SIZE;
+
+      mDates[i] = f.getDateOfFill().getTime();
+      System.arraycopy(mPrefixSums, offset, mPrefixSums, next, SpanAggregate.TOTALS_SIZE);
+      SpanAggregate.accumulate(mPrefixSums, next, f.getDistance(), f.getVolume(),
+          f.getPricePaid(), 1);
+
+      offset = next;
+    }
+  }
+
+  /**
+   * Builds an index over the fills in a FuelingColumns store, without a Model_Fueling for each.
+   *
+   * @param vehicleID the vehicle the fills belong to, or 0 if they are of every vehicle
+   * @param columns   the fills
+   */
+  FuelingIndex(int vehicleID, FuelingColumns columns) {
+    int count = columns.size();
+
+    mVehicleID = vehicleID;
+    mDates = new long[count];
+    mPrefixSums = new double[(count + 1) * SpanAggregate.TOTALS_SIZE];
+
+    // The store is newest first, so read it from the end
+    int offset = 0;
+    for (int i = 0; i < count; i++) {
+      int row = count - 1 - i;
+      int next = offset + SpanAggregate.TOTALS_SIZE;
+
+      mDates[i] = columns.getDateOfFill(row);
+      System.arraycopy(mPrefixSums, offset, mPrefixSums, next, SpanAggregate.TOTALS_SIZE);
+      SpanAggregate.accumulate(mPrefixSums, next, columns.getDistance(row),
+          columns.getVolume(row), columns.getPricePaid(row), 1);
+
+      offset = next;
+    }
+  }
+
+  /**
+   * Builds one index per vehicle from a mixed list of fills, such as the fills of several
+   * vehicles read together.
+   *
+   * @param fills the fills to index
+   * @return a map of vehicle ID to the index of that vehicle's fills
+   */
+  static HashMap<Integer, FuelingIndex> byVehicle(Collection<Model_Fueling> fills) {
+    HashMap<Integer, ArrayList<Model_Fueling>> fillsByVehicle = new HashMap<>();
+    for (Model_Fueling each : fills) {
+      ArrayList<Model_Fueling> list = fillsByVehicle.get(each.getVehicleID());
+      if (list == null) {
+        list = new ArrayList<>();
+        fillsByVehicle.put(each.getVehicleID(), list);
+      }
+      list.add(each);
+    }
+
+    HashMap<Integer, FuelingIndex> indexes = new HashMap<>(fillsByVehicle.size() * 2);
+    for (Integer vehicleID : fillsByVehicle.keySet())
+      indexes.put(vehicleID, new FuelingIndex(vehicleID, fillsByVehicle.get(vehicleID)));
+
+    return indexes;
+  }
+
+  /**
+   * Returns the totals for the fills dated on or after one date and before another, e.g. from
+   * the first of one month up to (but not including) the first of the next. The averages and
+   * sums can be read from the result.
+   *
+   * @param from the start of the range, inclusive
+   * @param to   the end of the range, exclusive
+   * @return the totals for the fills in the range; empty if to is not after from
+   */
+  SpanAggregate getTotalsBetween(Date from, Date to) {
+    SpanAggregate result = new SpanAggregate();
+    int first = indexOfFirstNotBefore(from.getTime());
+    int end = indexOfFirstNotBefore(to.getTime());
+
+    if (end > first)
+      result.setDifference(mPrefixSums, first * SpanAggregate.TOTALS_SIZE,
+          end * SpanAggregate.TOTALS_SIZE);
+
+    return result;
+  }
+
+  /**
+   * Returns the number of fills dated on or after one date and before another.
+   *
+   * @param from the start of the range, inclusive
+   * @param to   the end of the range, exclusive
+   * @return the number of fills in the range
+   */
+  int getCountBetween(Date from, Date to) {
+    return Math.max(0, indexOfFirstNotBefore(to.getTime()) - indexOfFirstNotBefore(from.getTime()));
+  }
+
+  /**
+   * @return the vehicle this index covers, or 0 if it covers every fill it was given
+   */
+  int getVehicleID() {
+    return mVehicleID;
+  }
+
+  /**
+   * @return the number of fills in the index
+   */
+  int size() {
+    return mDates.length;
+  }
+
+  /**
+   * Binary search of mDates.
+   *
+   * @param millis the date to search for
+   * @return the index of the first fill dated on or after the date, or size() if there is none
+   */
+  private int indexOfFirstNotBefore(long millis) {
+    int low = 0;
+    int high = mDates.length;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (mDates[mid] < millis)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return low;
+  }
+}
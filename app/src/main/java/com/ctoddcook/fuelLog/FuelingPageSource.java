@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A read-only, newest-first view of a vehicle's fills, read from the database a page at a time
+ * as positions are asked for. Row_FuelingDetails and Pager_Fueling display from this instead of
+ * from a list of every fill, so memory use does not grow with the length of the history and the
+ * first rows can be shown as soon as the first page is read.
+ * <p/>
+ * Pages are read with keyset pagination: each page is asked for as "the next N fills older than
+ * the last fill on the previous page", ordered by date of fill and then ID, both descending.
+ * This needs only the date and ID of the last fill on each page to be remembered, and reading a
+ * page costs the same no matter how deep into the history it is. Only the most recently used
+ * pages are kept; when a position near the end of a page is asked for, the next page is read
+ * ahead of the scroll, on a background thread if a read-ahead Executor has been set.
+ * <p/>
+ * The number of fills is fixed when the source is created. After fills are added, changed or
+ * removed, create a new source.
+ */
+class FuelingPageSource {
+  static final int DEFAULT_PAGE_SIZE = 50;
+  static final int DEFAULT_MAX_PAGES = 6;
+
+  /**
+   * Reads one page of fills. DatabaseHelper.fetchFuelingPages() supplies one that queries the
+   * fueling table.
+   */
+  interface PageLoader {
+    /**
+     * Returns up to limit fills which come after the given key in newest-first order, i.e.
+     * which are older than beforeDate, or have the same date and a lower ID than beforeID.
+     *
+     * @param beforeDate the date of fill (in millis) of the last fill on the previous page, or
+     *                   Long.MAX_VALUE for the first page
+     * @param beforeID   the ID of the last fill on the previous page, or Integer.MAX_VALUE for
+     *                   the first page
+     * @param limit      the maximum number of fills to return
+     * @return the fills, newest first
+     */
+    ArrayList<Model_Fueling> loadPage(long beforeDate, int beforeID, int limit);
+  }
+
+  private static FuelingPageSource sCurrent = null;
+
+  private final PageLoader mLoader;
+  private final int mCount;
+  private final int mPageSize;
+  private final int mReadAhead;
+  private final LinkedHashMap<Integer, ArrayList<Model_Fueling>> mPages;
+  private final HashSet<Integer> mPagesReadingAhead = new HashSet<>();
+  private Executor mReadAheadExecutor = null;
+
+  // The key (date of fill and ID) of the last fill on each page read so far
+  private long mPageEndDates[] = new long[16];
+  private int mPageEndIDs[] = new int[16];
+  private int mPageEndCount = 0;
+  private int mPagesLoaded = 0;
+
+  /**
+   * Constructor using the default page size and number of pages kept in memory.
+   *
+   * @param count  the number of fills the loader can provide
+   * @param loader the source of the pages
+   */
+  FuelingPageSource(int count, PageLoader loader) {
+    this(count, loader, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param count     the number of fills the loader can provide
+   * @param loader    the source of the pages
+   * @param pageSize  the number of fills read at a time
+   * @param maxPages  the number of pages kept in memory; at least 2, so the page being read
+   *                  ahead does not push out the page being displayed
+   * @throws IllegalArgumentException if the page size or maximum pages are too small
+   */
+  FuelingPageSource(int count, PageLoader loader, int pageSize, final int maxPages)
+      throws IllegalArgumentException {
+    if (pageSize < 1 || maxPages < 2)
+      throw new IllegalArgumentException("Page size must be at least 1 and max pages at least 2");
+
+    mLoader = loader;
+    mCount = count;
+    mPageSize = pageSize;
+    mReadAhead = Math.max(1, pageSize / 5);
+    mPages = new LinkedHashMap<Integer, ArrayList<Model_Fueling>>(maxPages * 2, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, ArrayList<Model_Fueling>> eldest) {
+        return size() > maxPages;
+      }
+    };
+  }
+
+  /**
+   * Sets an Executor on which pages are read ahead of the scroll, so that the thread asking for
+   * positions (normally the UI thread) only reads a page itself if it gets there first.
+   *
+   * @param executor the Executor to read ahead on, or null to read ahead in get()
+   */
+  synchronized void setReadAheadExecutor(Executor executor) {
+    mReadAheadExecutor = executor;
+  }
+
+  /**
+   * Sets the source the main screen is currently displaying, so that Activity_DetailFrame can
+   * page through the same fills.
+   *
+   * @param source the source being displayed
+   */
+  static void setCurrent(FuelingPageSource source) {
+    sCurrent = source;
+  }
+
+  /**
+   * @return the source the main screen is currently displaying, or null if there is none
+   */
+  static FuelingPageSource getCurrent() {
+    return sCurrent;
+  }
+
+  /**
+   * @return the number of fills in the source
+   */
+  int getCount() {
+    return mCount;
+  }
+
+  /**
+   * Returns the fill at a position, reading its page if it is not already in memory. If the
+   * position is near the end of its page, the following page is read as well.
+   *
+   * @param position the position of the fill, newest first
+   * @return the fill, or null if it was removed from the database after the source was created
+   * @throws IndexOutOfBoundsException if the position is not between 0 and getCount() - 1
+   */
+  synchronized Model_Fueling get(int position) throws IndexOutOfBoundsException {
+    if (position < 0 || position >= mCount)
+      throw new IndexOutOfBoundsException("Position " + position + " is not between 0 and " +
+          (mCount - 1));
+
+    int page = position / mPageSize;
+    int offset = position % mPageSize;
+    ArrayList<Model_Fueling> rows = getPage(page);
+
+    if (offset >= mPageSize - mReadAhead && (page + 1) * mPageSize < mCount)
+      readAhead(page + 1);
+
+    return (offset < rows.size() ? rows.get(offset) : null);
+  }
+
+  /**
+   * @return the number of pages currently held in memory
+   */
+  synchronized int getCachedPageCount() {
+    return mPages.size();
+  }
+
+  /**
+   * @return the number of times a page has been read from the loader
+   */
+  synchronized int getPagesLoaded() {
+    return mPagesLoaded;
+  }
+
+  /**
+   * Makes sure the page after the one being displayed is in memory, reading it in the background
+   * if there is a read-ahead Executor. The page before it has just been read, so its key is known.
+   */
+  private void readAhead(final int page) {
+    if (mReadAheadExecutor == null) {
+      getPage(page);
+      return;
+    }
+
+    if (mPages.containsKey(page) || mPagesReadingAhead.contains(page) || page > mPageEndCount)
+      return;
+
+    final long beforeDate = mPageEndDates[page - 1];
+    final int beforeID = mPageEndIDs[page - 1];
+    mPagesReadingAhead.add(page);
+
+    mReadAheadExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        ArrayList<Model_Fueling> rows = mLoader.loadPage(beforeDate, beforeID, mPageSize);
+        synchronized (FuelingPageSource.this) {
+          mPagesReadingAhead.remove(page);
+          if (!mPages.containsKey(page))
+            addPage(page, rows);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns a page, from memory if possible. Reading a page requires the key from the end of the
+   * page before it, so if pages between the furthest one read so far and this one have never
+   * been read, they are read first (and will likely drop out of memory again).
+   */
+  private ArrayList<Model_Fueling> getPage(int page) {
+    ArrayList<Model_Fueling> rows = mPages.get(page);
+    if (rows != null)
+      return rows;
+
+    while (mPageEndCount < page) {
+      int before = mPageEndCount;
+      loadPage(mPageEndCount);
+      if (mPageEndCount == before)      // ran out of fills early; they've been deleted
+        return new ArrayList<>();
+    }
+
+    return loadPage(page);
+  }
+
+  /**
+   * Reads a page from the loader on the calling thread.
+   */
+  private ArrayList<Model_Fueling> loadPage(int page) {
+    long beforeDate = (page == 0 ? Long.MAX_VALUE : mPageEndDates[page - 1]);
+    int beforeID = (page == 0 ? Integer.MAX_VALUE : mPageEndIDs[page - 1]);
+
+    ArrayList<Model_Fueling> rows = mLoader.loadPage(beforeDate, beforeID, mPageSize);
+    addPage(page, rows);
+
+    return rows;
+  }
+
+  /**
+   * Keeps a page which has been read, and notes the key of its last fill.
+   */
+  private void addPage(int page, ArrayList<Model_Fueling> rows) {
+    mPagesLoaded++;
+    mPages.put(page, rows);
+
+    if (page == mPageEndCount && !rows.isEmpty()) {
+      if (mPageEndCount == mPageEndDates.length) {
+        mPageEndDates = Arrays.copyOf(mPageEndDates, mPageEndCount * 2);
+        mPageEndIDs = Arrays.copyOf(mPageEndIDs, mPageEndCount * 2);
+      }
+
+      Model_Fueling last = rows.get(rows.size() - 1);
+      mPageEndDates[mPageEndCount] = last.getDateOfFill().getTime();
+      mPageEndIDs[mPageEndCount] = last.getID();
+      mPageEndCount++;
+    }
+  }
+}
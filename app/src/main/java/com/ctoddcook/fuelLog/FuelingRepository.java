@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * One vehicle's fills, with the indexes and span totals built over them, held as an immutable
+ * Snapshot which is replaced whole whenever the fills change. Any number of repositories can be
+ * in memory at once, each read from any thread.
+ * <p/>
+ * Readers take the current snapshot with getSnapshot(), which is a single volatile read and
+ * never locks. A snapshot stays the same for as long as it is held, whatever is written to the
+ * repository after. Writers (put(), remove(), advanceSpansTo() and replace()) are serialized on
+ * the repository. Each builds the next snapshot from the current one, copy-on-write, on its own
+ * thread (normally AsyncDatabaseHelper's write or reader threads, never the UI thread), then
+ * publishes it by swapping the reference. A write costs O(n) in the vehicle's fills; reads cost
+ * nothing extra.
+ * <p/>
+ * Each snapshot keeps running totals for every span, and for each dated span the number of
+ * (newest first) rows it holds. Moving the spans on to a later time with advanceSpansTo() finds
+ * each span's new end by binary search and subtracts only the fills which have since left it,
+ * so it costs O(log n) plus the number of fills expired, and can be done on every read.
+ * <p/>
+ * The repository only holds what it is given: the database is written first, through
+ * DatabaseHelper, which then passes the write on (see VehicleDatasetCache).
+ */
+class FuelingRepository {
+  private final int mVehicleID;
+  private volatile Snapshot mSnapshot;
+
+  /**
+   * An immutable view of a vehicle's fills, newest first, as of one write to the repository,
+   * with the span totals measured back from one time.
+   */
+  static final class Snapshot {
+    // Estimated heap per fill of the ID index and the range index, for getBytes()
+    private static final int INDEX_BYTES_PER_FILL = 2 * 4 + 8 + SpanAggregate.TOTALS_SIZE * 8;
+
+    private final int mVehicleID;
+    private final FuelingColumns mColumns;
+    private final long mMeasuredAt;
+    private final int mSpanEnds[];          // the rows in each dated span, by SPAN_ constant
+    private final double mSpanTotals[];     // a block of totals for each span, by SPAN_ constant
+    private final int mSortedIDs[];         // the fills' IDs, ascending...
+    private final int mRowsByID[];          // ...and the row of each
+    private volatile FuelingIndex mRangeIndex = null;   // built on first use
+
+    /* A snapshot of new fills */
+    private Snapshot(int vehicleID, FuelingColumns columns, Date now) {
+      int count = columns.size();
+      long keys[] = new long[count];
+      for (int row = 0; row < count; row++)
+        keys[row] = ((long) columns.getID(row) << 32) | row;
+      Arrays.sort(keys);
+
+      mVehicleID = vehicleID;
+      mColumns = columns;
+      mMeasuredAt = now.getTime();
+      mSpanEnds = findSpanEnds(columns, now);
+      mSpanTotals = new double[FuelingColumns.BUCKET_TOTALS_SIZE];
+      mSortedIDs = new int[count];
+      mRowsByID = new int[count];
+      for (int i = 0; i < count; i++) {
+        mSortedIDs[i] = (int) (keys[i] >>> 32);
+        mRowsByID[i] = (int) keys[i];
+      }
+
+      // Each span holds the rows of the one before it, and those after them up to its own end
+      int from = 0;
+      for (int span = Model_Fueling.SPAN_3_MONTHS; span <= Model_Fueling.SPAN_ALL_TIME; span++) {
+        int offset = span * SpanAggregate.TOTALS_SIZE;
+        int to = (span < Model_Fueling.SPAN_ALL_TIME ? mSpanEnds[span] : count);
+        if (span > Model_Fueling.SPAN_3_MONTHS)
+          System.arraycopy(mSpanTotals, offset - SpanAggregate.TOTALS_SIZE, mSpanTotals, offset,
+              SpanAggregate.TOTALS_SIZE);
+        columns.accumulateRows(from, to, mSpanTotals, offset, 1);
+        from = to;
+      }
+    }
+
+    /*
+     * A snapshot of the same fills as another, with the spans measured back from a new time.
+     * Only the fills between each span's old end and its new one are subtracted (or, if the
+     * clock has gone back, added).
+     */
+    private Snapshot(Snapshot previous, Date now) {
+      mVehicleID = previous.mVehicleID;
+      mColumns = previous.mColumns;
+      mMeasuredAt = now.getTime();
+      mSpanEnds = findSpanEnds(mColumns, now);
+      mSpanTotals = previous.mSpanTotals.clone();
+      mSortedIDs = previous.mSortedIDs;
+      mRowsByID = previous.mRowsByID;
+      mRangeIndex = previous.mRangeIndex;
+
+      for (int span = Model_Fueling.SPAN_3_MONTHS; span < Model_Fueling.SPAN_ALL_TIME; span++) {
+        int offset = span * SpanAggregate.TOTALS_SIZE;
+        int oldEnd = previous.mSpanEnds[span];
+        int newEnd = mSpanEnds[span];
+        if (newEnd < oldEnd)
+          mColumns.accumulateRows(newEnd, oldEnd, mSpanTotals, offset, -1);
+        else if (newEnd > oldEnd)
+          mColumns.accumulateRows(oldEnd, newEnd, mSpanTotals, offset, 1);
+      }
+    }
+
+    /* Finds the number of rows in each dated span, measured back from a time */
+    private static int[] findSpanEnds(FuelingColumns columns, Date now) {
+      Date thresholds[] = Model_Fueling.getSpanThresholds(now);
+      int ends[] = new int[Model_Fueling.SPAN_ALL_TIME];
+      for (int span = Model_Fueling.SPAN_3_MONTHS; span < Model_Fueling.SPAN_ALL_TIME; span++)
+        ends[span] = columns.countNewerThan(thresholds[span].getTime());
+
+      return ends;
+    }
+
+    int getVehicleID() {
+      return mVehicleID;
+    }
+
+    /**
+     * @return the number of fills
+     */
+    int size() {
+      return mColumns.size();
+    }
+
+    /**
+     * @return the fills, newest first, which must not be added to
+     */
+    FuelingColumns getColumns() {
+      return mColumns;
+    }
+
+    /**
+     * @return the time the span totals were measured back from, in millis
+     */
+    long getMeasuredAt() {
+      return mMeasuredAt;
+    }
+
+    /**
+     * @return the estimated heap taken by the fills and their indexes, in bytes
+     */
+    long getBytes() {
+      return mColumns.estimateBytes() + (long) size() * INDEX_BYTES_PER_FILL;
+    }
+
+    /**
+     * @return the row of the fill with an ID, or -1 if there is none
+     */
+    int getRowOfID(int fuelingID) {
+      int i = Arrays.binarySearch(mSortedIDs, fuelingID);
+      return i < 0 ? -1 : mRowsByID[i];
+    }
+
+    /**
+     * Builds a Model_Fueling for a fill, for a screen which needs the whole fill.
+     *
+     * @return a new instance, or null if there is no fill with the ID
+     */
+    Model_Fueling getFueling(int fuelingID) {
+      int row = getRowOfID(fuelingID);
+      return row < 0 ? null : mColumns.toFueling(row);
+    }
+
+    /**
+     * Returns the totals for a span, measured back from getMeasuredAt().
+     *
+     * @param span Model_Fueling.SPAN_3_MONTHS, SPAN_6_MONTHS, SPAN_ONE_YEAR or SPAN_ALL_TIME
+     * @return new totals, which the caller may change
+     * @throws IllegalArgumentException if the span is not one of the Model_Fueling.SPAN_
+     *                                  constants
+     */
+    SpanAggregate getSpanAggregate(int span) throws IllegalArgumentException {
+      if (span < Model_Fueling.SPAN_3_MONTHS || span > Model_Fueling.SPAN_ALL_TIME)
+        throw new IllegalArgumentException("Argument passed: " + span + " is not a valid span");
+
+      SpanAggregate result = new SpanAggregate();
+      result.addTotals(mSpanTotals, span * SpanAggregate.TOTALS_SIZE);
+
+      return result;
+    }
+
+    /**
+     * Returns the totals for every span, indexed by the Model_Fueling.SPAN_ constants.
+     *
+     * @return new totals, which the caller may change
+     */
+    SpanAggregate[] getSpanAggregates() {
+      SpanAggregate result[] = new SpanAggregate[Model_Fueling.SPAN_ALL_TIME + 1];
+      for (int span = Model_Fueling.SPAN_3_MONTHS; span <= Model_Fueling.SPAN_ALL_TIME; span++)
+        result[span] = getSpanAggregate(span);
+
+      return result;
+    }
+
+    /**
+     * Returns the totals for the fills dated on or after one date and before another, in
+     * O(log n), from a FuelingIndex built the first time it is needed.
+     *
+     * @param from the start of the range, inclusive
+     * @param to   the end of the range, exclusive
+     * @return the totals for the fills in the range
+     * @see FuelingIndex#getTotalsBetween(Date, Date)
+     */
+    SpanAggregate getTotalsBetween(Date from, Date to) {
+      // Two threads may both build it; either index is the same, so either may be kept
+      FuelingIndex index = mRangeIndex;
+      if (index == null) {
+        index = new FuelingIndex(mVehicleID, mColumns);
+        mRangeIndex = index;
+      }
+
+      return index.getTotalsBetween(from, to);
+    }
+
+    /**
+     * @return a FuelingPageSource over the fills, for the list and the detail pager
+     */
+    FuelingPageSource toPageSource() {
+      return mColumns.toPageSource();
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param vehicleID the vehicle the fills belong to
+   * @param columns   the vehicle's fills, which must not be added to afterwards
+   * @param now       the time the spans are measured back from
+   */
+  FuelingRepository(int vehicleID, FuelingColumns columns, Date now) {
+    mVehicleID = vehicleID;
+    mSnapshot = new Snapshot(vehicleID, columns, now);
+  }
+
+  int getVehicleID() {
+    return mVehicleID;
+  }
+
+  /**
+   * Estimates the heap a repository of a number of fills would take, as Snapshot.getBytes()
+   * does but before the fills are read, so that a vehicle whose fills would not be cached need
+   * not be read whole.
+   *
+   * @param fills the number of fills
+   * @return the estimated size, in bytes
+   */
+  static long estimateBytes(int fills) {
+    return FuelingColumns.estimateBytes(fills) + (long) fills * Snapshot.INDEX_BYTES_PER_FILL;
+  }
+
+  /**
+   * Returns the current snapshot, without locking.
+   *
+   * @return the snapshot
+   */
+  Snapshot getSnapshot() {
+    return mSnapshot;
+  }
+
+  /**
+   * Replaces every fill, as when they have been read from the database again.
+   *
+   * @param columns the vehicle's fills, which must not be added to afterwards
+   * @param now     the time the spans are measured back from
+   * @return the new snapshot
+   */
+  synchronized Snapshot replace(FuelingColumns columns, Date now) {
+    return publish(new Snapshot(mVehicleID, columns, now));
+  }
+
+  /**
+   * Adds a fill which has been saved, or replaces the one with its ID. A fill which no longer
+   * belongs to this vehicle, or has been deleted, is removed instead.
+   *
+   * @param fd the fill, as saved to the database
+   * @return the new snapshot
+   * @throws IllegalArgumentException if the fill has not been saved, so has no ID
+   */
+  synchronized Snapshot put(Model_Fueling fd) throws IllegalArgumentException {
+    if (fd.getID() < 1)
+      throw new IllegalArgumentException("Cannot put a fueling which has not been saved");
+
+    if (fd.getVehicleID() != mVehicleID || fd.isDeleted())
+      return remove(fd.getID());
+
+    return publish(new Snapshot(mVehicleID, copyWith(mSnapshot.getColumns(), fd, fd.getID()),
+        new Date(mSnapshot.getMeasuredAt())));
+  }
+
+  /**
+   * Removes a fill, if it is held.
+   *
+   * @param fuelingID the fill's ID
+   * @return the new snapshot, or the current one if the fill was not held
+   */
+  synchronized Snapshot remove(int fuelingID) {
+    Snapshot current = mSnapshot;
+    if (current.getRowOfID(fuelingID) < 0)
+      return current;
+
+    return publish(new Snapshot(mVehicleID, copyWith(current.getColumns(), null, fuelingID),
+        new Date(current.getMeasuredAt())));
+  }
+
+  /**
+   * Measures the 3-month, 6-month and one-year spans back from a new time. Only the fills which
+   * have left a span since it was last measured are visited, and subtracted from its totals; the
+   * fills and their indexes are shared with the current snapshot.
+   *
+   * @param now the time the spans are measured back from
+   * @return the new snapshot
+   */
+  synchronized Snapshot advanceSpansTo(Date now) {
+    return publish(new Snapshot(mSnapshot, now));
+  }
+
+  private Snapshot publish(Snapshot next) {
+    mSnapshot = next;
+    return next;
+  }
+
+  /*
+   * Copies a store, leaving out the fill with one ID, and filing another fill (if not null) in
+   * its place by date and ID.
+   */
+  private static FuelingColumns copyWith(FuelingColumns from, Model_Fueling added,
+                                         int removedID) {
+    FuelingColumns to = new FuelingColumns(from.size() + 1);
+    long addedDate = (added != null ? added.getDateOfFill().getTime() : 0L);
+    boolean pending = (added != null);
+
+    for (int row = 0; row < from.size(); row++) {
+      if (from.getID(row) == removedID)
+        continue;
+
+      // Newest first, then by descending ID
+      if (pending && (addedDate > from.getDateOfFill(row) ||
+          (addedDate == from.getDateOfFill(row) && added.getID() > from.getID(row)))) {
+        to.add(added);
+        pending = false;
+      }
+      to.add(from, row);
+    }
+
+    if (pending)
+      to.add(added);
+
+    to.trimToSize();
+    return to;
+  }
+}
@@ -5,11 +5,8 @@
 
 package com.ctoddcook.FuelLog;
 
-import android.util.SparseArray;
-
 import com.ctoddcook.CamGenTools.DataHolder;
 
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -27,6 +24,10 @@ import static com.ctoddcook.CamGenTools.CTools.round;
  * (in the Activity_EditFueling class) to a city and state via location services--i.e., a
  * latitude and longitude will be retrieved and used to provide the user with a city and state;
  * after that the user might change that description.
+ * <p/>
+ * An instance is a single fill, to show, edit or save; it is not tracked anywhere once built.
+ * A vehicle's fills and their span totals are held by FuelingRepository, which can be read from
+ * any thread while it is written to.
  */
 class Model_Fueling extends DataHolder {
   public static final int SPAN_3_MONTHS = 0;
@@ -34,34 +35,10 @@ class Model_Fueling extends DataHolder {
   public static final int SPAN_ONE_YEAR = 2;
   public static final int SPAN_ALL_TIME = 3;
 
-  private static final Date DATE_THRESHOLDS[];
-
-  private static final ArrayList<Model_Fueling> sThreeMonthSpan = new ArrayList<>();
-  private static final ArrayList<Model_Fueling> sSixMonthSpan = new ArrayList<>();
-  private static final ArrayList<Model_Fueling> sOneYearSpan = new ArrayList<>();
-  private static final ArrayList<Model_Fueling> sLifetimeSpan = new ArrayList<>();
-  private static final SparseArray<Model_Fueling> sFuelingList = new SparseArray<>(200);
-
   private static final String GEO_PREFIX = "geo:";
   private static final String GEO_NOT_CAPTURED = "<not captured>";
   private static final int INITIAL_ID = -1;
 
-  static {
-    DATE_THRESHOLDS = new Date[3];
-
-    Calendar threeMonthsAgo = Calendar.getInstance();
-    threeMonthsAgo.add(Calendar.MONTH, -3);             // Calculate 3 months before today
-    DATE_THRESHOLDS[SPAN_3_MONTHS] = threeMonthsAgo.getTime();
-
-    Calendar sixMonthsAgo = Calendar.getInstance();
-    sixMonthsAgo.add(Calendar.MONTH, -6);              // Calculate 6 months before today
-    DATE_THRESHOLDS[SPAN_6_MONTHS] = sixMonthsAgo.getTime();
-
-    Calendar oneYearAgo = Calendar.getInstance();
-    oneYearAgo.add(Calendar.YEAR, -1);                  // Calculate one mYear before today
-    DATE_THRESHOLDS[SPAN_ONE_YEAR] = oneYearAgo.getTime();
-  }
-
   private int mFuelingID = INITIAL_ID;
   private int mVehicleID = 0;
   private Date mDateOfFill = null;
@@ -81,10 +58,6 @@ class Model_Fueling extends DataHolder {
 
   /**
    * Generic constructor. New object's state will be NEW. All other fields will be null/0/empty.
-   * <p/>
-   * Note this object will not be added to the static SparseArray, as it may have been created
-   * by the user selecting "Add", followed by the user canceling; we don't want to leave an
-   * empty object in the SparseArray.
    */
   public Model_Fueling() {
   }
@@ -124,341 +97,38 @@ class Model_Fueling extends DataHolder {
     mLastUpdated = lastUpdated;
 
     setCurrent();
-    adjustLists();
-  }
-
-
-
-    /*
-    Following methods pertain to adding and getting an instance to/from the static SparseArray.
-     */
-
-  /**
-   * Adds a Model_Fueling to the static SparseArray used to grab an instance by ID. (Does not add
-   * it to the list if it's ID has not yet been set--meaning it's a new object and not yet saved
-   * to the database. Also checks to see if the object is already in the list.)
-   *
-   * @param f the Model_Fueling object to add
-   */
-  private static void addToSparseArray(Model_Fueling f) {
-    if (f.mFuelingID != INITIAL_ID && sFuelingList.get(f.mFuelingID) == null)
-      sFuelingList.append(f.mFuelingID, f);
-  }
-
-  /**
-   * Retrieves a Model_Fueling instance by its ID.
-   *
-   * @param id The id of the Model_Fueling object desired
-   * @return The Model_Fueling object associated with the provided ID, or null if there is none.
-   */
-  public static Model_Fueling getFueling(int id) {
-    return sFuelingList.get(id);
-  }
-
-
-
-    /*
-    Following are methods which calculate average values over time spans.
-     */
-
-  /**
-   * Returns the appropriate ArrayList of Model_Fueling instances for the indicated time span
-   *
-   * @param span Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS, Model_Fueling.SPAN_ONE_YEAR or
-   *             Model_Fueling.SPAN_ALL_TIME
-   * @return an ArrayList of Model_Fueling instances
-   * @throws IllegalArgumentException if the argument provided does not match one of the required
-   *                                  constants.
-   */
-  private static ArrayList<Model_Fueling> getListForSpan(int span) throws IllegalArgumentException {
-    ArrayList<Model_Fueling> listForSpan;
-
-    switch (span) {
-      case SPAN_3_MONTHS:
-        listForSpan = sThreeMonthSpan;
-        break;
-      case SPAN_6_MONTHS:
-        listForSpan = sSixMonthSpan;
-        break;
-      case SPAN_ONE_YEAR:
-        listForSpan = sOneYearSpan;
-        break;
-      case SPAN_ALL_TIME:
-        listForSpan = sLifetimeSpan;
-        break;
-      default:
-        throw new IllegalArgumentException("span argument must be " + SPAN_3_MONTHS + ", "
-            + SPAN_6_MONTHS + ", " + SPAN_ONE_YEAR + " or " + SPAN_ALL_TIME + ".");
-    }
-
-    return listForSpan;
-  }
-
-  /**
-   * Calculates and returns the average (mean) distance for each fill in the indicated time span.
-   * Rounded to 1 decimal place.
-   *
-   * @param span Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS, Model_Fueling.SPAN_ONE_YEAR or
-   *             Model_Fueling.SPAN_ALL_TIME
-   * @return the average (mean) distance for the fills in the indicated time span.
-   */
-  public static float getAvgDistanceOverSpan(int span) {
-    ArrayList<Model_Fueling> fillsOverSpan;
-
-    fillsOverSpan = getListForSpan(span);
-
-    if (fillsOverSpan.isEmpty())
-      return 0.0f;
-
-    float totalDistance = 0.0f;
-
-    for (Model_Fueling each : fillsOverSpan)
-      totalDistance += each.mDistance;
-
-    return round(totalDistance / fillsOverSpan.size(), 1);
-  }
-
-  /**
-   * Calculates and returns the average (mean) volume for each fill in the indicated time span.
-   * Rounded to 1 decimal place.
-   *
-   * @param span Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS, Model_Fueling.SPAN_ONE_YEAR or
-   *             Model_Fueling.SPAN_ALL_TIME
-   * @return the average (mean) distance for the fills in the indicated time span.
-   */
-  public static float getAvgVolumeOverSpan(int span) {
-    ArrayList<Model_Fueling> fillsOverSpan;
-
-    fillsOverSpan = getListForSpan(span);
-
-    if (fillsOverSpan.isEmpty())
-      return 0.0f;
-
-    float totalVolume = 0.0f;
-
-    for (Model_Fueling each : fillsOverSpan)
-      totalVolume += each.mVolume;
-
-    return round(totalVolume / fillsOverSpan.size(), 3);
-  }
-
-  /**
-   * Calculates and returns the average (mean) Price Paid for each fill in the indicated time
-   * span. Rounded to 2 decimal places.
-   *
-   * @param span Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS, Model_Fueling.SPAN_ONE_YEAR or
-   *             Model_Fueling.SPAN_ALL_TIME
-   * @return the average (mean) price paid for the fills in the indicated time span.
-   */
-  public static float getAvgPricePaidOverSpan(int span) throws IllegalArgumentException {
-    ArrayList<Model_Fueling> fillsOverSpan;
-    int countOfNonZeroEntries = 0;
-
-    fillsOverSpan = getListForSpan(span);
-
-    if (fillsOverSpan.isEmpty())
-      return 0.0f;
-
-    float totalPricePaid = 0.0f;
-
-    for (Model_Fueling each : fillsOverSpan) {
-      if (each.mPricePaid > 0.0f) {
-        totalPricePaid += each.mPricePaid;
-        countOfNonZeroEntries++;
-      }
-    }
-
-    if (countOfNonZeroEntries == 0)
-      return 0.0f;
-
-    return round(totalPricePaid / countOfNonZeroEntries, 2);
-  }
-
-  /**
-   * Calculates and returns the average (mean) Price Paid per Unit (gallon) over the indicated
-   * time span. Rounded to 3 decimal places.
-   *
-   * @param span Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS, Model_Fueling.SPAN_ONE_YEAR or
-   *             Model_Fueling.SPAN_ALL_TIME
-   * @return the average (mean) price per unit over indicated time span.
-   */
-  public static float getAvgPricePerUnitOverSpan(int span) throws IllegalArgumentException {
-    ArrayList<Model_Fueling> fillsOverSpan;
-
-    fillsOverSpan = getListForSpan(span);
-
-    if (fillsOverSpan.isEmpty())
-      return 0.0f;
-
-    float totalPricePaid = 0.0f;
-    float totalVolume = 0.0f;
-
-    for (Model_Fueling each : fillsOverSpan) {
-      if (each.mPricePaid > 0.0f && each.mVolume > 0.0f) {
-        totalPricePaid += each.mPricePaid;
-        totalVolume += each.mVolume;
-      }
-    }
-
-    if (totalVolume == 0.0f)
-      return 0.0f;
-
-    return round(totalPricePaid / totalVolume, 3);
-  }
-
-  /**
-   * Calculates and returns the average (mean) Price Paid per Distance Unit (mile or kilometer)
-   * over the indicated time span. Rounded to 3 decimal places.
-   *
-   * @param span Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS, Model_Fueling.SPAN_ONE_YEAR or
-   *             Model_Fueling.SPAN_ALL_TIME
-   * @return the average (mean) price per distance unit over indicated time span.
-   */
-  public static float getAvgPricePerDistanceOverSpan(int span) throws IllegalArgumentException {
-    ArrayList<Model_Fueling> fillsOverSpan;
-
-    fillsOverSpan = getListForSpan(span);
-
-    if (fillsOverSpan.isEmpty())
-      return 0.0f;
-
-    float totalPricePaid = 0.0f;
-    float totalDistance = 0.0f;
-
-    for (Model_Fueling each : fillsOverSpan) {
-      if (each.mPricePaid > 0.0f && each.mDistance > 0.0f) {
-        totalPricePaid += each.mPricePaid;
-        totalDistance += each.mDistance;
-      }
-    }
-
-    if (totalDistance == 0.0f)
-      return 0.0f;
-
-    return round(totalPricePaid / totalDistance, 3);
-  }
-
-  /**
-   * Calculates and returns the average (mean) distance per volume (mpg) over the indicated
-   * time span. Rounded to 1 decimal place.
-   *
-   * @param span Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS or Model_Fueling.SPAN_ONE_YEAR
-   * @return the average (mean) distance per volume of fuel (mpg) over indicated time span.
-   */
-  public static float getAvgEfficiencyOverSpan(int span) throws IllegalArgumentException {
-    ArrayList<Model_Fueling> fillsOverSpan;
-
-    fillsOverSpan = getListForSpan(span);
-
-    if (fillsOverSpan.isEmpty())
-      return 0.0f;
-
-    float totalDistance = 0.0f;
-    float totalVolume = 0.0f;
-
-    for (Model_Fueling each : fillsOverSpan) {
-      totalDistance += each.mDistance;
-      totalVolume += each.mVolume;
-    }
-
-    if (totalVolume == 0.0f)
-      return 0.0f;
-
-    return round(totalDistance / totalVolume, 1);
   }
 
 
 
-
-
     /*
-    Following are methods which get row counts from the arrays containing Model_Fueling instances
-    in certain time spans.
+    Following are methods for the time spans the averages are taken over.
      */
 
   /**
-   * Provides the count of fills in the "last 3 months" list
-   *
-   * @return the size of the sThreeMonthSpan array
-   */
-  public static int getThreeMonthsRowCount() {
-    return sThreeMonthSpan.size();
-  }
-
-  /**
-   * Provides the count of fills in the "last 6 months" list
-   *
-   * @return the size of the sSixMonthSpan array
-   */
-  public static int getSixMonthsRowCount() {
-    return sSixMonthSpan.size();
-  }
-
-  /**
-   * Provides the count of fills in the "last mYear" list
-   *
-   * @return the size of the sOneYearSpan array
-   */
-  public static int getOneYearRowCount() {
-    return sOneYearSpan.size();
-  }
-
-  /**
-   * Returns the count of all fills in memory.
+   * Calculates the cutoff dates for the 3-month, 6-month and one-year spans, as of the date
+   * provided. A fill belongs to a span if its date is after that span's cutoff.
    *
-   * @return the size of the sLifetimeSpan array
+   * @param now the date the spans are measured back from
+   * @return an array of cutoff dates, indexed by SPAN_3_MONTHS, SPAN_6_MONTHS and SPAN_ONE_YEAR
    */
-  public static int getLifetimeRowCount() {
-    return sLifetimeSpan.size();
-  }
-
-
-
+  static Date[] getSpanThresholds(Date now) {
+    Date thresholds[] = new Date[SPAN_ALL_TIME];
+    Calendar cal = Calendar.getInstance();
 
+    cal.setTime(now);
+    cal.add(Calendar.MONTH, -3);              // Calculate 3 months before now
+    thresholds[SPAN_3_MONTHS] = cal.getTime();
 
-    /*
-    The next few methods make adjustments to the arrays containing Model_Fueling instances
-    in certain time spans.
-     */
-
-  /**
-   * Removes all Fill Data from the arrays (sThreeMonthSpan, sSixMonthSpan, sOneYearSpan)
-   * which are used for calculating averages over time.
-   */
-  public static void clearSpans() {
-    sThreeMonthSpan.clear();
-    sSixMonthSpan.clear();
-    sOneYearSpan.clear();
-    sLifetimeSpan.clear();
-  }
-
-  /**
-   * Removes all Fill Data from all the arrays, including those used for calculating averages
-   * over time (sThreeMonthSpan, sSixMonthSpan, sOneYearSpan) and the one used to hold
-   * all existing Fill Data objects (sLifetimeSpan).
-   */
-  public static void clearAll() {
-    clearSpans();
-    sLifetimeSpan.clear();
-  }
-
-  /**
-   * Removes the provided Model_Fueling instance from all ArrayLists
-   *
-   * @param fd The Model_Fueling instance to remove
-   */
-  public static void remove(Model_Fueling fd) {
-    if (sThreeMonthSpan.contains(fd))
-      sThreeMonthSpan.remove(fd);
-
-    if (sSixMonthSpan.contains(fd))
-      sSixMonthSpan.remove(fd);
+    cal.setTime(now);
+    cal.add(Calendar.MONTH, -6);              // Calculate 6 months before now
+    thresholds[SPAN_6_MONTHS] = cal.getTime();
 
-    if (sOneYearSpan.contains(fd))
-      sOneYearSpan.remove(fd);
+    cal.setTime(now);
+    cal.add(Calendar.YEAR, -1);               // Calculate one year before now
+    thresholds[SPAN_ONE_YEAR] = cal.getTime();
 
-    if (sLifetimeSpan.contains(fd))
-      sLifetimeSpan.remove(fd);
+    return thresholds;
   }
 
   /**
@@ -495,66 +165,6 @@ class Model_Fueling extends DataHolder {
     The next few methods calculate values for a specific instance of Model_Fueling
      */
 
-  /**
-   * Accessor to entire list of Fuelings
-   * @return list of all retrieved Fuelings
-   */
-  public static ArrayList<Model_Fueling> getFuelingList() {
-    return sLifetimeSpan;
-  }
-
-  /**
-   * Provides the number of Fuelings presently in memory (i.e., for the selected vehicle).
-   * @return The nubmer of fuelings in memory.
-   */
-  public static int getCount() {
-    return sLifetimeSpan.size();
-  }
-
-  /**
-   * This will add (or remove) the instance to (from) the static lists of fill records
-   * based on date. If the fill date (mDateOfFill) is within the last 3 or 6 months or
-   * last mYear, this instance will get added to at least one of those lists.
-   * <p/>
-   * Care is taken not to add the instance to a list if it is already there. Likewise, if the
-   * instance should NOT be in a list, it is removed from that list if it is found to be present.
-   */
-  private void adjustLists() throws IllegalStateException {
-    if (mDateOfFill == null)
-      throw new IllegalStateException("Field mDateOfFill must not be null when this method is called");
-
-    if (mDateOfFill.after(DATE_THRESHOLDS[SPAN_3_MONTHS])) {      // Should be in 3-month list?
-      if (!sThreeMonthSpan.contains(this))     //   Are we already there?
-        sThreeMonthSpan.add(this);           //     If not, add to the list
-    } else {                                    // Otherwise, we should NOT be in the list
-      if (sThreeMonthSpan.contains(this))      //   But are we there?
-        sThreeMonthSpan.remove(this);        //     If so, remove from the list
-    }
-
-    if (mDateOfFill.after(DATE_THRESHOLDS[SPAN_6_MONTHS])) {     // Should be in 6-month list?
-      if (!sSixMonthSpan.contains(this))    //   Are we already there?
-        sSixMonthSpan.add(this);          //     If not, add to the list
-    } else {                                    // Otherwise, we should NOT be in the list
-      if (sSixMonthSpan.contains(this))     //   But are we there?
-        sSixMonthSpan.remove(this);       //     If so, remove from the list
-    }
-
-    if (mDateOfFill.after(DATE_THRESHOLDS[SPAN_ONE_YEAR])) {     // Should be in one-mYear list?
-      if (!sOneYearSpan.contains(this))   //   Are we already there?
-        sOneYearSpan.add(this);         //     If not, add to the list
-    } else {                                    // Otherwise, we should NOT be in the list
-      if (sOneYearSpan.contains(this))    //   But are we there?
-        sOneYearSpan.remove(this);      //     If so, remove from the list
-    }
-
-    // Finally, regardless of date, add this to the list of all Model_Fueling instances as well as
-    // to the SparseArray list.
-    if (!sLifetimeSpan.contains(this))
-      sLifetimeSpan.add(this);
-
-    addToSparseArray(this);
-  }
-
   /**
    * Returns the price per unit (price per gallon or litre) for the instance, rounded to
    * 3 decimal places
@@ -611,10 +221,6 @@ class Model_Fueling extends DataHolder {
    * Setter for mFuelingID, the database prime key value of the row. This should only be called
    * when filling in the data retrieved from the database; i.e., this should not be used to
    * "update" the value but only to get the already existing value from the database.
-   * <p/>
-   * We add the instance to the SparseArray, because at the point the object is given an ID is
-   * after it is written to the database, so it is "complete". (This method should not be
-   * called for an object created from data already existing in the database.)
    *
    * @param fuelingID the database prime key value of the row
    * @throws UnsupportedOperationException if mFuelingID is not 0 when this method is called
@@ -627,7 +233,6 @@ class Model_Fueling extends DataHolder {
       throw new IllegalArgumentException("The Row ID cannot be less than 1");
 
     mFuelingID = fuelingID;
-    addToSparseArray(this);
 
     touch();
   }
@@ -683,15 +288,12 @@ class Model_Fueling extends DataHolder {
   }
 
   /**
-   * Setter for mDateOfFill, a Date value indicating when the vehicle was filled with gas. After
-   * setting the new value, adjustLists() is called to add this instance to (or remove it from)
-   * appropriate arrays of Model_Fueling objects.
+   * Setter for mDateOfFill, a Date value indicating when the vehicle was filled with gas
    *
    * @param dateOfFill a Date value indicating when the vehicle was filled with gas
    */
   public void setDateOfFill(Date dateOfFill) {
     mDateOfFill = dateOfFill;
-    adjustLists();
 
     touch();
   }
@@ -88,7 +88,7 @@ public class Model_Vehicle extends DataHolder {
    * @param id the ID of the desired Model_Vehicle instance
    * @return the associated Model_Vehicle instance, or null if there is none
    */
-  public static Model_Vehicle getVehicle(int id) {
+  public static synchronized Model_Vehicle getVehicle(int id) {
     return sVehicleList.get(id);
   }
 
@@ -108,7 +108,7 @@ public class Model_Vehicle extends DataHolder {
    *
    * @param v The vehicle to be added to the list
    */
-  public static void addVehicle(Model_Vehicle v) {
+  public static synchronized void addVehicle(Model_Vehicle v) {
     sVehicleList.put(v.getID(), v);
   }
 
@@ -117,7 +117,7 @@ public class Model_Vehicle extends DataHolder {
    *
    * @return ArrayList of all of the Model_Vehicle instances
    */
-  public static ArrayList<Model_Vehicle> getVehicleList() {
+  public static synchronized ArrayList<Model_Vehicle> getVehicleList() {
     ArrayList<Model_Vehicle> list = new ArrayList<>();
     Model_Vehicle v;
     for (int i = 0; i < sVehicleList.size(); i++) {
@@ -133,7 +133,7 @@ public class Model_Vehicle extends DataHolder {
    *
    * @return The count of vehicles
    */
-  public static int getCount() {
+  public static synchronized int getCount() {
     return sVehicleList.size();
   }
 
@@ -141,7 +141,7 @@ public class Model_Vehicle extends DataHolder {
    * Clears the static in-memory list of vehicles. Should be called before re-fetching vehicles
    * from the database.
    */
-  public static void clearAll() {
+  public static synchronized void clearAll() {
     if (sVehicleList != null)
       sVehicleList.clear();
   }
@@ -12,16 +12,19 @@ import android.support.v4.app.FragmentStatePagerAdapter;
  */
 public class Pager_Averages extends FragmentStatePagerAdapter {
   private String mVehicleName;
+  private int mVehicleID;
 
   /**
    * Constructor passes a FragmentManager up the chain to a parent class, and stores a reference
    * to the list of Fuelings to be displayed.
    * @param fragmentManager the manager overseeing this adapter
    * @param vehicleName the mName of the vehicle represented in the averages data
+   * @param vehicleID the ID of the vehicle represented in the averages data
    */
-  public Pager_Averages(FragmentManager fragmentManager, String vehicleName) {
+  public Pager_Averages(FragmentManager fragmentManager, String vehicleName, int vehicleID) {
     super(fragmentManager);
     mVehicleName = vehicleName;
+    mVehicleID = vehicleID;
   }
 
   /**
@@ -46,6 +49,6 @@ public class Pager_Averages extends FragmentStatePagerAdapter {
    */
   @Override
   public Fragment getItem(int position) {
-    return Fragment_AveragesDetail.getInstance(position, mVehicleName);
+    return Fragment_AveragesDetail.getInstance(position, mVehicleName, mVehicleID);
   }
 }
@@ -4,8 +4,6 @@ import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentStatePagerAdapter;
 
-import java.util.ArrayList;
-
 /**
  * Presents details for one fueling at a time
  * <p>
@@ -13,15 +11,16 @@ import java.util.ArrayList;
  * ctodd@ctoddcook.com
  */
 public class Pager_Fueling extends FragmentStatePagerAdapter {
-  private final ArrayList<Model_Fueling> mFuelings;
+  private final FuelingPageSource mFuelings;
 
   /**
    * Constructor passes a FragmentManager up the chain to a parent class, and stores a reference
-   * to the list of Fuelings to be displayed.
+   * to the source of Fuelings to be displayed. Fuelings are read from the source a page at a
+   * time as the user swipes.
    * @param fragmentManager the manager overseeing this adapter
-   * @param fuelings a list of fuelings, from which details will be retrieved for display
+   * @param fuelings a source of fuelings, from which details will be retrieved for display
    */
-  public Pager_Fueling(FragmentManager fragmentManager, ArrayList<Model_Fueling> fuelings) {
+  public Pager_Fueling(FragmentManager fragmentManager, FuelingPageSource fuelings) {
     super(fragmentManager);
     mFuelings = fuelings;
   }
@@ -31,7 +30,7 @@ public class Pager_Fueling extends FragmentStatePagerAdapter {
    */
   @Override
   public int getCount() {
-    return mFuelings.size();
+    return mFuelings.getCount();
   }
 
   /**
@@ -41,8 +40,11 @@ public class Pager_Fueling extends FragmentStatePagerAdapter {
    */
   @Override
   public Fragment getItem(int position) {
-    if (position >= 0 && position < mFuelings.size())
-      return Fragment_FuelingDetail.getInstance(mFuelings.get(position).getID());
+    if (position >= 0 && position < mFuelings.getCount()) {
+      Model_Fueling fd = mFuelings.get(position);
+      if (fd != null)
+        return Fragment_FuelingDetail.getInstance(fd.getID());
+    }
 
     return null;
   }
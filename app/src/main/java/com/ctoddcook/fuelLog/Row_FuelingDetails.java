@@ -8,33 +8,62 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import java.util.ArrayList;
 import java.util.Date;
 
 /**
- * ArrayAdapter customization, for displaying Model_Fueling in a ListView.
+ * ListView adapter for displaying Model_Fueling rows. The fuelings are read from a
+ * FuelingPageSource a page at a time as rows are scrolled into view, rather than all being held
+ * in memory.
  * <p/>
  * Created by C. Todd Cook on 5/20/2016.<br>
  * ctodd@ctoddcook.com
  */
-public class Row_FuelingDetails extends ArrayAdapter<Model_Fueling> {
+public class Row_FuelingDetails extends BaseAdapter {
   @SuppressWarnings("unused")
   private static final String TAG = "Row_FuelingDetails";
   private final Context context;
-  private final ArrayList<Model_Fueling> mFuelingsList;
+  private final FuelingPageSource mFuelings;
 
   /**
    * Required constructor.
    * @param c Context instantiating this adapter
-   * @param fList a list of Fuelings to be displayed
+   * @param fuelings the source of the Fuelings to be displayed
    */
-  public Row_FuelingDetails(Context c, ArrayList<Model_Fueling> fList) {
-    super(c, R.layout.row_fueling_details, fList);
+  public Row_FuelingDetails(Context c, FuelingPageSource fuelings) {
     context = c;
-    mFuelingsList = fList;
+    mFuelings = fuelings;
+  }
+
+  /**
+   * @return the number of fuelings in the list
+   */
+  @Override
+  public int getCount() {
+    return mFuelings.getCount();
+  }
+
+  /**
+   * @param pos the position in the list
+   * @return the fueling at that position, or null if it has since been deleted
+   */
+  @Override
+  public Model_Fueling getItem(int pos) {
+    return mFuelings.get(pos);
+  }
+
+  /**
+   * @param pos the position in the list
+   * @return the ID of the fueling at that position, or AdapterView.INVALID_ROW_ID if it has
+   * since been deleted
+   */
+  @Override
+  public long getItemId(int pos) {
+    Model_Fueling fd = mFuelings.get(pos);
+    return (fd == null ? AdapterView.INVALID_ROW_ID : fd.getFuelingID());
   }
 
   /**
@@ -52,7 +81,7 @@ public class Row_FuelingDetails extends ArrayAdapter<Model_Fueling> {
   public View getView(int pos, View convertView, ViewGroup parent) {
 
     View row = convertView;
-    Model_Fueling fd = mFuelingsList.get(pos);
+    Model_Fueling fd = mFuelings.get(pos);
 
     /*
     Reuse views. Only create a row from scratch if the call to this method did not give us
@@ -75,6 +104,11 @@ public class Row_FuelingDetails extends ArrayAdapter<Model_Fueling> {
 
     ViewHolder holder = (ViewHolder) row.getTag();
 
+    if (fd == null) {
+      holder.clear();
+      return row;
+    }
+
     holder.setDate(fd.getDateOfFill());
     holder.setPrice(fd.getPricePerUnit());
     holder.setDistance(fd.getDistance());
@@ -99,6 +133,14 @@ public class Row_FuelingDetails extends ArrayAdapter<Model_Fueling> {
     public TextView tvVol;
     public TextView tvEff;
 
+    public void clear() {
+      tvDate.setText("");
+      tvPrice.setText("");
+      tvDist.setText("");
+      tvVol.setText("");
+      tvEff.setText("");
+    }
+
     public void setDate(Date date) {
       tvDate.setText(Handler_Format.formatShortDate(date));
     }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import static com.ctoddcook.CamGenTools.CTools.round;
+
+/**
+ * Running totals for the fills in one time span (3 months, 6 months, one year or lifetime), so
+ * each of the span averages can be read without walking the list of fills.
+ * <p/>
+ * The averages mirror the rules the list-scanning versions always used: price paid is only
+ * averaged over fills with a price, price per unit only over fills with both a price and a
+ * volume, and price per distance only over fills with both a price and a distance. Sums are
+ * kept as doubles so repeated additions and subtractions don't drift; counts are used to decide
+ * whether a sum is empty rather than comparing a sum to zero.
+ * <p/>
+ * The totals are held in a single array (see the TOTAL_ constants) so that FuelingIndex can
+ * store running prefix sums of them and hand back the totals for any range of fills.
+ */
+class SpanAggregate {
+  static final int TOTAL_COUNT = 0;
+  static final int TOTAL_DISTANCE = 1;
+  static final int TOTAL_VOLUME = 2;
+  static final int TOTAL_COUNT_WITH_VOLUME = 3;
+  static final int TOTAL_COUNT_WITH_PRICE = 4;
+  static final int TOTAL_PRICE_PAID = 5;
+  static final int TOTAL_COUNT_WITH_PRICE_AND_VOLUME = 6;
+  static final int TOTAL_PRICE_PAID_WITH_VOLUME = 7;
+  static final int TOTAL_VOLUME_WITH_PRICE = 8;
+  static final int TOTAL_COUNT_WITH_PRICE_AND_DISTANCE = 9;
+  static final int TOTAL_PRICE_PAID_WITH_DISTANCE = 10;
+  static final int TOTAL_DISTANCE_WITH_PRICE = 11;
+  static final int TOTALS_SIZE = 12;
+
+  private final double mTotals[] = new double[TOTALS_SIZE];
+
+  /**
+   * Adds a fill's values to the running totals.
+   *
+   * @param f the fill entering the span
+   */
+  void add(Model_Fueling f) {
+    add(f.getDistance(), f.getVolume(), f.getPricePaid());
+  }
+
+  /**
+   * Adds a single fill's raw values to the running totals.
+   *
+   * @param distance  the distance driven on the fill
+   * @param volume    the volume of fuel purchased
+   * @param pricePaid the total price paid
+   */
+  void add(float distance, float volume, float pricePaid) {
+    accumulate(mTotals, 0, distance, volume, pricePaid, 1);
+  }
+
+  /**
+   * Applies one fill's values to a block of TOTALS_SIZE totals, either adding (sign = 1) or
+   * subtracting (sign = -1).
+   *
+   * @param totals the array holding the totals
+   * @param offset the index in the array of the TOTAL_COUNT entry
+   */
+  static void accumulate(double totals[], int offset, float distance, float volume,
+                         float pricePaid, int sign) {
+    totals[offset + TOTAL_COUNT] += sign;
+    totals[offset + TOTAL_DISTANCE] += sign * distance;
+    totals[offset + TOTAL_VOLUME] += sign * volume;
+    if (volume > 0f)
+      totals[offset + TOTAL_COUNT_WITH_VOLUME] += sign;
+
+    if (pricePaid > 0f) {
+      totals[offset + TOTAL_COUNT_WITH_PRICE] += sign;
+      totals[offset + TOTAL_PRICE_PAID] += sign * pricePaid;
+
+      if (volume > 0f) {
+        totals[offset + TOTAL_COUNT_WITH_PRICE_AND_VOLUME] += sign;
+        totals[offset + TOTAL_PRICE_PAID_WITH_VOLUME] += sign * pricePaid;
+        totals[offset + TOTAL_VOLUME_WITH_PRICE] += sign * volume;
+      }
+
+      if (distance > 0f) {
+        totals[offset + TOTAL_COUNT_WITH_PRICE_AND_DISTANCE] += sign;
+        totals[offset + TOTAL_PRICE_PAID_WITH_DISTANCE] += sign * pricePaid;
+        totals[offset + TOTAL_DISTANCE_WITH_PRICE] += sign * distance;
+      }
+    }
+  }
+
+  /**
+   * Replaces these totals with the difference between two blocks of prefix sums, i.e. the
+   * totals for the fills between the two positions.
+   *
+   * @param prefixSums an array of consecutive blocks of TOTALS_SIZE running totals
+   * @param fromOffset the index of the earlier block's TOTAL_COUNT entry
+   * @param toOffset   the index of the later block's TOTAL_COUNT entry
+   */
+  void setDifference(double prefixSums[], int fromOffset, int toOffset) {
+    for (int i = 0; i < TOTALS_SIZE; i++)
+      mTotals[i] = prefixSums[toOffset + i] - prefixSums[fromOffset + i];
+  }
+
+  /**
+   * Adds a block of totals, such as one row of DatabaseHelper.fetchSpanAggregates(), to these.
+   *
+   * @param totals an array holding a block of TOTALS_SIZE totals
+   * @param offset the index in the array of the TOTAL_COUNT entry
+   */
+  void addTotals(double totals[], int offset) {
+    for (int i = 0; i < TOTALS_SIZE; i++)
+      mTotals[i] += totals[offset + i];
+  }
+
+  /**
+   * @return the number of fills in the span
+   */
+  int getCount() {
+    return (int) Math.round(mTotals[TOTAL_COUNT]);
+  }
+
+  /**
+   * @return the total distance over all fills in the span
+   */
+  double getTotalDistance() {
+    return mTotals[TOTAL_DISTANCE];
+  }
+
+  /**
+   * @return the total volume over all fills in the span
+   */
+  double getTotalVolume() {
+    return mTotals[TOTAL_VOLUME];
+  }
+
+  /**
+   * @return the total price paid over all fills in the span
+   */
+  double getTotalPricePaid() {
+    return mTotals[TOTAL_PRICE_PAID];
+  }
+
+  /**
+   * @return the average distance per fill, rounded to 1 decimal place
+   */
+  float getAvgDistance() {
+    if (isEmpty(TOTAL_COUNT))
+      return 0.0f;
+
+    return round((float) (mTotals[TOTAL_DISTANCE] / mTotals[TOTAL_COUNT]), 1);
+  }
+
+  /**
+   * @return the average volume per fill, rounded to 3 decimal places
+   */
+  float getAvgVolume() {
+    if (isEmpty(TOTAL_COUNT))
+      return 0.0f;
+
+    return round((float) (mTotals[TOTAL_VOLUME] / mTotals[TOTAL_COUNT]), 3);
+  }
+
+  /**
+   * @return the average price paid per fill (ignoring fills with no price), rounded to 2
+   * decimal places
+   */
+  float getAvgPricePaid() {
+    if (isEmpty(TOTAL_COUNT_WITH_PRICE))
+      return 0.0f;
+
+    return round((float) (mTotals[TOTAL_PRICE_PAID] / mTotals[TOTAL_COUNT_WITH_PRICE]), 2);
+  }
+
+  /**
+   * @return the average price per unit of fuel, rounded to 3 decimal places
+   */
+  float getAvgPricePerUnit() {
+    if (isEmpty(TOTAL_COUNT_WITH_PRICE_AND_VOLUME))
+      return 0.0f;
+
+    return round((float) (mTotals[TOTAL_PRICE_PAID_WITH_VOLUME] /
+        mTotals[TOTAL_VOLUME_WITH_PRICE]), 3);
+  }
+
+  /**
+   * @return the average price per distance unit, rounded to 3 decimal places
+   */
+  float getAvgPricePerDistance() {
+    if (isEmpty(TOTAL_COUNT_WITH_PRICE_AND_DISTANCE))
+      return 0.0f;
+
+    return round((float) (mTotals[TOTAL_PRICE_PAID_WITH_DISTANCE] /
+        mTotals[TOTAL_DISTANCE_WITH_PRICE]), 3);
+  }
+
+  /**
+   * @return the average distance per unit of fuel (mpg), rounded to 1 decimal place
+   */
+  float getAvgEfficiency() {
+    if (isEmpty(TOTAL_COUNT_WITH_VOLUME))
+      return 0.0f;
+
+    return round((float) (mTotals[TOTAL_DISTANCE] / mTotals[TOTAL_VOLUME]), 1);
+  }
+
+  /**
+   * Indicates whether one of the count totals is zero. Counts only ever have whole numbers
+   * added and subtracted, but are compared with a margin to be safe.
+   */
+  private boolean isEmpty(int countTotal) {
+    return mTotals[countTotal] < 0.5d;
+  }
+}
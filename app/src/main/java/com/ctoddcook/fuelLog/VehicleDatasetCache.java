@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the FuelingRepository of each vehicle most recently shown, so that switching back to a
+ * vehicle shows its averages and history without reading them from the database again.
+ * <p/>
+ * The cache is bounded by the heap its repositories are estimated to take (see
+ * FuelingRepository.Snapshot.getBytes()), not by a number of vehicles: the least recently used
+ * vehicles are dropped until the rest fit, so a few long histories take the room of many short
+ * ones. A vehicle whose repository would not fit on its own is not read whole at all (see
+ * fits()). DatabaseHelper passes each saved or deleted fill on to the repositories holding it,
+ * which apply it in place, and drops a vehicle's repository when the write is too broad for that.
+ * <p/>
+ * Each write moves the cache on a generation. A repository read before a write may have been
+ * read before the write committed, so put() only keeps one read in the current generation. All
+ * methods are thread-safe.
+ */
+class VehicleDatasetCache {
+  private final long mMaxBytes;
+  private final LinkedHashMap<Integer, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+  private long mBytes = 0;
+  private long mGeneration = 0;
+
+  /* A repository, and the size it was counted at */
+  private static class Entry {
+    final FuelingRepository mRepository;
+    long mBytes;
+
+    Entry(FuelingRepository repository) {
+      mRepository = repository;
+      mBytes = repository.getSnapshot().getBytes();
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxBytes the estimated heap the cached repositories may take, in all
+   */
+  VehicleDatasetCache(long maxBytes) {
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a vehicle's repository, and marks it as the most recently used.
+   *
+   * @param vehicleID the vehicle
+   * @return the repository, or null if it is not cached
+   */
+  synchronized FuelingRepository get(int vehicleID) {
+    Entry entry = mEntries.get(vehicleID);
+    return entry == null ? null : entry.mRepository;
+  }
+
+  /**
+   * @return the current generation, to be taken before reading a repository to put()
+   */
+  synchronized long getGeneration() {
+    return mGeneration;
+  }
+
+  /**
+   * @param bytes the estimated heap a repository would take, from
+   *              FuelingRepository.estimateBytes()
+   * @return true if a repository of that size could be kept, so is worth reading
+   */
+  boolean fits(long bytes) {
+    return bytes <= mMaxBytes;
+  }
+
+  /**
+   * Caches a repository as the most recently used, then drops the least recently used until the
+   * rest fit. A repository which would not fit on its own is not kept.
+   *
+   * @param repository the repository
+   * @param generation the generation taken before the repository was read
+   * @return true if the repository was kept; false if it was too big, or anything has been
+   * written since it was read
+   */
+  synchronized boolean put(FuelingRepository repository, long generation) {
+    if (generation != mGeneration)
+      return false;
+
+    Entry entry = new Entry(repository);
+    if (entry.mBytes > mMaxBytes)
+      return false;
+
+    Entry old = mEntries.put(repository.getVehicleID(), entry);
+    if (old != null)
+      mBytes -= old.mBytes;
+    mBytes += entry.mBytes;
+    trim();
+
+    return true;
+  }
+
+  /**
+   * Applies a fill which has been inserted, changed or undeleted: it is removed from any other
+   * vehicle's repository (as when it has been moved between vehicles), and put into the
+   * repository of the vehicle it belongs to, if that is cached.
+   *
+   * @param fd the fill, as saved to the database
+   */
+  synchronized void fuelingSaved(Model_Fueling fd) {
+    mGeneration++;
+
+    Iterator<Entry> entries = mEntries.values().iterator();
+    while (entries.hasNext()) {
+      Entry each = entries.next();
+      if (each.mRepository.getVehicleID() != fd.getVehicleID())
+        update(each, each.mRepository.remove(fd.getID()).getBytes());
+    }
+
+    Entry owner = mEntries.get(fd.getVehicleID());
+    if (owner != null)
+      update(owner, owner.mRepository.put(fd).getBytes());
+    trim();
+  }
+
+  /**
+   * Applies a fill which has been deleted, removing it from any repository holding it.
+   *
+   * @param fuelingID the fill
+   */
+  synchronized void fuelingDeleted(int fuelingID) {
+    mGeneration++;
+
+    for (Entry each : mEntries.values())
+      update(each, each.mRepository.remove(fuelingID).getBytes());
+  }
+
+  /**
+   * Drops a vehicle's repository, as when the vehicle is deleted.
+   *
+   * @param vehicleID the vehicle
+   */
+  synchronized void invalidateVehicle(int vehicleID) {
+    mGeneration++;
+
+    Entry old = mEntries.remove(vehicleID);
+    if (old != null)
+      mBytes -= old.mBytes;
+  }
+
+  /**
+   * Drops every repository, as when the database has been restored.
+   */
+  synchronized void clear() {
+    mGeneration++;
+    mEntries.clear();
+    mBytes = 0;
+  }
+
+  private void update(Entry entry, long bytes) {
+    mBytes += bytes - entry.mBytes;
+    entry.mBytes = bytes;
+  }
+
+  /* Drops the least recently used until the rest fit */
+  private void trim() {
+    Iterator<Entry> eldest = mEntries.values().iterator();
+    while (mBytes > mMaxBytes && eldest.hasNext()) {
+      mBytes -= eldest.next().mBytes;
+      eldest.remove();
+    }
+  }
+
+  /**
+   * @return the number of vehicles cached
+   */
+  synchronized int size() {
+    return mEntries.size();
+  }
+
+  /**
+   * @return the estimated heap taken by the cached repositories, in bytes
+   */
+  synchronized long getBytes() {
+    return mBytes;
+  }
+}
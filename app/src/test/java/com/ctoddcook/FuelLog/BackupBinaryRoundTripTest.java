@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import com.ctoddcook.CamGenTools.PropertyDataMap;
+import com.ctoddcook.FuelLogBackup.BackupBinaryDecoder;
+import com.ctoddcook.FuelLogBackup.BackupBinaryTable;
+import com.ctoddcook.FuelLogBackup.BackupBinaryWriter;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes rows in the binary backup format and reads them back with BackupBinaryDecoder, using
+ * the schema of the real tables, and checks that every value survives unchanged.
+ */
+public class BackupBinaryRoundTripTest {
+    private static final BackupBinaryTable PROPERTIES = new BackupBinaryTable(
+            PropertyDataMap.TABLE_NAME, PropertyDataMap._ID,
+            PropertyDataMap.COLUMN_NAMES, PropertyDataMap.COLUMN_KINDS);
+    private static final BackupBinaryTable VEHICLES = new BackupBinaryTable(
+            DatabaseMap_Vehicle.TABLE_NAME, DatabaseMap_Vehicle._ID,
+            DatabaseMap_Vehicle.COLUMN_NAMES, DatabaseMap_Vehicle.COLUMN_KINDS);
+    private static final BackupBinaryTable FUELINGS = new BackupBinaryTable(
+            DatabaseMap_Fueling.TABLE_NAME, DatabaseMap_Fueling._ID,
+            DatabaseMap_Fueling.COLUMN_NAMES, DatabaseMap_Fueling.COLUMN_KINDS);
+    private static final List<BackupBinaryTable> TABLES =
+            Arrays.asList(PROPERTIES, VEHICLES, FUELINGS);
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long NOW = 1478300000000L;
+
+    /**
+     * The schema read back matches the database maps it was written from.
+     * @throws Exception
+     */
+    @Test
+    public void testSchema() throws Exception {
+        BackupBinaryDecoder decoder = decode(write(0));
+
+        Assert.assertEquals(TABLES, decoder.getTables());
+        Assert.assertEquals(DatabaseMap_Fueling.COLUMN_NAMES.length,
+                decoder.getTables().get(2).getColumnCount());
+        Assert.assertEquals(DatabaseMap_Fueling.COLUMN_NBR_LAST_UPDATED,
+                FUELINGS.indexOf(DatabaseMap_Fueling.COLUMN_NAME_LAST_UPDATED));
+        decoder.close();
+    }
+
+    /**
+     * Every table, and every value of every row, reads back as written: keys and dates which
+     * jump backwards and forwards, negative and extreme integers, raw floats (including NaN),
+     * nulls, empty and non-ASCII strings.
+     * @throws Exception
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        int fills = 1500;
+        BackupBinaryDecoder decoder = decode(write(fills));
+
+        Assert.assertEquals(PROPERTIES, decoder.nextTable());
+        Assert.assertTrue(decoder.nextRow());
+        Assert.assertEquals(1, decoder.getLong(0));
+        Assert.assertEquals("user_allows_gps", decoder.getString(1));
+        Assert.assertEquals(-3, decoder.getLong(2));
+        Assert.assertEquals("", decoder.getString(3));
+        Assert.assertTrue(decoder.isNull(4));
+        Assert.assertEquals(0, decoder.getLong(4));
+        Assert.assertTrue(decoder.nextRow());
+        Assert.assertEquals(Long.MAX_VALUE, decoder.getLong(0));
+        Assert.assertEquals(Long.MIN_VALUE, decoder.getLong(2));
+        Assert.assertEquals("\u00dcn\u00efc\u00f6d\u00e9 \u2713 \ud83d\ude97", decoder.getString(3));
+        Assert.assertEquals(NOW, decoder.getLong(4));
+        Assert.assertFalse(decoder.nextRow());
+
+        Assert.assertEquals(VEHICLES, decoder.nextTable());
+        Assert.assertTrue(decoder.nextRow());
+        Assert.assertEquals(7, decoder.getLong(DatabaseMap_Vehicle.COLUMN_NBR_ID));
+        Assert.assertEquals("Civic", decoder.getString(DatabaseMap_Vehicle.COLUMN_NBR_NAME));
+        Assert.assertEquals(2009, decoder.getLong(DatabaseMap_Vehicle.COLUMN_NBR_YEAR));
+        Assert.assertEquals("A", decoder.getString(DatabaseMap_Vehicle.COLUMN_NBR_STATUS));
+        Assert.assertFalse(decoder.nextRow());
+
+        Assert.assertEquals(FUELINGS, decoder.nextTable());
+        for (int i = 0; i < fills; i++) {
+            Assert.assertTrue(decoder.nextRow());
+            Assert.assertEquals(fuelingID(i),
+                    decoder.getLong(DatabaseMap_Fueling.COLUMN_NBR_FUELING_ID));
+            Assert.assertEquals(7, decoder.getLong(DatabaseMap_Fueling.COLUMN_NBR_VEHICLE_ID));
+            Assert.assertEquals(dateOfFill(i),
+                    decoder.getLong(DatabaseMap_Fueling.COLUMN_NBR_DATE_OF_FILL));
+            Assert.assertEquals(Float.floatToIntBits(distance(i)), Float.floatToIntBits(
+                    (float) decoder.getDouble(DatabaseMap_Fueling.COLUMN_NBR_DISTANCE)));
+            Assert.assertEquals(12.345f,
+                    (float) decoder.getDouble(DatabaseMap_Fueling.COLUMN_NBR_VOLUME), 0f);
+            Assert.assertEquals(-0.01f,
+                    (float) decoder.getDouble(DatabaseMap_Fueling.COLUMN_NBR_PRICE_PAID), 0f);
+            Assert.assertEquals(i * 301.7f,
+                    (float) decoder.getDouble(DatabaseMap_Fueling.COLUMN_NBR_ODOMETER), 0f);
+
+            if (i % 3 == 0) {
+                Assert.assertTrue(decoder.isNull(DatabaseMap_Fueling.COLUMN_NBR_LOCATION));
+                Assert.assertTrue(decoder.isNull(DatabaseMap_Fueling.COLUMN_NBR_LATITUDE));
+                Assert.assertTrue(decoder.isNull(DatabaseMap_Fueling.COLUMN_NBR_LAST_UPDATED));
+            } else {
+                Assert.assertEquals("Omaha, NE & <" + i + ">",
+                        decoder.getString(DatabaseMap_Fueling.COLUMN_NBR_LOCATION));
+                Assert.assertEquals(41.2565f,
+                        (float) decoder.getDouble(DatabaseMap_Fueling.COLUMN_NBR_LATITUDE), 0f);
+                Assert.assertEquals(lastUpdated(i),
+                        decoder.getLong(DatabaseMap_Fueling.COLUMN_NBR_LAST_UPDATED));
+            }
+            Assert.assertEquals(-95.934f,
+                    (float) decoder.getDouble(DatabaseMap_Fueling.COLUMN_NBR_LONGITUDE), 0f);
+            Assert.assertEquals(i % 10 == 0 ? "D" : "C",
+                    decoder.getString(DatabaseMap_Fueling.COLUMN_NBR_STATUS));
+        }
+        Assert.assertFalse(decoder.nextRow());
+        Assert.assertNull(decoder.nextTable());
+        decoder.close();
+    }
+
+    /**
+     * A table can be skipped without reading its rows, and tables never started by the writer
+     * are read back as empty.
+     * @throws Exception
+     */
+    @Test
+    public void testSkippingAndMissingTables() throws Exception {
+        BackupBinaryDecoder decoder = decode(write(10));
+        Assert.assertEquals(PROPERTIES, decoder.nextTable());
+        Assert.assertEquals(VEHICLES, decoder.nextTable());
+        Assert.assertEquals(FUELINGS, decoder.nextTable());
+        Assert.assertTrue(decoder.nextRow());
+        Assert.assertEquals(fuelingID(0), decoder.getLong(0));
+        Assert.assertNull(decoder.nextTable());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupBinaryWriter writer = new BackupBinaryWriter(out, TABLES);
+        writer.close();
+        decoder = decode(out.toByteArray());
+        for (int t = 0; t < TABLES.size(); t++) {
+            Assert.assertNotNull(decoder.nextTable());
+            Assert.assertFalse(decoder.nextRow());
+        }
+        Assert.assertNull(decoder.nextTable());
+    }
+
+    /**
+     * A typical fueling takes under 60 bytes (around a tenth of its size in XML), and anything
+     * which is not a binary backup, or is cut short, is refused.
+     * @throws Exception
+     */
+    @Test
+    public void testSizeAndDamage() throws Exception {
+        byte[] none = write(0);
+        byte[] thousand = write(1000);
+        int perRow = (thousand.length - none.length) / 1000;
+        Assert.assertTrue("Bytes per fueling: " + perRow, perRow < 60);
+
+        try {
+            decode("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>".getBytes("UTF-8"));
+            Assert.fail("Expected an IOException for a file which is not a binary backup");
+        } catch (IOException e) {
+            // expected
+        }
+
+        BackupBinaryDecoder decoder = decode(Arrays.copyOf(thousand, thousand.length - 20));
+        try {
+            while (decoder.nextTable() != null) {
+                while (decoder.nextRow()) {
+                    // read to the end
+                }
+            }
+            Assert.fail("Expected an IOException for a backup which was cut short");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static BackupBinaryDecoder decode(byte[] bytes) throws IOException {
+        return new BackupBinaryDecoder(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Writes two properties, one vehicle and the given number of fuelings.
+     */
+    private static byte[] write(int fills) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupBinaryWriter writer = new BackupBinaryWriter(out, new ArrayList<>(TABLES));
+
+        writer.nextTable();
+        writer.putLong(1);
+        writer.putString("user_allows_gps");
+        writer.putLong(-3);
+        writer.putString("");
+        writer.putNull();
+        writer.endRow();
+        writer.putLong(Long.MAX_VALUE);
+        writer.putString("big");
+        writer.putLong(Long.MIN_VALUE);
+        writer.putString("\u00dcn\u00efc\u00f6d\u00e9 \u2713 \ud83d\ude97");
+        writer.putLong(NOW);
+        writer.endRow();
+
+        writer.nextTable();
+        writer.putLong(7);
+        writer.putString("Civic");
+        writer.putLong(2009);
+        writer.putString("Blue");
+        writer.putString("Honda Civic");
+        writer.putString("1HGFA16");
+        writer.putString("ABC 123");
+        writer.putString("A");
+        writer.putLong(NOW);
+        writer.endRow();
+
+        writer.nextTable();
+        for (int i = 0; i < fills; i++) {
+            writer.putLong(fuelingID(i));
+            writer.putLong(7);
+            writer.putLong(dateOfFill(i));
+            writer.putDouble(distance(i));
+            writer.putDouble(12.345f);
+            writer.putDouble(-0.01f);
+            writer.putDouble(i * 301.7f);
+            if (i % 3 == 0) {
+                writer.putString(null);
+                writer.putNull();
+            } else {
+                writer.putString("Omaha, NE & <" + i + ">");
+                writer.putDouble(41.2565f);
+            }
+            writer.putDouble(-95.934f);
+            if (i % 3 == 0)
+                writer.putNull();
+            else
+                writer.putLong(lastUpdated(i));
+            writer.putString(i % 10 == 0 ? "D" : "C");
+            writer.endRow();
+        }
+
+        writer.close();
+        return out.toByteArray();
+    }
+
+    /* IDs mostly climb by one, with the odd gap */
+    private static long fuelingID(int i) {
+        return i + (i / 100) * 1000 + 1;
+    }
+
+    /* Dates about a week apart, with the odd one out of order */
+    private static long dateOfFill(int i) {
+        long date = NOW - (1500 - i) * 7 * DAY_MILLIS + i * 61001L;
+        return (i % 50 == 49 ? date - 30 * DAY_MILLIS : date);
+    }
+
+    private static long lastUpdated(int i) {
+        return dateOfFill(i) + i % 7 * 1000;
+    }
+
+    private static float distance(int i) {
+        return (i == 5 ? Float.NaN : 250f + i / 7f);
+    }
+}
@@ -8,6 +8,9 @@ import junit.framework.Assert;
 
 import org.junit.Test;
 
+import java.math.BigDecimal;
+import java.util.Random;
+
 import static com.ctoddcook.CamGenTools.CTools.round;
 
 /**
@@ -32,4 +35,143 @@ public class CToolsTest {
         Assert.assertEquals(160.0, round(val, -1));
     }
 
-}
\ No newline at end of file
+    /**
+     * Test CTools.round on negative values, halves, zero and values too large to scale.
+     * @throws Exception
+     */
+    @Test
+    public void testRoundEdges() throws Exception {
+        Assert.assertEquals(-156.235, round(-156.23456, 3));
+        Assert.assertEquals(0.13, round(0.125, 2));
+        Assert.assertEquals(-0.13, round(-0.125, 2));
+        Assert.assertEquals(0.13f, round(0.125f, 2));
+        Assert.assertEquals(-2.5f, round(-2.45f, 1));
+        Assert.assertEquals(3f, round(2.5f, 0));
+        Assert.assertEquals(200f, round(150f, -2));
+
+        // Rounding to zero gives zero, not negative zero, as BigDecimal does
+        Assert.assertEquals(Double.doubleToRawLongBits(0.0), Double.doubleToRawLongBits(round(-0.001, 2)));
+        Assert.assertEquals(Float.floatToRawIntBits(0f), Float.floatToRawIntBits(round(-0.001f, 2)));
+        Assert.assertEquals(Float.floatToRawIntBits(0f), Float.floatToRawIntBits(round(-0f, 2)));
+
+        Assert.assertEquals(1e300, round(1e300, 2));
+        Assert.assertEquals(Float.MAX_VALUE, round(Float.MAX_VALUE, 3));
+        try {
+            round(Double.NaN, 2);
+            Assert.fail("Expected a NumberFormatException for NaN");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    /**
+     * CTools.round gives results bit for bit the same as rounding with BigDecimal, over millions
+     * of random values: everyday amounts, exact halves, any bit pattern at all, and each scale
+     * from -4 to 12.
+     * @throws Exception
+     */
+    @Test
+    public void testRoundMatchesBigDecimal() throws Exception {
+        Random random = new Random(20161105L);
+
+        for (int i = 0; i < 3000000; i++) {
+            int places = random.nextInt(17) - 4;
+            double d;
+            float f;
+
+            switch (i % 4) {
+                case 0:     // amounts like those of a fill
+                    d = (random.nextDouble() - 0.1) * 2000;
+                    f = (float) d;
+                    break;
+                case 1:     // exact halves, and their neighbours
+                    d = (random.nextInt(200001) - 100000 + 0.5) / Math.pow(10, Math.max(0, places));
+                    f = (float) d;
+                    if (random.nextBoolean()) {
+                        d = Math.nextUp(d);
+                        f = Math.nextUp(f);
+                    }
+                    break;
+                case 2:     // any bit pattern
+                    d = Double.longBitsToDouble(random.nextLong());
+                    f = Float.intBitsToFloat(random.nextInt());
+                    break;
+                default:    // small and large magnitudes
+                    d = random.nextGaussian() * Math.pow(10, random.nextInt(30) - 15);
+                    f = (float) (random.nextGaussian() * Math.pow(10, random.nextInt(16) - 8));
+                    break;
+            }
+
+            if (!Double.isNaN(d) && !Double.isInfinite(d))
+                Assert.assertEquals(d + " to " + places, Double.doubleToRawLongBits(bigDecimalRound(d, places)),
+                        Double.doubleToRawLongBits(round(d, places)));
+            if (!Float.isNaN(f) && !Float.isInfinite(f))
+                Assert.assertEquals(f + " to " + places, Float.floatToRawIntBits(bigDecimalRound(f, places)),
+                        Float.floatToRawIntBits(round(f, places)));
+        }
+    }
+
+    /**
+     * Halves round away from zero, as with BigDecimal's HALF_UP, whether positive or negative;
+     * values which only look like halves in decimal round by their exact binary value, as
+     * BigDecimal rounds them.
+     * @throws Exception
+     */
+    @Test
+    public void testRoundHalfUp() throws Exception {
+        double halves[] = {0.5, 1.5, 2.5, 0.125, 0.375, 12.5, 1234.5};
+        double expected[] = {1.0, 2.0, 3.0, 0.13, 0.38, 13.0, 1235.0};
+        int places[] = {0, 0, 0, 2, 2, 0, 0};
+
+        for (int i = 0; i < halves.length; i++) {
+            Assert.assertEquals(expected[i], round(halves[i], places[i]));
+            Assert.assertEquals(-expected[i], round(-halves[i], places[i]));
+            Assert.assertEquals((float) expected[i], round((float) halves[i], places[i]));
+            Assert.assertEquals((float) -expected[i], round((float) -halves[i], places[i]));
+            Assert.assertEquals(bigDecimalRound(halves[i], places[i]), round(halves[i], places[i]));
+            Assert.assertEquals(bigDecimalRound(-halves[i], places[i]), round(-halves[i], places[i]));
+        }
+
+        // Just under a half in binary
+        Assert.assertEquals(2.67, round(2.675, 2));
+        Assert.assertEquals(-2.67, round(-2.675, 2));
+        Assert.assertEquals(1.0, round(1.005, 2));
+        Assert.assertEquals(bigDecimalRound(2.675, 2), round(2.675, 2));
+        Assert.assertEquals(bigDecimalRound(1.005f, 2), round(1.005f, 2));
+    }
+
+    /**
+     * CTools.round gives the same values as BigDecimal's HALF_UP for the kind of values the
+     * averages, charts and list round: prices and distances to 2 places, and efficiencies to 3,
+     * both positive and negative.
+     * @throws Exception
+     */
+    @Test
+    public void testRoundFillValuesMatchBigDecimal() throws Exception {
+        for (int i = 0; i < 200000; i++) {
+            double d = 10 + i * 0.0137;
+            float f = (float) d / 7;
+
+            Assert.assertEquals(d + " to 2", bigDecimalRound(d, 2), round(d, 2));
+            Assert.assertEquals(-d + " to 2", bigDecimalRound(-d, 2), round(-d, 2));
+            Assert.assertEquals(f + " to 3", bigDecimalRound(f, 3), round(f, 3));
+            Assert.assertEquals(-f + " to 3", bigDecimalRound(-f, 3), round(-f, 3));
+        }
+    }
+
+    /* CTools.round as it was, with a BigDecimal every time */
+    private static double bigDecimalRound(double value, int places) {
+        if (value == 0) return 0;
+
+        BigDecimal bd = new BigDecimal(value);
+        bd = bd.setScale(places, BigDecimal.ROUND_HALF_UP);
+        return bd.doubleValue();
+    }
+
+    private static float bigDecimalRound(float value, int places) {
+        if (value == 0) return 0;
+        BigDecimal bd = new BigDecimal(value);
+        bd = bd.setScale(places, BigDecimal.ROUND_HALF_UP);
+        return bd.floatValue();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import com.ctoddcook.CamGenTools.ReadWriteExecutor;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests ReadWriteExecutor: ordering of reads after writes, delivery of callbacks on the callback
+ * Executor, cancellation, and error reporting. A single named thread stands in for the UI thread.
+ */
+public class ReadWriteExecutorTest {
+    private static final String CALLBACK_THREAD = "callback-thread";
+
+    private ExecutorService mCallbackThread;
+    private ReadWriteExecutor mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mCallbackThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, CALLBACK_THREAD);
+            }
+        });
+        mExecutor = new ReadWriteExecutor(2, mCallbackThread);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdown();
+        mCallbackThread.shutdownNow();
+    }
+
+    /**
+     * A read submitted after a slow write sees the write's result, and its callback runs on the
+     * callback Executor rather than a database thread.
+     * @throws Exception
+     */
+    @Test
+    public void testReadWaitsForEarlierWrite() throws Exception {
+        final AtomicInteger value = new AtomicInteger(0);
+        final AtomicReference<String> callbackThread = new AtomicReference<>();
+        final AtomicInteger seen = new AtomicInteger(-1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        mExecutor.write(this, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Thread.sleep(100);
+                value.set(42);
+                return null;
+            }
+        }, null);
+
+        mExecutor.read(this, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return value.get();
+            }
+        }, new ReadWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                seen.set(result);
+                callbackThread.set(Thread.currentThread().getName());
+                done.countDown();
+            }
+        });
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(42, seen.get());
+        Assert.assertEquals(CALLBACK_THREAD, callbackThread.get());
+    }
+
+    /**
+     * Writes run one at a time in the order submitted.
+     * @throws Exception
+     */
+    @Test
+    public void testWritesRunInOrder() throws Exception {
+        final StringBuffer order = new StringBuffer();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        for (int i = 0; i < 10; i++) {
+            final int n = i;
+            mExecutor.write(this, new Callable<Void>() {
+                @Override
+                public Void call() {
+                    order.append(n);
+                    return null;
+                }
+            }, null);
+        }
+        mExecutor.read(this, new Callable<String>() {
+            @Override
+            public String call() {
+                return order.toString();
+            }
+        }, new ReadWriteExecutor.Callback<String>() {
+            @Override
+            public void onResult(String result) {
+                done.countDown();
+            }
+        });
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("0123456789", order.toString());
+    }
+
+    /**
+     * After cancelAll(), a pending read does not run and no callbacks are delivered, but a
+     * pending write is still carried out.
+     * @throws Exception
+     */
+    @Test
+    public void testCancelAllDropsReadsButKeepsWrites() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean written = new AtomicBoolean(false);
+        final AtomicBoolean readRan = new AtomicBoolean(false);
+        final AtomicBoolean callbackRan = new AtomicBoolean(false);
+        final Object owner = new Object();
+
+        ReadWriteExecutor.Callback<Boolean> callback = new ReadWriteExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean result) {
+                callbackRan.set(true);
+            }
+        };
+
+        mExecutor.write(owner, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                release.await();
+                written.set(true);
+                return true;
+            }
+        }, callback);
+        ReadWriteExecutor.Task<Boolean> read = mExecutor.read(owner, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                readRan.set(true);
+                return true;
+            }
+        }, callback);
+
+        mExecutor.cancelAll(owner);
+        Assert.assertTrue(read.isCancelled());
+        release.countDown();
+
+        // Anything queued behind the write runs after it, so wait for one more read to finish
+        final CountDownLatch done = new CountDownLatch(1);
+        mExecutor.read(this, new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        }, new ReadWriteExecutor.Callback<Void>() {
+            @Override
+            public void onResult(Void result) {
+                done.countDown();
+            }
+        });
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(written.get());
+        Assert.assertFalse(readRan.get());
+        Assert.assertFalse(callbackRan.get());
+    }
+
+    /**
+     * An exception thrown by the work is handed to the callback's onError().
+     * @throws Exception
+     */
+    @Test
+    public void testErrorsReachOnError() throws Exception {
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        mExecutor.read(this, new Callable<Void>() {
+            @Override
+            public Void call() {
+                throw new IllegalStateException("no such table");
+            }
+        }, new ReadWriteExecutor.Callback<Void>() {
+            @Override
+            public void onResult(Void result) {
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                error.set(e);
+                done.countDown();
+            }
+        });
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(error.get() instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import com.ctoddcook.CamGenTools.XmlBase;
+import com.ctoddcook.CamGenTools.XmlStreamWriter;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+/**
+ * Tests escaping the cells of a table like the fueling table, as the XML backup does: each of
+ * the five entities, cells mixing them with plain text, and cells with nothing to escape, with
+ * XmlBase.encodeValue(), the regular expressions it used before, and an XmlStreamWriter all
+ * giving the same result.
+ */
+public class XmlBaseTableTest {
+    private static final int ROWS = 1000;
+    private static final int COLUMNS = 10;
+
+    /**
+     * Each of the five characters escapes to its entity, and an entity already escaped is kept,
+     * but not one missing its semicolon.
+     * @throws Exception
+     */
+    @Test
+    public void testFiveEntities() throws Exception {
+        String characters[] = {"&", "<", ">", "\"", "'"};
+        String entities[] = {"&amp;", "&lt;", "&gt;", "&quot;", "&apos;"};
+
+        for (int i = 0; i < characters.length; i++) {
+            assertEscapes(entities[i], characters[i]);
+            assertEscapes("Joe" + entities[i] + "s", "Joe" + characters[i] + "s");
+            assertEscapes(entities[i], entities[i]);
+
+            // Without its semicolon, it is not an entity
+            String name = entities[i].substring(1, entities[i].length() - 1);
+            assertEscapes("&amp;" + name, "&" + name);
+        }
+    }
+
+    /**
+     * Every cell of the table, plain or mixing entities with text, escapes the same with
+     * encodeValue(), the regular expressions and an XmlStreamWriter.
+     * @throws Exception
+     */
+    @Test
+    public void testMixedCells() throws Exception {
+        int escaped = 0;
+
+        for (String row[] : buildRows()) {
+            for (String cell : row) {
+                String expected = XmlBaseTest.regexEncodeValue(cell);
+                assertEscapes(expected, cell);
+                if (!expected.equals(cell))
+                    escaped++;
+            }
+        }
+
+        // Every tenth row's location has an ampersand, an apostrophe and angle brackets
+        Assert.assertEquals(ROWS / 10, escaped);
+        assertEscapes("Joe&apos;s Gas &amp; Go &lt;10&gt;", "Joe's Gas & Go <10>");
+    }
+
+    /**
+     * A cell with nothing to escape comes back as the same String, and is streamed unchanged.
+     * @throws Exception
+     */
+    @Test
+    public void testNothingToEscape() throws Exception {
+        for (String row[] : buildRows()) {
+            for (int column = 0; column < COLUMNS; column++) {
+                if (column == 7 && row[7].indexOf('&') >= 0)
+                    continue;
+                Assert.assertSame(row[column], XmlBase.encodeValue(row[column]));
+                Assert.assertEquals(row[column], stream(row[column]));
+            }
+        }
+    }
+
+    private static void assertEscapes(String expected, String cell) throws Exception {
+        Assert.assertEquals(cell, expected, XmlBase.encodeValue(cell));
+        Assert.assertEquals(cell, expected, XmlBaseTest.regexEncodeValue(cell));
+        Assert.assertEquals(cell, expected, stream(cell));
+    }
+
+    private static String stream(String cell) throws Exception {
+        StringWriter out = new StringWriter();
+        XmlStreamWriter w = new XmlStreamWriter(out);
+        w.writeEscaped(cell);
+        w.flush();
+        return out.toString();
+    }
+
+    /*
+     * Rows like those of the fueling table: IDs, dates and amounts, which need no escaping, and a
+     * location, which sometimes does.
+     */
+    private static String[][] buildRows() {
+        String[][] rows = new String[ROWS][COLUMNS];
+
+        for (int r = 0; r < ROWS; r++) {
+            rows[r][0] = Integer.toString(r + 1);
+            rows[r][1] = Integer.toString(r % 3 + 1);
+            rows[r][2] = Long.toString(1478300000000L - r * 86400000L);
+            rows[r][3] = Float.toString(300f + r % 150 / 7f);
+            rows[r][4] = Float.toString(12f + r % 7 / 3f);
+            rows[r][5] = Float.toString(30f + r % 40 / 9f);
+            rows[r][6] = Float.toString(r * 350f);
+            rows[r][7] = (r % 10 == 0 ? "Joe's Gas & Go <" + r + ">" : "Town " + r + ", NE");
+            rows[r][8] = Float.toString(41.25f + r / 1000f);
+            rows[r][9] = (r % 2 == 0 ? "C" : "D");
+        }
+
+        return rows;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import com.ctoddcook.CamGenTools.XmlBase;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+/**
+ * Tests XmlBase.encodeValue() against a corpus of values and their escapes, and against the
+ * regular expressions it used to escape with, over random values made mostly of the characters
+ * that matter.
+ */
+public class XmlBaseTest {
+    private static final String[][] CORPUS = {
+            {"", ""},
+            {"Omaha, NE", "Omaha, NE"},
+            {"Ben & Jerry's", "Ben &amp; Jerry&apos;s"},
+            {"<b>\"quoted\"</b>", "&lt;b&gt;&quot;quoted&quot;&lt;/b&gt;"},
+            {"already &amp; escaped &lt;tag&gt; &quot;x&quot; &apos;y&apos;",
+                    "already &amp; escaped &lt;tag&gt; &quot;x&quot; &apos;y&apos;"},
+            {"&am &amp &ampersand; trailing &",
+                    "&amp;am &amp;amp &amp;ampersand; trailing &amp;"},
+            {"&&amp;", "&amp;&amp;"},
+            {"&amp;&", "&amp;&amp;"},
+            {"&#38; &nbsp;", "&amp;#38; &amp;nbsp;"},
+            {"&&&&<<<<>>>>''''\"\"\"\"", "&amp;&amp;&amp;&amp;&lt;&lt;&lt;&lt;&gt;&gt;&gt;&gt;" +
+                    "&apos;&apos;&apos;&apos;&quot;&quot;&quot;&quot;"},
+            {"\u00dcn\u00efc\u00f6d\u00e9 \u2713 & more",
+                    "\u00dcn\u00efc\u00f6d\u00e9 \u2713 &amp; more"},
+            {"1478300000000", "1478300000000"}
+    };
+
+    // The characters which matter, and a few which don't
+    private static final String ALPHABET = "&<>\"';amplgtquos x";
+
+    /**
+     * Each value in the corpus escapes as expected, both to a String and to an Appendable.
+     * @throws Exception
+     */
+    @Test
+    public void testCorpus() throws Exception {
+        for (String[] pair : CORPUS) {
+            Assert.assertEquals(pair[1], XmlBase.encodeValue(pair[0]));
+
+            StringWriter out = new StringWriter();
+            XmlBase.encodeValue(pair[0], out);
+            Assert.assertEquals(pair[1], out.toString());
+        }
+
+        Assert.assertEquals("", XmlBase.encodeValue(null));
+        StringBuilder sb = new StringBuilder("x");
+        XmlBase.encodeValue(null, sb);
+        Assert.assertEquals("x", sb.toString());
+    }
+
+    /**
+     * A value with nothing to escape comes back as the same String, not a copy.
+     * @throws Exception
+     */
+    @Test
+    public void testNothingToEscapeReturnsInput() throws Exception {
+        String value = new StringBuilder("Omaha, NE &amp; Lincoln").toString();
+        Assert.assertSame(value, XmlBase.encodeValue(value));
+    }
+
+    /**
+     * Random values escape exactly as the regular expressions escaped them.
+     * @throws Exception
+     */
+    @Test
+    public void testMatchesRegexEscaping() throws Exception {
+        Random random = new Random(20161105L);
+        StringBuilder value = new StringBuilder();
+
+        for (int i = 0; i < 200000; i++) {
+            value.setLength(0);
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++)
+                value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+
+            String expected = regexEncodeValue(value.toString());
+            Assert.assertEquals(value.toString(), expected, XmlBase.encodeValue(value.toString()));
+
+            StringBuilder appended = new StringBuilder();
+            XmlBase.encodeValue(value, appended);
+            Assert.assertEquals(value.toString(), expected, appended.toString());
+        }
+    }
+
+    /* XmlBase.encodeValue() as it was, with five regular expressions */
+    static String regexEncodeValue(String input) {
+        if (input == null || input.length() == 0)
+            return "";
+
+        input = input.replaceAll("&(?!amp;)(?!lt;)(?!gt;)(?!quot;)(?!apos;)", "&amp;");
+        input = input.replaceAll("<", "&lt;");
+        input = input.replaceAll(">", "&gt;");
+        input = input.replaceAll("\"", "&quot;");
+        input = input.replaceAll("'", "&apos;");
+
+        return input;
+    }
+}
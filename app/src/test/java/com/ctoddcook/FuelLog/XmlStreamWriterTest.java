@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import com.ctoddcook.CamGenTools.XmlBase;
+import com.ctoddcook.CamGenTools.XmlStreamWriter;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+/**
+ * Tests XmlStreamWriter, checking that values are escaped exactly as XmlBase.encodeValue()
+ * escapes them, including when the buffer fills part way through a value or an escape.
+ */
+public class XmlStreamWriterTest {
+    private static final String[] VALUES = {
+            "",
+            "Omaha, NE",
+            "Ben & Jerry's",
+            "<b>\"quoted\"</b>",
+            "already &amp; escaped &lt;tag&gt; &quot;x&quot; &apos;y&apos;",
+            "&am &amp &ampersand; trailing &",
+            "&&&&<<<<>>>>''''\"\"\"\"",
+            "\u00dcn\u00efc\u00f6d\u00e9 \u2713 & more"
+    };
+
+    /**
+     * Each value written as a String matches encodeValue(), with both a tiny and a normal
+     * buffer.
+     * @throws Exception
+     */
+    @Test
+    public void testStringValuesMatchEncodeValue() throws Exception {
+        for (int size : new int[]{1, 5, 8, 13, XmlStreamWriter.DEFAULT_BUFFER_SIZE}) {
+            for (String value : VALUES) {
+                StringWriter out = new StringWriter();
+                XmlStreamWriter w = new XmlStreamWriter(out, size);
+                w.writeEscaped(value);
+                w.flush();
+                Assert.assertEquals("Buffer " + size, XmlBase.encodeValue(value), out.toString());
+            }
+        }
+    }
+
+    /**
+     * Each value written from a char array, with only part of the array in use, matches
+     * encodeValue().
+     * @throws Exception
+     */
+    @Test
+    public void testCharArrayValuesMatchEncodeValue() throws Exception {
+        char[] chars = new char[128];
+
+        for (String value : VALUES) {
+            // Leave junk after the value, which must not be read
+            Arrays.fill(chars, ';');
+            value.getChars(0, value.length(), chars, 0);
+
+            StringWriter out = new StringWriter();
+            XmlStreamWriter w = new XmlStreamWriter(out, 8);
+            w.writeEscaped(chars, value.length());
+            w.flush();
+            Assert.assertEquals(XmlBase.encodeValue(value), out.toString());
+        }
+    }
+
+    /**
+     * Values packed one after another in a char array, written by offset and length, each match
+     * encodeValue(); an escape is not completed by the chars of the next value.
+     * @throws Exception
+     */
+    @Test
+    public void testPackedValuesMatchEncodeValue() throws Exception {
+        StringBuilder packed = new StringBuilder();
+        int[] starts = new int[VALUES.length + 1];
+        for (int i = 0; i < VALUES.length; i++) {
+            starts[i] = packed.length();
+            packed.append(VALUES[i]);
+        }
+        starts[VALUES.length] = packed.length();
+        char[] chars = packed.toString().toCharArray();
+
+        for (int i = 0; i < VALUES.length; i++) {
+            StringWriter out = new StringWriter();
+            XmlStreamWriter w = new XmlStreamWriter(out, 8);
+            w.writeEscaped(chars, starts[i], starts[i + 1] - starts[i]);
+            w.flush();
+            Assert.assertEquals(XmlBase.encodeValue(VALUES[i]), out.toString());
+        }
+
+        // "&" followed by a separate value starting "amp;" must still be escaped
+        char[] split = "x&amp;".toCharArray();
+        StringWriter out = new StringWriter();
+        XmlStreamWriter w = new XmlStreamWriter(out);
+        w.writeEscaped(split, 0, 2);
+        w.flush();
+        Assert.assertEquals("x&amp;", out.toString());
+    }
+
+    /**
+     * Markup and escaped values can be mixed, and markup longer than the buffer is written
+     * whole. Null values write nothing.
+     * @throws Exception
+     */
+    @Test
+    public void testMarkupAndValues() throws Exception {
+        StringWriter out = new StringWriter();
+        XmlStreamWriter w = new XmlStreamWriter(out, 8);
+
+        w.write("<column name=\"location\" type=\"3\">");
+        w.writeEscaped("A & B");
+        w.writeEscaped((String) null);
+        w.write("</column>");
+        w.close();
+
+        Assert.assertEquals("<column name=\"location\" type=\"3\">A &amp; B</column>",
+                out.toString());
+    }
+
+    /**
+     * A buffer with no room is refused.
+     * @throws Exception
+     */
+    @Test
+    public void testBufferTooSmall() throws Exception {
+        try {
+            new XmlStreamWriter(new StringWriter(), 0);
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
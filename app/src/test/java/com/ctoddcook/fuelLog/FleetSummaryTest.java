@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for FleetSummary and FuelingColumns.byVehicle(): each vehicle's totals match those of
+ * its own fills, the fleet's are the sum of the vehicles', the result is the same however the
+ * work is split, and the vehicles are ranked worst first, in exactly the expected order.
+ */
+public class FleetSummaryTest {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long NOW = 1478300000000L;
+    private static final int VEHICLES = 37;
+
+    /**
+     * Splitting a mixed store by vehicle keeps every fill, newest first, in its vehicle's store.
+     * @throws Exception
+     */
+    @Test
+    public void testByVehicle() throws Exception {
+        FuelingColumns all = fleet(VEHICLES, 400);
+        HashMap<Integer, FuelingColumns> byVehicle = FuelingColumns.byVehicle(all);
+
+        int total = 0;
+        for (Integer vehicleID : byVehicle.keySet()) {
+            FuelingColumns fills = byVehicle.get(vehicleID);
+            for (int row = 0; row < fills.size(); row++) {
+                Assert.assertEquals(vehicleID.intValue(), fills.getVehicleID(row));
+                if (row > 0)
+                    Assert.assertTrue(fills.getDateOfFill(row - 1) >= fills.getDateOfFill(row));
+            }
+            total += fills.size();
+        }
+        Assert.assertEquals(all.size(), total);
+        Assert.assertEquals(VEHICLES, byVehicle.size());
+    }
+
+    /**
+     * Each vehicle's totals match its own fills', the fleet's match all of the fills', and the
+     * same totals come out on one thread as on several.
+     * @throws Exception
+     */
+    @Test
+    public void testTotalsMatch() throws Exception {
+        FuelingColumns all = fleet(VEHICLES, 400);
+        HashMap<Integer, FuelingColumns> byVehicle = FuelingColumns.byVehicle(all);
+        Date now = new Date(NOW);
+
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            FleetSummary serial = FleetSummary.build(byVehicle, now, null, 1);
+            FleetSummary parallel = FleetSummary.build(byVehicle, now, workers, 3);
+            Assert.assertEquals(VEHICLES, parallel.getVehicleCount());
+
+            SpanAggregate fleet[] = all.getSpanAggregates(now, Model_Fueling.SPAN_3_MONTHS,
+                    Model_Fueling.SPAN_6_MONTHS, Model_Fueling.SPAN_ONE_YEAR,
+                    Model_Fueling.SPAN_ALL_TIME);
+            for (int span = 0; span <= Model_Fueling.SPAN_ALL_TIME; span++) {
+                assertTotalsEqual(fleet[span], parallel.getFleetAggregate(span), 0.01);
+                assertTotalsEqual(serial.getFleetAggregate(span),
+                        parallel.getFleetAggregate(span), 0d);
+
+                for (Integer vehicleID : byVehicle.keySet()) {
+                    SpanAggregate expected =
+                            byVehicle.get(vehicleID).getSpanAggregates(now, span)[0];
+                    assertTotalsEqual(expected,
+                            parallel.getVehicle(vehicleID).getSpanAggregate(span), 0d);
+                }
+            }
+
+            Assert.assertNull(parallel.getVehicle(VEHICLES + 1));
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * With every worker busy, the calling thread totals the chunks itself rather than waiting.
+     * @throws Exception
+     */
+    @Test
+    public void testFinishesWithWorkersBusy() throws Exception {
+        HashMap<Integer, FuelingColumns> byVehicle = FuelingColumns.byVehicle(fleet(VEHICLES, 100));
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        final Object gate = new Object();
+
+        try {
+            synchronized (gate) {
+                workers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (gate) {
+                            // held until the summary is built
+                        }
+                    }
+                });
+
+                FleetSummary summary = FleetSummary.build(byVehicle, new Date(NOW), workers, 4);
+                Assert.assertEquals(VEHICLES, summary.getVehicleCount());
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Vehicles are ranked worst first: least efficient, or most expensive per distance or per
+     * unit. Vehicles with nothing to average are left out.
+     * @throws Exception
+     */
+    @Test
+    public void testRank() throws Exception {
+        HashMap<Integer, FuelingColumns> byVehicle = FuelingColumns.byVehicle(fleet(VEHICLES, 400));
+        FuelingColumns unpriced = new FuelingColumns();
+        unpriced.add(999, VEHICLES + 1, NOW - DAY_MILLIS, 300f, 10f, 0f, 1f, null, 0f, 0f, NOW);
+        byVehicle.put(VEHICLES + 1, unpriced);
+        FleetSummary summary = FleetSummary.build(byVehicle, new Date(NOW), null, 1);
+
+        ArrayList<FleetSummary.VehicleTotals> efficiency =
+                summary.rank(FleetSummary.RANK_EFFICIENCY, Model_Fueling.SPAN_ONE_YEAR);
+        Assert.assertEquals(VEHICLES + 1, efficiency.size());
+        for (int i = 1; i < efficiency.size(); i++)
+            Assert.assertTrue(efficiency.get(i - 1).getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR)
+                    .getAvgEfficiency() <= efficiency.get(i)
+                    .getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getAvgEfficiency());
+
+        ArrayList<FleetSummary.VehicleTotals> cost =
+                summary.rank(FleetSummary.RANK_PRICE_PER_DISTANCE, Model_Fueling.SPAN_ALL_TIME);
+        Assert.assertEquals(VEHICLES, cost.size());
+        for (int i = 1; i < cost.size(); i++)
+            Assert.assertTrue(cost.get(i - 1).getSpanAggregate(Model_Fueling.SPAN_ALL_TIME)
+                    .getAvgPricePerDistance() >= cost.get(i)
+                    .getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getAvgPricePerDistance());
+
+        Assert.assertEquals(VEHICLES,
+                summary.rank(FleetSummary.RANK_PRICE_PER_UNIT, Model_Fueling.SPAN_ALL_TIME).size());
+
+        try {
+            summary.rank(FleetSummary.RANK_PRICE_PER_UNIT + 1, Model_Fueling.SPAN_ALL_TIME);
+            Assert.fail("A bad measure was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A fleet whose averages are known ranks in exactly the expected order, by each measure,
+     * whether totaled on one thread or several: vehicles with the same average in ID order, a
+     * vehicle with no price left out of the price ranks, and one with only old fills left out
+     * of the one-year ranks.
+     * @throws Exception
+     */
+    @Test
+    public void testRankOrder() throws Exception {
+        // Distance per unit of fuel, and price per unit, of vehicles 1 to 6
+        float efficiency[] = {30f, 20f, 25f, 20f, 35f, 40f};
+        float pricePerUnit[] = {3f, 2.5f, 0f, 3.5f, 2f, 4f};
+
+        HashMap<Integer, FuelingColumns> byVehicle = new HashMap<>();
+        int id = 1000;
+        for (int v = 0; v < efficiency.length; v++) {
+            // The last vehicle has only fills from two years back
+            long newest = NOW - (v == efficiency.length - 1 ? 730 : 1) * DAY_MILLIS;
+            FuelingColumns fills = new FuelingColumns();
+            for (int i = 0; i < 10; i++)
+                fills.add(id--, v + 1, newest - i * 5 * DAY_MILLIS, 10f * efficiency[v], 10f,
+                        10f * pricePerUnit[v], 0f, null, 0f, 0f, NOW);
+            byVehicle.put(v + 1, fills);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            for (FleetSummary summary : new FleetSummary[]{
+                    FleetSummary.build(byVehicle, new Date(NOW), null, 1),
+                    FleetSummary.build(byVehicle, new Date(NOW), workers, 3)}) {
+                assertRanked(new int[]{2, 4, 3, 1, 5}, summary.rank(FleetSummary.RANK_EFFICIENCY,
+                        Model_Fueling.SPAN_ONE_YEAR));
+                assertRanked(new int[]{2, 4, 3, 1, 5, 6}, summary.rank(
+                        FleetSummary.RANK_EFFICIENCY, Model_Fueling.SPAN_ALL_TIME));
+                assertRanked(new int[]{6, 4, 1, 2, 5}, summary.rank(
+                        FleetSummary.RANK_PRICE_PER_UNIT, Model_Fueling.SPAN_ALL_TIME));
+                assertRanked(new int[]{4, 2, 1, 6, 5}, summary.rank(
+                        FleetSummary.RANK_PRICE_PER_DISTANCE, Model_Fueling.SPAN_ALL_TIME));
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * A fleet with no fills gives empty totals.
+     * @throws Exception
+     */
+    @Test
+    public void testEmpty() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            FleetSummary summary = FleetSummary.build(new HashMap<Integer, FuelingColumns>(),
+                    new Date(NOW), workers, 2);
+            Assert.assertEquals(0, summary.getVehicleCount());
+            Assert.assertEquals(0,
+                    summary.getFleetAggregate(Model_Fueling.SPAN_ALL_TIME).getCount());
+            Assert.assertEquals(0, summary.rank(FleetSummary.RANK_EFFICIENCY,
+                    Model_Fueling.SPAN_ALL_TIME).size());
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private static void assertRanked(int expected[], ArrayList<FleetSummary.VehicleTotals> ranked) {
+        int actual[] = new int[ranked.size()];
+        for (int i = 0; i < actual.length; i++)
+            actual[i] = ranked.get(i).getVehicleID();
+        Assert.assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    private static void assertTotalsEqual(SpanAggregate expected, SpanAggregate actual,
+                                          double delta) {
+        Assert.assertEquals(expected.getCount(), actual.getCount());
+        Assert.assertEquals(expected.getTotalDistance(), actual.getTotalDistance(), delta);
+        Assert.assertEquals(expected.getTotalVolume(), actual.getTotalVolume(), delta);
+        Assert.assertEquals(expected.getTotalPricePaid(), actual.getTotalPricePaid(), delta);
+    }
+
+    /*
+     * A fleet's fills, newest first, one a day back from now, each from a random vehicle with
+     * its own typical efficiency and price; a few have no price.
+     */
+    static FuelingColumns fleet(int vehicles, int days) {
+        Random random = new Random(20161105L);
+        FuelingColumns fills = new FuelingColumns(vehicles * days / 4);
+        int id = vehicles * days;
+
+        for (int day = 0; day < days; day++) {
+            for (int i = 0; i < vehicles / 4 + 1; i++) {
+                int vehicleID = 1 + random.nextInt(vehicles);
+                float volume = 8f + random.nextFloat() * 8f;
+                float distance = volume * (15f + vehicleID % 20);
+                float price = (random.nextInt(20) == 0 ? 0f : volume * (2f + vehicleID % 7 / 4f));
+                fills.add(id--, vehicleID, NOW - day * DAY_MILLIS, distance, volume, price,
+                        0f, "Town " + vehicleID, 41f, -96f, NOW);
+            }
+        }
+
+        return fills;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Tests for FuelingColumns: values read back by row, locations held once, span totals matching
+ * those taken from Model_Fueling instances, pages matching the rows, and the room taken by
+ * 100,000 fills.
+ */
+public class FuelingColumnsTest {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long NOW = 1478300000000L;
+    private static final int LOCATIONS = 40;
+    private static final int MANY_FILLS = 100000;
+
+    /**
+     * Every value reads back as added; each location is held once, whichever String it came in.
+     * @throws Exception
+     */
+    @Test
+    public void testValuesByRow() throws Exception {
+        FuelingColumns columns = build(500);
+
+        Assert.assertEquals(500, columns.size());
+        Assert.assertEquals(LOCATIONS, columns.getLocationCount());
+        for (int row = 0; row < columns.size(); row++) {
+            int id = 500 - row;
+            Assert.assertEquals(id, columns.getID(row));
+            Assert.assertEquals(id % 2 + 1, columns.getVehicleID(row));
+            Assert.assertEquals(dateOfFill(row), columns.getDateOfFill(row));
+            Assert.assertEquals(300f + id % 150, columns.getDistance(row), 0f);
+            Assert.assertEquals(12f + id % 7, columns.getVolume(row), 0f);
+            Assert.assertEquals(id % 5 == 0 ? 0f : 30f + id % 40, columns.getPricePaid(row), 0f);
+            Assert.assertEquals(id * 350f, columns.getOdometer(row), 0f);
+            Assert.assertEquals(location(id), columns.getLocation(row));
+            Assert.assertEquals(41.25f, columns.getLatitude(row), 0f);
+            Assert.assertEquals(-95.93f, columns.getLongitude(row), 0f);
+            Assert.assertEquals(NOW, columns.getLastUpdated(row));
+        }
+        Assert.assertSame(columns.getLocation(1), columns.getLocation(1 + LOCATIONS));
+
+        Model_Fueling fd = columns.toFueling(3);
+        Assert.assertEquals(497, fd.getID());
+        Assert.assertEquals(dateOfFill(3), fd.getDateOfFill().getTime());
+        Assert.assertEquals(location(497), fd.getLocation());
+
+        try {
+            columns.getID(500);
+            Assert.fail("Expected an IndexOutOfBoundsException for a row past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Fills must come newest first, and then by descending ID.
+     * @throws Exception
+     */
+    @Test
+    public void testOrder() throws Exception {
+        FuelingColumns columns = new FuelingColumns(1);
+        columns.add(5, 1, NOW, 1f, 1f, 1f, 1f, null, 0f, 0f, NOW);
+        columns.add(4, 1, NOW, 1f, 1f, 1f, 1f, null, 0f, 0f, NOW);
+        columns.add(9, 1, NOW - 1, 1f, 1f, 1f, 1f, null, 0f, 0f, NOW);
+        Assert.assertNull(columns.getLocation(0));
+
+        try {
+            columns.add(10, 1, NOW - 1, 1f, 1f, 1f, 1f, null, 0f, 0f, NOW);
+            Assert.fail("Expected an IllegalArgumentException for a higher ID on the same date");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            columns.add(1, 1, NOW, 1f, 1f, 1f, 1f, null, 0f, 0f, NOW);
+            Assert.fail("Expected an IllegalArgumentException for a newer fill");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Span totals match those of the same fills added up one Model_Fueling at a time.
+     * @throws Exception
+     */
+    @Test
+    public void testSpanAggregates() throws Exception {
+        int fills = 1000;
+        FuelingColumns columns = build(fills);
+        Date now = new Date(NOW);
+        Date thresholds[] = Model_Fueling.getSpanThresholds(now);
+
+        int spans[] = {Model_Fueling.SPAN_ALL_TIME, Model_Fueling.SPAN_3_MONTHS,
+                Model_Fueling.SPAN_ONE_YEAR, Model_Fueling.SPAN_6_MONTHS};
+        SpanAggregate actual[] = columns.getSpanAggregates(now, spans);
+
+        for (int i = 0; i < spans.length; i++) {
+            SpanAggregate expected = new SpanAggregate();
+            for (int row = 0; row < fills; row++) {
+                Model_Fueling fd = columns.toFueling(row);
+                if (spans[i] == Model_Fueling.SPAN_ALL_TIME ||
+                        fd.getDateOfFill().after(thresholds[spans[i]]))
+                    expected.add(fd.getDistance(), fd.getVolume(), fd.getPricePaid());
+            }
+
+            Assert.assertEquals(expected.getCount(), actual[i].getCount());
+            Assert.assertEquals(expected.getTotalDistance(), actual[i].getTotalDistance(), 0.001);
+            Assert.assertEquals(expected.getTotalPricePaid(), actual[i].getTotalPricePaid(),
+                    0.001);
+            Assert.assertEquals(expected.getAvgPricePerUnit(), actual[i].getAvgPricePerUnit(),
+                    0.0001f);
+            Assert.assertEquals(expected.getAvgEfficiency(), actual[i].getAvgEfficiency(),
+                    0.0001f);
+        }
+        Assert.assertEquals(fills, actual[0].getCount());
+        Assert.assertTrue(actual[1].getCount() < actual[3].getCount());
+
+        try {
+            columns.getSpanAggregates(now, 7);
+            Assert.fail("Expected an IllegalArgumentException for span 7");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Paging through the store gives every row, in order, including across fills which share a
+     * date.
+     * @throws Exception
+     */
+    @Test
+    public void testPages() throws Exception {
+        FuelingColumns columns = new FuelingColumns();
+        for (int i = 300; i > 0; i--)
+            columns.add(i, 1, NOW - (300 - i) / 3 * DAY_MILLIS, 1f, 1f, 1f, 1f, null, 0f, 0f, NOW);
+
+        FuelingPageSource source = columns.toPageSource();
+        Assert.assertEquals(300, source.getCount());
+        for (int row = 0; row < 300; row++)
+            Assert.assertEquals(columns.getID(row), source.get(row).getID());
+
+        Assert.assertEquals(300, columns.findRowAfter(Long.MIN_VALUE, 0));
+        Assert.assertEquals(0, columns.findRowAfter(Long.MAX_VALUE, Integer.MAX_VALUE));
+        Assert.assertEquals(0, columns.loadPage(NOW - 200 * DAY_MILLIS, 1, 50).size());
+    }
+
+    /**
+     * 100,000 fills, once trimmed, take exactly one slot per fill in each of the arrays (three
+     * ints, two longs and six floats, with no Model_Fueling, Date or String per fill), and hold
+     * each location once, whichever String it came in.
+     * @throws Exception
+     */
+    @Test
+    public void testSizeOfHundredThousandFills() throws Exception {
+        FuelingColumns half = build(MANY_FILLS / 2);
+        FuelingColumns all = build(MANY_FILLS);
+        long untrimmed = all.estimateBytes();
+        half.trimToSize();
+        all.trimToSize();
+
+        Assert.assertEquals(MANY_FILLS, all.size());
+        Assert.assertEquals(LOCATIONS, all.getLocationCount());
+        Assert.assertEquals(LOCATIONS, half.getLocationCount());
+        Assert.assertSame(all.getLocation(0), all.getLocation(MANY_FILLS - LOCATIONS));
+        Assert.assertTrue(all.estimateBytes() < untrimmed);
+        Assert.assertEquals((long) (MANY_FILLS - MANY_FILLS / 2) * (3 * 4 + 2 * 8 + 6 * 4),
+                all.estimateBytes() - half.estimateBytes());
+    }
+
+    /**
+     * Builds count fills, newest first, alternating between two vehicles, with a new String for
+     * each location, as a cursor gives.
+     */
+    private static FuelingColumns build(int count) {
+        FuelingColumns columns = new FuelingColumns();
+        for (int row = 0; row < count; row++) {
+            int id = count - row;
+            columns.add(id, id % 2 + 1, dateOfFill(row), 300f + id % 150, 12f + id % 7,
+                    id % 5 == 0 ? 0f : 30f + id % 40, id * 350f, location(id), 41.25f, -95.93f,
+                    NOW);
+        }
+        return columns;
+    }
+
+    /* One fill every 1.5 days, going back from now */
+    private static long dateOfFill(int row) {
+        return NOW - row * DAY_MILLIS * 3 / 2;
+    }
+
+    private static String location(int id) {
+        return new StringBuilder("Town ").append(id % LOCATIONS).append(", NE").toString();
+    }
+}
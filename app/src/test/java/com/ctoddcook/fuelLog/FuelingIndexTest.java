@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Tests date range queries answered by FuelingIndex, comparing each against the totals built
+ * by adding up the fills in the range one at a time.
+ */
+public class FuelingIndexTest {
+    private static final int VEHICLE_A = 3;
+    private static final int VEHICLE_B = 8;
+
+    private ArrayList<Model_Fueling> mFills;
+
+    /**
+     * Creates two years of fills, every 4 days, alternating between two vehicles, numbered from
+     * 1 for the oldest.
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        mFills = new ArrayList<>();
+
+        Calendar cal = Calendar.getInstance();
+        for (int i = 0; i < 183; i++) {
+            Model_Fueling fd = new Model_Fueling();
+            fd.setFuelingID(183 - i);
+            fd.setVehicleID(i % 2 == 0 ? VEHICLE_A : VEHICLE_B);
+            fd.setDateOfFill(cal.getTime());
+            fd.setDistance(250f + (i * 37) % 200);
+            fd.setVolume(10f + (i * 13) % 9);
+            fd.setPricePaid(i % 10 == 0 ? 0f : 25f + (i * 7) % 30);
+            mFills.add(fd);
+            cal.add(Calendar.DATE, -4);
+        }
+    }
+
+    /**
+     * Checks every calendar month and quarter in the two years, for each vehicle.
+     * @throws Exception
+     */
+    @Test
+    public void testMonthAndQuarterRangesMatchScan() throws Exception {
+        HashMap<Integer, FuelingIndex> indexes = FuelingIndex.byVehicle(mFills);
+        Assert.assertEquals(2, indexes.size());
+        Assert.assertEquals(92, indexes.get(VEHICLE_A).size());
+        Assert.assertEquals(91, indexes.get(VEHICLE_B).size());
+
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.DAY_OF_MONTH, 1);
+        cal.add(Calendar.MONTH, -25);
+
+        for (int month = 0; month < 26; month++) {
+            Date from = cal.getTime();
+            cal.add(Calendar.MONTH, 1);
+            Date toMonthEnd = cal.getTime();
+            cal.add(Calendar.MONTH, 2);
+            Date toQuarterEnd = cal.getTime();
+            cal.add(Calendar.MONTH, -2);
+
+            for (int vehicleID : new int[]{VEHICLE_A, VEHICLE_B}) {
+                assertMatchesScan(indexes.get(vehicleID), vehicleID, from, toMonthEnd);
+                assertMatchesScan(indexes.get(vehicleID), vehicleID, from, toQuarterEnd);
+            }
+        }
+    }
+
+    /**
+     * A range with nothing in it, or with its end before its start, has empty totals.
+     * @throws Exception
+     */
+    @Test
+    public void testEmptyAndReversedRanges() throws Exception {
+        FuelingIndex index = new FuelingIndex(VEHICLE_A, mFills);
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.YEAR, 5);
+        Date future = cal.getTime();
+        cal.add(Calendar.YEAR, -10);
+        Date past = cal.getTime();
+
+        Assert.assertEquals(0, index.getTotalsBetween(future, future).getCount());
+        Assert.assertEquals(0, index.getTotalsBetween(future, past).getCount());
+        Assert.assertEquals(0.0f, index.getTotalsBetween(future, past).getAvgEfficiency());
+        Assert.assertEquals(index.size(), index.getTotalsBetween(past, future).getCount());
+        Assert.assertEquals(index.size(), index.getCountBetween(past, future));
+    }
+
+    /**
+     * Range queries on a FuelingRepository reflect the fills put into and removed from it.
+     * @throws Exception
+     */
+    @Test
+    public void testRepositoryRangeQueryFollowsEdits() throws Exception {
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DATE, 1);
+        Date to = cal.getTime();
+        cal.add(Calendar.MONTH, -2);
+        Date from = cal.getTime();
+
+        FuelingColumns columns = new FuelingColumns();
+        for (Model_Fueling each : mFills) {
+            if (each.getVehicleID() == VEHICLE_A)
+                columns.add(each);
+        }
+        FuelingRepository repository = new FuelingRepository(VEHICLE_A, columns, new Date());
+        double before = repository.getSnapshot().getTotalsBetween(from, to).getTotalDistance();
+
+        Model_Fueling edited = mFills.get(0);
+        edited.setDistance(edited.getDistance() + 100f);
+        FuelingRepository.Snapshot after = repository.put(edited);
+        Assert.assertEquals(before + 100d, after.getTotalsBetween(from, to).getTotalDistance(), 0.01d);
+
+        Model_Fueling removed = mFills.remove(2);
+        after = repository.remove(removed.getID());
+        Assert.assertEquals(before + 100d - removed.getDistance(),
+                after.getTotalsBetween(from, to).getTotalDistance(), 0.01d);
+        assertMatchesScan(new FuelingIndex(VEHICLE_A, after.getColumns()), VEHICLE_A, from, to);
+    }
+
+    /**
+     * Adds up the matching fills one at a time and compares the result with the index query.
+     */
+    private void assertMatchesScan(FuelingIndex index, int vehicleID, Date from, Date to) {
+        SpanAggregate expected = new SpanAggregate();
+        for (Model_Fueling each : mFills) {
+            Date date = each.getDateOfFill();
+            if ((vehicleID == 0 || each.getVehicleID() == vehicleID) && !date.before(from) && date.before(to))
+                expected.add(each);
+        }
+
+        SpanAggregate actual = index.getTotalsBetween(from, to);
+        String range = from + " to " + to;
+
+        Assert.assertEquals(range, expected.getCount(), actual.getCount());
+        Assert.assertEquals(range, expected.getCount(), index.getCountBetween(from, to));
+        Assert.assertEquals(range, expected.getTotalDistance(), actual.getTotalDistance(), 0.01d);
+        Assert.assertEquals(range, expected.getTotalVolume(), actual.getTotalVolume(), 0.01d);
+        Assert.assertEquals(range, expected.getTotalPricePaid(), actual.getTotalPricePaid(), 0.01d);
+        Assert.assertEquals(range, expected.getAvgDistance(), actual.getAvgDistance());
+        Assert.assertEquals(range, expected.getAvgPricePaid(), actual.getAvgPricePaid());
+        Assert.assertEquals(range, expected.getAvgPricePerUnit(), actual.getAvgPricePerUnit());
+        Assert.assertEquals(range, expected.getAvgPricePerDistance(), actual.getAvgPricePerDistance());
+        Assert.assertEquals(range, expected.getAvgEfficiency(), actual.getAvgEfficiency());
+    }
+}
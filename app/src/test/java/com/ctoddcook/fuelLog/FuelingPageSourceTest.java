@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Tests paging through fills with FuelingPageSource. The pages come from a stand-in for the
+ * fueling table: an array of fills sorted newest first, searched the way the keyset query in
+ * DatabaseMap_Fueling.getPageSQL() selects rows.
+ */
+public class FuelingPageSourceTest {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 4;
+
+    private ArrayList<Model_Fueling> mTable;
+
+    @Before
+    public void setUp() throws Exception {
+        mTable = buildTable(1000);
+    }
+
+    /**
+     * Every position returns the same fill as the table, in order, including fills which share
+     * a date of fill across a page boundary.
+     * @throws Exception
+     */
+    @Test
+    public void testScrollReturnsEveryFillInOrder() throws Exception {
+        FuelingPageSource source = new FuelingPageSource(mTable.size(), new TableLoader(mTable),
+                PAGE_SIZE, MAX_PAGES);
+
+        Assert.assertEquals(mTable.size(), source.getCount());
+        for (int i = 0; i < mTable.size(); i++) {
+            Assert.assertSame("Position " + i, mTable.get(i), source.get(i));
+            Assert.assertTrue(source.getCachedPageCount() <= MAX_PAGES);
+        }
+
+        Assert.assertEquals(mTable.size() / PAGE_SIZE, source.getPagesLoaded());
+    }
+
+    /**
+     * Scrolling back over recent pages does not read them again; scrolling back further than
+     * the pages kept does.
+     * @throws Exception
+     */
+    @Test
+    public void testRecentPagesAreKept() throws Exception {
+        FuelingPageSource source = new FuelingPageSource(mTable.size(), new TableLoader(mTable),
+                PAGE_SIZE, MAX_PAGES);
+
+        for (int i = 0; i < PAGE_SIZE * 3; i++)
+            source.get(i);
+        int loaded = source.getPagesLoaded();
+
+        for (int i = PAGE_SIZE * 3 - 1; i >= 0; i--)
+            Assert.assertSame(mTable.get(i), source.get(i));
+        Assert.assertEquals(loaded, source.getPagesLoaded());
+
+        for (int i = 0; i < mTable.size(); i++)
+            source.get(i);
+        loaded = source.getPagesLoaded();
+        Assert.assertSame(mTable.get(0), source.get(0));
+        Assert.assertEquals(loaded + 1, source.getPagesLoaded());
+    }
+
+    /**
+     * The next page is read when a position near the end of the current one is asked for.
+     * @throws Exception
+     */
+    @Test
+    public void testReadsAheadNearEndOfPage() throws Exception {
+        FuelingPageSource source = new FuelingPageSource(mTable.size(), new TableLoader(mTable),
+                PAGE_SIZE, MAX_PAGES);
+
+        source.get(0);
+        Assert.assertEquals(1, source.getPagesLoaded());
+        source.get(PAGE_SIZE - 1);
+        Assert.assertEquals(2, source.getPagesLoaded());
+        source.get(PAGE_SIZE);
+        Assert.assertEquals(2, source.getPagesLoaded());
+    }
+
+    /**
+     * Jumping straight to a position far down the list reads the pages before it (to find where
+     * each one ends), but keeps no more than the maximum in memory.
+     * @throws Exception
+     */
+    @Test
+    public void testJumpAhead() throws Exception {
+        FuelingPageSource source = new FuelingPageSource(mTable.size(), new TableLoader(mTable),
+                PAGE_SIZE, MAX_PAGES);
+
+        Assert.assertSame(mTable.get(777), source.get(777));
+        Assert.assertEquals(777 / PAGE_SIZE + 1, source.getPagesLoaded());
+        Assert.assertEquals(MAX_PAGES, source.getCachedPageCount());
+        Assert.assertSame(mTable.get(123), source.get(123));
+    }
+
+    /**
+     * Fills deleted after the source was created come back as null rather than failing, and
+     * positions outside the list are rejected.
+     * @throws Exception
+     */
+    @Test
+    public void testShrunkTableAndBadPositions() throws Exception {
+        int count = mTable.size();
+        FuelingPageSource source = new FuelingPageSource(count, new TableLoader(mTable),
+                PAGE_SIZE, MAX_PAGES);
+        while (mTable.size() > count - 30)
+            mTable.remove(mTable.size() - 1);
+
+        Assert.assertNotNull(source.get(count - 31));
+        Assert.assertNull(source.get(count - 1));
+
+        try {
+            source.get(count);
+            Assert.fail("Expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        try {
+            new FuelingPageSource(count, new TableLoader(mTable), PAGE_SIZE, 1);
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * With 200,000 fills, showing the first page is quick, and a full scroll never holds more
+     * than the maximum number of pages.
+     * @throws Exception
+     */
+    @Test
+    public void testFirstPageOfTwoHundredThousand() throws Exception {
+        mTable = buildTable(200000);
+        FuelingPageSource source = new FuelingPageSource(mTable.size(), new TableLoader(mTable));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 15; i++)
+            source.get(i);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("First page took " + elapsed + "ms", elapsed < 100);
+
+        for (int i = 0; i < mTable.size(); i++)
+            source.get(i);
+        Assert.assertEquals(FuelingPageSource.DEFAULT_MAX_PAGES, source.getCachedPageCount());
+    }
+
+    /**
+     * Builds fills newest first, two per day, so that pairs share a date of fill.
+     */
+    private static ArrayList<Model_Fueling> buildTable(int count) {
+        ArrayList<Model_Fueling> table = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        Date lastUpdated = new Date(now);
+
+        for (int i = 0; i < count; i++) {
+            Date dateOfFill = new Date(now - (i / 2) * DAY_MILLIS);
+            table.add(new Model_Fueling(count - i, 1, dateOfFill, 300f, 12f, 30f,
+                    i * 350f, "Omaha, NE", 0f, 0f, lastUpdated));
+        }
+
+        return table;
+    }
+
+    /**
+     * Answers page requests from a newest-first list, finding the first fill after the key with
+     * a binary search, as the index on date of fill does for the real query.
+     */
+    private static class TableLoader implements FuelingPageSource.PageLoader {
+        private final ArrayList<Model_Fueling> mRows;
+
+        TableLoader(ArrayList<Model_Fueling> rows) {
+            mRows = rows;
+        }
+
+        @Override
+        public ArrayList<Model_Fueling> loadPage(long beforeDate, int beforeID, int limit) {
+            int low = 0;
+            int high = mRows.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (isAfterKey(mRows.get(mid), beforeDate, beforeID))
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+
+            return new ArrayList<>(mRows.subList(low, Math.min(low + limit, mRows.size())));
+        }
+
+        private static boolean isAfterKey(Model_Fueling f, long beforeDate, int beforeID) {
+            long date = f.getDateOfFill().getTime();
+            return date < beforeDate || (date == beforeDate && f.getID() < beforeID);
+        }
+    }
+}
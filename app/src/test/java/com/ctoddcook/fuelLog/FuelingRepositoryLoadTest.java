@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Checks on building a FuelingRepository from a large number of fills: every fill can be found
+ * by its ID, the dated spans hold exactly the fills after their cutoffs, and the result is the
+ * same whether the fills are read newest first, as DatabaseHelper.fetchFuelingColumns() reads
+ * them, or put one at a time in any other order.
+ */
+public class FuelingRepositoryLoadTest {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int VEHICLE = 1;
+    private static final int LARGE_LOAD = 100000;
+    private static final int SMALL_LOAD = 2000;
+
+    /**
+     * Loads 100,000 fills and checks every one can be found by its ID, and each dated span
+     * counts just the fills after its cutoff.
+     * @throws Exception
+     */
+    @Test
+    public void testLoadOneHundredThousandFills() throws Exception {
+        Date now = new Date();
+        FuelingRepository.Snapshot snapshot =
+                new FuelingRepository(VEHICLE, load(LARGE_LOAD, now), now).getSnapshot();
+
+        Assert.assertEquals(LARGE_LOAD, snapshot.size());
+        for (int id = 1; id <= LARGE_LOAD; id += 997)
+            Assert.assertEquals(id, snapshot.getFueling(id).getFuelingID());
+        Assert.assertNotNull(snapshot.getFueling(LARGE_LOAD));
+
+        Date thresholds[] = Model_Fueling.getSpanThresholds(now);
+        FuelingColumns columns = snapshot.getColumns();
+        int expected[] = new int[Model_Fueling.SPAN_ALL_TIME];
+        for (int row = 0; row < columns.size(); row++) {
+            for (int span = Model_Fueling.SPAN_3_MONTHS; span < Model_Fueling.SPAN_ALL_TIME; span++) {
+                if (columns.getDateOfFill(row) > thresholds[span].getTime())
+                    expected[span]++;
+            }
+        }
+
+        Assert.assertTrue(expected[Model_Fueling.SPAN_3_MONTHS] > 0);
+        for (int span = Model_Fueling.SPAN_3_MONTHS; span < Model_Fueling.SPAN_ALL_TIME; span++)
+            Assert.assertEquals(expected[span], snapshot.getSpanAggregate(span).getCount());
+        Assert.assertEquals(LARGE_LOAD,
+                snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getCount());
+    }
+
+    /**
+     * Fills put one at a time, oldest first, are filed by date; the fills come out newest first,
+     * with the same averages as when read newest first.
+     * @throws Exception
+     */
+    @Test
+    public void testLoadOrderDoesNotMatter() throws Exception {
+        Date now = new Date();
+        FuelingRepository.Snapshot read =
+                new FuelingRepository(VEHICLE, load(SMALL_LOAD, now), now).getSnapshot();
+
+        FuelingRepository repository = new FuelingRepository(VEHICLE, new FuelingColumns(), now);
+        for (int i = 1; i <= SMALL_LOAD; i++)
+            repository.put(fill(i, SMALL_LOAD, now));
+        FuelingRepository.Snapshot put = repository.getSnapshot();
+
+        Assert.assertEquals(read.size(), put.size());
+        for (int row = 0; row < read.size(); row++)
+            Assert.assertEquals(read.getColumns().getID(row), put.getColumns().getID(row));
+        for (int span = Model_Fueling.SPAN_3_MONTHS; span <= Model_Fueling.SPAN_ALL_TIME; span++)
+            Assert.assertEquals(read.getSpanAggregate(span).getAvgDistance(),
+                    put.getSpanAggregate(span).getAvgDistance(), 0f);
+    }
+
+    /*
+     * Builds count fills, one every 1.5 days back from now, numbered from 1 for the oldest,
+     * newest first.
+     */
+    private static FuelingColumns load(int count, Date now) {
+        FuelingColumns columns = new FuelingColumns(count);
+        for (int i = count; i > 0; i--)
+            columns.add(fill(i, count, now));
+        return columns;
+    }
+
+    private static Model_Fueling fill(int i, int count, Date now) {
+        Date dateOfFill = new Date(now.getTime() - (count - i) * DAY_MILLIS * 3 / 2);
+        return new Model_Fueling(i, VEHICLE, dateOfFill, 300f + i % 150, 12f + i % 7,
+                30f + i % 40, i * 350f, "Omaha, NE", 0f, 0f, now);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for FuelingRepository: writes filed in date order, snapshots left as they were when
+ * taken, lookups by ID, totals matching those of the fills themselves, and snapshots read
+ * while another thread writes.
+ */
+public class FuelingRepositoryTest {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long NOW = 1478300000000L;
+    private static final int VEHICLE = 4;
+    private static final int FILLS = 120;
+
+    /**
+     * A new fill is filed in date order, an updated one replaces the old row (moving it if its
+     * date has changed), and a removed one is gone; the snapshot taken before each write is
+     * left as it was.
+     * @throws Exception
+     */
+    @Test
+    public void testPutAndRemove() throws Exception {
+        FuelingRepository repository = repository(FILLS);
+        FuelingRepository.Snapshot before = repository.getSnapshot();
+
+        // Between the 11th and 12th newest fills
+        FuelingRepository.Snapshot after = repository.put(fill(9001, NOW - 31 * DAY_MILLIS, 400f));
+        Assert.assertSame(after, repository.getSnapshot());
+        Assert.assertEquals(FILLS + 1, after.size());
+        Assert.assertEquals(11, after.getRowOfID(9001));
+        assertNewestFirst(after.getColumns());
+        Assert.assertEquals(FILLS, before.size());
+        Assert.assertEquals(-1, before.getRowOfID(9001));
+
+        // The newest fill, moved back a year
+        int newest = after.getColumns().getID(0);
+        after = repository.put(fill(newest, NOW - 365 * DAY_MILLIS, 123f));
+        Assert.assertEquals(FILLS + 1, after.size());
+        assertNewestFirst(after.getColumns());
+        Assert.assertEquals(123f, after.getFueling(newest).getDistance(), 0f);
+        Assert.assertEquals(NOW - 365 * DAY_MILLIS,
+                after.getFueling(newest).getDateOfFill().getTime());
+
+        after = repository.remove(9001);
+        Assert.assertEquals(FILLS, after.size());
+        Assert.assertNull(after.getFueling(9001));
+        Assert.assertSame(after, repository.remove(9001));
+
+        // Moved to another vehicle, or deleted
+        Model_Fueling moved = fill(newest, NOW, 300f);
+        moved.setVehicleID(VEHICLE + 1);
+        moved.setCurrent();
+        Assert.assertEquals(FILLS - 1, repository.put(moved).size());
+        Model_Fueling deleted = after.getFueling(after.getColumns().getID(5));
+        deleted.setDeleted();
+        Assert.assertEquals(FILLS - 2, repository.put(deleted).size());
+
+        try {
+            repository.put(new Model_Fueling());
+            Assert.fail("A fill without an ID was put");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Every fill can be found by its ID, and comes back with the values it was stored with.
+     * @throws Exception
+     */
+    @Test
+    public void testGetFueling() throws Exception {
+        FuelingRepository.Snapshot snapshot = repository(FILLS).getSnapshot();
+        FuelingColumns columns = snapshot.getColumns();
+
+        for (int row = 0; row < columns.size(); row++) {
+            Model_Fueling fd = snapshot.getFueling(columns.getID(row));
+            Assert.assertEquals(row, snapshot.getRowOfID(columns.getID(row)));
+            Assert.assertEquals(columns.getID(row), fd.getID());
+            Assert.assertEquals(columns.getDistance(row), fd.getDistance(), 0f);
+        }
+        Assert.assertNull(snapshot.getFueling(0));
+        Assert.assertNull(snapshot.getFueling(Integer.MAX_VALUE));
+    }
+
+    /**
+     * The span totals match those totaled from the fills themselves, both as stored and once
+     * measured back from a later time; a bad span is refused.
+     * @throws Exception
+     */
+    @Test
+    public void testSpanAggregates() throws Exception {
+        FuelingRepository repository = repository(FILLS);
+        assertSpansMatch(repository.getSnapshot(), new Date(NOW));
+
+        Date later = new Date(NOW + 45 * DAY_MILLIS);
+        FuelingRepository.Snapshot moved = repository.advanceSpansTo(later);
+        Assert.assertEquals(later.getTime(), moved.getMeasuredAt());
+        Assert.assertSame(repository.getSnapshot().getColumns(), moved.getColumns());
+        assertSpansMatch(moved, later);
+
+        assertSpansMatch(repository.put(fill(9001, NOW - 2 * DAY_MILLIS, 500f)), later);
+
+        try {
+            moved.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME + 1);
+            Assert.fail("A bad span was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Moving the spans on a day at a time, with fills put and removed along the way, keeps their
+     * totals the same as those totaled from the fills afresh; so does setting the clock back.
+     * @throws Exception
+     */
+    @Test
+    public void testAdvanceSpansDaily() throws Exception {
+        FuelingRepository repository = repository(FILLS * 4);
+
+        for (int day = 1; day <= 500; day++) {
+            Date now = new Date(NOW + day * DAY_MILLIS);
+            if (day % 45 == 0)
+                repository.put(fill(20000 + day, now.getTime() - 10 * DAY_MILLIS, 100f + day));
+            if (day % 70 == 0)
+                Assert.assertEquals(FILLS * 4 + day / 45 - day / 70,
+                        repository.remove(20000 + day / 45 * 45).size());
+            assertSpansMatch(repository.advanceSpansTo(now), now);
+        }
+
+        Date back = new Date(NOW - 100 * DAY_MILLIS);
+        assertSpansMatch(repository.advanceSpansTo(back), back);
+        Date forward = new Date(NOW + 2000 * DAY_MILLIS);
+        FuelingRepository.Snapshot all = repository.advanceSpansTo(forward);
+        assertSpansMatch(all, forward);
+        Assert.assertEquals(0, all.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getCount());
+    }
+
+    /**
+     * Totals between two dates match those of a FuelingIndex built from the same fills.
+     * @throws Exception
+     */
+    @Test
+    public void testTotalsBetween() throws Exception {
+        FuelingRepository.Snapshot snapshot = repository(FILLS).getSnapshot();
+        FuelingColumns columns = snapshot.getColumns();
+        ArrayList<Model_Fueling> fills = new ArrayList<>();
+        for (int row = 0; row < columns.size(); row++)
+            fills.add(columns.toFueling(row));
+        FuelingIndex expected = new FuelingIndex(VEHICLE, fills);
+
+        for (int from = 0; from < FILLS * 3; from += 17) {
+            for (int length = 1; length < 200; length += 23) {
+                Date start = new Date(NOW - (from + length) * DAY_MILLIS);
+                Date end = new Date(NOW - from * DAY_MILLIS);
+                SpanAggregate want = expected.getTotalsBetween(start, end);
+                SpanAggregate got = snapshot.getTotalsBetween(start, end);
+                Assert.assertEquals(want.getCount(), got.getCount());
+                Assert.assertEquals(want.getTotalDistance(), got.getTotalDistance(), 0.001);
+                Assert.assertEquals(want.getTotalPricePaid(), got.getTotalPricePaid(), 0.001);
+            }
+        }
+    }
+
+    /**
+     * Readers taking snapshots while another thread writes always see a whole snapshot: the
+     * fills in order, every ID indexed, and totals which match the fills.
+     * @throws Exception
+     */
+    @Test
+    public void testReadWhileWriting() throws Exception {
+        final FuelingRepository repository = repository(FILLS);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 400; i++) {
+                    int id = 10000 + i % 50;
+                    if (i % 3 == 2)
+                        repository.remove(id);
+                    else
+                        repository.put(fill(id, NOW - (i * 7 % 300) * DAY_MILLIS, 200f + i));
+                }
+            }
+        });
+
+        Thread readers[] = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 300; i++) {
+                            FuelingRepository.Snapshot snapshot = repository.getSnapshot();
+                            FuelingColumns columns = snapshot.getColumns();
+                            assertNewestFirst(columns);
+                            for (int row = 0; row < columns.size(); row++)
+                                Assert.assertEquals(row, snapshot.getRowOfID(columns.getID(row)));
+                            Assert.assertEquals(columns.size(), snapshot
+                                    .getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getCount());
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers)
+            reader.start();
+        writer.join();
+        for (Thread reader : readers)
+            reader.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertSpansMatch(repository.getSnapshot(), new Date(NOW));
+    }
+
+    private static void assertSpansMatch(FuelingRepository.Snapshot snapshot, Date now) {
+        SpanAggregate expected[] = snapshot.getColumns().getSpanAggregates(now,
+                Model_Fueling.SPAN_3_MONTHS, Model_Fueling.SPAN_6_MONTHS,
+                Model_Fueling.SPAN_ONE_YEAR, Model_Fueling.SPAN_ALL_TIME);
+        SpanAggregate totals[] = snapshot.getSpanAggregates();
+
+        for (int span = Model_Fueling.SPAN_3_MONTHS; span <= Model_Fueling.SPAN_ALL_TIME; span++) {
+            Assert.assertEquals(expected[span].getCount(), totals[span].getCount());
+            Assert.assertEquals(expected[span].getTotalDistance(), totals[span].getTotalDistance(),
+                    0.001);
+            Assert.assertEquals(expected[span].getTotalVolume(), totals[span].getTotalVolume(),
+                    0.001);
+        }
+    }
+
+    private static void assertNewestFirst(FuelingColumns columns) {
+        for (int row = 1; row < columns.size(); row++) {
+            long newer = columns.getDateOfFill(row - 1);
+            long older = columns.getDateOfFill(row);
+            Assert.assertTrue(newer > older ||
+                    (newer == older && columns.getID(row - 1) > columns.getID(row)));
+        }
+    }
+
+    /* A fill of this vehicle's, as saved */
+    private static Model_Fueling fill(int id, long dateOfFill, float distance) {
+        return new Model_Fueling(id, VEHICLE, new Date(dateOfFill), distance, 11f, 28f,
+                id * 300f, "Lincoln, NE", 40.81f, -96.70f, new Date(NOW));
+    }
+
+    /* Fills every 3 days back from now, numbered from 1 for the oldest */
+    private static FuelingRepository repository(int count) {
+        FuelingColumns columns = new FuelingColumns(count);
+        for (int row = 0; row < count; row++) {
+            int id = count - row;
+            columns.add(id, VEHICLE, NOW - row * 3 * DAY_MILLIS, 250f + row % 60, 10f + row % 5,
+                    25f + row % 20, id * 300f, "Omaha, NE", 41.25f, -95.93f, NOW);
+        }
+
+        return new FuelingRepository(VEHICLE, columns, new Date(NOW));
+    }
+}
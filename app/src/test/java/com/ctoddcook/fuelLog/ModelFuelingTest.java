@@ -12,257 +12,150 @@ import org.junit.Test;
 import java.util.Calendar;
 import java.util.Date;
 
+import static com.ctoddcook.CamGenTools.CTools.round;
+
 /**
  * Created by C. Todd Cook on 4/19/2016.
  * ctodd@ctoddcook.com
  */
 public class ModelFuelingTest {
-    private static Model_Fueling fd5;
-    private static Model_Fueling fd25;
-    private static Model_Fueling fd55;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long NOW = 1478300000000L;
+    private static final int VEHICLE = 1;
+
+    private Model_Fueling fd5;
+    private Model_Fueling fd25;
+    private Model_Fueling fd55;
 
-    private static Model_Fueling fd95;
-    private static Model_Fueling fd105;
-    private static Model_Fueling fd169;
+    private Model_Fueling fd95;
+    private Model_Fueling fd105;
+    private Model_Fueling fd169;
 
-    private static Model_Fueling fd191;
-    private static Model_Fueling fd260;
-    private static Model_Fueling fd350;
+    private Model_Fueling fd191;
+    private Model_Fueling fd260;
+    private Model_Fueling fd350;
 
-    private static Model_Fueling fd400;
+    private Model_Fueling fd400;
 
 
     /**
      * This sets up 10 Model_Fueling objects, named "fd###" where ### is a number representing
-     * how many days in the past the fill occurred. For example, fd25 has an mDateOfFill
-     * for 25 days ago.
+     * how many days before NOW the fill occurred, which is also its ID. For example, fd25 has an
+     * mDateOfFill 25 days before NOW.
      *
      * Of the 10 Model_Fueling objects:
-     * -- 3 of them are in the past 60 days, so they should be in all three arrays sFillsInLast60,
-     *    sFillsInLast120 and sFillsInLastYear.
-     * -- 3 more objects are in the past 120 days but not in the past 60, so they should be in both
-     *    sFillsInLast60 and sFillsInLastYear.
-     * -- 3 objects are in the last mYear, but not in the last 120 days, so they should be in only
-     *    the sFillsInLastYear array.
-     * -- 1 final object which is setup to be 400 days old, so it should be in none of the arrays.
+     * -- 3 of them are in the past 3 months, so they should be in all four spans.
+     * -- 3 more objects are in the past 6 months but not in the past 3, so they should be in the
+     *    6-month, one-year and lifetime spans.
+     * -- 3 objects are in the last year, but not in the last 6 months, so they should be in only
+     *    the one-year and lifetime spans.
+     * -- 1 final object which is setup to be 400 days old, so it should be in the lifetime span
+     *    only.
      *
-     * These objects can then be used for testing that the arrays are setup and updated correctly,
-     * and that averages are being calculated correctly.
+     * Each test sets the values it depends on, then files the objects in a FuelingRepository
+     * measured from NOW (see repository()) to read the span totals back.
      *
      * @throws Exception
      */
     @Before
     public void setUp() throws Exception {
-        Calendar cal;
-
-        /*
-        These first three Model_Fueling objects should all end up in the sFillsInLast60, sFillsInLast120
-        and sFillsInLastYear arrays.
-         */
-        if (fd5 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -5);
-            fd5 = new Model_Fueling();
-            fd5.setDateOfFill(cal.getTime());
-            fd5.setDistance(350.9f);
-            fd5.setPricePaid(38.45f);
-            fd5.setVolume(18.987f);
-        }
-
-        if (fd25 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -25);
-            fd25 = new Model_Fueling();
-            fd25.setDateOfFill(cal.getTime());
-            fd25.setDistance(297.6f);
-            fd25.setPricePaid(35.70f);
-            fd25.setVolume(17.702f);
-        }
+        fd5 = fixture(5, 350.9f, 38.45f, 18.987f);
+        fd25 = fixture(25, 297.6f, 35.70f, 17.702f);
+        fd55 = fixture(55, 425.7f, 43.40f, 16.443f);
 
-        if (fd55 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -55);
-            fd55 = new Model_Fueling();
-            fd55.setDateOfFill(cal.getTime());
-            fd55.setDistance(425.7f);
-            fd55.setPricePaid(43.40f);
-            fd55.setVolume(16.443f);
-        }
-
-        /*
-        These next three objects should end up in the sFillsInLast120 and sFillsInLastYear arrays.
-        */
-        if (fd95 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -95);
-            fd95 = new Model_Fueling();
-            fd95.setDateOfFill(cal.getTime());
-            fd95.setDistance(350.9f);
-            fd95.setPricePaid(43.15f);
-            fd95.setVolume(17.499f);
-        }
+        fd95 = fixture(95, 350.9f, 43.15f, 17.499f);
+        fd105 = fixture(105, 416.4f, 27.27f, 17.982f);
+        fd169 = fixture(169, 524.1f, 46.17f, 19.243f);
 
-        if (fd105 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -105);
-            fd105 = new Model_Fueling();
-            fd105.setDateOfFill(cal.getTime());
-            fd105.setDistance(416.4f);
-            fd105.setPricePaid(27.27f);
-            fd105.setVolume(17.982f);
-        }
-
-        if (fd169 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -169);
-            fd169 = new Model_Fueling();
-            fd169.setDateOfFill(cal.getTime());
-            fd169.setDistance(524.1f);
-            fd169.setPricePaid(46.17f);
-            fd169.setVolume(19.243f);
-        }
+        fd191 = fixture(191, 423.7f, 36.23f, 18.241f);
+        fd260 = fixture(260, 360.1f, 40.18f, 19.032f);
+        fd350 = fixture(350, 382.8f, 39.04f, 17.045f);
 
-        /*
-        These next three objects should end up in the sFillsInLastYear only.
-         */
-        if (fd191 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -191);
-            fd191 = new Model_Fueling();
-            fd191.setDateOfFill(cal.getTime());
-            fd191.setDistance(423.7f);
-            fd191.setPricePaid(36.23f);
-            fd191.setVolume(18.241f);
-        }
-
-        if (fd260 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -260);
-            fd260 = new Model_Fueling();
-            fd260.setDateOfFill(cal.getTime());
-            fd260.setDistance(360.1f);
-            fd260.setPricePaid(40.18f);
-            fd260.setVolume(19.032f);
-        }
+        fd400 = fixture(400, 402.8f, 37.63f, 18.543f);
+    }
 
-        if (fd350 == null) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -350);
-            fd350 = new Model_Fueling();
-            fd350.setDateOfFill(cal.getTime());
-            fd350.setDistance(382.8f);
-            fd350.setPricePaid(39.04f);
-            fd350.setVolume(17.045f);
-        }
+    /* A saved fill for VEHICLE, daysAgo days before NOW, with daysAgo as its ID */
+    private static Model_Fueling fixture(int daysAgo, float distance, float pricePaid,
+                                         float volume) {
+        return new Model_Fueling(daysAgo, VEHICLE, daysBeforeNow(daysAgo), distance, volume,
+                pricePaid, 10000f - daysAgo, "Omaha, NE", 41.25f, -95.93f, new Date(NOW));
+    }
 
-        /*
-        This last object should not be found in any of the arrays.
-         */
-        if (fd400 == null ) {
-            cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, -400);
-            fd400 = new Model_Fueling();
-            fd400.setDateOfFill(cal.getTime());
-            fd400.setDistance(402.8f);
-            fd400.setPricePaid(37.63f);
-            fd400.setVolume(18.543f);
-        }
+    private static Date daysBeforeNow(int days) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(NOW);
+        cal.add(Calendar.DATE, -days);
+        return cal.getTime();
     }
 
     /**
-     * Used to reset the Model_Fueling instances and subsequently set them up again
-     * @throws Exception
+     * Files the fixtures, with their values as they now stand, in a new FuelingRepository
+     * measured from NOW.
      */
-    private void reset() throws Exception {
-        fd5 = null;
-        fd25 = null;
-        fd55 = null;
-        fd95 = null;
-        fd105 = null;
-        fd169 = null;
-        fd191 = null;
-        fd260 = null;
-        fd350 = null;
-        fd400 = null;
+    private FuelingRepository repository() {
+        FuelingColumns columns = new FuelingColumns();
+        for (Model_Fueling each : new Model_Fueling[]{fd5, fd25, fd55, fd95, fd105, fd169, fd191,
+                fd260, fd350, fd400})
+            columns.add(each);
 
-        this.setUp();
+        return new FuelingRepository(VEHICLE, columns, new Date(NOW));
     }
 
 
 
 
     /*
-    Test methods which manage the ArrayLists
+    Test methods which manage the spans
      */
 
     /**
-     * Check the size of the 4 ArrayLists of Model_Fueling objects containing the Model_Fueling instances
-     * instantiated in the setUp() method. These tests are very dependent on the number of
-     * instances created and the mDataOfFill data set into them.
+     * Check the number of fills in each span, from the fixtures set up in the setUp() method.
+     * These tests are very dependent on the number of instances created and the mDataOfFill
+     * data set into them.
      * @throws Exception
      */
     @Test
     public void testCountsInArrays() throws Exception {
-        Assert.assertEquals(3, Model_Fueling.getThreeMonthsRowCount());
-        Assert.assertEquals(6, Model_Fueling.getSixMonthsRowCount());
-        Assert.assertEquals(9, Model_Fueling.getOneYearRowCount());
-        Assert.assertEquals(10, Model_Fueling.getLifetimeRowCount());
+        FuelingRepository.Snapshot snapshot = repository().getSnapshot();
+        Assert.assertEquals(3, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS).getCount());
+        Assert.assertEquals(6, snapshot.getSpanAggregate(Model_Fueling.SPAN_6_MONTHS).getCount());
+        Assert.assertEquals(9, snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getCount());
+        Assert.assertEquals(10, snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getCount());
     }
 
     /**
-     * Check the clearSpans() and clearAll() methods. These tests are very dependent on the number
-     * of instances created and the mDataOfFill data set into them, in the setUp() method.
+     * Test that a fill is properly included in, and later removed from, the spans it falls in.
+     * We create a Model_Fueling 230 days old and put it in the repository, check the span
+     * counts, then remove it and re-check the counts.
      * @throws Exception
      */
     @Test
-    public void testArrayClears() throws Exception {
-        Model_Fueling.clearSpans();
-        Assert.assertEquals(0, Model_Fueling.getThreeMonthsRowCount());   // Should be empty
-        Assert.assertEquals(0, Model_Fueling.getSixMonthsRowCount());  // Should be empty
-        Assert.assertEquals(0, Model_Fueling.getOneYearRowCount());  // Should be empty
-        Assert.assertEquals(10, Model_Fueling.getLifetimeRowCount());     // Should NOT be empty
+    public void testFillDataInclusionAndRemoval() throws Exception {
+        FuelingRepository repository = repository();
+        int before[] = spanCounts(repository.getSnapshot());
 
-        Model_Fueling.clearAll();
-        Assert.assertEquals(0, Model_Fueling.getLifetimeRowCount());      // Now, should be empty
+        // By setting the date to 230 days ago, we should find that the one-year and lifetime
+        // counts have increased by 1. The other two counts should not have changed.
+        Model_Fueling fd = fixture(230, 400f, 40f, 18f);
+        int after[] = spanCounts(repository.put(fd));
 
-        this.reset();       // Return arrays to "setup" state
-    }
+        Assert.assertEquals(before[Model_Fueling.SPAN_3_MONTHS], after[Model_Fueling.SPAN_3_MONTHS]);
+        Assert.assertEquals(before[Model_Fueling.SPAN_6_MONTHS], after[Model_Fueling.SPAN_6_MONTHS]);
+        Assert.assertEquals(before[Model_Fueling.SPAN_ONE_YEAR] + 1, after[Model_Fueling.SPAN_ONE_YEAR]);
+        Assert.assertEquals(before[Model_Fueling.SPAN_ALL_TIME] + 1, after[Model_Fueling.SPAN_ALL_TIME]);
 
-    /**
-     * Test that a Model_Fueling object is properly included and later removed from ArrayLists.
-     * We can't do this directly, since the ArrayLists are private. So we create a Model_Fueling and
-     * set it's date, then check ArrayList counts, then call remove() and re-check the
-     * ArrayList counts.
-     * @throws Exception
-     */
-    @Test
-    public void testFillDataInclusionAndRemoval() throws Exception {
-        Model_Fueling fd = new Model_Fueling();
-        Calendar cal = Calendar.getInstance();
-        long count60 = Model_Fueling.getThreeMonthsRowCount();
-        long count120 = Model_Fueling.getSixMonthsRowCount();
-        long countYear = Model_Fueling.getOneYearRowCount();
-        long countAll = Model_Fueling.getLifetimeRowCount();
-
-        // By setting the date to 230 days ago, we should find that getOneYearRowCount() and
-        // getLifetimeRowCount() now return values which have increased by 1. The other two counts
-        // should not have changed.
-        cal.add(Calendar.DATE, -230);
-        fd.setDateOfFill(cal.getTime());
-
-        Assert.assertEquals(count60, Model_Fueling.getThreeMonthsRowCount());         // s/b unchanged
-        Assert.assertEquals(count120, Model_Fueling.getSixMonthsRowCount());       // s/b unchanged
-        Assert.assertEquals(countYear+1, Model_Fueling.getOneYearRowCount());    // s/b one greater
-        Assert.assertEquals(countAll+1, Model_Fueling.getLifetimeRowCount());         // s/b one greater
-
-        // Now we call remove, and re-check counts. All counts should then match
+        // Now we remove it, and re-check counts. All counts should then match
         // their original values.
+        after = spanCounts(repository.remove(fd.getID()));
+        for (int span = Model_Fueling.SPAN_3_MONTHS; span <= Model_Fueling.SPAN_ALL_TIME; span++)
+            Assert.assertEquals(before[span], after[span]);
+    }
 
-        Model_Fueling.remove(fd);
-        Assert.assertEquals(count60, Model_Fueling.getThreeMonthsRowCount());         // s/b unchanged
-        Assert.assertEquals(count120, Model_Fueling.getSixMonthsRowCount());       // s/b unchanged
-        Assert.assertEquals(countYear, Model_Fueling.getOneYearRowCount());      // s/b back to original
-        Assert.assertEquals(countAll, Model_Fueling.getLifetimeRowCount());           // s/b back to original
+    private static int[] spanCounts(FuelingRepository.Snapshot snapshot) {
+        int counts[] = new int[Model_Fueling.SPAN_ALL_TIME + 1];
+        for (int span = Model_Fueling.SPAN_3_MONTHS; span <= Model_Fueling.SPAN_ALL_TIME; span++)
+            counts[span] = snapshot.getSpanAggregate(span).getCount();
+        return counts;
     }
 
 
@@ -273,27 +166,27 @@ public class ModelFuelingTest {
      */
 
     /**
-     * Tests that the appropriate span constants are accepted. All of the getXxxOverSpan methods
-     * call the private Model_Fueling.getListForSpan(), which checks the argument and throws
-     * an exception if the argument is not acceptable.
+     * Tests that the appropriate span constants are accepted. Snapshot.getSpanAggregate()
+     * checks the argument and throws an exception if the argument is not acceptable.
      * @throws Exception
      */
     @Test
     public void testGetAvgDistanceShouldPassWithCorrectArgument() throws Exception {
-        Model_Fueling.getAvgDistanceOverSpan(Model_Fueling.SPAN_3_MONTHS);      // expect no error
-        Model_Fueling.getAvgDistanceOverSpan(Model_Fueling.SPAN_6_MONTHS);      // expect no error
-        Model_Fueling.getAvgDistanceOverSpan(Model_Fueling.SPAN_ONE_YEAR);      // expect no error
-        Model_Fueling.getAvgDistanceOverSpan(Model_Fueling.SPAN_ALL_TIME);      // expect no error
+        FuelingRepository.Snapshot snapshot = repository().getSnapshot();
+        snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS).getAvgDistance();   // expect no error
+        snapshot.getSpanAggregate(Model_Fueling.SPAN_6_MONTHS).getAvgDistance();   // expect no error
+        snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getAvgDistance();   // expect no error
+        snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getAvgDistance();   // expect no error
     }
 
     /**
-     * Pass a "bad" argument through to the private Model_Fueling.getListForSpan() to be sure
-     * it throws an exception.
+     * Pass a "bad" argument through to Snapshot.getSpanAggregate() to be sure it throws an
+     * exception.
      * @throws Exception
      */
     @Test(expected = IllegalArgumentException.class)
     public void testGetAvgDistanceShouldFailOnWrongArgument() throws Exception {
-        Model_Fueling.getAvgDistanceOverSpan(55);                          // Should fail
+        repository().getSnapshot().getSpanAggregate(55).getAvgDistance();           // Should fail
     }
 
     /**
@@ -305,12 +198,25 @@ public class ModelFuelingTest {
         Model_Fueling fd = new Model_Fueling();
         fd.setVolume(18.987f);
         fd.setDistance(350.9f);
-        Assert.assertEquals(18.5f, fd5.getEfficiency());
+        Assert.assertEquals(18.5f, fd.getEfficiency());
+    }
+
+    /**
+     * Test the calculation of price per gallon (or litre).
+     * @throws Exception
+     */
+    @Test
+    public void testPricePerUnit() throws Exception {
+        Model_Fueling fd = new Model_Fueling();
+
+        fd.setVolume(18.987f);
+        fd.setPricePaid(37.39f);
+
+        Assert.assertEquals(1.969f, fd.getPricePerUnit());
     }
 
     /**
-     * Test the "Span" arrays to be sure they return the correct average
-     * mileage.
+     * Test the spans to be sure they return the correct average mileage.
      * @throws Exception
      */
     @Test
@@ -351,24 +257,11 @@ public class ModelFuelingTest {
         fd400.setDistance(443.7f);
         fd400.setVolume(18.173f);
 
-        Assert.assertEquals(20.2f, Model_Fueling.getAvgEfficiencyOverSpan(Model_Fueling.SPAN_3_MONTHS));
-        Assert.assertEquals(21.9f, Model_Fueling.getAvgEfficiencyOverSpan(Model_Fueling.SPAN_6_MONTHS));
-        Assert.assertEquals(21.8f, Model_Fueling.getAvgEfficiencyOverSpan(Model_Fueling.SPAN_ONE_YEAR));
-        Assert.assertEquals(22.0f, Model_Fueling.getAvgEfficiencyOverSpan(Model_Fueling.SPAN_ALL_TIME));
-        }
-
-    /**
-     * Test the calculation of price per gallon (or litre).
-     * @throws Exception
-     */
-    @Test
-    public void testPricePerUnit() throws Exception {
-        Model_Fueling fd = new Model_Fueling();
-
-        fd.setVolume(18.987f);
-        fd.setPricePaid(37.39f);
-
-        Assert.assertEquals(1.969f, fd.getPricePerUnit());
+        FuelingRepository.Snapshot snapshot = repository().getSnapshot();
+        Assert.assertEquals(20.2f, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS).getAvgEfficiency());
+        Assert.assertEquals(21.9f, snapshot.getSpanAggregate(Model_Fueling.SPAN_6_MONTHS).getAvgEfficiency());
+        Assert.assertEquals(21.8f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getAvgEfficiency());
+        Assert.assertEquals(22.0f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getAvgEfficiency());
     }
 
     /**
@@ -414,19 +307,19 @@ public class ModelFuelingTest {
         fd400.setPricePaid(36.75f);
         fd400.setVolume(18.173f);
 
-        Assert.assertEquals(2.192f, Model_Fueling.getAvgPricePerUnitOverSpan(Model_Fueling
-                .SPAN_3_MONTHS));
-        Assert.assertEquals(2.161f, Model_Fueling.getAvgPricePerUnitOverSpan(Model_Fueling
-                .SPAN_6_MONTHS));
-        Assert.assertEquals(2.149f, Model_Fueling.getAvgPricePerUnitOverSpan(Model_Fueling
-                .SPAN_ONE_YEAR));
-        Assert.assertEquals(2.136f, Model_Fueling.getAvgPricePerUnitOverSpan(Model_Fueling
-                .SPAN_ALL_TIME));
+        FuelingRepository.Snapshot snapshot = repository().getSnapshot();
+        Assert.assertEquals(2.192f, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS)
+                .getAvgPricePerUnit());
+        Assert.assertEquals(2.161f, snapshot.getSpanAggregate(Model_Fueling.SPAN_6_MONTHS)
+                .getAvgPricePerUnit());
+        Assert.assertEquals(2.149f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR)
+                .getAvgPricePerUnit());
+        Assert.assertEquals(2.136f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME)
+                .getAvgPricePerUnit());
     }
 
     /**
-     * Tests the calculation of average total price paid per fill over each of the "span"
-     * arrays.
+     * Tests the calculation of average total price paid per fill over each of the spans.
      * @throws Exception
      */
     @Test
@@ -448,15 +341,21 @@ public class ModelFuelingTest {
         fd350.setPricePaid(39.04f);
         fd400.setPricePaid(36.75f);
 
-        Assert.assertEquals(38.83f, Model_Fueling.getAvgPricePaidOverSpan(Model_Fueling.SPAN_3_MONTHS));
-        Assert.assertEquals(38.85f, Model_Fueling.getAvgPricePaidOverSpan(Model_Fueling.SPAN_6_MONTHS));
-        Assert.assertEquals(38.73f, Model_Fueling.getAvgPricePaidOverSpan(Model_Fueling.SPAN_ONE_YEAR));
-        Assert.assertEquals(38.53f, Model_Fueling.getAvgPricePaidOverSpan(Model_Fueling.SPAN_ALL_TIME));
+        FuelingRepository.Snapshot snapshot = repository().getSnapshot();
+        Assert.assertEquals(38.83f, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS).getAvgPricePaid());
+        Assert.assertEquals(38.85f, snapshot.getSpanAggregate(Model_Fueling.SPAN_6_MONTHS).getAvgPricePaid());
+        Assert.assertEquals(38.73f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getAvgPricePaid());
+        Assert.assertEquals(38.53f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getAvgPricePaid());
     }
 
+    /**
+     * Tests the average volume per fill over each of the spans. Averages of volume are rounded
+     * to 3 decimal places, like the volumes themselves.
+     * @throws Exception
+     */
     @Test
     public void testVolumeOverSpan() throws Exception {
-                /*
+        /*
         Set the volume parameters here. They may have been set elsewhere, but we
         need to control the values here so we know what the results should be. IT'S IMPORTANT
         THAT THESE VALUES NOT BE CHANGED WITHOUT UPDATING THE EXPECTED VALUES IN THE ASSERT()
@@ -473,15 +372,16 @@ public class ModelFuelingTest {
         fd350.setVolume(17.045f);
         fd400.setVolume(18.173f);
 
-        Assert.assertEquals(17.7f, Model_Fueling.getAvgVolumeOverSpan(Model_Fueling.SPAN_3_MONTHS));
-        Assert.assertEquals(18.0f, Model_Fueling.getAvgVolumeOverSpan(Model_Fueling.SPAN_6_MONTHS));
-        Assert.assertEquals(18.0f, Model_Fueling.getAvgVolumeOverSpan(Model_Fueling.SPAN_ONE_YEAR));
-        Assert.assertEquals(18.0f, Model_Fueling.getAvgVolumeOverSpan(Model_Fueling.SPAN_ALL_TIME));
+        FuelingRepository.Snapshot snapshot = repository().getSnapshot();
+        Assert.assertEquals(17.711f, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS).getAvgVolume());
+        Assert.assertEquals(17.976f, snapshot.getSpanAggregate(Model_Fueling.SPAN_6_MONTHS).getAvgVolume());
+        Assert.assertEquals(18.019f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getAvgVolume());
+        Assert.assertEquals(18.035f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getAvgVolume());
     }
 
     @Test
     public void testDistanceOverSpan() throws Exception {
-                /*
+        /*
         Set the distance parameters here. They may have been set elsewhere, but we
         need to control the values here so we know what the results should be. IT'S IMPORTANT
         THAT THESE VALUES NOT BE CHANGED WITHOUT UPDATING THE EXPECTED VALUES IN THE ASSERT()
@@ -498,15 +398,15 @@ public class ModelFuelingTest {
         fd350.setDistance(382.8f);
         fd400.setDistance(443.7f);
 
-        Assert.assertEquals(358.1f, Model_Fueling.getAvgDistanceOverSpan(Model_Fueling.SPAN_3_MONTHS));
-        Assert.assertEquals(394.3f, Model_Fueling.getAvgDistanceOverSpan(Model_Fueling.SPAN_6_MONTHS));
-        Assert.assertEquals(392.5f, Model_Fueling.getAvgDistanceOverSpan(Model_Fueling.SPAN_ONE_YEAR));
-        Assert.assertEquals(397.6f, Model_Fueling.getAvgDistanceOverSpan(Model_Fueling.SPAN_ALL_TIME));
+        FuelingRepository.Snapshot snapshot = repository().getSnapshot();
+        Assert.assertEquals(358.1f, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS).getAvgDistance());
+        Assert.assertEquals(394.3f, snapshot.getSpanAggregate(Model_Fueling.SPAN_6_MONTHS).getAvgDistance());
+        Assert.assertEquals(392.5f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getAvgDistance());
+        Assert.assertEquals(397.6f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getAvgDistance());
     }
 
     /**
-     * Test the "span" arrays to be sure they return the correct calculation for average
-     * price/distance
+     * Test the spans to be sure they return the correct calculation for average price/distance
      * @throws Exception
      */
     @Test
@@ -548,14 +448,242 @@ public class ModelFuelingTest {
         fd400.setDistance(443.7f);
         fd400.setPricePaid(36.75f);
 
-        Assert.assertEquals(0.108f, Model_Fueling.getAvgPricePerDistanceOverSpan(Model_Fueling
-                .SPAN_3_MONTHS));
-        Assert.assertEquals(0.099f, Model_Fueling.getAvgPricePerDistanceOverSpan(Model_Fueling
-                .SPAN_6_MONTHS));
-        Assert.assertEquals(0.099f, Model_Fueling.getAvgPricePerDistanceOverSpan(Model_Fueling
-                .SPAN_ONE_YEAR));
-        Assert.assertEquals(0.097f, Model_Fueling.getAvgPricePerDistanceOverSpan(Model_Fueling
-                .SPAN_ALL_TIME));
+        FuelingRepository.Snapshot snapshot = repository().getSnapshot();
+        Assert.assertEquals(0.108f, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS)
+                .getAvgPricePerDistance());
+        Assert.assertEquals(0.099f, snapshot.getSpanAggregate(Model_Fueling.SPAN_6_MONTHS)
+                .getAvgPricePerDistance());
+        Assert.assertEquals(0.099f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR)
+                .getAvgPricePerDistance());
+        Assert.assertEquals(0.097f, snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME)
+                .getAvgPricePerDistance());
+    }
+
+    /**
+     * The span averages are read from running totals kept by FuelingRepository rather than by
+     * walking the fills. This recomputes every average by scanning the fixtures, and checks the
+     * running totals agree for each span -- both as set up and after fields are changed on
+     * fills which are already in the spans.
+     * @throws Exception
+     */
+    @Test
+    public void testSpanTotalsMatchListScan() throws Exception {
+        FuelingRepository repository = repository();
+        assertSpanTotalsMatchScan(repository.getSnapshot());
+
+        fd5.setDistance(401.2f);
+        fd55.setPricePaid(0f);
+        fd105.setVolume(21.337f);
+        fd260.setPricePaid(51.09f);
+        fd400.setDistance(0f);
+        for (Model_Fueling each : new Model_Fueling[]{fd5, fd55, fd105, fd260, fd400})
+            repository.put(each);
+        assertSpanTotalsMatchScan(repository.getSnapshot());
+    }
+
+    /**
+     * Checks that the running totals stay in step as a fill is moved between spans by changing
+     * its date, and again once it is removed.
+     * @throws Exception
+     */
+    @Test
+    public void testSpanTotalsFollowDateChangeAndRemoval() throws Exception {
+        FuelingRepository repository = repository();
+        Date originalDate = fd169.getDateOfFill();
+
+        fd169.setDateOfFill(daysBeforeNow(20));     // Now in all 4 spans
+        SpanAggregate threeMonths = repository.put(fd169).getSpanAggregate(Model_Fueling.SPAN_3_MONTHS);
+        Model_Fueling[][] fillsBySpan = getFixturesBySpan();
+        Assert.assertEquals(fillsBySpan[Model_Fueling.SPAN_3_MONTHS].length + 1, threeMonths.getCount());
+        float[] expected = scanAverages(fd5, fd25, fd55, fd169);
+        Assert.assertEquals(expected[0], threeMonths.getAvgDistance());
+        Assert.assertEquals(expected[5], threeMonths.getAvgEfficiency());
+
+        fd169.setDateOfFill(originalDate);      // Back in the 6-month, one-year and lifetime spans
+        assertSpanTotalsMatchScan(repository.put(fd169));
+
+        SpanAggregate oneYear = repository.remove(fd350.getID())
+                .getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR);
+        expected = scanAverages(fd5, fd25, fd55, fd95, fd105, fd169, fd191, fd260);
+        Assert.assertEquals(expected[0], oneYear.getAvgDistance());
+        Assert.assertEquals(expected[2], oneYear.getAvgPricePaid());
+        Assert.assertEquals(expected[4], oneYear.getAvgPricePerDistance());
+    }
+
+    /**
+     * Moves "now" 40 days into the future and checks that fills age out of the dated spans,
+     * and their values out of the totals, without being reloaded. Then moves back to NOW.
+     * @throws Exception
+     */
+    @Test
+    public void testAdvanceSpansAgesOutFills() throws Exception {
+        FuelingRepository repository = repository();
+        FuelingRepository.Snapshot snapshot = repository.advanceSpansTo(daysBeforeNow(-40));
+
+        int counts[] = spanCounts(snapshot);
+        Assert.assertEquals(2, counts[Model_Fueling.SPAN_3_MONTHS]);     // fd55 aged out
+        Assert.assertEquals(5, counts[Model_Fueling.SPAN_6_MONTHS]);     // fd169 aged out
+        Assert.assertEquals(8, counts[Model_Fueling.SPAN_ONE_YEAR]);     // fd350 aged out
+        Assert.assertEquals(10, counts[Model_Fueling.SPAN_ALL_TIME]);
+
+        SpanAggregate threeMonths = snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS);
+        float[] expected = scanAverages(fd5, fd25);
+        Assert.assertEquals(expected[0], threeMonths.getAvgDistance());
+        Assert.assertEquals(expected[3], threeMonths.getAvgPricePerUnit());
+        Assert.assertEquals(expected[5], threeMonths.getAvgEfficiency());
+
+        expected = scanAverages(fd5, fd25, fd55, fd95, fd105, fd169, fd191, fd260);
+        Assert.assertEquals(expected[2],
+                snapshot.getSpanAggregate(Model_Fueling.SPAN_ONE_YEAR).getAvgPricePaid());
+
+        assertSpanTotalsMatchScan(repository.advanceSpansTo(new Date(NOW)));    // Back to NOW
+    }
+
+    /**
+     * The fills are kept newest-first, including after a fill's date is changed.
+     * @throws Exception
+     */
+    @Test
+    public void testFuelingListIsNewestFirst() throws Exception {
+        FuelingRepository repository = repository();
+        Date originalDate = fd25.getDateOfFill();
+
+        fd25.setDateOfFill(daysBeforeNow(200));
+        FuelingRepository.Snapshot snapshot = repository.put(fd25);
+        assertNewestFirst(snapshot);
+        Assert.assertEquals(5, snapshot.getRowOfID(fd191.getID()));
+        Assert.assertEquals(6, snapshot.getRowOfID(fd25.getID()));
+
+        fd25.setDateOfFill(originalDate);
+        snapshot = repository.put(fd25);
+        assertNewestFirst(snapshot);
+        Assert.assertEquals(1, snapshot.getRowOfID(fd25.getID()));
+    }
+
+    /**
+     * Removed fills leave the counts and totals straight away, and the list, which stays
+     * newest-first. A removed fill does not rejoin a span when the clock moves back, and can be
+     * put back. A fill put while marked deleted is taken out instead.
+     * @throws Exception
+     */
+    @Test
+    public void testRemoveAndReinstate() throws Exception {
+        FuelingRepository repository = repository();
+        repository.remove(fd25.getID());
+        FuelingRepository.Snapshot snapshot = repository.remove(fd95.getID());
+        Assert.assertEquals(8, snapshot.size());
+        Assert.assertEquals(8, snapshot.getSpanAggregate(Model_Fueling.SPAN_ALL_TIME).getCount());
+        SpanAggregate threeMonths = snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS);
+        Assert.assertEquals(2, threeMonths.getCount());
+        Assert.assertEquals(scanAverages(fd5, fd55)[0], threeMonths.getAvgDistance());
+
+        // A month back, fd95 would be in the 3-month span, but it has been removed
+        snapshot = repository.advanceSpansTo(daysBeforeNow(30));
+        Assert.assertEquals(3, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS).getCount()); // fd5, fd55, fd105
+        snapshot = repository.advanceSpansTo(new Date(NOW));
+        Assert.assertEquals(2, snapshot.getSpanAggregate(Model_Fueling.SPAN_3_MONTHS).getCount());
+
+        Assert.assertEquals(-1, snapshot.getRowOfID(fd25.getID()));
+        Assert.assertEquals(-1, snapshot.getRowOfID(fd95.getID()));
+        assertNewestFirst(snapshot);
+
+        repository.remove(fd55.getID());
+        repository.put(fd55);
+        repository.put(fd25);
+        snapshot = repository.put(fd95);
+        Assert.assertEquals(10, snapshot.size());
+        assertNewestFirst(snapshot);
+        assertSpanTotalsMatchScan(snapshot);
+
+        fd400.setDeleted();
+        snapshot = repository.put(fd400);
+        Assert.assertEquals(9, snapshot.size());
+        Assert.assertEquals(-1, snapshot.getRowOfID(fd400.getID()));
+    }
+
+    /**
+     * Asserts that no fill in a snapshot is dated after the one before it.
+     */
+    private static void assertNewestFirst(FuelingRepository.Snapshot snapshot) {
+        FuelingColumns fills = snapshot.getColumns();
+        for (int row = 1; row < fills.size(); row++)
+            Assert.assertFalse(fills.getDateOfFill(row) > fills.getDateOfFill(row - 1));
+    }
+
+    /**
+     * Returns the fixtures grouped by the span(s) they should fall into, indexed by the
+     * Model_Fueling.SPAN_* constants.
+     */
+    private Model_Fueling[][] getFixturesBySpan() {
+        Model_Fueling[][] fillsBySpan = new Model_Fueling[4][];
+        fillsBySpan[Model_Fueling.SPAN_3_MONTHS] = new Model_Fueling[]{fd5, fd25, fd55};
+        fillsBySpan[Model_Fueling.SPAN_6_MONTHS] = new Model_Fueling[]{fd5, fd25, fd55, fd95,
+                fd105, fd169};
+        fillsBySpan[Model_Fueling.SPAN_ONE_YEAR] = new Model_Fueling[]{fd5, fd25, fd55, fd95,
+                fd105, fd169, fd191, fd260, fd350};
+        fillsBySpan[Model_Fueling.SPAN_ALL_TIME] = new Model_Fueling[]{fd5, fd25, fd55, fd95,
+                fd105, fd169, fd191, fd260, fd350, fd400};
+        return fillsBySpan;
+    }
+
+    /**
+     * Asserts, for every span, that each average matches a scan of the fixtures in that span.
+     */
+    private void assertSpanTotalsMatchScan(FuelingRepository.Snapshot snapshot) {
+        Model_Fueling[][] fillsBySpan = getFixturesBySpan();
+
+        for (int span = Model_Fueling.SPAN_3_MONTHS; span <= Model_Fueling.SPAN_ALL_TIME; span++) {
+            float[] expected = scanAverages(fillsBySpan[span]);
+            SpanAggregate totals = snapshot.getSpanAggregate(span);
+            String period = Model_Fueling.getSpanPeriod(span);
+
+            Assert.assertEquals(period, expected[0], totals.getAvgDistance());
+            Assert.assertEquals(period, expected[1], totals.getAvgVolume());
+            Assert.assertEquals(period, expected[2], totals.getAvgPricePaid());
+            Assert.assertEquals(period, expected[3], totals.getAvgPricePerUnit());
+            Assert.assertEquals(period, expected[4], totals.getAvgPricePerDistance());
+            Assert.assertEquals(period, expected[5], totals.getAvgEfficiency());
+        }
+    }
+
+    /**
+     * Calculates the span averages for the given fills by walking them and summing as floats,
+     * the way Model_Fueling used to.
+     * @return average distance, volume, price paid, price per unit, price per distance and
+     * efficiency, in that order
+     */
+    private static float[] scanAverages(Model_Fueling... fills) {
+        float distance = 0f, volume = 0f, paid = 0f;
+        float paidWithVolume = 0f, volumeWithPrice = 0f;
+        float paidWithDistance = 0f, distanceWithPrice = 0f;
+        int pricedCount = 0;
+
+        for (Model_Fueling each : fills) {
+            distance += each.getDistance();
+            volume += each.getVolume();
+
+            if (each.getPricePaid() > 0f) {
+                paid += each.getPricePaid();
+                pricedCount++;
+            }
+            if (each.getPricePaid() > 0f && each.getVolume() > 0f) {
+                paidWithVolume += each.getPricePaid();
+                volumeWithPrice += each.getVolume();
+            }
+            if (each.getPricePaid() > 0f && each.getDistance() > 0f) {
+                paidWithDistance += each.getPricePaid();
+                distanceWithPrice += each.getDistance();
+            }
+        }
+
+        return new float[]{
+                round(distance / fills.length, 1),
+                round(volume / fills.length, 3),
+                (pricedCount == 0 ? 0f : round(paid / pricedCount, 2)),
+                (volumeWithPrice == 0f ? 0f : round(paidWithVolume / volumeWithPrice, 3)),
+                (distanceWithPrice == 0f ? 0f : round(paidWithDistance / distanceWithPrice, 3)),
+                (volume == 0f ? 0f : round(distance / volume, 1))
+        };
     }
 
     /**
@@ -628,26 +756,18 @@ public class ModelFuelingTest {
     }
 
     /**
-     * Test the mDateOfFill accessors. The method setDateOfFill() has the downstream affect of
-     * adding (or removing) a Model_Fueling instance to (from) span ArrayLists; because of that, we don't
-     * create a new Model_Fueling object (because many tests in this suite of tests depend on the right
-     * number of Model_Fueling instances in those ArrayLists) AND we reset the mDateOfFill field back
-     * to its original value on the existing Model_Fueling object we use for this test.
+     * Test the mDateOfFill accessors.
      * @throws Exception
      */
     @Test
     public void testDateOfFillAccessors() throws Exception {
-        // We use an EXISTING Model_Fueling object rather than creating a new one, so we don't
-        // add any more Model_Fueling objects to the span ArrayLists.
+        Model_Fueling fd = new Model_Fueling();
         Calendar cal = Calendar.getInstance();
         cal.add(Calendar.DATE, -10);
         Date newDate = cal.getTime();
-        Date oldDate = fd5.getDateOfFill();    // save the original date of fill
-
-        fd5.setDateOfFill(newDate);
-        Assert.assertEquals(newDate, fd5.getDateOfFill());
 
-        fd5.setDateOfFill(oldDate);            // set fd5 back to the way it was
+        fd.setDateOfFill(newDate);
+        Assert.assertEquals(newDate, fd.getDateOfFill());
     }
 
     /**
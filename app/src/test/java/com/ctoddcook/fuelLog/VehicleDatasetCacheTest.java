@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016 C. Todd Cook. All rights reserved.
+ */
+
+package com.ctoddcook.FuelLog;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Tests for VehicleDatasetCache: least recently used vehicles dropped by estimated size, writes
+ * applied to exactly the repositories they touch, reads begun before a write not kept, and
+ * vehicles too large to keep refused before they are read.
+ */
+public class VehicleDatasetCacheTest {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long NOW = 1478300000000L;
+    private static final int FILLS = 100;
+
+    /**
+     * Once the cache is full, the least recently used vehicle is dropped first; getting a
+     * vehicle counts as using it.
+     * @throws Exception
+     */
+    @Test
+    public void testLeastRecentlyUsedDropped() throws Exception {
+        long each = dataset(1).getSnapshot().getBytes();
+        VehicleDatasetCache cache = new VehicleDatasetCache(each * 3);
+
+        for (int vehicle = 1; vehicle <= 3; vehicle++)
+            Assert.assertTrue(cache.put(dataset(vehicle), cache.getGeneration()));
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(each * 3, cache.getBytes());
+
+        Assert.assertNotNull(cache.get(1));         // 2 is now the least recently used
+        Assert.assertTrue(cache.put(dataset(4), cache.getGeneration()));
+
+        Assert.assertEquals(3, cache.size());
+        Assert.assertNull(cache.get(2));
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertNotNull(cache.get(3));
+        Assert.assertNotNull(cache.get(4));
+        Assert.assertEquals(each * 3, cache.getBytes());
+    }
+
+    /**
+     * One large repository pushes out as many small ones as it needs to; one too large for the
+     * whole cache is not kept at all.
+     * @throws Exception
+     */
+    @Test
+    public void testSizedByBytes() throws Exception {
+        long small = dataset(1).getSnapshot().getBytes();
+        VehicleDatasetCache cache = new VehicleDatasetCache(small * 4);
+
+        for (int vehicle = 1; vehicle <= 4; vehicle++)
+            cache.put(dataset(vehicle), cache.getGeneration());
+
+        FuelingRepository large = dataset(5, FILLS * 2);
+        Assert.assertTrue(large.getSnapshot().getBytes() > small * 3 / 2);
+        Assert.assertTrue(cache.put(large, cache.getGeneration()));
+        Assert.assertNull(cache.get(1));
+        Assert.assertNull(cache.get(2));
+        Assert.assertTrue(cache.getBytes() <= small * 4);
+
+        Assert.assertFalse(cache.put(dataset(6, FILLS * 8), cache.getGeneration()));
+        Assert.assertNull(cache.get(6));
+        Assert.assertNotNull(cache.get(5));
+    }
+
+    /**
+     * The size estimated from a count of fills, before they are read, is no more than the
+     * repository turns out to take, so a vehicle that would fit is never refused; one that could
+     * not fit is refused before it is read.
+     * @throws Exception
+     */
+    @Test
+    public void testFitsBeforeRead() throws Exception {
+        long small = dataset(1).getSnapshot().getBytes();
+        VehicleDatasetCache cache = new VehicleDatasetCache(small * 4);
+
+        Assert.assertTrue(FuelingRepository.estimateBytes(FILLS) <= small);
+        Assert.assertTrue(FuelingRepository.estimateBytes(FILLS * 2) > small);
+        Assert.assertTrue(cache.fits(FuelingRepository.estimateBytes(FILLS)));
+        Assert.assertTrue(cache.fits(FuelingRepository.estimateBytes(FILLS * 2)));
+
+        long tooLarge = FuelingRepository.estimateBytes(FILLS * 8);
+        Assert.assertFalse(cache.fits(tooLarge));
+        Assert.assertFalse(cache.put(dataset(6, FILLS * 8), cache.getGeneration()));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * A saved fill is put into the repository of the vehicle it belongs to, and taken out of
+     * any other it was moved from; a deleted one is taken out; a deleted vehicle is dropped. The
+     * cache's size follows each repository's.
+     * @throws Exception
+     */
+    @Test
+    public void testWritesApplied() throws Exception {
+        VehicleDatasetCache cache = new VehicleDatasetCache(Long.MAX_VALUE);
+        for (int vehicle = 1; vehicle <= 4; vehicle++)
+            cache.put(dataset(vehicle), cache.getGeneration());
+        long each = dataset(1).getSnapshot().getBytes();
+
+        cache.invalidateVehicle(1);
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(3, cache.size());
+
+        // Fill 2005 belongs to vehicle 2, and has been moved to vehicle 3
+        cache.fuelingSaved(new Model_Fueling(2005, 3, new Date(NOW - DAY_MILLIS), 300f,
+                12f, 30f, 1f, "Omaha, NE", 41.25f, -95.93f, new Date(NOW)));
+        Assert.assertEquals(-1, cache.get(2).getSnapshot().getRowOfID(2005));
+        Assert.assertEquals(1, cache.get(3).getSnapshot().getRowOfID(2005));
+        Assert.assertEquals(FILLS - 1, cache.get(2).getSnapshot().size());
+        Assert.assertEquals(FILLS + 1, cache.get(3).getSnapshot().size());
+
+        cache.fuelingDeleted(4010);
+        Assert.assertEquals(-1, cache.get(4).getSnapshot().getRowOfID(4010));
+        Assert.assertEquals(FILLS - 1, cache.get(4).getSnapshot().size());
+
+        long bytes = 0;
+        for (int vehicle = 2; vehicle <= 4; vehicle++)
+            bytes += cache.get(vehicle).getSnapshot().getBytes();
+        Assert.assertEquals(bytes, cache.getBytes());
+        Assert.assertTrue(bytes < each * 3);
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    /**
+     * A repository read before a write is not kept, as it may not include the write.
+     * @throws Exception
+     */
+    @Test
+    public void testReadBeforeWriteNotKept() throws Exception {
+        VehicleDatasetCache cache = new VehicleDatasetCache(Long.MAX_VALUE);
+
+        long generation = cache.getGeneration();
+        FuelingRepository stale = dataset(1);
+        cache.fuelingDeleted(1001);
+        Assert.assertFalse(cache.put(stale, generation));
+        Assert.assertNull(cache.get(1));
+
+        Assert.assertTrue(cache.put(dataset(1), cache.getGeneration()));
+        Assert.assertNotNull(cache.get(1));
+    }
+
+    /**
+     * A fill saved into a full cache can push out the least recently used vehicle.
+     * @throws Exception
+     */
+    @Test
+    public void testGrowthTrimmed() throws Exception {
+        long each = dataset(1).getSnapshot().getBytes();
+        VehicleDatasetCache cache = new VehicleDatasetCache(each * 2);
+        cache.put(dataset(1), cache.getGeneration());
+        cache.put(dataset(2), cache.getGeneration());
+
+        cache.fuelingSaved(new Model_Fueling(2999, 2, new Date(NOW), 300f, 12f, 30f, 1f,
+                "Lincoln, NE", 40.81f, -96.70f, new Date(NOW)));
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(FILLS + 1, cache.get(2).getSnapshot().size());
+        Assert.assertTrue(cache.getBytes() <= each * 2);
+    }
+
+    private static FuelingRepository dataset(int vehicleID) {
+        return dataset(vehicleID, FILLS);
+    }
+
+    /* A vehicle's fills, one every 3 days back from now, with IDs vehicleID * 1000 + 1 and up */
+    private static FuelingRepository dataset(int vehicleID, int count) {
+        FuelingColumns columns = new FuelingColumns(count);
+        for (int row = 0; row < count; row++) {
+            int id = vehicleID * 1000 + count - row;
+            columns.add(id, vehicleID, NOW - row * 3 * DAY_MILLIS, 300f, 12f, 30f, id * 300f,
+                    "Omaha, NE", 41.25f, -95.93f, NOW);
+        }
+
+        return new FuelingRepository(vehicleID, columns, new Date(NOW));
+    }
+}